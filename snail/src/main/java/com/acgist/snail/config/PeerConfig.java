@@ -98,6 +98,18 @@ public final class PeerConfig extends PropertiesConfig {
          * 快速允许
          */
         ALLOWED_FAST((byte) 0x11),
+        /**
+         * 请求Hash（BEP 52）
+         */
+        HASH_REQUEST((byte) 0x15),
+        /**
+         * Hash（BEP 52）
+         */
+        HASHES((byte) 0x16),
+        /**
+         * 拒绝请求Hash（BEP 52）
+         */
+        HASH_REJECT((byte) 0x17),
         /**
          * 扩展
          */
@@ -533,6 +545,39 @@ public final class PeerConfig extends PropertiesConfig {
         
     }
     
+    /**
+     * Piece挑选策略
+     * 
+     * @author acgist
+     */
+    public enum PieceStrategy {
+        
+        /**
+         * 顺序挑选：按照Piece索引顺序挑选
+         */
+        SEQUENCE,
+        /**
+         * 稀有优先：优先挑选Peer拥有数量最少的Piece
+         */
+        RAREST;
+        
+        /**
+         * @param value 策略名称
+         * 
+         * @return Piece挑选策略（默认：稀有优先）
+         */
+        public static final PieceStrategy of(String value) {
+            final PieceStrategy[] values = PieceStrategy.values();
+            for (PieceStrategy strategy : values) {
+                if(strategy.name().equalsIgnoreCase(value)) {
+                    return strategy;
+                }
+            }
+            return RAREST;
+        }
+        
+    }
+    
     /**
      * 未知终端
      */
@@ -542,6 +587,16 @@ public final class PeerConfig extends PropertiesConfig {
      * 超过以后不会再次连接
      */
     public static final int MAX_FAIL_TIMES = 3;
+    /**
+     * Peer最大发送错误数据次数
+     * 超过以后禁止连接
+     */
+    public static final int MAX_CORRUPT_TIMES = 3;
+    /**
+     * 最大请求数据长度
+     * 超过以后拒绝请求
+     */
+    public static final int MAX_REQUEST_LENGTH = 128 * SystemConfig.ONE_KB;
     /**
      * PeerId长度
      */
@@ -554,6 +609,7 @@ public final class PeerConfig extends PropertiesConfig {
      * @see #RESERVED_FAST_PROTOCOL
      * @see #RESERVED_NAT_TRAVERSAL
      * @see #RESERVED_EXTENSION_PROTOCOL
+     * @see #RESERVED_V2_PROTOCOL
      */
     public static final byte[] RESERVED = {0, 0, 0, 0, 0, 0, 0, 0};
     /**
@@ -597,6 +653,13 @@ public final class PeerConfig extends PropertiesConfig {
      * @see ExtensionMessageHandler
      */
     public static final byte RESERVED_EXTENSION_PROTOCOL = 1 << 4;
+    /**
+     * V2协议保留位
+     * [7]-0x10：BitTorrent v2（BEP 52）
+     * 
+     * @see PeerSubMessageHandler
+     */
+    public static final byte RESERVED_V2_PROTOCOL = 1 << 4;
     /**
      * 握手消息长度
      */
@@ -699,6 +762,7 @@ public final class PeerConfig extends PropertiesConfig {
         RESERVED[7] |= RESERVED_DHT_PROTOCOL;
         RESERVED[7] |= RESERVED_PEER_EXCHANGE;
         RESERVED[7] |= RESERVED_FAST_PROTOCOL;
+        RESERVED[7] |= RESERVED_V2_PROTOCOL;
         RESERVED[5] |= RESERVED_EXTENSION_PROTOCOL;
     }
     
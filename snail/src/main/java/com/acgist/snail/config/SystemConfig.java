@@ -14,6 +14,43 @@ public final class SystemConfig extends PropertiesConfig {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SystemConfig.class);
     
+    /**
+     * 文件预分配策略
+     * 
+     * @author acgist
+     */
+    public enum AllocateMode {
+        
+        /**
+         * 稀疏文件：写入数据时文件自动增长
+         */
+        SPARSE,
+        /**
+         * 完全预分配：加载任务时设置文件大小（可选写入零值）
+         */
+        FULL,
+        /**
+         * 分块预分配：后台按照数据块写入零值
+         */
+        EXTENT;
+        
+        /**
+         * @param value 策略名称
+         * 
+         * @return 文件预分配策略（默认：稀疏文件）
+         */
+        public static final AllocateMode of(String value) {
+            final AllocateMode[] values = AllocateMode.values();
+            for (AllocateMode mode : values) {
+                if(mode.name().equalsIgnoreCase(value)) {
+                    return mode;
+                }
+            }
+            return SPARSE;
+        }
+        
+    }
+    
     /**
      * 配置文件
      */
@@ -131,6 +168,10 @@ public final class SystemConfig extends PropertiesConfig {
      * SHA-1散列值长度
      */
     public static final int SHA1_HASH_LENGTH = 20;
+    /**
+     * SHA-256散列值长度
+     */
+    public static final int SHA256_HASH_LENGTH = 32;
     /**
      * GBK编码
      */
@@ -221,6 +262,89 @@ public final class SystemConfig extends PropertiesConfig {
      * 任务即将完成时可以重复下载的Piece数量
      */
     private int pieceRepeatSize;
+    /**
+     * Piece挑选策略
+     */
+    private PeerConfig.PieceStrategy pieceStrategy;
+    /**
+     * 内存映射文件大小（MB）
+     */
+    private int storageMappedSize;
+    /**
+     * 内存映射文件大小（B）
+     * 
+     * @see #storageMappedSize
+     */
+    private long storageMappedSizeByte;
+    /**
+     * 文件句柄数量
+     * 所有任务共用文件句柄
+     */
+    private int storageChannelSize;
+    /**
+     * 上传队列长度
+     * 所有Peer共用：等待读取磁盘的上传请求数量
+     */
+    private int uploadQueueSize;
+    /**
+     * 文件校验速度（MB/S）
+     */
+    private int verifyBuffer;
+    /**
+     * 文件校验速度（B/S）
+     * 
+     * @see #verifyBuffer
+     */
+    private long verifyBufferByte;
+    /**
+     * 磁盘缓存刷出时间（秒）
+     */
+    private int flushInterval;
+    /**
+     * Piece读取缓存大小（MB）
+     */
+    private int readCacheSize;
+    /**
+     * Piece读取缓存大小（B）
+     * 
+     * @see #readCacheSize
+     */
+    private long readCacheSizeByte;
+    /**
+     * Piece缓冲池大小（MB）
+     */
+    private int pieceBufferSize;
+    /**
+     * Piece缓冲池大小（B）
+     * 
+     * @see #pieceBufferSize
+     */
+    private long pieceBufferSizeByte;
+    /**
+     * 做种模式：文件已经存在并且文件大小一致直接标记下载完成
+     */
+    private boolean resumeSeedMode;
+    /**
+     * 文件预分配策略
+     */
+    private AllocateMode allocateMode;
+    /**
+     * 完全预分配是否写入零值
+     */
+    private boolean allocateFill;
+    /**
+     * 虚拟线程
+     * 缓存线程池使用虚拟线程
+     */
+    private boolean threadVirtual;
+    /**
+     * 边下边播窗口Piece数量
+     */
+    private int streamingWindow;
+    /**
+     * 边下边播服务端口（本地HTTP服务）
+     */
+    private int streamingPort;
     /**
      * DHT执行周期（秒）
      */
@@ -295,6 +419,20 @@ public final class SystemConfig extends PropertiesConfig {
         this.peerSize             = this.getInteger("acgist.system.peer.size", 20);
         this.trackerSize          = this.getInteger("acgist.system.tracker.size", 50);
         this.pieceRepeatSize      = this.getInteger("acgist.system.piece.repeat.size", 8);
+        this.pieceStrategy        = PeerConfig.PieceStrategy.of(this.getString("acgist.system.piece.strategy"));
+        this.storageMappedSize    = this.getInteger("acgist.system.storage.mapped.size", 0);
+        this.storageChannelSize   = this.getInteger("acgist.system.storage.channel.size", 256);
+        this.uploadQueueSize      = this.getInteger("acgist.system.upload.queue.size", 1024);
+        this.verifyBuffer         = this.getInteger("acgist.system.verify.buffer", 64);
+        this.flushInterval        = this.getInteger("acgist.system.flush.interval", 10);
+        this.readCacheSize        = this.getInteger("acgist.system.read.cache.size", 64);
+        this.pieceBufferSize      = this.getInteger("acgist.system.piece.buffer.size", 256);
+        this.resumeSeedMode       = this.getBoolean("acgist.system.resume.seed.mode", false);
+        this.allocateMode         = AllocateMode.of(this.getString("acgist.system.allocate.mode"));
+        this.allocateFill         = this.getBoolean("acgist.system.allocate.fill", false);
+        this.threadVirtual        = this.getBoolean("acgist.system.thread.virtual", false);
+        this.streamingWindow      = this.getInteger("acgist.system.streaming.window", 16);
+        this.streamingPort        = this.getInteger("acgist.system.streaming.port", 16889);
         this.dhtInterval          = this.getInteger("acgist.system.dht.interval", 120);
         this.pexInterval          = this.getInteger("acgist.system.pex.interval", 120);
         this.lsdInterval          = this.getInteger("acgist.system.lsd.interval", 120);
@@ -303,6 +441,10 @@ public final class SystemConfig extends PropertiesConfig {
         this.trackerInterval      = this.getInteger("acgist.system.tracker.interval", 120);
         this.peerOptimizeInterval = this.getInteger("acgist.system.peer.optimize.interval", 60);
         this.nameEnAndVersion     = SymbolConfig.Symbol.SPACE.join(this.nameEn, this.version);
+        this.storageMappedSizeByte = (long) this.storageMappedSize * ONE_MB;
+        this.verifyBufferByte     = (long) this.verifyBuffer * ONE_MB;
+        this.readCacheSizeByte    = (long) this.readCacheSize * ONE_MB;
+        this.pieceBufferSizeByte  = (long) this.pieceBufferSize * ONE_MB;
         // 记录日志
         LOGGER.debug("软件名称：{}", this.name);
         LOGGER.debug("软件名称（英文）：{}", this.nameEn);
@@ -319,6 +461,20 @@ public final class SystemConfig extends PropertiesConfig {
         LOGGER.debug("单个任务Peer数量（同时下载）：{}", this.peerSize);
         LOGGER.debug("单个任务Tracker数量：{}", this.trackerSize);
         LOGGER.debug("任务即将完成时可以重复下载的Piece数量：{}", this.pieceRepeatSize);
+        LOGGER.debug("Piece挑选策略：{}", this.pieceStrategy);
+        LOGGER.debug("内存映射文件大小（MB）：{}", this.storageMappedSize);
+        LOGGER.debug("文件句柄数量：{}", this.storageChannelSize);
+        LOGGER.debug("上传队列长度：{}", this.uploadQueueSize);
+        LOGGER.debug("文件校验速度（MB/S）：{}", this.verifyBuffer);
+        LOGGER.debug("磁盘缓存刷出时间（秒）：{}", this.flushInterval);
+        LOGGER.debug("Piece读取缓存大小（MB）：{}", this.readCacheSize);
+        LOGGER.debug("Piece缓冲池大小（MB）：{}", this.pieceBufferSize);
+        LOGGER.debug("做种模式：{}", this.resumeSeedMode);
+        LOGGER.debug("文件预分配策略：{}", this.allocateMode);
+        LOGGER.debug("完全预分配是否写入零值：{}", this.allocateFill);
+        LOGGER.debug("虚拟线程：{}", this.threadVirtual);
+        LOGGER.debug("边下边播窗口Piece数量：{}", this.streamingWindow);
+        LOGGER.debug("边下边播服务端口（本地HTTP服务）：{}", this.streamingPort);
         LOGGER.debug("DHT执行周期（秒）：{}", this.dhtInterval);
         LOGGER.debug("PEX执行周期（秒）：{}", this.pexInterval);
         LOGGER.debug("本地发现执行周期（秒）：{}", this.lsdInterval);
@@ -469,6 +625,132 @@ public final class SystemConfig extends PropertiesConfig {
         return INSTANCE.pieceRepeatSize;
     }
     
+    /**
+     * @return Piece挑选策略
+     */
+    public static final PeerConfig.PieceStrategy getPieceStrategy() {
+        return INSTANCE.pieceStrategy;
+    }
+    
+    /**
+     * @return 内存映射文件大小（MB）
+     */
+    public static final int getStorageMappedSize() {
+        return INSTANCE.storageMappedSize;
+    }
+    
+    /**
+     * @return 内存映射文件大小（B）
+     */
+    public static final long getStorageMappedSizeByte() {
+        return INSTANCE.storageMappedSizeByte;
+    }
+    
+    /**
+     * @return 文件句柄数量
+     */
+    public static final int getStorageChannelSize() {
+        return INSTANCE.storageChannelSize;
+    }
+    
+    /**
+     * @return 上传队列长度
+     */
+    public static final int getUploadQueueSize() {
+        return INSTANCE.uploadQueueSize;
+    }
+    
+    /**
+     * @return 文件校验速度（MB/S）
+     */
+    public static final int getVerifyBuffer() {
+        return INSTANCE.verifyBuffer;
+    }
+    
+    /**
+     * @return 文件校验速度（B/S）
+     */
+    public static final long getVerifyBufferByte() {
+        return INSTANCE.verifyBufferByte;
+    }
+    
+    /**
+     * @return 磁盘缓存刷出时间（秒）
+     */
+    public static final int getFlushInterval() {
+        return INSTANCE.flushInterval;
+    }
+    
+    /**
+     * @return Piece读取缓存大小（MB）
+     */
+    public static final int getReadCacheSize() {
+        return INSTANCE.readCacheSize;
+    }
+    
+    /**
+     * @return Piece读取缓存大小（B）
+     */
+    public static final long getReadCacheSizeByte() {
+        return INSTANCE.readCacheSizeByte;
+    }
+    
+    /**
+     * @return Piece缓冲池大小（MB）
+     */
+    public static final int getPieceBufferSize() {
+        return INSTANCE.pieceBufferSize;
+    }
+    
+    /**
+     * @return Piece缓冲池大小（B）
+     */
+    public static final long getPieceBufferSizeByte() {
+        return INSTANCE.pieceBufferSizeByte;
+    }
+    
+    /**
+     * @return 做种模式
+     */
+    public static final boolean getResumeSeedMode() {
+        return INSTANCE.resumeSeedMode;
+    }
+    
+    /**
+     * @return 文件预分配策略
+     */
+    public static final AllocateMode getAllocateMode() {
+        return INSTANCE.allocateMode;
+    }
+    
+    /**
+     * @return 完全预分配是否写入零值
+     */
+    public static final boolean getAllocateFill() {
+        return INSTANCE.allocateFill;
+    }
+    
+    /**
+     * @return 虚拟线程
+     */
+    public static final boolean getThreadVirtual() {
+        return INSTANCE.threadVirtual;
+    }
+    
+    /**
+     * @return 边下边播窗口Piece数量
+     */
+    public static final int getStreamingWindow() {
+        return INSTANCE.streamingWindow;
+    }
+    
+    /**
+     * @return 边下边播服务端口（本地HTTP服务）
+     */
+    public static final int getStreamingPort() {
+        return INSTANCE.streamingPort;
+    }
+    
     /**
      * @return DHT执行周期（秒）
      */
@@ -1,5 +1,7 @@
 package com.acgist.snail.context;
 
+import java.util.concurrent.locks.Lock;
+
 import com.acgist.snail.context.ITaskSessionStatus.Status;
 import com.acgist.snail.net.DownloadException;
 
@@ -58,6 +60,14 @@ public interface ITaskSessionHandler {
      */
     void unlockDelete();
     
+    /**
+     * 获取运行锁
+     * 保证任务资源加载和释放原子性
+     * 
+     * @return 运行锁
+     */
+    Lock runLock();
+    
     /**
      * 刷新任务
      * 
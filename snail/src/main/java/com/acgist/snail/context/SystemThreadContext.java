@@ -4,6 +4,9 @@ import java.nio.channels.AsynchronousChannelGroup;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -13,6 +16,7 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 
@@ -70,6 +74,36 @@ public final class SystemThreadContext implements IContext {
      * 下载器线程名称
      */
     public static final String SNAIL_THREAD_DOWNLOADER = SNAIL_THREAD + "-Downloader";
+    /**
+     * 文件校验线程名称
+     */
+    public static final String SNAIL_THREAD_VERIFY = SNAIL_THREAD + "-Verify";
+    /**
+     * 磁盘缓存刷出线程名称
+     */
+    public static final String SNAIL_THREAD_FLUSH = SNAIL_THREAD + "-Flush";
+    /**
+     * 文件预分配线程名称
+     */
+    public static final String SNAIL_THREAD_ALLOCATE = SNAIL_THREAD + "-Allocate";
+    /**
+     * 上传磁盘读取线程名称
+     */
+    public static final String SNAIL_THREAD_READ = SNAIL_THREAD + "-Read";
+    /**
+     * Peer下载调度线程名称
+     */
+    public static final String SNAIL_THREAD_DISPATCH = SNAIL_THREAD_BT + "-Dispatch";
+    /**
+     * 边下边播响应线程名称
+     */
+    public static final String SNAIL_THREAD_STREAMING = SNAIL_THREAD_BT + "-Streaming";
+    /**
+     * 是否使用虚拟线程
+     * 
+     * @see SystemConfig#getThreadVirtual()
+     */
+    private static final boolean VIRTUAL;
     /**
      * 系统线程池：异步执行、防止卡顿
      */
@@ -97,6 +131,7 @@ public final class SystemThreadContext implements IContext {
     public static final int DEFAULT_THREAD_SIZE = Runtime.getRuntime().availableProcessors();
     
     static {
+        VIRTUAL = SystemConfig.getThreadVirtual() && Runtime.version().feature() >= 21;
         int[] executor = {SystemThreadContext.threadSize(4, 8),
         SystemThreadContext.threadSize(16, 32),
         Short.MAX_VALUE};
@@ -110,6 +145,7 @@ public final class SystemThreadContext implements IContext {
             SNAIL_THREAD_SCHEDULED
         );
         LOGGER.info("系统默认线程数量：{}", DEFAULT_THREAD_SIZE);
+        LOGGER.info("系统使用虚拟线程：{}", VIRTUAL);
     }
     
     private SystemThreadContext() {
@@ -226,6 +262,26 @@ public final class SystemThreadContext implements IContext {
      * @return 缓存线程池
      */
     public static final ExecutorService newCacheExecutor(int minPoolSize, long keepAliveTime, String name) {
+        if(VIRTUAL) {
+            final ExecutorService executor = SystemThreadContext.newVirtualExecutor(name);
+            if(executor != null) {
+                return executor;
+            }
+        }
+        return SystemThreadContext.newPlatformCacheExecutor(minPoolSize, keepAliveTime, name);
+    }
+    
+    /**
+     * 新建缓存线程池（平台线程）
+     * 异步通道线程池（AsynchronousChannelGroup）线程长期阻塞等待IO事件：必须使用平台线程
+     * 
+     * @param minPoolSize   初始线程数量
+     * @param keepAliveTime 线程空闲时间（秒）
+     * @param name          线程池名称
+     * 
+     * @return 缓存线程池
+     */
+    public static final ExecutorService newPlatformCacheExecutor(int minPoolSize, long keepAliveTime, String name) {
         LOGGER.debug("新建缓存线程池：{} - {}", name, minPoolSize);
         return new ThreadPoolExecutor(
             minPoolSize,
@@ -238,6 +294,32 @@ public final class SystemThreadContext implements IContext {
         );
     }
     
+    /**
+     * 新建虚拟线程池
+     * 每个任务使用一个虚拟线程：阻塞任务不会占用平台线程
+     * 编译版本不能直接使用虚拟线程接口：使用反射调用
+     * 
+     * @param name 线程池名称
+     * 
+     * @return 虚拟线程池（不支持虚拟线程：null）
+     */
+    static final ExecutorService newVirtualExecutor(String name) {
+        try {
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+            final ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            final ExecutorService executor = (ExecutorService) Executors.class
+                .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                .invoke(null, threadFactory);
+            LOGGER.debug("新建虚拟线程池：{}", name);
+            return executor;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.warn("新建虚拟线程池异常（使用平台线程）：{}", name, e);
+            return null;
+        }
+    }
+    
     /**
      * 新建定时线程池
      * 
@@ -255,6 +337,33 @@ public final class SystemThreadContext implements IContext {
         );
     }
     
+    /**
+     * 新建ForkJoin线程池
+     * 
+     * @param parallelism 并行数量
+     * @param name        线程池名称
+     * 
+     * @return ForkJoin线程池
+     */
+    public static final ForkJoinPool newForkJoinPool(int parallelism, String name) {
+        LOGGER.debug("新建ForkJoin线程池：{} - {}", name, parallelism);
+        return new ForkJoinPool(
+            parallelism,
+            pool -> {
+                final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                int index = 0;
+                synchronized(THREAD_INDEX_MAPPING) {
+                    index = THREAD_INDEX_MAPPING.compute(name, (k, v) -> v == null || v >= MAX_THREAD_INDEX ? 1 : v + 1);
+                }
+                // 线程名称
+                thread.setName(String.format(THREAD_NAME, name, index));
+                return thread;
+            },
+            (thread, e) -> LOGGER.error("ForkJoin线程异常：{}", thread, e),
+            false
+        );
+    }
+    
     /**
      * 新建线程池工厂
      * 
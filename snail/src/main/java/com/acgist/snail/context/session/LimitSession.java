@@ -27,7 +27,11 @@ public final class LimitSession {
         /**
          * 下载
          */
-        DOWNLOAD;
+        DOWNLOAD,
+        /**
+         * 文件校验
+         */
+        VERIFY;
         
     }
     
@@ -59,8 +63,12 @@ public final class LimitSession {
      * @param buffer 数据大小
      */
     public void limit(long buffer) {
-        final long interval         = System.currentTimeMillis() - this.limitBufferTime;
         final long maxLimitBuffer   = this.maxLimitBuffer();
+        if(maxLimitBuffer <= 0L) {
+            // 不限速
+            return;
+        }
+        final long interval         = System.currentTimeMillis() - this.limitBufferTime;
         final long limitBufferValue = this.limitBuffer.addAndGet(buffer);
         // 下载数据超过限速大小或者采样时间大于一秒进入限速
         if(limitBufferValue >= maxLimitBuffer || interval >= SystemConfig.ONE_SECOND_MILLIS) {
@@ -93,6 +101,8 @@ public final class LimitSession {
     private long maxLimitBuffer() {
         if(this.type == Type.UPLOAD) {
             return DownloadConfig.getUploadBufferByte();
+        } else if(this.type == Type.VERIFY) {
+            return SystemConfig.getVerifyBufferByte();
         } else {
             return DownloadConfig.getDownloadBufferByte();
         }
@@ -6,6 +6,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 import com.acgist.snail.config.SymbolConfig;
@@ -63,6 +65,11 @@ public final class TaskSession extends StatisticsGetter implements ITaskSession
      * 删除锁
      */
     private final AtomicBoolean deleteLock;
+    /**
+     * 运行锁
+     * 下载线程持有锁直到任务结束：不能使用synchronized（虚拟线程阻塞时会占用平台线程）
+     */
+    private final Lock runLock;
     
     /**
      * @param entity 任务
@@ -71,6 +78,7 @@ public final class TaskSession extends StatisticsGetter implements ITaskSession
         super(new StatisticsSession(true, StatisticsContext.getInstance().getStatistics()));
         this.entity     = entity;
         this.deleteLock = new AtomicBoolean(false);
+        this.runLock    = new ReentrantLock();
     }
     
     /**
@@ -353,6 +361,11 @@ public final class TaskSession extends StatisticsGetter implements ITaskSession
             this.deleteLock.notifyAll();
         }
     }
+    
+    @Override
+    public Lock runLock() {
+        return this.runLock;
+    }
 
     @Override
     public void refresh() throws DownloadException {
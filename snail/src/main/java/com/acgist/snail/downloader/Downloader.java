@@ -1,6 +1,7 @@
 package com.acgist.snail.downloader;
 
 import java.io.File;
+import java.util.concurrent.locks.Lock;
 
 import com.acgist.snail.Snail;
 import com.acgist.snail.context.IStatisticsSession;
@@ -173,7 +174,9 @@ public abstract class Downloader implements IDownloader {
         // 验证任务状态：防止多次点击暂停开始导致阻塞后面下载任务线程
         if(this.statusAwait()) {
             // 加锁：保证资源加载和释放原子性
-            synchronized (this.taskSession) {
+            final Lock runLock = this.taskSession.runLock();
+            runLock.lock();
+            try {
                 // 双重验证
                 if(this.statusAwait()) {
                     LOGGER.debug("开始下载任务：{}", name);
@@ -196,6 +199,8 @@ public abstract class Downloader implements IDownloader {
                 } else {
                     LOGGER.debug("任务状态错误：{} - {}", name, this.taskSession.getStatus());
                 }
+            } finally {
+                runLock.unlock();
             }
         } else {
             LOGGER.debug("任务状态错误：{} - {}", name, this.taskSession.getStatus());
@@ -1,5 +1,9 @@
 package com.acgist.snail.downloader;
 
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
 import com.acgist.snail.context.ITaskSession;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
@@ -18,9 +22,13 @@ public abstract class MultifileDownloader extends Downloader {
 
     /**
      * 下载锁
-     * 下载时阻塞下载任务线程
+     * 下载时阻塞下载任务线程：不能使用synchronized（虚拟线程等待时会占用平台线程）
+     */
+    protected final Lock downloadLock = new ReentrantLock();
+    /**
+     * 下载等待条件
      */
-    protected final Object downloadLock = new Object();
+    protected final Condition downloadCondition = this.downloadLock.newCondition();
     
     /**
      * @param taskSession 任务信息
@@ -40,17 +48,20 @@ public abstract class MultifileDownloader extends Downloader {
     @Override
     public void download() throws DownloadException {
         if(this.downloadable()) {
-            synchronized (this.downloadLock) {
+            this.downloadLock.lock();
+            try {
                 while(this.downloadable()) {
                     try {
                         // 修改等待时间防止过长时间下载（失败时间等待）：验证下载数据是否变化判断任务是否失败
-                        this.downloadLock.wait(Long.MAX_VALUE);
+                        this.downloadCondition.await();
                     } catch (InterruptedException e) {
                         Thread.currentThread().interrupt();
                         LOGGER.debug("线程等待异常", e);
                     }
                     this.completed = this.checkCompleted();
                 }
+            } finally {
+                this.downloadLock.unlock();
             }
         }
     }
@@ -58,8 +69,11 @@ public abstract class MultifileDownloader extends Downloader {
     @Override
     public void unlockDownload() {
         super.unlockDownload();
-        synchronized (this.downloadLock) {
-            this.downloadLock.notifyAll();
+        this.downloadLock.lock();
+        try {
+            this.downloadCondition.signalAll();
+        } finally {
+            this.downloadLock.unlock();
         }
     }
     
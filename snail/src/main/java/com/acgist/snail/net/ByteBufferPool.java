@@ -0,0 +1,201 @@
+package com.acgist.snail.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+
+/**
+ * 直接内存缓冲池
+ * 网络接收消息借用缓冲，消息处理器处理完成以后归还缓冲：减少直接内存分配和回收（直接内存只有GC才能释放）
+ * 缓冲按照二的幂分级，超过最大分级的缓冲不用缓存。
+ * 注意：消息处理器不能异步持有接收缓冲
+ * 
+ * @author acgist
+ */
+public final class ByteBufferPool {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(ByteBufferPool.class);
+    
+    private static final ByteBufferPool INSTANCE = new ByteBufferPool();
+    
+    public static final ByteBufferPool getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 最小缓冲分级：{@value}
+     */
+    public static final int MIN_LENGTH = SystemConfig.ONE_KB;
+    /**
+     * 最大缓冲分级：{@value}
+     */
+    public static final int MAX_LENGTH = 64 * SystemConfig.ONE_KB;
+    /**
+     * 最大空闲缓冲大小：{@value}
+     */
+    private static final long MAX_FREE_SIZE = 16L * SystemConfig.ONE_MB;
+    
+    /**
+     * 空闲缓冲大小
+     */
+    private long freeSize;
+    /**
+     * 空闲缓冲
+     * 分级索引=空闲缓冲
+     */
+    private final Deque<ByteBuffer>[] buffers;
+    /**
+     * 空闲缓冲集合
+     * 缓冲内容相同时equals相等：使用对象标识判断重复归还
+     */
+    private final Set<ByteBuffer> freeBuffers;
+    /**
+     * 借出没有归还的缓冲数量
+     */
+    private final AtomicInteger outstanding;
+    /**
+     * 新建缓冲次数
+     */
+    private final AtomicLong allocateCount;
+    /**
+     * 复用缓冲次数
+     */
+    private final AtomicLong reuseCount;
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ByteBufferPool() {
+        this.freeSize = 0L;
+        this.buffers = new Deque[Integer.numberOfTrailingZeros(MAX_LENGTH / MIN_LENGTH) + 1];
+        for (int index = 0; index < this.buffers.length; index++) {
+            this.buffers[index] = new ArrayDeque<>();
+        }
+        this.freeBuffers = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.outstanding = new AtomicInteger(0);
+        this.allocateCount = new AtomicLong(0);
+        this.reuseCount = new AtomicLong(0);
+    }
+    
+    /**
+     * 借用缓冲
+     * 
+     * @param length 缓冲大小
+     * 
+     * @return 缓冲（limit=缓冲大小）
+     */
+    public ByteBuffer borrow(int length) {
+        this.outstanding.incrementAndGet();
+        final int index = this.index(length);
+        if(index < 0) {
+            this.allocateCount.incrementAndGet();
+            return ByteBuffer.allocateDirect(length);
+        }
+        ByteBuffer buffer;
+        synchronized (this) {
+            buffer = this.buffers[index].pollFirst();
+            if(buffer != null) {
+                this.freeSize -= buffer.capacity();
+                this.freeBuffers.remove(buffer);
+            }
+        }
+        if(buffer == null) {
+            this.allocateCount.incrementAndGet();
+            buffer = ByteBuffer.allocateDirect(MIN_LENGTH << index);
+        } else {
+            this.reuseCount.incrementAndGet();
+        }
+        buffer.clear().limit(length);
+        return buffer;
+    }
+    
+    /**
+     * 归还缓冲
+     * 归还以后不能继续使用缓冲
+     * 
+     * @param buffer 缓冲
+     */
+    public void giveBack(ByteBuffer buffer) {
+        if(buffer == null) {
+            return;
+        }
+        final int capacity = buffer.capacity();
+        final int index = this.index(capacity);
+        final boolean pooled =
+            index >= 0 &&
+            buffer.isDirect() &&
+            capacity == MIN_LENGTH << index;
+        synchronized (this) {
+            if(pooled && this.freeBuffers.contains(buffer)) {
+                LOGGER.warn("直接内存缓冲重复归还：{}", buffer);
+                return;
+            }
+            if(this.outstanding.decrementAndGet() < 0) {
+                // 没有缓存的缓冲只能通过借出数量判断
+                LOGGER.warn("直接内存缓冲重复归还：{}", buffer);
+                this.outstanding.incrementAndGet();
+                return;
+            }
+            if(pooled && this.freeSize + capacity <= MAX_FREE_SIZE) {
+                this.freeSize += capacity;
+                this.buffers[index].offerFirst(buffer);
+                this.freeBuffers.add(buffer);
+            }
+        }
+    }
+    
+    /**
+     * 计算缓冲分级
+     * 
+     * @param length 缓冲大小
+     * 
+     * @return 分级索引（超过最大分级：-1）
+     */
+    private int index(int length) {
+        if(length > MAX_LENGTH) {
+            return -1;
+        }
+        if(length <= MIN_LENGTH) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros((length - 1) / MIN_LENGTH);
+    }
+    
+    /**
+     * @return 借出没有归还的缓冲数量
+     */
+    public int outstanding() {
+        return this.outstanding.get();
+    }
+    
+    /**
+     * @return 空闲缓冲大小
+     */
+    public long freeSize() {
+        synchronized (this) {
+            return this.freeSize;
+        }
+    }
+    
+    /**
+     * @return 新建缓冲次数
+     */
+    public long allocateCount() {
+        return this.allocateCount.get();
+    }
+    
+    /**
+     * @return 复用缓冲次数
+     */
+    public long reuseCount() {
+        return this.reuseCount.get();
+    }
+    
+}
@@ -18,6 +18,16 @@ public interface IMessageSender {
      */
     boolean available();
     
+    /**
+     * 判断是否可以继续发送
+     * 不能继续发送时发送消息可能阻塞等待
+     * 
+     * @return 是否可以继续发送
+     */
+    default boolean writable() {
+        return true;
+    }
+    
     /**
      * 消息发送
      * 
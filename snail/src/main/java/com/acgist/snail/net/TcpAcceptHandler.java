@@ -1,5 +1,7 @@
 package com.acgist.snail.net;
 
+import java.io.IOException;
+import java.net.StandardSocketOptions;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
@@ -53,6 +55,12 @@ public final class TcpAcceptHandler<T extends TcpMessageHandler> implements Comp
     public void completed(AsynchronousSocketChannel channel, AsynchronousServerSocketChannel server) {
         LOGGER.debug("TCP连接成功：{}", channel);
         server.accept(server, this);
+        try {
+            // 发送队列合并发送：禁用Nagle算法减少小消息延迟
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        } catch (IOException e) {
+            LOGGER.debug("TCP设置参数异常：{}", channel, e);
+        }
         final T handler = BeanUtils.newInstance(this.clazz);
         handler.handle(channel);
         this.context.newInstance(handler);
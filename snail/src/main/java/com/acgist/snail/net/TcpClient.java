@@ -35,7 +35,7 @@ public abstract class TcpClient<T extends TcpMessageHandler> extends Client<T> {
     static {
         AsynchronousChannelGroup group = null;
         try {
-            final ExecutorService executor = SystemThreadContext.newCacheExecutor(0, 60L, SystemThreadContext.SNAIL_THREAD_TCP_CLIENT);
+            final ExecutorService executor = SystemThreadContext.newPlatformCacheExecutor(0, 60L, SystemThreadContext.SNAIL_THREAD_TCP_CLIENT);
             group = AsynchronousChannelGroup.withThreadPool(executor);
         } catch (IOException e) {
             LOGGER.error("启动TCP Client线程池异常", e);
@@ -82,7 +82,7 @@ public abstract class TcpClient<T extends TcpMessageHandler> extends Client<T> {
         AsynchronousSocketChannel channel = null;
         try {
             channel = AsynchronousSocketChannel.open(GROUP);
-//          channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
             channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
             channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
             final Future<Void> future = channel.connect(NetUtils.buildSocketAddress(host, port));
@@ -5,12 +5,15 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.SystemThreadContext;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.utils.IoUtils;
@@ -24,40 +27,244 @@ public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocke
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TcpMessageHandler.class);
 
+    /**
+     * 发送队列高水位：{@value}
+     * 等待发送数据超过高水位时发送线程阻塞等待：防止发送速度超过网络速度导致内存溢出
+     */
+    public static final int WRITE_HIGH_WATER = 4 * SystemConfig.ONE_MB;
+    /**
+     * 单次合并发送最大缓冲数量：{@value}
+     */
+    private static final int MAX_GATHER_SIZE = 64;
+    /**
+     * 关闭等待发送完成超时时间（秒）：{@value}
+     */
+    private static final int FLUSH_TIMEOUT = SystemConfig.CONNECT_TIMEOUT;
+    
+    /**
+     * 发送锁
+     * 等待发送完成时不能使用synchronized：虚拟线程阻塞时会占用平台线程
+     */
+    private final Lock sendLock = new ReentrantLock();
+    /**
+     * 发送完成条件
+     */
+    private final Condition sendCondition = this.sendLock.newCondition();
+    /**
+     * 发送队列
+     * 队列头部缓冲正在发送：发送完成移除
+     */
+    private final Deque<ByteBuffer> sendQueue = new ArrayDeque<>();
+    /**
+     * 发送完成处理器
+     */
+    private final CompletionHandler<Long, ByteBuffer[]> sendHandler = new SendHandler();
+    /**
+     * 是否正在发送
+     * 同一时间只能有一个发送操作：防止WritePendingException
+     */
+    private boolean sending = false;
+    /**
+     * 进入发送队列数据总大小
+     */
+    private long queueSize = 0L;
+    /**
+     * 发送完成数据总大小
+     * 包含关闭通道丢弃数据
+     */
+    private long sendSize = 0L;
+    /**
+     * 关闭通道丢弃数据总大小
+     */
+    private long dropSize = 0L;
+    /**
+     * 是否等待可写
+     * 判断不能继续发送以后设置：等待发送数据低于高水位时通知可写
+     * 
+     * @see #onWritable()
+     */
+    private boolean waitWritable = false;
+    
     @Override
     public void handle(AsynchronousSocketChannel channel) {
         this.channel = channel;
         this.loopMessage();
     }
     
+    /**
+     * 消息放入发送队列以后直接返回，发送线程合并队列消息发送。
+     * 发送队列超过高水位时阻塞等待；设置超时时间（连接消息）时阻塞等待消息发送完成。
+     * 消息放入发送队列以后不能继续修改缓冲；直接内存缓冲必须从{@link ByteBufferPool}借用，发送完成自动归还。
+     */
     @Override
     public void send(ByteBuffer buffer, int timeout) throws NetException {
-        this.check(buffer);
-        // 阻塞线程（等待发送完成）：防止多线程同时写导致WritePendingException
-        synchronized (this.channel) {
-            try {
-                final int size;
-                final Future<Integer> future = this.channel.write(buffer);
-                // 超时时间：超时异常导致数据没有发送完成但释放了锁从而引起一连串的WritePendingException
-                if(timeout <= SystemConfig.NONE_TIMEOUT) {
-                    // 没有超时：除了连接消息（首条消息）以外所有消息都不使用超时时间
-                    size = future.get();
-                } else {
-                    // 超时时间：连接消息（首条消息）使用超时时间
-                    size = future.get(timeout, TimeUnit.SECONDS);
+        final long size;
+        ByteBuffer[] buffers = null;
+        this.sendLock.lock();
+        try {
+            this.check(buffer);
+            while(this.available() && this.queueSize - this.sendSize >= WRITE_HIGH_WATER) {
+                this.sendCondition.await();
+            }
+            if(!this.available()) {
+                throw new NetException("消息发送失败：通道不可用");
+            }
+            this.sendQueue.offerLast(buffer);
+            this.queueSize += buffer.remaining();
+            size = this.queueSize;
+            if(!this.sending) {
+                this.sending = true;
+                buffers = this.gather();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.giveBack(buffer);
+            throw new NetException(e);
+        } catch (NetException e) {
+            this.giveBack(buffer);
+            throw e;
+        } finally {
+            this.sendLock.unlock();
+        }
+        if(buffers != null) {
+            this.write(buffers);
+        }
+        if(timeout > SystemConfig.NONE_TIMEOUT) {
+            // 超时时间：连接消息（首条消息）使用超时时间
+            this.await(size, timeout);
+        }
+    }
+    
+    /**
+     * 等待消息发送完成
+     * 
+     * @param size    进入发送队列数据总大小
+     * @param timeout 超时时间（秒）
+     * 
+     * @throws NetException 网络异常
+     */
+    private void await(long size, int timeout) throws NetException {
+        long nanos = TimeUnit.SECONDS.toNanos(timeout);
+        this.sendLock.lock();
+        try {
+            while(this.sendSize < size) {
+                if(!this.available()) {
+                    throw new NetException("消息发送失败：通道不可用");
                 }
-                if(size <= 0) {
-                    LOGGER.warn("TCP消息发送失败：{}-{}", this.channel, size);
+                if(nanos <= 0L) {
+                    throw new NetException("消息发送失败：发送超时");
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new NetException(e);
-            } catch (TimeoutException | ExecutionException e) {
-                throw new NetException(e);
+                nanos = this.sendCondition.awaitNanos(nanos);
             }
+            if(size > this.sendSize - this.dropSize) {
+                // 关闭通道丢弃数据：消息没有发送
+                throw new NetException("消息发送失败：通道已经关闭");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NetException(e);
+        } finally {
+            this.sendLock.unlock();
         }
     }
-
+    
+    /**
+     * 等待发送数据超过高水位时记录等待：发送数据低于高水位以后通知可写
+     * 
+     * @return 是否可以继续发送（等待发送数据没有超过高水位）
+     * 
+     * @see #onWritable()
+     */
+    @Override
+    public boolean writable() {
+        this.sendLock.lock();
+        try {
+            if(this.queueSize - this.sendSize < WRITE_HIGH_WATER) {
+                return true;
+            }
+            this.waitWritable = true;
+            return false;
+        } finally {
+            this.sendLock.unlock();
+        }
+    }
+    
+    /**
+     * 可写通知
+     * 判断不能继续发送以后等待发送数据低于高水位时执行：不能阻塞
+     * 
+     * @see #writable()
+     */
+    protected void onWritable() {
+    }
+    
+    /**
+     * @return 等待发送数据大小
+     */
+    public long pendingSize() {
+        this.sendLock.lock();
+        try {
+            return this.queueSize - this.sendSize;
+        } finally {
+            this.sendLock.unlock();
+        }
+    }
+    
+    /**
+     * 合并发送队列消息
+     * 
+     * @return 发送缓冲
+     */
+    private ByteBuffer[] gather() {
+        final int size = Math.min(this.sendQueue.size(), MAX_GATHER_SIZE);
+        final ByteBuffer[] buffers = new ByteBuffer[size];
+        final var iterator = this.sendQueue.iterator();
+        for (int index = 0; index < size; index++) {
+            buffers[index] = iterator.next();
+        }
+        return buffers;
+    }
+    
+    /**
+     * 发送消息
+     * 
+     * @param buffers 发送缓冲
+     */
+    private void write(ByteBuffer[] buffers) {
+        try {
+            // 没有超时时间
+            this.channel.write(buffers, 0, buffers.length, 0L, TimeUnit.SECONDS, buffers, this.sendHandler);
+        } catch (RuntimeException e) {
+            this.sendHandler.failed(e, buffers);
+        }
+    }
+    
+    /**
+     * 归还缓冲
+     * 
+     * @param buffer 缓冲
+     */
+    private void giveBack(ByteBuffer buffer) {
+        if(buffer.isDirect()) {
+            ByteBufferPool.getInstance().giveBack(buffer);
+        }
+    }
+    
+    /**
+     * 释放发送队列
+     * 必须持有发送锁
+     */
+    private void releaseQueue() {
+        ByteBuffer buffer;
+        while((buffer = this.sendQueue.pollFirst()) != null) {
+            this.giveBack(buffer);
+        }
+        this.dropSize += this.queueSize - this.sendSize;
+        this.sendSize = this.queueSize;
+        this.sending = false;
+        this.sendCondition.signalAll();
+    }
+    
     @Override
     public InetSocketAddress remoteSocketAddress() {
         try {
@@ -68,28 +275,72 @@ public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocke
         return null;
     }
     
+    /**
+     * 正在发送消息时等待发送队列发送完成以后关闭通道
+     */
     @Override
     public void close() {
-        if(this.close) {
-            return;
+        this.close(true);
+    }
+    
+    /**
+     * 关闭连接
+     * 
+     * @param flush 是否等待发送队列发送完成：发送失败时直接关闭通道
+     */
+    private void close(boolean flush) {
+        final boolean await;
+        this.sendLock.lock();
+        try {
+            if(this.close && flush) {
+                return;
+            }
+            if(!this.close) {
+                LOGGER.debug("TCP连接关闭：{}", this.channel);
+                this.close = true;
+                this.sendCondition.signalAll();
+            }
+            await = flush && this.sending;
+        } finally {
+            this.sendLock.unlock();
         }
-        LOGGER.debug("TCP连接关闭：{}", this.channel);
-        this.close = true;
+        if(await) {
+            SystemThreadContext.scheduled(FLUSH_TIMEOUT, TimeUnit.SECONDS, this::closeChannel);
+        } else {
+            this.closeChannel();
+        }
+    }
+    
+    /**
+     * 关闭通道
+     */
+    private void closeChannel() {
         IoUtils.close(this.channel);
+        this.sendLock.lock();
+        try {
+            this.releaseQueue();
+        } finally {
+            this.sendLock.unlock();
+        }
     }
     
     @Override
     public void completed(Integer result, ByteBuffer buffer) {
-        if (result == null) {
-            this.close();
-        } else if(result == -1) {
-            // 服务端关闭
-            this.close();
-        } else if(result == 0) {
-            // 消息空轮询
-            LOGGER.debug("TCP消息接收失败（长度）：{}", result);
-        } else {
-            this.receive(buffer);
+        try {
+            if (result == null) {
+                this.close();
+            } else if(result == -1) {
+                // 服务端关闭
+                this.close();
+            } else if(result == 0) {
+                // 消息空轮询
+                LOGGER.debug("TCP消息接收失败（长度）：{}", result);
+            } else {
+                this.receive(buffer);
+            }
+        } finally {
+            // 消息处理器同步处理消息：处理完成归还缓冲
+            ByteBufferPool.getInstance().giveBack(buffer);
         }
         this.loopMessage();
     }
@@ -97,6 +348,7 @@ public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocke
     @Override
     public void failed(Throwable throwable, ByteBuffer buffer) {
         LOGGER.error("TCP消息处理异常：{}", this.channel, throwable);
+        ByteBufferPool.getInstance().giveBack(buffer);
         this.close();
     }
     
@@ -121,11 +373,77 @@ public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocke
      */
     private void loopMessage() {
         if(this.available()) {
-            final ByteBuffer buffer = ByteBuffer.allocateDirect(SystemConfig.TCP_BUFFER_LENGTH);
-            this.channel.read(buffer, buffer, this);
+            final ByteBuffer buffer = ByteBufferPool.getInstance().borrow(SystemConfig.TCP_BUFFER_LENGTH);
+            try {
+                this.channel.read(buffer, buffer, this);
+            } catch (RuntimeException e) {
+                // 通道已经关闭
+                ByteBufferPool.getInstance().giveBack(buffer);
+                throw e;
+            }
         } else {
             LOGGER.debug("TCP消息代理退出消息轮询");
         }
     }
-
+    
+    /**
+     * 发送完成处理器
+     * 
+     * @author acgist
+     */
+    private class SendHandler implements CompletionHandler<Long, ByteBuffer[]> {
+        
+        @Override
+        public void completed(Long result, ByteBuffer[] buffers) {
+            ByteBuffer[] next = null;
+            boolean writable = false;
+            boolean closeChannel = false;
+            TcpMessageHandler.this.sendLock.lock();
+            try {
+                if(!TcpMessageHandler.this.sending) {
+                    // 通道已经关闭
+                    return;
+                }
+                TcpMessageHandler.this.sendSize += result;
+                ByteBuffer buffer;
+                while((buffer = TcpMessageHandler.this.sendQueue.peekFirst()) != null && !buffer.hasRemaining()) {
+                    TcpMessageHandler.this.sendQueue.pollFirst();
+                    TcpMessageHandler.this.giveBack(buffer);
+                }
+                if(TcpMessageHandler.this.sendQueue.isEmpty()) {
+                    TcpMessageHandler.this.sending = false;
+                    // 等待发送完成关闭通道
+                    closeChannel = TcpMessageHandler.this.close;
+                } else {
+                    next = TcpMessageHandler.this.gather();
+                }
+                if(
+                    TcpMessageHandler.this.waitWritable &&
+                    TcpMessageHandler.this.queueSize - TcpMessageHandler.this.sendSize < WRITE_HIGH_WATER
+                ) {
+                    TcpMessageHandler.this.waitWritable = false;
+                    writable = true;
+                }
+                TcpMessageHandler.this.sendCondition.signalAll();
+            } finally {
+                TcpMessageHandler.this.sendLock.unlock();
+            }
+            if(writable) {
+                TcpMessageHandler.this.onWritable();
+            }
+            if(next != null) {
+                TcpMessageHandler.this.write(next);
+            } else if(closeChannel) {
+                TcpMessageHandler.this.closeChannel();
+            }
+        }
+        
+        @Override
+        public void failed(Throwable throwable, ByteBuffer[] buffers) {
+            LOGGER.error("TCP消息发送异常：{}", TcpMessageHandler.this.channel, throwable);
+            TcpMessageHandler.this.close(false);
+        }
+        
+    }
+    
 }
@@ -31,7 +31,7 @@ public abstract class TcpServer<T extends TcpMessageHandler> extends Server<Asyn
     static {
         AsynchronousChannelGroup group = null;
         try {
-            final ExecutorService executor = SystemThreadContext.newCacheExecutor(0, 60L, SystemThreadContext.SNAIL_THREAD_TCP_SERVER);
+            final ExecutorService executor = SystemThreadContext.newPlatformCacheExecutor(0, 60L, SystemThreadContext.SNAIL_THREAD_TCP_SERVER);
             group = AsynchronousChannelGroup.withThreadPool(executor);
         } catch (IOException e) {
             LOGGER.error("启动TCP Server线程池异常");
@@ -209,11 +209,16 @@ public abstract class UdpServer<T extends UdpAcceptHandler> extends Server<Datag
                 // 移除已经取出来的信息
                 iterator.remove();
                 if (selectionKey.isValid() && selectionKey.isReadable()) {
-                    final ByteBuffer buffer = ByteBuffer.allocateDirect(SystemConfig.UDP_BUFFER_LENGTH);
-                    // 服务端多例：selectionKey.channel()
-                    // 服务端单例：客户端通道=服务端通道
-                    final InetSocketAddress socketAddress = (InetSocketAddress) this.channel.receive(buffer);
-                    this.handler.receive(buffer, socketAddress);
+                    final ByteBuffer buffer = ByteBufferPool.getInstance().borrow(SystemConfig.UDP_BUFFER_LENGTH);
+                    try {
+                        // 服务端多例：selectionKey.channel()
+                        // 服务端单例：客户端通道=服务端通道
+                        final InetSocketAddress socketAddress = (InetSocketAddress) this.channel.receive(buffer);
+                        this.handler.receive(buffer, socketAddress);
+                    } finally {
+                        // 消息处理器同步处理消息：处理完成归还缓冲
+                        ByteBufferPool.getInstance().giveBack(buffer);
+                    }
                 }
             }
         }
@@ -1,6 +1,8 @@
 package com.acgist.snail.net.ftp;
 
 import java.io.InputStream;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Stream;
 
 import com.acgist.snail.config.SymbolConfig;
@@ -58,6 +60,11 @@ public final class FtpClient extends TcpClient<FtpMessageHandler> {
      * 文件路径
      */
     private final String filePath;
+    /**
+     * 命令锁
+     * 命令等待响应时不能使用synchronized：虚拟线程阻塞时会占用平台线程
+     */
+    private final Lock commandLock = new ReentrantLock();
 
     /**
      * @param host     服务器地址
@@ -138,7 +145,8 @@ public final class FtpClient extends TcpClient<FtpMessageHandler> {
      */
     public InputStream download(Long downloadSize) throws NetException {
         this.checkConnect();
-        synchronized (this) {
+        this.commandLock.lock();
+        try {
             // 切换被动模式
             this.command("PASV");
             // 设置数据模式：二进制
@@ -154,6 +162,8 @@ public final class FtpClient extends TcpClient<FtpMessageHandler> {
                 throw new NetException(this.failMessage("打开FTP文件流失败"));
             }
             return input;
+        } finally {
+            this.commandLock.unlock();
         }
     }
     
@@ -181,7 +191,8 @@ public final class FtpClient extends TcpClient<FtpMessageHandler> {
      */
     public Long size() throws NetException {
         this.checkConnect();
-        synchronized (this) {
+        this.commandLock.lock();
+        try {
             // 切换被动模式
             this.command("PASV");
             // 切换数据模式：ASCII
@@ -205,6 +216,8 @@ public final class FtpClient extends TcpClient<FtpMessageHandler> {
             } else {
                 throw new NetException("读取FTP文件大小失败");
             }
+        } finally {
+            this.commandLock.unlock();
         }
     }
     
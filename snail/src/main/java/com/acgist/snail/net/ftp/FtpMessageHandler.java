@@ -4,7 +4,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.Socket;
 import java.util.StringTokenizer;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.acgist.snail.config.SymbolConfig;
 import com.acgist.snail.config.SystemConfig;
@@ -63,10 +66,19 @@ public final class FtpMessageHandler extends TcpMessageHandler implements IMessa
      * 消息编码器
      */
     private final IMessageEncoder<String> messageEncoder;
+    /**
+     * 是否收到命令执行响应
+     */
+    private boolean response = false;
     /**
      * 等待命令执行响应锁
+     * 不能使用synchronized：虚拟线程等待时会占用平台线程
      */
-    private final AtomicBoolean lock = new AtomicBoolean(false);
+    private final Lock lock = new ReentrantLock();
+    /**
+     * 等待命令执行响应条件
+     */
+    private final Condition condition = this.lock.newCondition();
     
     public FtpMessageHandler() {
         // 注意：命令换行可能不同
@@ -172,24 +184,29 @@ public final class FtpMessageHandler extends TcpMessageHandler implements IMessa
      * 重置命令锁
      */
     public void resetLock() {
-        this.lock.set(false);
+        this.lock.lock();
+        try {
+            this.response = false;
+        } finally {
+            this.lock.unlock();
+        }
     }
     
     /**
      * 添加命令锁
      */
     public void lock() {
-        if(!this.lock.get()) {
-            synchronized (this.lock) {
-                if(!this.lock.get()) {
-                    try {
-                        this.lock.wait(SystemConfig.RECEIVE_TIMEOUT_MILLIS);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        LOGGER.debug("线程等待异常", e);
-                    }
-                }
+        this.lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(SystemConfig.RECEIVE_TIMEOUT_MILLIS);
+            while(!this.response && nanos > 0) {
+                nanos = this.condition.awaitNanos(nanos);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.debug("线程等待异常", e);
+        } finally {
+            this.lock.unlock();
         }
     }
     
@@ -197,9 +214,12 @@ public final class FtpMessageHandler extends TcpMessageHandler implements IMessa
      * 释放命令锁
      */
     private void unlock() {
-        synchronized (this.lock) {
-            this.lock.set(true);
-            this.lock.notifyAll();
+        this.lock.lock();
+        try {
+            this.response = true;
+            this.condition.signalAll();
+        } finally {
+            this.lock.unlock();
         }
     }
     
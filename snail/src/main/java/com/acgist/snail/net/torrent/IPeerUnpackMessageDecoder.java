@@ -0,0 +1,58 @@
+package com.acgist.snail.net.torrent;
+
+import java.nio.ByteBuffer;
+
+import com.acgist.snail.net.codec.IMessageDecoder;
+
+/**
+ * Peer拆包消息处理接口
+ * 拆包处理器使用：握手状态、心跳消息、piece消息直接写入
+ * 
+ * @author acgist
+ */
+public interface IPeerUnpackMessageDecoder extends IMessageDecoder<ByteBuffer> {
+
+    /**
+     * 判断是否处理握手消息
+     * 
+     * @return 是否处理握手消息
+     */
+    boolean handshakeRecv();
+    
+    /**
+     * 处理心跳消息
+     */
+    void keepAlive();
+    
+    /**
+     * 开始接收piece消息数据
+     * 
+     * @param index  Piece索引
+     * @param begin  Piece内偏移
+     * @param length Piece数据长度
+     * 
+     * @return 是否直接写入（不能直接写入：使用消息缓存接收）
+     */
+    boolean pieceBegin(int index, int begin, int length);
+    
+    /**
+     * 接收piece消息数据
+     * 必须读取数据长度的数据
+     * 
+     * @param begin    Piece内偏移
+     * @param position Piece数据内偏移
+     * @param buffer   数据
+     * @param length   数据长度
+     */
+    void pieceReceive(int begin, int position, ByteBuffer buffer, int length);
+    
+    /**
+     * 完成接收piece消息数据
+     * 
+     * @param index  Piece索引
+     * @param begin  Piece内偏移
+     * @param length Piece数据长度
+     */
+    void pieceEnd(int index, int begin, int length);
+
+}
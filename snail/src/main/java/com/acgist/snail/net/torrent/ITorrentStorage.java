@@ -0,0 +1,115 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 文件存储接口
+ * 使用绝对偏移读写：读写不会修改通道位置，不同Piece可以并发读写。
+ * 
+ * @author acgist
+ */
+public interface ITorrentStorage {
+
+    /**
+     * 读取数据
+     * 读取直到数据填满或者文件结束
+     * 
+     * @param buffer   数据
+     * @param position 文件偏移
+     * 
+     * @return 读取数据大小
+     * 
+     * @throws IOException IO异常
+     */
+    int read(ByteBuffer buffer, long position) throws IOException;
+
+    /**
+     * 写入数据
+     * 写入全部剩余数据
+     * 
+     * @param buffer   数据
+     * @param position 文件偏移
+     * 
+     * @return 写入数据大小
+     * 
+     * @throws IOException IO异常
+     */
+    int write(ByteBuffer buffer, long position) throws IOException;
+
+    /**
+     * 写入连续数据
+     * 多个数据按照顺序写入连续文件位置
+     * 
+     * @param buffers  数据
+     * @param position 文件偏移
+     * 
+     * @return 写入数据大小
+     * 
+     * @throws IOException IO异常
+     */
+    default long write(ByteBuffer[] buffers, long position) throws IOException {
+        long size = 0L;
+        for (ByteBuffer buffer : buffers) {
+            size += this.write(buffer, position + size);
+        }
+        return size;
+    }
+
+    /**
+     * 开始预分配文件空间
+     * 预分配完成之前写入没有预分配的区域需要等待当前数据块预分配完成
+     * 
+     * @param size 文件大小
+     * 
+     * @return 是否需要预分配（文件大小小于预分配大小）
+     * 
+     * @throws IOException IO异常
+     */
+    default boolean allocateBegin(long size) throws IOException {
+        return false;
+    }
+
+    /**
+     * 预分配数据块
+     * 读取数据以后原样写回：文件空洞写入零值分配磁盘空间，已经写入的数据不会修改。
+     * 
+     * @param buffer   缓冲（大小等于数据块大小）
+     * @param position 文件偏移
+     * 
+     * @return 预分配大小
+     * 
+     * @throws IOException IO异常
+     */
+    default int allocate(ByteBuffer buffer, long position) throws IOException {
+        return 0;
+    }
+
+    /**
+     * 结束预分配文件空间
+     */
+    default void allocateEnd() {
+    }
+
+    /**
+     * 获取文件大小
+     * 
+     * @return 文件大小
+     * 
+     * @throws IOException IO异常
+     */
+    long size() throws IOException;
+
+    /**
+     * 数据刷出到磁盘
+     * 
+     * @throws IOException IO异常
+     */
+    void force() throws IOException;
+
+    /**
+     * 关闭存储
+     */
+    void close();
+
+}
@@ -9,6 +9,7 @@ import java.util.Objects;
 import java.util.stream.Collectors;
 
 import com.acgist.snail.format.BEncodeDecoder;
+import com.acgist.snail.utils.MapUtils;
 import com.acgist.snail.utils.NetUtils;
 import com.acgist.snail.utils.StringUtils;
 
@@ -57,6 +58,10 @@ public final class Torrent implements Serializable {
      * DHT节点：{@value}
      */
     public static final String ATTR_NODES = "nodes";
+    /**
+     * 文件Piece层Hash（BEP 52）：{@value}
+     */
+    public static final String ATTR_PIECE_LAYERS = "piece layers";
     /**
      * DHT节点列表长度：{@value}
      */
@@ -98,6 +103,14 @@ public final class Torrent implements Serializable {
      * DHT节点列表
      */
     private Map<String, Integer> nodes;
+    /**
+     * 文件Piece层Hash
+     * 文件Merkle树根Hash=Piece层Hash（拼接）
+     * 注意：不在文件信息里面（不参与InfoHash计算）使用之前需要校验
+     * 
+     * @see #pieceLayer(byte[])
+     */
+    private Map<String, Object> pieceLayers;
     /**
      * InfoHash
      * 种子文件加载完成保存InfoHash：防止重复计算导致错误
@@ -127,6 +140,7 @@ public final class Torrent implements Serializable {
         torrent.setAnnounceList(readAnnounceList(decoder.getList(ATTR_ANNOUNCE_LIST)));
         torrent.setInfo(TorrentInfo.valueOf(decoder.getMap(ATTR_INFO), encoding));
         torrent.setNodes(readNodes(decoder.getList(ATTR_NODES)));
+        torrent.setPieceLayers(decoder.getMap(ATTR_PIECE_LAYERS));
         return torrent;
     }
     
@@ -141,6 +155,21 @@ public final class Torrent implements Serializable {
         return name;
     }
     
+    /**
+     * 获取文件Piece层Hash
+     * 解码器使用默认编码解码字典键：使用相同方式转换文件Merkle树根Hash
+     * 
+     * @param piecesRoot 文件Merkle树根Hash
+     * 
+     * @return 文件Piece层Hash（文件只有一个Piece：null）
+     */
+    public byte[] pieceLayer(byte[] piecesRoot) {
+        if(this.pieceLayers == null || piecesRoot == null) {
+            return null;
+        }
+        return MapUtils.getBytes(this.pieceLayers, new String(piecesRoot));
+    }
+    
     /**
      * @return InfoHash
      */
@@ -337,6 +366,20 @@ public final class Torrent implements Serializable {
         this.nodes = nodes;
     }
     
+    /**
+     * @return 文件Piece层Hash
+     */
+    public Map<String, Object> getPieceLayers() {
+        return this.pieceLayers;
+    }
+    
+    /**
+     * @param pieceLayers 文件Piece层Hash
+     */
+    public void setPieceLayers(Map<String, Object> pieceLayers) {
+        this.pieceLayers = pieceLayers;
+    }
+    
     @Override
     public String toString() {
         // TODO：实现
@@ -0,0 +1,116 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.config.SystemConfig.AllocateMode;
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+
+/**
+ * 文件预分配
+ * 随机写入Piece会导致大文件产生大量磁盘碎片，预分配文件空间以后顺序读取（做种、播放）更快。
+ * 同一个任务的文件并行预分配，所有任务共用线程池。
+ * 
+ * @author acgist
+ */
+public final class TorrentAllocator {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentAllocator.class);
+    
+    private static final TorrentAllocator INSTANCE = new TorrentAllocator();
+    
+    public static final TorrentAllocator getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 预分配数据块大小：{@value}
+     */
+    private static final int EXTENT_SIZE = 4 * SystemConfig.ONE_MB;
+    
+    /**
+     * 预分配线程池
+     */
+    private final ForkJoinPool executor;
+    /**
+     * 预分配缓冲：线程复用
+     */
+    private final ThreadLocal<ByteBuffer> buffers;
+    
+    private TorrentAllocator() {
+        this.executor = SystemThreadContext.newForkJoinPool(
+            SystemThreadContext.threadSize(2, 4),
+            SystemThreadContext.SNAIL_THREAD_ALLOCATE
+        );
+        this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(EXTENT_SIZE));
+    }
+    
+    /**
+     * 预分配文件
+     * 完全预分配：等待所有文件预分配完成
+     * 分块预分配：后台预分配不用等待
+     * 
+     * @param streams 文件流
+     * 
+     * @see SystemConfig#getAllocateMode()
+     */
+    public void allocate(List<TorrentStream> streams) {
+        final AllocateMode mode = SystemConfig.getAllocateMode();
+        if(mode == AllocateMode.SPARSE || streams.isEmpty()) {
+            return;
+        }
+        final boolean fill = mode == AllocateMode.EXTENT || SystemConfig.getAllocateFill();
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>(streams.size());
+        for (TorrentStream stream : streams) {
+            try {
+                // 开始预分配必须同步执行：防止预分配之前写入的数据被覆盖
+                if(stream.storage().allocateBegin(stream.fileSize())) {
+                    tasks.add(this.executor.submit(() -> this.allocate(stream, fill)));
+                }
+            } catch (IOException e) {
+                LOGGER.error("文件预分配异常：{}", stream, e);
+            }
+        }
+        if(mode == AllocateMode.FULL) {
+            tasks.forEach(ForkJoinTask::join);
+        }
+    }
+    
+    /**
+     * 预分配文件
+     * 
+     * @param stream 文件流
+     * @param fill   是否写入零值
+     */
+    private void allocate(TorrentStream stream, boolean fill) {
+        final long size = stream.fileSize();
+        final ITorrentStorage storage = stream.storage();
+        try {
+            if(fill) {
+                long position = 0L;
+                final ByteBuffer buffer = this.buffers.get();
+                while(position < size) {
+                    buffer.clear().limit((int) Math.min(EXTENT_SIZE, size - position));
+                    position += storage.allocate(buffer, position);
+                }
+            } else {
+                // 只设置文件大小：写入最后一个字节
+                storage.allocate(ByteBuffer.allocate(1), size - 1);
+            }
+            LOGGER.debug("文件预分配完成：{}-{}", stream, fill);
+        } catch (IOException e) {
+            // 文件流关闭
+            LOGGER.debug("文件预分配异常：{}", stream, e);
+        } finally {
+            storage.allocateEnd();
+        }
+    }
+    
+}
@@ -0,0 +1,179 @@
+package com.acgist.snail.net.torrent;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+
+/**
+ * Piece缓冲池
+ * 下载中的Piece借用缓冲，写出完成以后归还缓冲：减少大块内存分配导致的GC
+ * 缓冲池按照缓冲大小分组，所有任务共用缓冲池大小。
+ * 缓冲池用完以后不再挑选新的Piece（背压），缓冲归还以后重新挑选。
+ * 
+ * @author acgist
+ */
+public final class TorrentBufferPool {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentBufferPool.class);
+    
+    private static final TorrentBufferPool INSTANCE = new TorrentBufferPool();
+    
+    public static final TorrentBufferPool getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 已经分配缓冲大小
+     * 包含空闲缓冲大小
+     */
+    private long size;
+    /**
+     * 空闲缓冲大小
+     */
+    private long freeSize;
+    /**
+     * 空闲缓冲
+     * 缓冲大小=空闲缓冲
+     */
+    private final Map<Integer, Deque<byte[]>> buffers;
+    /**
+     * 借出缓冲
+     * 只有缓冲池借出的缓冲归还时计算大小：缓冲池大小修改以后也能正确计算
+     */
+    private final Set<byte[]> borrowBuffers;
+    
+    private TorrentBufferPool() {
+        this.size = 0L;
+        this.freeSize = 0L;
+        this.buffers = new HashMap<>();
+        this.borrowBuffers = Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+    
+    /**
+     * 借用缓冲
+     * 没有空闲缓冲时新建缓冲，超过缓冲池大小淘汰其他大小的空闲缓冲。
+     * 
+     * @param length 缓冲大小
+     * 
+     * @return 缓冲（缓冲池用完：null）
+     */
+    public byte[] borrow(int length) {
+        final long maxSize = SystemConfig.getPieceBufferSizeByte();
+        if(maxSize <= 0L) {
+            return new byte[length];
+        }
+        synchronized (this) {
+            final Deque<byte[]> deque = this.buffers.get(length);
+            if(deque != null && !deque.isEmpty()) {
+                this.freeSize -= length;
+                final byte[] buffer = deque.pollFirst();
+                this.borrowBuffers.add(buffer);
+                return buffer;
+            }
+            if(this.size + length > maxSize) {
+                this.evict(this.size + length - maxSize);
+            }
+            if(this.size + length > maxSize) {
+                LOGGER.debug("Piece缓冲池用完：{}-{}", this.size, length);
+                return null;
+            }
+            this.size += length;
+            final byte[] buffer = new byte[length];
+            this.borrowBuffers.add(buffer);
+            return buffer;
+        }
+    }
+    
+    /**
+     * 归还缓冲
+     * 没有从缓冲池借出的缓冲直接丢弃
+     * 
+     * @param buffer 缓冲
+     */
+    public void giveBack(byte[] buffer) {
+        if(buffer == null) {
+            return;
+        }
+        final long maxSize = SystemConfig.getPieceBufferSizeByte();
+        synchronized (this) {
+            if(!this.borrowBuffers.remove(buffer)) {
+                // 关闭缓冲池时新建或者重复归还
+                return;
+            }
+            if(maxSize <= 0L || this.size > maxSize) {
+                // 缓冲池大小修改：直接丢弃
+                this.size -= buffer.length;
+            } else {
+                this.freeSize += buffer.length;
+                this.buffers.computeIfAbsent(buffer.length, key -> new ArrayDeque<>()).offerFirst(buffer);
+            }
+        }
+    }
+    
+    /**
+     * 判断缓冲是否可用
+     * 不会等待：调度线程不能阻塞
+     * 
+     * @param length 缓冲大小
+     * 
+     * @return 缓冲是否可用
+     */
+    public boolean available(int length) {
+        final long maxSize = SystemConfig.getPieceBufferSizeByte();
+        if(maxSize <= 0L) {
+            return true;
+        }
+        synchronized (this) {
+            return maxSize - this.size + this.freeSize >= length;
+        }
+    }
+    
+    /**
+     * 淘汰空闲缓冲
+     * 
+     * @param length 淘汰大小
+     */
+    private void evict(long length) {
+        final Iterator<Deque<byte[]>> iterator = this.buffers.values().iterator();
+        while(length > 0L && iterator.hasNext()) {
+            final Deque<byte[]> deque = iterator.next();
+            byte[] buffer;
+            while(length > 0L && (buffer = deque.pollFirst()) != null) {
+                length -= buffer.length;
+                this.size -= buffer.length;
+                this.freeSize -= buffer.length;
+            }
+            if(deque.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+    
+    /**
+     * @return 已经分配缓冲大小
+     */
+    public long size() {
+        synchronized (this) {
+            return this.size;
+        }
+    }
+    
+    /**
+     * @return 空闲缓冲大小
+     */
+    public long freeSize() {
+        synchronized (this) {
+            return this.freeSize;
+        }
+    }
+    
+}
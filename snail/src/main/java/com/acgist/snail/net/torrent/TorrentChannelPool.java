@@ -0,0 +1,214 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.utils.IoUtils;
+
+/**
+ * 文件句柄池
+ * 所有任务共用文件句柄，文件存储第一次读写时打开文件，超过数量按照最近最少使用（LRU）关闭文件。
+ * 读写期间持有引用：正在使用的文件句柄不会关闭，所以集中写入修改通道位置不受淘汰影响。
+ * 淘汰关闭文件不用刷出：数据已经写入系统缓存，刷出时重新打开文件刷出。
+ * 
+ * @author acgist
+ */
+public final class TorrentChannelPool {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentChannelPool.class);
+    
+    private static final TorrentChannelPool INSTANCE = new TorrentChannelPool();
+    
+    public static final TorrentChannelPool getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 命中次数
+     */
+    private final AtomicLong hitCount;
+    /**
+     * 打开次数
+     */
+    private final AtomicLong openCount;
+    /**
+     * 淘汰次数
+     */
+    private final AtomicLong evictCount;
+    /**
+     * 文件句柄
+     * 访问顺序：最早访问的文件句柄最先淘汰
+     */
+    private final Map<TorrentFileStorage, Handle> handles;
+    
+    private TorrentChannelPool() {
+        this.hitCount = new AtomicLong(0);
+        this.openCount = new AtomicLong(0);
+        this.evictCount = new AtomicLong(0);
+        this.handles = new LinkedHashMap<>(16, 0.75F, true);
+    }
+    
+    /**
+     * 获取文件句柄
+     * 没有打开文件时打开文件，使用完成必须释放。
+     * 
+     * @param storage 文件存储
+     * 
+     * @return 文件通道
+     * 
+     * @throws IOException IO异常
+     * 
+     * @see #release(TorrentFileStorage)
+     */
+    public FileChannel acquire(TorrentFileStorage storage) throws IOException {
+        synchronized (this.handles) {
+            final Handle handle = this.handles.get(storage);
+            if(handle != null) {
+                handle.users++;
+                this.hitCount.incrementAndGet();
+                return handle.channel;
+            }
+        }
+        if(storage.closed()) {
+            throw new ClosedChannelException();
+        }
+        // 打开文件不用加锁
+        final FileChannel channel = TorrentFileStorage.channel(storage.path());
+        this.openCount.incrementAndGet();
+        synchronized (this.handles) {
+            if(storage.closed()) {
+                IoUtils.close(channel);
+                throw new ClosedChannelException();
+            }
+            Handle handle = this.handles.get(storage);
+            if(handle == null) {
+                handle = new Handle(channel);
+                this.handles.put(storage, handle);
+                this.evict();
+            } else {
+                // 其他线程已经打开
+                IoUtils.close(channel);
+            }
+            handle.users++;
+            return handle.channel;
+        }
+    }
+    
+    /**
+     * 释放文件句柄
+     * 
+     * @param storage 文件存储
+     */
+    public void release(TorrentFileStorage storage) {
+        synchronized (this.handles) {
+            final Handle handle = this.handles.get(storage);
+            if(handle != null) {
+                handle.users--;
+            }
+            this.evict();
+        }
+    }
+    
+    /**
+     * 关闭文件句柄
+     * 
+     * @param storage 文件存储
+     */
+    public void close(TorrentFileStorage storage) {
+        final Handle handle;
+        synchronized (this.handles) {
+            handle = this.handles.remove(storage);
+        }
+        if(handle != null) {
+            IoUtils.close(handle.channel);
+        }
+    }
+    
+    /**
+     * 淘汰没有使用的文件句柄
+     * 正在使用的文件句柄不会淘汰：所有文件句柄都在使用时可以临时超过数量
+     */
+    private void evict() {
+        final int maxSize = Math.max(1, SystemConfig.getStorageChannelSize());
+        if(this.handles.size() <= maxSize) {
+            return;
+        }
+        final Iterator<Map.Entry<TorrentFileStorage, Handle>> iterator = this.handles.entrySet().iterator();
+        while(this.handles.size() > maxSize && iterator.hasNext()) {
+            final Map.Entry<TorrentFileStorage, Handle> entry = iterator.next();
+            final Handle handle = entry.getValue();
+            if(handle.users > 0) {
+                continue;
+            }
+            iterator.remove();
+            IoUtils.close(handle.channel);
+            this.evictCount.incrementAndGet();
+            LOGGER.debug("淘汰文件句柄：{}", entry.getKey());
+        }
+    }
+    
+    /**
+     * @return 打开文件句柄数量
+     */
+    public int size() {
+        synchronized (this.handles) {
+            return this.handles.size();
+        }
+    }
+    
+    /**
+     * @return 命中次数
+     */
+    public long hitCount() {
+        return this.hitCount.get();
+    }
+    
+    /**
+     * @return 打开次数
+     */
+    public long openCount() {
+        return this.openCount.get();
+    }
+    
+    /**
+     * @return 淘汰次数
+     */
+    public long evictCount() {
+        return this.evictCount.get();
+    }
+    
+    /**
+     * 文件句柄
+     * 
+     * @author acgist
+     */
+    private static final class Handle {
+        
+        /**
+         * 文件通道
+         */
+        private final FileChannel channel;
+        /**
+         * 使用数量
+         */
+        private int users;
+        
+        /**
+         * @param channel 文件通道
+         */
+        private Handle(FileChannel channel) {
+            this.channel = channel;
+            this.users = 0;
+        }
+    
+    }
+    
+}
@@ -19,6 +19,10 @@ public abstract class TorrentFileMatedata {
      * 文件Hash：{@value}
      */
     public static final String ATTR_FILEHASH = "filehash";
+    /**
+     * 文件Merkle树根Hash（BEP 52）：{@value}
+     */
+    public static final String ATTR_PIECES_ROOT = "pieces root";
     
     /**
      * 文件Ed2k
@@ -32,6 +36,11 @@ public abstract class TorrentFileMatedata {
      * 文件Hash
      */
     protected byte[] filehash;
+    /**
+     * 文件Merkle树根Hash
+     * V2种子和混合种子使用：空文件没有
+     */
+    protected byte[] piecesRoot;
     
     /**
      * 获取文件Ed2k
@@ -87,4 +96,22 @@ public abstract class TorrentFileMatedata {
         this.filehash = filehash;
     }
     
+    /**
+     * 获取文件Merkle树根Hash
+     * 
+     * @return 文件Merkle树根Hash
+     */
+    public byte[] getPiecesRoot() {
+        return this.piecesRoot;
+    }
+    
+    /**
+     * 设置文件Merkle树根Hash
+     * 
+     * @param piecesRoot 文件Merkle树根Hash
+     */
+    public void setPiecesRoot(byte[] piecesRoot) {
+        this.piecesRoot = piecesRoot;
+    }
+    
 }
@@ -0,0 +1,310 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.acgist.snail.net.DownloadException;
+import com.acgist.snail.utils.FileUtils;
+
+/**
+ * 文件存储（FileChannel）
+ * 使用绝对偏移读写：多个线程可以同时读写同一个文件
+ * 文件句柄使用文件句柄池管理：第一次读写时打开文件，超过数量关闭最近最少使用的文件。
+ * 
+ * @see TorrentChannelPool
+ * 
+ * @author acgist
+ */
+public final class TorrentFileStorage implements ITorrentStorage {
+
+    /**
+     * 零值数据
+     */
+    private static final byte[] ZERO = new byte[8 * 1024];
+
+    /**
+     * 文件路径
+     */
+    private final String path;
+    /**
+     * 是否关闭
+     */
+    private volatile boolean closed;
+    /**
+     * 是否需要刷出
+     * 写入数据以后没有刷出：文件句柄淘汰以后刷出需要重新打开文件
+     */
+    private volatile boolean dirty;
+    /**
+     * 是否正在预分配
+     * 预分配期间写入需要加锁：防止预分配读取以后写回覆盖新的数据
+     */
+    private volatile boolean allocating;
+    /**
+     * 没有加锁的写入数量
+     * 开始预分配时等待没有加锁的写入完成
+     */
+    private final AtomicInteger writing;
+
+    /**
+     * @param path 文件路径
+     */
+    private TorrentFileStorage(String path) {
+        this.path = path;
+        this.closed = false;
+        this.dirty = false;
+        this.allocating = false;
+        this.writing = new AtomicInteger(0);
+    }
+
+    /**
+     * 新建文件存储
+     * 
+     * @param path 文件路径
+     * 
+     * @return {@link TorrentFileStorage}
+     */
+    public static final TorrentFileStorage newInstance(String path) {
+        return new TorrentFileStorage(path);
+    }
+
+    /**
+     * 打开文件通道
+     * 
+     * @param path 文件路径
+     * 
+     * @return 文件通道
+     * 
+     * @throws DownloadException 下载异常
+     */
+    static final FileChannel open(String path) throws DownloadException {
+        try {
+            return TorrentFileStorage.channel(path);
+        } catch (IOException e) {
+            throw new DownloadException("新建文件流失败：" + path, e);
+        }
+    }
+
+    /**
+     * 打开文件通道
+     * 
+     * @param path 文件路径
+     * 
+     * @return 文件通道
+     * 
+     * @throws IOException IO异常
+     */
+    static final FileChannel channel(String path) throws IOException {
+        FileUtils.buildParentFolder(path);
+        return FileChannel.open(
+            Paths.get(path),
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE
+        );
+    }
+
+    /**
+     * 获取文件通道
+     * 使用完成必须释放
+     * 
+     * @return 文件通道
+     * 
+     * @throws IOException IO异常
+     * 
+     * @see #release()
+     */
+    private FileChannel acquire() throws IOException {
+        return TorrentChannelPool.getInstance().acquire(this);
+    }
+
+    /**
+     * 释放文件通道
+     */
+    private void release() {
+        TorrentChannelPool.getInstance().release(this);
+    }
+
+    @Override
+    public int read(ByteBuffer buffer, long position) throws IOException {
+        final FileChannel channel = this.acquire();
+        try {
+            int size = 0;
+            while(buffer.hasRemaining()) {
+                final int length = channel.read(buffer, position + size);
+                if(length < 0) {
+                    // 文件结束
+                    break;
+                }
+                size += length;
+            }
+            return size;
+        } finally {
+            this.release();
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer buffer, long position) throws IOException {
+        // 先记录写入再判断预分配：开始预分配可以看到正在进行的写入
+        this.writing.incrementAndGet();
+        try {
+            if(!this.allocating) {
+                return this.write0(buffer, position);
+            }
+        } finally {
+            this.writing.decrementAndGet();
+        }
+        synchronized (this) {
+            return this.write0(buffer, position);
+        }
+    }
+
+    /**
+     * 写入数据
+     * 
+     * @param buffer   数据
+     * @param position 文件偏移
+     * 
+     * @return 写入数据大小
+     * 
+     * @throws IOException IO异常
+     */
+    private int write0(ByteBuffer buffer, long position) throws IOException {
+        final FileChannel channel = this.acquire();
+        try {
+            this.dirty = true;
+            int size = 0;
+            while(buffer.hasRemaining()) {
+                size += channel.write(buffer, position + size);
+            }
+            return size;
+        } finally {
+            this.release();
+        }
+    }
+
+    /**
+     * 集中写入：一次系统调用写入多个数据
+     * FileChannel没有绝对偏移集中写入方法：修改通道位置需要加锁，读取和单个写入使用绝对偏移不受影响。
+     */
+    @Override
+    public long write(ByteBuffer[] buffers, long position) throws IOException {
+        long size = 0L;
+        synchronized (this) {
+            // 持有文件通道期间不会淘汰：通道位置不会丢失
+            final FileChannel channel = this.acquire();
+            try {
+                this.dirty = true;
+                channel.position(position);
+                while(buffers[buffers.length - 1].hasRemaining()) {
+                    size += channel.write(buffers);
+                }
+            } finally {
+                this.release();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 加锁设置预分配以后等待没有加锁的写入完成
+     */
+    @Override
+    public boolean allocateBegin(long size) throws IOException {
+        if(this.size() >= size) {
+            return false;
+        }
+        synchronized (this) {
+            this.allocating = true;
+            while(this.writing.get() > 0) {
+                Thread.onSpinWait();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 加锁读取写回：集中写入和预分配期间的写入使用同一把锁
+     */
+    @Override
+    public int allocate(ByteBuffer buffer, long position) throws IOException {
+        final int length = buffer.remaining();
+        synchronized (this) {
+            this.read(buffer, position);
+            // 文件结束：剩余数据填充零值
+            while(buffer.hasRemaining()) {
+                buffer.put(ZERO, 0, Math.min(ZERO.length, buffer.remaining()));
+            }
+            buffer.flip();
+            this.write0(buffer, position);
+            return length;
+        }
+    }
+
+    @Override
+    public void allocateEnd() {
+        this.allocating = false;
+    }
+
+    @Override
+    public long size() throws IOException {
+        final FileChannel channel = this.acquire();
+        try {
+            return channel.size();
+        } finally {
+            this.release();
+        }
+    }
+
+    /**
+     * 没有写入数据不用打开文件
+     */
+    @Override
+    public void force() throws IOException {
+        if(!this.dirty) {
+            return;
+        }
+        final FileChannel channel = this.acquire();
+        try {
+            // 先清除标记：刷出期间写入的数据下次刷出
+            this.dirty = false;
+            channel.force(false);
+        } catch (IOException e) {
+            this.dirty = true;
+            throw e;
+        } finally {
+            this.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        TorrentChannelPool.getInstance().close(this);
+    }
+
+    /**
+     * @return 是否关闭
+     */
+    boolean closed() {
+        return this.closed;
+    }
+
+    /**
+     * @return 文件路径
+     */
+    String path() {
+        return this.path;
+    }
+
+    @Override
+    public String toString() {
+        return this.path;
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.acgist.snail.net.torrent;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+
+/**
+ * 磁盘缓存刷出
+ * 使用后台线程刷出文件流组缓存：下载线程只是提交刷出请求不用等待写入磁盘
+ * 刷出条件：缓存大小超过磁盘缓存、缓存时间超过刷出时间
+ * 
+ * @author acgist
+ */
+public final class TorrentFlusher {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentFlusher.class);
+    
+    private static final TorrentFlusher INSTANCE = new TorrentFlusher();
+    
+    public static final TorrentFlusher getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 刷出检测周期（秒）：{@value}
+     */
+    private static final long FLUSH_CHECK_INTERVAL = 1L;
+    
+    /**
+     * 刷出线程池
+     * 单个线程顺序写入：防止多个任务同时写入导致磁盘随机读写
+     */
+    private final ScheduledExecutorService executor;
+    /**
+     * 文件流组
+     * 检测缓存时间
+     */
+    private final Set<TorrentStreamGroup> groups;
+    /**
+     * 等待刷出文件流组
+     * 防止重复提交刷出任务
+     */
+    private final Set<TorrentStreamGroup> flushGroups;
+    
+    private TorrentFlusher() {
+        this.executor = SystemThreadContext.newScheduledExecutor(1, SystemThreadContext.SNAIL_THREAD_FLUSH);
+        this.groups = ConcurrentHashMap.newKeySet();
+        this.flushGroups = ConcurrentHashMap.newKeySet();
+        this.executor.scheduleWithFixedDelay(this::flushTimeout, FLUSH_CHECK_INTERVAL, FLUSH_CHECK_INTERVAL, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * 注册文件流组
+     * 
+     * @param group 文件流组
+     */
+    public void register(TorrentStreamGroup group) {
+        this.groups.add(group);
+    }
+    
+    /**
+     * 删除文件流组
+     * 
+     * @param group 文件流组
+     */
+    public void remove(TorrentStreamGroup group) {
+        this.groups.remove(group);
+    }
+    
+    /**
+     * 异步刷出缓存
+     * 
+     * @param group 文件流组
+     */
+    public void flush(TorrentStreamGroup group) {
+        if(this.flushGroups.add(group)) {
+            this.executor.submit(() -> {
+                // 先删除再刷出：刷出过程中新的请求不会丢失
+                this.flushGroups.remove(group);
+                this.flush0(group);
+            });
+        }
+    }
+    
+    /**
+     * 刷出超时缓存
+     */
+    private void flushTimeout() {
+        final long timeout = System.currentTimeMillis() - SystemConfig.getFlushInterval() * SystemConfig.ONE_SECOND_MILLIS;
+        for (TorrentStreamGroup group : this.groups) {
+            final long cacheTime = group.cacheTime();
+            if(cacheTime > 0L && cacheTime <= timeout) {
+                LOGGER.debug("缓存超时刷出：{}", group);
+                this.flush0(group);
+            }
+        }
+    }
+    
+    /**
+     * 刷出缓存
+     * 
+     * @param group 文件流组
+     */
+    private void flush0(TorrentStreamGroup group) {
+        try {
+            group.flush();
+        } catch (Exception e) {
+            LOGGER.error("刷出缓存异常：{}", group, e);
+        }
+    }
+    
+}
@@ -2,6 +2,7 @@ package com.acgist.snail.net.torrent;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -63,6 +64,18 @@ public final class TorrentInfo extends TorrentFileMatedata implements Serializab
      * 文件列表：{@value}
      */
     public static final String ATTR_FILES = "files";
+    /**
+     * 种子版本（BEP 52）：{@value}
+     */
+    public static final String ATTR_META_VERSION = "meta version";
+    /**
+     * 文件树（BEP 52）：{@value}
+     */
+    public static final String ATTR_FILE_TREE = "file tree";
+    /**
+     * V2种子版本：{@value}
+     */
+    public static final byte META_VERSION_V2 = 2;
     
     /**
      * 名称
@@ -110,6 +123,12 @@ public final class TorrentInfo extends TorrentFileMatedata implements Serializab
      * 多文件种子使用（单文件种子为空）
      */
     private List<TorrentFile> files;
+    /**
+     * 种子版本
+     * 
+     * @see #META_VERSION_V2
+     */
+    private Long metaVersion;
 
     protected TorrentInfo() {
     }
@@ -138,6 +157,8 @@ public final class TorrentInfo extends TorrentFileMatedata implements Serializab
         info.setPublisherUrlUtf8(MapUtils.getString(map, ATTR_PUBLISHER_URL_UTF8));
         info.setPrivateTorrent(MapUtils.getLong(map, ATTR_PRIVATE));
         info.setFiles(readFiles(MapUtils.getList(map, ATTR_FILES), encoding));
+        info.setMetaVersion(MapUtils.getLong(map, ATTR_META_VERSION));
+        readFileTree(info, MapUtils.getMap(map, ATTR_FILE_TREE));
         return info;
     }
     
@@ -150,6 +171,15 @@ public final class TorrentInfo extends TorrentFileMatedata implements Serializab
         return this.pieces.length / SystemConfig.SHA1_HASH_LENGTH;
     }
     
+    /**
+     * 判断是否是V2种子（包含混合种子）
+     * 
+     * @return 是否是V2种子
+     */
+    public boolean v2() {
+        return this.metaVersion != null && this.metaVersion.byteValue() == META_VERSION_V2;
+    }
+    
     /**
      * 判断是否是私有种子
      * 
@@ -172,6 +202,7 @@ public final class TorrentInfo extends TorrentFileMatedata implements Serializab
             file.setEd2k(this.ed2k);
             file.setLength(this.length);
             file.setFilehash(this.filehash);
+            file.setPiecesRoot(this.piecesRoot);
             if (this.name != null) {
                 file.setPath(List.of(this.name));
             } else {
@@ -207,6 +238,55 @@ public final class TorrentInfo extends TorrentFileMatedata implements Serializab
             .collect(Collectors.toList());
     }
     
+    /**
+     * 读取V2种子文件树
+     * 混合种子通过文件路径匹配文件列表设置文件Merkle树根Hash，暂不支持纯V2种子（没有V1文件列表和Piece特征信息）。
+     * 
+     * @param info     文件信息
+     * @param fileTree 文件树
+     */
+    private static final void readFileTree(TorrentInfo info, Map<String, Object> fileTree) {
+        if(fileTree == null) {
+            return;
+        }
+        final Map<String, byte[]> piecesRoots = new HashMap<>();
+        readFileTree(null, fileTree, piecesRoots);
+        if(info.files.isEmpty()) {
+            // 单文件种子
+            if(piecesRoots.size() == 1) {
+                info.setPiecesRoot(piecesRoots.values().iterator().next());
+            }
+        } else {
+            // 多文件种子
+            info.files.forEach(file -> file.setPiecesRoot(piecesRoots.get(file.path())));
+        }
+    }
+    
+    /**
+     * 读取V2种子文件树
+     * 文件树节点名称为路径，文件节点名称为空字符串。
+     * 
+     * @param path        当前路径
+     * @param node        当前节点
+     * @param piecesRoots 文件路径和文件Merkle树根Hash
+     */
+    private static final void readFileTree(String path, Map<?, ?> node, Map<String, byte[]> piecesRoots) {
+        node.forEach((key, value) -> {
+            if(!(value instanceof Map<?, ?> map)) {
+                return;
+            }
+            final String name = (String) key;
+            if(name.isEmpty()) {
+                final byte[] piecesRoot = MapUtils.getBytes(map, ATTR_PIECES_ROOT);
+                if(path != null && piecesRoot != null) {
+                    piecesRoots.put(path, piecesRoot);
+                }
+            } else {
+                readFileTree(path == null ? name : path + TorrentFile.SEPARATOR + name, map, piecesRoots);
+            }
+        });
+    }
+    
     /**
      * @return 名称
      */
@@ -347,6 +427,20 @@ public final class TorrentInfo extends TorrentFileMatedata implements Serializab
         this.files = files;
     }
     
+    /**
+     * @return 种子版本
+     */
+    public Long getMetaVersion() {
+        return this.metaVersion;
+    }
+    
+    /**
+     * @param metaVersion 种子版本
+     */
+    public void setMetaVersion(Long metaVersion) {
+        this.metaVersion = metaVersion;
+    }
+    
     @Override
     public String toString() {
         // TODO：实现
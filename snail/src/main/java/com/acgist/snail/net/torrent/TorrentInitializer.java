@@ -33,6 +33,7 @@ public final class TorrentInitializer extends Initializer {
         UtpContext.getInstance().close();
         PeerServer.getInstance().close();
         TorrentServer.getInstance().close();
+        TorrentStreamingServer.getInstance().close();
     }
 
 }
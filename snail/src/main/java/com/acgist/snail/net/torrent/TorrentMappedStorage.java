@@ -0,0 +1,114 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import com.acgist.snail.net.DownloadException;
+import com.acgist.snail.utils.IoUtils;
+
+/**
+ * 文件存储（内存映射）
+ * 只适用于小文件：映射时文件直接扩展到完整大小
+ * 使用绝对偏移读写：不会修改映射缓冲位置
+ * 映射完成关闭文件通道：映射不依赖文件通道，不用占用文件句柄。
+ * 
+ * @author acgist
+ */
+public final class TorrentMappedStorage implements ITorrentStorage {
+
+    /**
+     * 文件路径
+     */
+    private final String path;
+    /**
+     * 文件大小
+     */
+    private final int size;
+    /**
+     * 内存映射
+     */
+    private final MappedByteBuffer mappedBuffer;
+
+    /**
+     * @param path 文件路径
+     * @param size 文件大小
+     * 
+     * @throws DownloadException 下载异常
+     */
+    private TorrentMappedStorage(String path, long size) throws DownloadException {
+        if(size > Integer.MAX_VALUE) {
+            throw new DownloadException("内存映射文件太大：" + path);
+        }
+        this.path = path;
+        this.size = (int) size;
+        final FileChannel channel = TorrentFileStorage.open(path);
+        try {
+            this.mappedBuffer = channel.map(MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new DownloadException("新建内存映射失败：" + path, e);
+        } finally {
+            IoUtils.close(channel);
+        }
+    }
+
+    /**
+     * 新建内存映射文件存储
+     * 
+     * @param path 文件路径
+     * @param size 文件大小
+     * 
+     * @return {@link TorrentMappedStorage}
+     * 
+     * @throws DownloadException 下载异常
+     */
+    public static final TorrentMappedStorage newInstance(String path, long size) throws DownloadException {
+        return new TorrentMappedStorage(path, size);
+    }
+
+    @Override
+    public int read(ByteBuffer buffer, long position) throws IOException {
+        if(position >= this.size) {
+            return 0;
+        }
+        final int length = (int) Math.min(buffer.remaining(), this.size - position);
+        buffer.put(buffer.position(), this.mappedBuffer, (int) position, length);
+        buffer.position(buffer.position() + length);
+        return length;
+    }
+
+    @Override
+    public int write(ByteBuffer buffer, long position) throws IOException {
+        final int length = buffer.remaining();
+        if(position + length > this.size) {
+            throw new IOException("写入数据超过文件大小：" + this.path);
+        }
+        this.mappedBuffer.put((int) position, buffer, buffer.position(), length);
+        buffer.position(buffer.limit());
+        return length;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return this.size;
+    }
+
+    @Override
+    public void force() throws IOException {
+        this.mappedBuffer.force();
+    }
+
+    @Override
+    public void close() {
+        // 映射内存不能主动释放：等待GC回收
+        this.mappedBuffer.force();
+    }
+
+    @Override
+    public String toString() {
+        return this.path;
+    }
+
+}
@@ -0,0 +1,323 @@
+package com.acgist.snail.net.torrent;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.utils.DigestUtils;
+import com.acgist.snail.utils.StringUtils;
+
+/**
+ * 文件Merkle树（BEP 52）
+ * 每个文件独立计算Merkle树：叶子节点为16KB数据块的SHA-256散列值，文件结尾以后的叶子节点使用零值填充。
+ * 文件大于Piece大小时种子包含Piece层Hash，否则Piece层Hash就是文件Merkle树根Hash。
+ * 混合种子文件按照Piece对齐（填充文件），所以Piece层Hash和V1的Piece一一对应。
+ * 
+ * @author acgist
+ */
+public final class TorrentMerkle {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentMerkle.class);
+    
+    /**
+     * 数据块大小：{@value}
+     */
+    public static final int BLOCK_LENGTH = TorrentPiece.SLICE_LENGTH;
+    /**
+     * Hash长度：{@value}
+     */
+    public static final int HASH_LENGTH = SystemConfig.SHA256_HASH_LENGTH;
+    /**
+     * 单次请求最大Hash数量：{@value}
+     */
+    public static final int MAX_HASH_SIZE = 512;
+    
+    /**
+     * 文件Merkle树根Hash
+     */
+    private final byte[] piecesRoot;
+    /**
+     * Piece层Hash
+     * 文件只有一个Piece：null
+     */
+    private final byte[] pieceLayer;
+    /**
+     * 文件开始偏移
+     */
+    private final long fileBeginPos;
+    /**
+     * 文件大小
+     */
+    private final long fileSize;
+    /**
+     * Piece大小
+     */
+    private final long pieceLength;
+    /**
+     * 每个Piece数据块数量
+     */
+    private final int pieceBlocks;
+    
+    /**
+     * @param piecesRoot   文件Merkle树根Hash
+     * @param pieceLayer   Piece层Hash
+     * @param fileBeginPos 文件开始偏移
+     * @param fileSize     文件大小
+     * @param pieceLength  Piece大小
+     */
+    private TorrentMerkle(byte[] piecesRoot, byte[] pieceLayer, long fileBeginPos, long fileSize, long pieceLength) {
+        this.piecesRoot = piecesRoot;
+        this.pieceLayer = pieceLayer;
+        this.fileBeginPos = fileBeginPos;
+        this.fileSize = fileSize;
+        this.pieceLength = pieceLength;
+        this.pieceBlocks = (int) (pieceLength / BLOCK_LENGTH);
+    }
+    
+    /**
+     * 新建文件Merkle树
+     * Piece层Hash不参与InfoHash计算：必须校验Piece层Hash和文件Merkle树根Hash
+     * 
+     * @param piecesRoot   文件Merkle树根Hash
+     * @param pieceLayer   Piece层Hash
+     * @param fileBeginPos 文件开始偏移
+     * @param fileSize     文件大小
+     * @param pieceLength  Piece大小
+     * 
+     * @return 文件Merkle树（不能校验：null）
+     */
+    public static final TorrentMerkle newInstance(byte[] piecesRoot, byte[] pieceLayer, long fileBeginPos, long fileSize, long pieceLength) {
+        if(
+            piecesRoot == null ||
+            piecesRoot.length != HASH_LENGTH ||
+            fileSize <= 0 ||
+            // 混合种子文件必须按照Piece对齐
+            fileBeginPos % pieceLength != 0 ||
+            pieceLength < BLOCK_LENGTH ||
+            Long.bitCount(pieceLength) != 1
+        ) {
+            return null;
+        }
+        final TorrentMerkle merkle = new TorrentMerkle(piecesRoot, pieceLayer, fileBeginPos, fileSize, pieceLength);
+        if(fileSize <= pieceLength) {
+            return merkle;
+        }
+        if(pieceLayer == null || pieceLayer.length != merkle.pieceSize() * HASH_LENGTH) {
+            LOGGER.warn("Piece层Hash格式错误：{}", StringUtils.hex(piecesRoot));
+            return null;
+        }
+        final byte[][] hashes = new byte[merkle.pieceSize()][];
+        for (int index = 0; index < hashes.length; index++) {
+            hashes[index] = Arrays.copyOfRange(pieceLayer, index * HASH_LENGTH, (index + 1) * HASH_LENGTH);
+        }
+        final byte[] root = root(hashes, nextPowerOfTwo(hashes.length), padHash(merkle.pieceBlocks));
+        if(!Arrays.equals(root, piecesRoot)) {
+            LOGGER.warn("Piece层Hash校验失败：{}", StringUtils.hex(piecesRoot));
+            return null;
+        }
+        return merkle;
+    }
+    
+    /**
+     * @return 文件Piece数量
+     */
+    public int pieceSize() {
+        return (int) ((this.fileSize + this.pieceLength - 1) / this.pieceLength);
+    }
+    
+    /**
+     * 获取Piece在BT任务中的索引
+     * 
+     * @param index 文件内Piece索引
+     * 
+     * @return BT任务Piece索引
+     */
+    public int pieceIndex(int index) {
+        return (int) (this.fileBeginPos / this.pieceLength) + index;
+    }
+    
+    /**
+     * 获取Piece Hash
+     * 
+     * @param index 文件内Piece索引
+     * 
+     * @return Piece Hash
+     */
+    public byte[] pieceHash(int index) {
+        if(this.pieceLayer == null) {
+            return this.piecesRoot;
+        }
+        return Arrays.copyOfRange(this.pieceLayer, index * HASH_LENGTH, (index + 1) * HASH_LENGTH);
+    }
+    
+    /**
+     * 获取Piece子树叶子节点数量
+     * 文件只有一个Piece：数据块数量向上取二的幂
+     * 
+     * @param index 文件内Piece索引
+     * 
+     * @return 叶子节点数量
+     */
+    public int leafSize(int index) {
+        if(this.pieceLayer == null) {
+            return nextPowerOfTwo(this.blockSize(index));
+        }
+        return this.pieceBlocks;
+    }
+    
+    /**
+     * 获取Piece子树第一个叶子节点在文件中的索引
+     * 
+     * @param index 文件内Piece索引
+     * 
+     * @return 叶子节点索引
+     */
+    public int leafIndex(int index) {
+        return index * this.pieceBlocks;
+    }
+    
+    /**
+     * 获取叶子节点所在Piece索引
+     * 
+     * @param leafIndex 叶子节点在文件中的索引
+     * 
+     * @return 文件内Piece索引
+     */
+    public int leafPiece(int leafIndex) {
+        return leafIndex / this.pieceBlocks;
+    }
+    
+    /**
+     * 获取Piece数据块数量
+     * 
+     * @param index 文件内Piece索引
+     * 
+     * @return 数据块数量
+     */
+    public int blockSize(int index) {
+        final long length = Math.min(this.pieceLength, this.fileSize - index * this.pieceLength);
+        return (int) ((length + BLOCK_LENGTH - 1) / BLOCK_LENGTH);
+    }
+    
+    /**
+     * 校验叶子节点
+     * 
+     * @param index  文件内Piece索引
+     * @param leaves 叶子节点（数据块Hash）
+     * 
+     * @return 是否校验成功
+     */
+    public boolean verify(int index, byte[][] leaves) {
+        if(leaves.length < this.blockSize(index)) {
+            return false;
+        }
+        final byte[][] hashes = Arrays.copyOf(leaves, this.blockSize(index));
+        return Arrays.equals(root(hashes, this.leafSize(index), new byte[HASH_LENGTH]), this.pieceHash(index));
+    }
+    
+    /**
+     * 计算数据块Hash
+     * 
+     * @param data   数据
+     * @param offset 数据偏移
+     * @param length 数据长度
+     * 
+     * @return 数据块Hash
+     */
+    public static final byte[] hash(byte[] data, int offset, int length) {
+        final MessageDigest digest = DigestUtils.sha256();
+        digest.update(data, offset, length);
+        return digest.digest();
+    }
+    
+    /**
+     * 计算Merkle树根Hash
+     * 
+     * @param hashes 节点Hash
+     * @param width  节点数量（二的幂）：不足使用填充Hash
+     * @param pad    填充Hash
+     * 
+     * @return Merkle树根Hash
+     */
+    public static final byte[] root(byte[][] hashes, int width, byte[] pad) {
+        final MessageDigest digest = DigestUtils.sha256();
+        byte[][] layer = hashes;
+        while(width > 1) {
+            final byte[][] parent = new byte[(layer.length + 1) / 2][];
+            for (int index = 0; index < parent.length; index++) {
+                final int left = index * 2;
+                digest.update(layer[left]);
+                digest.update(left + 1 < layer.length ? layer[left + 1] : pad);
+                parent[index] = digest.digest();
+            }
+            pad = pair(digest, pad);
+            layer = parent;
+            width /= 2;
+        }
+        return layer.length == 0 ? pad : layer[0];
+    }
+    
+    /**
+     * 计算填充Hash
+     * 
+     * @param width 叶子节点数量
+     * 
+     * @return 全部使用零值叶子节点的子树Hash
+     */
+    private static final byte[] padHash(int width) {
+        final MessageDigest digest = DigestUtils.sha256();
+        byte[] pad = new byte[HASH_LENGTH];
+        while(width > 1) {
+            pad = pair(digest, pad);
+            width /= 2;
+        }
+        return pad;
+    }
+    
+    /**
+     * 计算两个相同节点的父节点Hash
+     * 
+     * @param digest 散列算法
+     * @param hash   节点Hash
+     * 
+     * @return 父节点Hash
+     */
+    private static final byte[] pair(MessageDigest digest, byte[] hash) {
+        digest.update(hash);
+        digest.update(hash);
+        return digest.digest();
+    }
+    
+    /**
+     * @param value 数值
+     * 
+     * @return 大于等于数值的二的幂
+     */
+    private static final int nextPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+    
+    /**
+     * @return 文件Merkle树根Hash
+     */
+    public byte[] getPiecesRoot() {
+        return this.piecesRoot;
+    }
+    
+    /**
+     * @return 文件开始偏移
+     */
+    public long getFileBeginPos() {
+        return this.fileBeginPos;
+    }
+    
+    /**
+     * @return 文件大小
+     */
+    public long getFileSize() {
+        return this.fileSize;
+    }
+    
+}
@@ -1,8 +1,14 @@
 package com.acgist.snail.net.torrent;
 
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 
 import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.net.torrent.peer.PeerSession;
 import com.acgist.snail.utils.BeanUtils;
 import com.acgist.snail.utils.DigestUtils;
 
@@ -42,10 +48,11 @@ public final class TorrentPiece {
     private final int length;
     /**
      * 数据
+     * 缓冲池借用：释放以后归还缓冲池
      * 
-     * TODO：使用直接内存文件读写使用NIO优化（没太大必要毕竟下载最重要的问题是网络IO）
+     * @see TorrentBufferPool
      */
-    private final byte[] data;
+    private byte[] data;
     /**
      * 校验数据
      */
@@ -54,6 +61,23 @@ public final class TorrentPiece {
      * 是否校验
      */
     private final boolean verify;
+    /**
+     * 已经下载Slice位图
+     * 重复下载Slice不会重复计算下载大小
+     */
+    private final BitSet slices;
+    /**
+     * Slice来源Peer
+     * 校验失败时找出发送错误数据的Peer
+     * 
+     * @see TorrentSmartBan
+     */
+    private final PeerSession[] sources;
+    /**
+     * 正在直接写入Slice的Peer
+     * 直接写入的Slice不能被其他Peer写入：防止数据交叉覆盖
+     */
+    private final PeerSession[] writers;
     /**
      * 已经下载数据大小
      */
@@ -62,6 +86,58 @@ public final class TorrentPiece {
      * Piece数据内偏移
      */
     private int position;
+    /**
+     * SHA-1算法工具
+     * 按照顺序计算已经下载Slice：下载完成只需要计算最后的Slice
+     */
+    private final MessageDigest digest;
+    /**
+     * 已经计算Hash数据内偏移
+     */
+    private int digestPosition;
+    /**
+     * 计算完成的Hash
+     */
+    private byte[] digestHash;
+    /**
+     * 引用数量
+     * 下载Peer和文件流缓存持有引用：没有引用时归还缓冲
+     */
+    private int reference;
+    /**
+     * 下载Peer数量
+     * 任务接近完成时多个Peer共享下载同一个Piece
+     */
+    private int peers;
+    /**
+     * 是否共享下载
+     * 共享下载的Piece收到Slice以后需要取消其他Peer的相同请求
+     */
+    private volatile boolean shared;
+    /**
+     * 是否已经保存
+     * 共享下载的Piece只能保存一次
+     */
+    private boolean claimed;
+    /**
+     * 文件Merkle树
+     * V2种子和混合种子使用：每个数据块可以单独校验
+     */
+    private TorrentMerkle merkle;
+    /**
+     * 文件内Piece索引
+     */
+    private int merkleIndex;
+    /**
+     * 数据块Hash
+     * 通过Piece Hash校验以后设置：收到Slice立即校验
+     */
+    private byte[][] leaves;
+    /**
+     * 正在接收的数据块Hash
+     * 数据块Hash超过单次请求数量时需要分多次请求
+     */
+    private byte[][] receiveLeaves;
     
     /**
      * @param pieceLength Piece大小
@@ -70,8 +146,9 @@ public final class TorrentPiece {
      * @param end Piece结束偏移
      * @param hash 校验数据
      * @param verify 是否校验
+     * @param data 数据
      */
-    private TorrentPiece(long pieceLength, int index, int begin, int end, byte[] hash, boolean verify) {
+    private TorrentPiece(long pieceLength, int index, int begin, int end, byte[] hash, boolean verify, byte[] data) {
         this.pieceLength = pieceLength;
         this.index = index;
         this.begin = begin;
@@ -79,9 +156,18 @@ public final class TorrentPiece {
         this.hash = hash;
         this.verify = verify;
         this.length = end - begin;
-        this.data = new byte[this.length];
+        this.data = data;
+        this.slices = new BitSet();
+        this.sources = new PeerSession[(this.length + SLICE_LENGTH - 1) / SLICE_LENGTH];
+        this.writers = new PeerSession[this.sources.length];
         this.size = 0;
         this.position = 0;
+        this.reference = 1;
+        this.peers = 1;
+        this.shared = false;
+        this.claimed = false;
+        this.digest = verify ? DigestUtils.sha1() : null;
+        this.digestPosition = 0;
     }
 
     /**
@@ -94,10 +180,184 @@ public final class TorrentPiece {
      * @param hash        校验数据
      * @param verify      是否校验
      * 
-     * @return Piece下载信息
+     * @return Piece下载信息（缓冲池用完：null）
      */
     public static final TorrentPiece newInstance(long pieceLength, int index, int begin, int end, byte[] hash, boolean verify) {
-        return new TorrentPiece(pieceLength, index, begin, end, hash, verify);
+        final byte[] data = TorrentBufferPool.getInstance().borrow(end - begin);
+        if(data == null) {
+            return null;
+        }
+        return new TorrentPiece(pieceLength, index, begin, end, hash, verify, data);
+    }
+    
+    /**
+     * 设置文件Merkle树
+     * Piece必须和文件开始位置对齐
+     * 
+     * @param merkle      文件Merkle树
+     * @param merkleIndex 文件内Piece索引
+     */
+    public void merkle(TorrentMerkle merkle, int merkleIndex) {
+        if(this.begin != 0) {
+            return;
+        }
+        synchronized (this) {
+            this.merkle = merkle;
+            this.merkleIndex = merkleIndex;
+            if(merkle.leafSize(merkleIndex) == 1) {
+                // 只有一个数据块：Piece Hash就是数据块Hash
+                this.leaves = new byte[][] { merkle.pieceHash(merkleIndex) };
+            }
+        }
+    }
+    
+    /**
+     * 判断是否需要请求数据块Hash
+     * 
+     * @return 是否需要请求数据块Hash
+     */
+    public boolean needLeaves() {
+        return this.merkle != null && this.leaves == null;
+    }
+    
+    /**
+     * @return 文件Merkle树
+     */
+    public TorrentMerkle merkle() {
+        return this.merkle;
+    }
+    
+    /**
+     * @return 文件内Piece索引
+     */
+    public int merkleIndex() {
+        return this.merkleIndex;
+    }
+    
+    /**
+     * 设置数据块Hash
+     * 所有数据块Hash接收完成以后通过Piece Hash校验，校验成功以后删除已经下载但是校验失败的Slice。
+     * 
+     * @param offset 数据块Hash开始索引（Piece内）
+     * @param hashes 数据块Hash
+     * 
+     * @return 发送校验失败Slice的Peer（数据块Hash没有接收完成或者校验失败：null）
+     */
+    public List<PeerSession> leaves(int offset, byte[][] hashes) {
+        synchronized (this) {
+            if(this.merkle == null || this.leaves != null || this.data == null) {
+                return null;
+            }
+            final int leafSize = this.merkle.leafSize(this.merkleIndex);
+            if(offset < 0 || offset + hashes.length > leafSize) {
+                return null;
+            }
+            if(this.receiveLeaves == null) {
+                this.receiveLeaves = new byte[leafSize][];
+            }
+            System.arraycopy(hashes, 0, this.receiveLeaves, offset, hashes.length);
+            for (byte[] hash : this.receiveLeaves) {
+                if(hash == null) {
+                    return null;
+                }
+            }
+            final byte[][] leaves = this.receiveLeaves;
+            this.receiveLeaves = null;
+            if(!this.merkle.verify(this.merkleIndex, leaves)) {
+                return null;
+            }
+            this.leaves = leaves;
+            // 校验已经下载的Slice
+            int failSize = 0;
+            final List<PeerSession> corruptPeers = new ArrayList<>();
+            for (int slice = this.slices.nextSetBit(0); slice >= 0; slice = this.slices.nextSetBit(slice + 1)) {
+                final int position = slice * SLICE_LENGTH;
+                final int length = this.sliceLength(position);
+                if(!Arrays.equals(TorrentMerkle.hash(this.data, position, length), leaves[slice])) {
+                    this.slices.clear(slice);
+                    this.size -= length;
+                    this.position = Math.min(this.position, position);
+                    failSize++;
+                    final PeerSession source = this.sources[slice];
+                    if(source != null && !corruptPeers.contains(source)) {
+                        corruptPeers.add(source);
+                    }
+                    this.sources[slice] = null;
+                }
+            }
+            if(failSize > 0 && this.digest != null) {
+                // 重新计算SHA-1
+                this.digest.reset();
+                this.digestPosition = 0;
+                this.digest();
+            }
+            return corruptPeers;
+        }
+    }
+    
+    /**
+     * 校验Slice数据
+     * 没有数据块Hash时不用校验（下载完成以后校验整个Piece）
+     * 校验失败重新请求Slice
+     * 
+     * @param begin Piece内开始偏移
+     * @param bytes Slice数据
+     * 
+     * @return 是否校验成功
+     */
+    public boolean verifySlice(final int begin, final byte[] bytes) {
+        return this.verifySlice(begin - this.begin, bytes, 0, bytes.length);
+    }
+    
+    /**
+     * 校验直接写入的Slice数据
+     * 
+     * @param begin  Piece内开始偏移
+     * @param source 来源Peer
+     * 
+     * @return 是否校验成功（已经取消写入：true）
+     * 
+     * @see #verifySlice(int, byte[])
+     */
+    public boolean verifySlice(final int begin, final PeerSession source) {
+        synchronized (this) {
+            final int offset = begin - this.begin;
+            if(this.data == null || this.writers[offset / SLICE_LENGTH] != source) {
+                // 已经取消写入：提交时处理
+                return true;
+            }
+            return this.verifySlice(offset, this.data, offset, this.sliceLength(offset));
+        }
+    }
+    
+    /**
+     * 校验Slice数据
+     * 
+     * @param offset   Piece数据内偏移
+     * @param bytes    数据
+     * @param position 数据偏移
+     * @param length   数据长度
+     * 
+     * @return 是否校验成功
+     */
+    private boolean verifySlice(final int offset, final byte[] bytes, final int position, final int length) {
+        final byte[][] leaves = this.leaves;
+        if(leaves == null) {
+            return true;
+        }
+        final int slice = offset / SLICE_LENGTH;
+        if(
+            offset % SLICE_LENGTH == 0 &&
+            slice < leaves.length &&
+            length == this.sliceLength(offset) &&
+            Arrays.equals(TorrentMerkle.hash(bytes, position, length), leaves[slice])
+        ) {
+            return true;
+        }
+        synchronized (this) {
+            this.position = Math.min(this.position, offset);
+        }
+        return false;
     }
     
     /**
@@ -145,6 +405,7 @@ public final class TorrentPiece {
      * @return 是否还有更多的数据请求
      */
     public boolean hasMoreSlice() {
+        this.skipSlice();
         return this.position < this.length;
     }
     
@@ -163,6 +424,7 @@ public final class TorrentPiece {
      * @return 整个Piece内偏移
      */
     public int position() {
+        this.skipSlice();
         return this.begin + this.position;
     }
     
@@ -173,6 +435,7 @@ public final class TorrentPiece {
      * @return 本次请求数据大小
      */
     public int length() {
+        this.skipSlice();
         if(this.position >= this.length) {
             return 0;
         }
@@ -186,6 +449,129 @@ public final class TorrentPiece {
         }
     }
     
+    /**
+     * 跳过已经下载的Slice
+     */
+    private void skipSlice() {
+        synchronized (this) {
+            while(this.position < this.length && this.slices.get(this.position / SLICE_LENGTH)) {
+                this.position += SLICE_LENGTH;
+            }
+            if(this.position > this.length) {
+                this.position = this.length;
+            }
+        }
+    }
+    
+    /**
+     * 重新请求没有下载的Slice
+     * 用于继续下载部分下载的Piece：已经下载的Slice不会再次请求
+     */
+    public void resume() {
+        synchronized (this) {
+            this.position = 0;
+            this.peers = 1;
+            this.shared = false;
+            this.claimed = false;
+        }
+    }
+    
+    /**
+     * 重新请求Slice
+     * 请求没有发送：请求位置退回Slice
+     * 
+     * @param begin Piece内开始偏移
+     */
+    public void retrySlice(final int begin) {
+        synchronized (this) {
+            final int offset = begin - this.begin;
+            if(offset >= 0 && offset < this.length) {
+                this.position = Math.min(this.position, offset);
+            }
+        }
+    }
+    
+    /**
+     * 获取没有下载的Slice数据内偏移
+     * 共享下载的Piece每个Peer独立记录请求位置：请求所有没有下载的Slice
+     * 
+     * @param position 开始查找数据内偏移
+     * 
+     * @return 数据内偏移（没有更多Slice：-1）
+     */
+    public int nextSlice(int position) {
+        synchronized (this) {
+            final int offset = this.slices.nextClearBit(position / SLICE_LENGTH) * SLICE_LENGTH;
+            return offset < this.length ? offset : -1;
+        }
+    }
+    
+    /**
+     * 获取Slice数据大小
+     * 
+     * @param position 数据内偏移
+     * 
+     * @return Slice数据大小
+     */
+    public int sliceLength(int position) {
+        return Math.min(SLICE_LENGTH, this.length - position);
+    }
+    
+    /**
+     * 共享下载
+     * 任务接近完成时其他Peer同时下载当前Piece：添加引用
+     * 
+     * @return 是否共享成功（已经释放或者已经保存：false）
+     */
+    public boolean share() {
+        synchronized (this) {
+            if(this.data == null || this.peers <= 0 || this.claimed) {
+                return false;
+            }
+            this.peers++;
+            this.reference++;
+            this.shared = true;
+            return true;
+        }
+    }
+    
+    /**
+     * 判断是否共享下载
+     * 
+     * @return 是否共享下载
+     */
+    public boolean shared() {
+        return this.shared;
+    }
+    
+    /**
+     * Peer结束下载
+     * 
+     * @return 是否是最后一个下载Peer并且没有保存（需要设置下载失败）
+     */
+    public boolean leave() {
+        synchronized (this) {
+            this.peers--;
+            return this.peers <= 0 && !this.claimed;
+        }
+    }
+    
+    /**
+     * 保存Piece
+     * 共享下载的Piece只有第一个Peer可以保存
+     * 
+     * @return 是否可以保存
+     */
+    public boolean claim() {
+        synchronized (this) {
+            if(this.claimed) {
+                return false;
+            }
+            this.claimed = true;
+            return true;
+        }
+    }
+    
     /**
      * 写入Slice数据
      * 
@@ -193,13 +579,184 @@ public final class TorrentPiece {
      * @param bytes Slice数据
      * 
      * @return 是否下载完成
+     * 
+     * @see #writeSlice(int, byte[])
      */
     public boolean write(final int begin, final byte[] bytes) {
+        this.writeSlice(begin, bytes);
+        return this.completed();
+    }
+    
+    /**
+     * 写入Slice数据
+     * 
+     * @param begin Piece内开始偏移
+     * @param bytes Slice数据
+     * 
+     * @return 是否写入（重复下载或者已经释放：false）
+     * 
+     * @see #writeSlice(int, byte[], PeerSession)
+     */
+    public boolean writeSlice(final int begin, final byte[] bytes) {
+        return this.writeSlice(begin, bytes, null);
+    }
+    
+    /**
+     * 写入Slice数据
+     * 
+     * @param begin  Piece内开始偏移
+     * @param bytes  Slice数据
+     * @param source 来源Peer
+     * 
+     * @return 是否写入（没有对齐、长度错误、重复下载或者已经释放：false）
+     */
+    public boolean writeSlice(final int begin, final byte[] bytes, final PeerSession source) {
         synchronized (this) {
-            System.arraycopy(bytes, 0, this.data, begin - this.begin, bytes.length);
+            final int offset = begin - this.begin;
+            if(
+                this.data == null ||
+                offset < 0 ||
+                offset >= this.length ||
+                offset % SLICE_LENGTH != 0 ||
+                bytes.length != this.sliceLength(offset)
+            ) {
+                return false;
+            }
+            final int slice = offset / SLICE_LENGTH;
+            if(this.slices.get(slice) || this.writers[slice] != null) {
+                // 重复下载Slice
+                return false;
+            }
+            System.arraycopy(bytes, 0, this.data, offset, bytes.length);
+            this.slices.set(slice);
+            this.sources[slice] = source;
             this.size += bytes.length;
-            return this.completed();
+            this.digest();
+            return true;
+        }
+    }
+    
+    /**
+     * 预留直接写入Slice
+     * 接收piece消息时数据直接写入Piece数据：预留以后持有Piece引用，必须提交或者取消写入。
+     * 
+     * @param begin  Piece内开始偏移
+     * @param length Slice数据长度
+     * @param source 来源Peer
+     * 
+     * @return 是否预留成功（没有对齐、重复下载、正在写入或者已经释放：false）
+     */
+    public boolean reserveSlice(final int begin, final int length, final PeerSession source) {
+        synchronized (this) {
+            final int offset = begin - this.begin;
+            if(
+                this.data == null ||
+                offset < 0 ||
+                offset >= this.length ||
+                offset % SLICE_LENGTH != 0 ||
+                length != this.sliceLength(offset)
+            ) {
+                return false;
+            }
+            final int slice = offset / SLICE_LENGTH;
+            if(this.slices.get(slice) || this.writers[slice] != null) {
+                return false;
+            }
+            this.writers[slice] = source;
+            this.reference++;
+            return true;
+        }
+    }
+    
+    /**
+     * 直接写入Slice数据
+     * 
+     * @param begin    Piece内开始偏移
+     * @param position Slice内偏移
+     * @param buffer   数据
+     * @param length   数据长度
+     * @param source   来源Peer
+     * 
+     * @return 是否写入（已经取消写入：false）
+     */
+    public boolean receiveSlice(final int begin, final int position, final ByteBuffer buffer, final int length, final PeerSession source) {
+        synchronized (this) {
+            final int offset = begin - this.begin;
+            if(this.data == null || this.writers[offset / SLICE_LENGTH] != source) {
+                return false;
+            }
+            buffer.get(this.data, offset + position, length);
+            return true;
+        }
+    }
+    
+    /**
+     * 提交直接写入的Slice
+     * 
+     * @param begin  Piece内开始偏移
+     * @param source 来源Peer
+     * 
+     * @return 是否写入（已经取消写入：false）
+     */
+    public boolean commitSlice(final int begin, final PeerSession source) {
+        boolean success = false;
+        synchronized (this) {
+            final int offset = begin - this.begin;
+            final int slice = offset / SLICE_LENGTH;
+            if(this.writers[slice] != source) {
+                return false;
+            }
+            this.writers[slice] = null;
+            if(this.data != null && !this.slices.get(slice)) {
+                this.slices.set(slice);
+                this.sources[slice] = source;
+                this.size += this.sliceLength(offset);
+                this.digest();
+                success = true;
+            }
         }
+        this.release();
+        return success;
+    }
+    
+    /**
+     * 取消直接写入的Slice
+     * 
+     * @param source 来源Peer
+     */
+    public void abortSlice(final PeerSession source) {
+        int count = 0;
+        synchronized (this) {
+            for (int slice = 0; slice < this.writers.length; slice++) {
+                if(this.writers[slice] == source) {
+                    this.writers[slice] = null;
+                    count++;
+                }
+            }
+        }
+        while(count-- > 0) {
+            this.release();
+        }
+    }
+    
+    /**
+     * 获取Slice来源Peer
+     * 
+     * @param slice Slice索引
+     * 
+     * @return 来源Peer
+     */
+    public PeerSession source(int slice) {
+        synchronized (this) {
+            return this.sources[slice];
+        }
+    }
+    
+    /**
+     * @return Slice数量
+     */
+    public int sliceSize() {
+        return this.sources.length;
     }
     
     /**
@@ -225,26 +782,92 @@ public final class TorrentPiece {
         }
         // 当前数据结束偏移
         int endPos = end - this.begin;
-        if (endPos > this.data.length) {
-            endPos = this.data.length;
+        if (endPos > this.length) {
+            endPos = this.length;
         }
         // 读取数据真实长度
         final int length = endPos - beginPos;
         final byte[] bytes = new byte[length];
-        System.arraycopy(this.data, beginPos, bytes, 0, length);
+        synchronized (this) {
+            if(this.data == null) {
+                // 已经释放
+                return null;
+            }
+            System.arraycopy(this.data, beginPos, bytes, 0, length);
+        }
         return bytes;
     }
     
+    /**
+     * 计算连续Slice的Hash
+     * 没有按照顺序下载的Slice等待前面的Slice下载完成以后计算
+     */
+    private void digest() {
+        if(this.digest == null) {
+            return;
+        }
+        while(this.digestPosition < this.length && this.slices.get(this.digestPosition / SLICE_LENGTH)) {
+            final int length = Math.min(SLICE_LENGTH, this.length - this.digestPosition);
+            this.digest.update(this.data, this.digestPosition, length);
+            this.digestPosition += length;
+        }
+    }
+    
     /**
      * 校验数据
+     * 混合种子同时校验SHA-1和Merkle树：文件第一块和最后一块不能使用SHA-1校验
      * 
      * @return 是否校验成功
      */
     public boolean verify() {
-        if(this.verify) {
-            return Arrays.equals(DigestUtils.sha1(this.data), this.hash);
+        return this.verifySha1() && this.verifyMerkle();
+    }
+    
+    /**
+     * 校验SHA-1
+     * 
+     * @return 是否校验成功
+     */
+    private boolean verifySha1() {
+        if(!this.verify) {
+            return true;
+        }
+        synchronized (this) {
+            if(this.digestHash == null) {
+                if(this.data == null || this.digestPosition < this.length) {
+                    // 已经释放或者没有下载完成
+                    return false;
+                }
+                this.digestHash = this.digest.digest();
+            }
+            return Arrays.equals(this.digestHash, this.hash);
+        }
+    }
+    
+    /**
+     * 校验Merkle树
+     * 已经设置数据块Hash：所有Slice已经单独校验
+     * 
+     * @return 是否校验成功
+     */
+    private boolean verifyMerkle() {
+        if(this.merkle == null) {
+            return true;
+        }
+        synchronized (this) {
+            if(this.leaves != null) {
+                return this.completed();
+            }
+            if(this.data == null || !this.completed()) {
+                return false;
+            }
+            final byte[][] hashes = new byte[this.merkle.blockSize(this.merkleIndex)][];
+            for (int slice = 0; slice < hashes.length; slice++) {
+                final int position = slice * SLICE_LENGTH;
+                hashes[slice] = TorrentMerkle.hash(this.data, position, this.sliceLength(position));
+            }
+            return this.merkle.verify(this.merkleIndex, hashes);
         }
-        return true;
     }
     
     /**
@@ -259,6 +882,40 @@ public final class TorrentPiece {
         return this.completed() && this.verify();
     }
     
+    /**
+     * 添加引用
+     */
+    public void retain() {
+        synchronized (this) {
+            this.reference++;
+        }
+    }
+    
+    /**
+     * 释放引用
+     * 没有引用时归还缓冲
+     */
+    public void release() {
+        final byte[] buffer;
+        synchronized (this) {
+            if(this.reference <= 0 || --this.reference > 0) {
+                return;
+            }
+            buffer = this.data;
+            this.data = null;
+        }
+        TorrentBufferPool.getInstance().giveBack(buffer);
+    }
+    
+    /**
+     * 获取已经下载数据大小
+     * 
+     * @return 已经下载数据大小
+     */
+    public int getSize() {
+        return this.size;
+    }
+    
     /**
      * 获取Piece索引
      * 
@@ -0,0 +1,206 @@
+package com.acgist.snail.net.torrent;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+
+/**
+ * Piece读取缓存
+ * 所有任务共用缓存，按照最近最少使用（LRU）淘汰Piece。
+ * 上传热门Piece时多个Peer请求同一个Piece只需要读取一次磁盘。
+ * 
+ * @author acgist
+ */
+public final class TorrentReadCache {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentReadCache.class);
+    
+    private static final TorrentReadCache INSTANCE = new TorrentReadCache();
+    
+    public static final TorrentReadCache getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 缓存最少Piece数量：{@value}
+     * Piece大小超过缓存大小的一部分时不用缓存：防止频繁淘汰导致每次读取完整Piece
+     */
+    private static final int MIN_PIECE_COUNT = 8;
+    
+    /**
+     * 缓存大小
+     */
+    private long size;
+    /**
+     * 命中次数
+     */
+    private final AtomicLong hitCount;
+    /**
+     * 没有命中次数
+     */
+    private final AtomicLong missCount;
+    /**
+     * 缓存Piece
+     * 访问顺序：最早访问的Piece最先淘汰
+     */
+    private final Map<Key, byte[]> pieces;
+    
+    private TorrentReadCache() {
+        this.size = 0L;
+        this.hitCount = new AtomicLong(0);
+        this.missCount = new AtomicLong(0);
+        this.pieces = new LinkedHashMap<>(16, 0.75F, true);
+    }
+    
+    /**
+     * 判断是否使用缓存
+     * 
+     * @param pieceLength Piece大小
+     * 
+     * @return 是否使用缓存
+     */
+    public boolean available(int pieceLength) {
+        final long maxSize = SystemConfig.getReadCacheSizeByte();
+        return maxSize > 0L && (long) pieceLength * MIN_PIECE_COUNT <= maxSize;
+    }
+    
+    /**
+     * 读取缓存Piece
+     * 
+     * @param group 文件流组
+     * @param index Piece索引
+     * 
+     * @return Piece数据（没有缓存：null）
+     */
+    public byte[] get(TorrentStreamGroup group, int index) {
+        final byte[] bytes;
+        synchronized (this.pieces) {
+            bytes = this.pieces.get(new Key(group, index));
+        }
+        if(bytes == null) {
+            this.missCount.incrementAndGet();
+        } else {
+            this.hitCount.incrementAndGet();
+        }
+        return bytes;
+    }
+    
+    /**
+     * 缓存Piece
+     * 超过缓存大小淘汰最近最少使用的Piece
+     * 
+     * @param group 文件流组
+     * @param index Piece索引
+     * @param bytes Piece数据
+     */
+    public void put(TorrentStreamGroup group, int index, byte[] bytes) {
+        final long maxSize = SystemConfig.getReadCacheSizeByte();
+        if(bytes.length > maxSize) {
+            return;
+        }
+        synchronized (this.pieces) {
+            final byte[] old = this.pieces.put(new Key(group, index), bytes);
+            if(old != null) {
+                this.size -= old.length;
+            }
+            this.size += bytes.length;
+            final Iterator<byte[]> iterator = this.pieces.values().iterator();
+            while(this.size > maxSize && iterator.hasNext()) {
+                this.size -= iterator.next().length;
+                iterator.remove();
+            }
+        }
+    }
+    
+    /**
+     * 删除缓存Piece
+     * Piece校验失败时使用
+     * 
+     * @param group 文件流组
+     * @param index Piece索引
+     */
+    public void remove(TorrentStreamGroup group, int index) {
+        synchronized (this.pieces) {
+            final byte[] old = this.pieces.remove(new Key(group, index));
+            if(old != null) {
+                this.size -= old.length;
+            }
+        }
+    }
+    
+    /**
+     * 删除文件流组所有缓存Piece
+     * 
+     * @param group 文件流组
+     */
+    public void remove(TorrentStreamGroup group) {
+        synchronized (this.pieces) {
+            final var iterator = this.pieces.entrySet().iterator();
+            while(iterator.hasNext()) {
+                final var entry = iterator.next();
+                if(entry.getKey().group() == group) {
+                    this.size -= entry.getValue().length;
+                    iterator.remove();
+                }
+            }
+        }
+        if(LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Piece读取缓存：{}-{}-{}", this.size(), this.hitCount(), this.missCount());
+        }
+    }
+    
+    /**
+     * @return 缓存大小
+     */
+    public long size() {
+        synchronized (this.pieces) {
+            return this.size;
+        }
+    }
+    
+    /**
+     * @return 命中次数
+     */
+    public long hitCount() {
+        return this.hitCount.get();
+    }
+    
+    /**
+     * @return 没有命中次数
+     */
+    public long missCount() {
+        return this.missCount.get();
+    }
+    
+    /**
+     * @return 命中率（0~100）
+     */
+    public int hitRate() {
+        final long hit = this.hitCount.get();
+        final long total = hit + this.missCount.get();
+        return total == 0L ? 0 : (int) (hit * 100 / total);
+    }
+    
+    /**
+     * 缓存标识
+     * 
+     * @author acgist
+     */
+    private static final record Key(
+        /**
+         * 文件流组
+         */
+        TorrentStreamGroup group,
+        /**
+         * Piece索引
+         */
+        int index
+    ) {
+    }
+    
+}
@@ -0,0 +1,119 @@
+package com.acgist.snail.net.torrent;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+
+/**
+ * 上传磁盘读取
+ * 上传请求在磁盘读取线程读取数据，读取完成以后交给发送线程发送：网络线程不用读取磁盘，磁盘线程不用等待网络。
+ * 所有任务共用线程池和上传队列长度：等待读取磁盘的上传请求超过长度拒绝请求。
+ * 
+ * @author acgist
+ */
+public final class TorrentReader {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentReader.class);
+    
+    private static final TorrentReader INSTANCE = new TorrentReader();
+    
+    public static final TorrentReader getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 等待读取的上传请求数量
+     */
+    private final AtomicInteger size;
+    /**
+     * 读取次数
+     */
+    private final AtomicLong readCount;
+    /**
+     * 拒绝次数
+     */
+    private final AtomicLong rejectCount;
+    /**
+     * 磁盘读取线程池
+     * 每个Peer同时只有一个读取任务：任务数量不会超过上传队列长度
+     */
+    private final ExecutorService executor;
+    
+    private TorrentReader() {
+        this.size = new AtomicInteger(0);
+        this.readCount = new AtomicLong(0);
+        this.rejectCount = new AtomicLong(0);
+        final int poolSize = SystemThreadContext.threadSize(2, 4);
+        final int[] executor = {poolSize, poolSize, Math.max(1, SystemConfig.getUploadQueueSize())};
+        this.executor = SystemThreadContext.newExecutor(executor, 60L, SystemThreadContext.SNAIL_THREAD_READ);
+    }
+    
+    /**
+     * 占用上传队列
+     * 
+     * @return 是否占用成功（上传队列已满：false）
+     * 
+     * @see #release(int)
+     */
+    public boolean acquire() {
+        final int maxSize = SystemConfig.getUploadQueueSize();
+        int current;
+        do {
+            current = this.size.get();
+            if(current >= maxSize) {
+                this.rejectCount.incrementAndGet();
+                LOGGER.debug("上传队列已满：{}", current);
+                return false;
+            }
+        } while(!this.size.compareAndSet(current, current + 1));
+        return true;
+    }
+    
+    /**
+     * 释放上传队列
+     * 
+     * @param count 释放数量
+     */
+    public void release(int count) {
+        if(count > 0) {
+            this.size.addAndGet(-count);
+        }
+    }
+    
+    /**
+     * 读取数据
+     * 
+     * @param runnable 读取任务
+     */
+    public void read(Runnable runnable) {
+        this.readCount.incrementAndGet();
+        this.executor.submit(runnable);
+    }
+    
+    /**
+     * @return 等待读取的上传请求数量
+     */
+    public int size() {
+        return this.size.get();
+    }
+    
+    /**
+     * @return 读取次数
+     */
+    public long readCount() {
+        return this.readCount.get();
+    }
+    
+    /**
+     * @return 拒绝次数
+     */
+    public long rejectCount() {
+        return this.rejectCount.get();
+    }
+    
+}
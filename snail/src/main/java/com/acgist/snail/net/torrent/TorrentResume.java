@@ -0,0 +1,236 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.format.BEncodeDecoder;
+import com.acgist.snail.format.BEncodeEncoder;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.net.PacketSizeException;
+import com.acgist.snail.utils.FileUtils;
+
+/**
+ * 快速恢复信息
+ * 保存已经下载Piece位图和文件大小、修改时间：重启任务时文件没有修改直接使用位图不用校验文件
+ * 文件修改以后只需要校验修改的文件
+ * 没有完成的Piece不会写入磁盘（校验成功以后才会写入磁盘），所以不用保存Piece下载进度。
+ * 
+ * @author acgist
+ */
+public final class TorrentResume {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentResume.class);
+    
+    /**
+     * 快速恢复文件后缀：{@value}
+     */
+    public static final String RESUME_SUFFIX = ".resume";
+    /**
+     * 已经下载Piece位图：{@value}
+     */
+    private static final String ATTR_PIECES = "pieces";
+    /**
+     * 文件信息：{@value}
+     */
+    private static final String ATTR_FILES = "files";
+    
+    /**
+     * 快速恢复文件路径
+     */
+    private final String path;
+    /**
+     * 已经下载Piece位图
+     */
+    private BitSet pieces;
+    /**
+     * 文件信息
+     * 文件路径=文件信息
+     */
+    private final Map<String, ResumeFile> files;
+    
+    /**
+     * @param path 快速恢复文件路径
+     */
+    private TorrentResume(String path) {
+        this.path = path;
+        this.files = new HashMap<>();
+    }
+    
+    /**
+     * 新建快速恢复信息
+     * 
+     * @param torrentPath 种子文件路径
+     * 
+     * @return {@link TorrentResume}
+     */
+    public static final TorrentResume newInstance(String torrentPath) {
+        return new TorrentResume(torrentPath == null ? null : torrentPath + RESUME_SUFFIX);
+    }
+    
+    /**
+     * 加载快速恢复信息
+     * 
+     * @return 是否加载成功
+     */
+    public boolean load() {
+        this.pieces = null;
+        this.files.clear();
+        if(this.path == null || !new File(this.path).exists()) {
+            return false;
+        }
+        try {
+            final var decoder = BEncodeDecoder.newInstance(Files.readAllBytes(Paths.get(this.path))).next();
+            if(decoder.isEmpty()) {
+                return false;
+            }
+            final byte[] pieces = decoder.getBytes(ATTR_PIECES);
+            final Map<String, Object> files = decoder.getMap(ATTR_FILES);
+            if(pieces == null || files == null) {
+                return false;
+            }
+            for (Map.Entry<String, Object> entry : files.entrySet()) {
+                if(entry.getValue() instanceof List<?> list && list.size() == 2) {
+                    this.files.put(entry.getKey(), new ResumeFile((Long) list.get(0), (Long) list.get(1)));
+                }
+            }
+            this.pieces = BitSet.valueOf(pieces);
+            return true;
+        } catch (IOException | PacketSizeException | RuntimeException e) {
+            LOGGER.error("加载快速恢复信息异常：{}", this.path, e);
+            this.files.clear();
+            return false;
+        }
+    }
+    
+    /**
+     * 保存快速恢复信息
+     * 保存之前需要刷出缓存：保证文件修改时间是最后写入时间
+     * 
+     * @param pieces  已经下载Piece位图
+     * @param streams 文件流
+     */
+    public void save(BitSet pieces, List<TorrentStream> streams) {
+        if(this.path == null) {
+            return;
+        }
+        final Map<String, Object> files = new HashMap<>();
+        for (TorrentStream stream : streams) {
+            final File file = new File(stream.filePath());
+            if(file.exists()) {
+                files.put(stream.filePath(), List.of(file.length(), file.lastModified()));
+            }
+        }
+        final Map<String, Object> resume = new HashMap<>();
+        resume.put(ATTR_PIECES, pieces.toByteArray());
+        resume.put(ATTR_FILES, files);
+        FileUtils.write(this.path, BEncodeEncoder.encodeMap(resume));
+    }
+    
+    /**
+     * 获取已经下载Piece位图
+     * 
+     * @return 已经下载Piece位图（没有信息：null）
+     */
+    public BitSet pieces() {
+        return this.pieces;
+    }
+    
+    /**
+     * 判断是否含有文件信息
+     * 
+     * @param filePath 文件路径
+     * 
+     * @return 是否含有
+     */
+    public boolean contain(String filePath) {
+        return this.files.containsKey(filePath);
+    }
+    
+    /**
+     * 判断文件是否没有修改
+     * 文件大小和修改时间一致
+     * 
+     * @param filePath 文件路径
+     * 
+     * @return 是否没有修改
+     */
+    public boolean unchanged(String filePath) {
+        final ResumeFile resumeFile = this.files.get(filePath);
+        if(resumeFile == null) {
+            return false;
+        }
+        final File file = new File(filePath);
+        return
+            file.exists() &&
+            file.length() == resumeFile.size() &&
+            file.lastModified() == resumeFile.modified();
+    }
+    
+    /**
+     * 判断是否可以做种（做种模式）
+     * 文件已经存在并且文件大小一致直接标记下载完成不用校验文件
+     * 
+     * @param filePath 文件路径
+     * @param fileSize 文件大小
+     * 
+     * @return 是否可以做种
+     * 
+     * @see SystemConfig#getResumeSeedMode()
+     */
+    public static final boolean seedMode(String filePath, long fileSize) {
+        if(!SystemConfig.getResumeSeedMode()) {
+            return false;
+        }
+        final File file = new File(filePath);
+        return file.exists() && file.length() == fileSize;
+    }
+    
+    /**
+     * 判断快速恢复信息是否有效
+     * 
+     * @return 是否有效
+     */
+    public boolean available() {
+        return this.pieces != null;
+    }
+    
+    /**
+     * 获取快速恢复文件路径
+     * 
+     * @return 快速恢复文件路径
+     */
+    public String path() {
+        return this.path;
+    }
+    
+    @Override
+    public String toString() {
+        return this.path;
+    }
+    
+    /**
+     * 文件信息
+     * 
+     * @author acgist
+     */
+    private static final record ResumeFile(
+        /**
+         * 文件大小
+         */
+        long size,
+        /**
+         * 修改时间
+         */
+        long modified
+    ) {
+    }
+    
+}
@@ -1,14 +1,17 @@
 package com.acgist.snail.net.torrent;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.BitSet;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.acgist.snail.config.PeerConfig.Action;
+import com.acgist.snail.config.PeerConfig.PieceStrategy;
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.context.IStatisticsSession;
 import com.acgist.snail.context.ITaskSession;
@@ -62,6 +65,11 @@ public final class TorrentSession implements IMultifileCompletedChecker {
      * 下载状态
      */
     private volatile boolean downloadable = false;
+    /**
+     * 重复下载大小
+     * 任务接近完成时多个Peer共享下载同一个Piece：重复下载的Slice
+     */
+    private final AtomicLong duplicateSize = new AtomicLong(0);
     /**
      * 磁力链接
      */
@@ -607,6 +615,36 @@ public final class TorrentSession implements IMultifileCompletedChecker {
         PeerContext.getInstance().have(this.infoHashHex(), index);
     }
     
+    /**
+     * 发送cancel消息
+     * 共享下载的Piece收到Slice以后取消其他Peer的相同请求
+     * 
+     * @param index  Piece索引
+     * @param begin  Piece内偏移
+     * @param length 数据长度
+     * 
+     * @see PeerContext#cancel(String, int, int, int)
+     */
+    public void cancel(int index, int begin, int length) {
+        PeerContext.getInstance().cancel(this.infoHashHex(), index, begin, length);
+    }
+    
+    /**
+     * 统计重复下载大小
+     * 
+     * @param size 数据大小
+     */
+    public void duplicate(int size) {
+        this.duplicateSize.addAndGet(size);
+    }
+    
+    /**
+     * @return 重复下载大小
+     */
+    public long duplicateSize() {
+        return this.duplicateSize.get();
+    }
+    
     /**
      * 获取任务名称
      * 
@@ -636,17 +674,35 @@ public final class TorrentSession implements IMultifileCompletedChecker {
         return this.taskSession.getSize();
     }
     
+    /**
+     * 新建快速恢复信息
+     * 
+     * @return 快速恢复信息
+     */
+    public TorrentResume buildResume() {
+        final TorrentResume torrentResume = TorrentResume.newInstance(this.taskSession.getTorrent());
+        if(torrentResume.load()) {
+            LOGGER.debug("加载快速恢复信息：{}", torrentResume);
+        }
+        return torrentResume;
+    }
+    
     /**
      * 新建已经下载Piece位图
+     * 任务没有位图时使用快速恢复信息位图
+     * 
+     * @param torrentResume 快速恢复信息
      * 
      * @return 已经下载Piece位图
      */
-    public BitSet buildPieces() {
+    public BitSet buildPieces(TorrentResume torrentResume) {
         final byte[] payload = this.taskSession.getPayload();
-        if(payload == null) {
-            return new BitSet(this.torrent.getInfo().pieceSize());
-        } else {
+        if(payload != null) {
             return BitSet.valueOf(payload);
+        } else if(torrentResume.available()) {
+            return torrentResume.pieces();
+        } else {
+            return new BitSet(this.torrent.getInfo().pieceSize());
         }
     }
     
@@ -660,6 +716,9 @@ public final class TorrentSession implements IMultifileCompletedChecker {
         this.taskSession.setPayload(payload);
         if(persistent) {
             this.taskSession.update();
+            if(this.torrentStreamGroup != null) {
+                this.torrentStreamGroup.saveResume();
+            }
         }
     }
     
@@ -825,18 +884,54 @@ public final class TorrentSession implements IMultifileCompletedChecker {
         this.torrentStreamGroup.piecePos(index);
     }
     
+    /**
+     * 移动边下边播读取位置
+     * 
+     * @param index Piece索引（-1：关闭边下边播）
+     * 
+     * @see TorrentStreamGroup#streaming(int)
+     */
+    public void streaming(int index) {
+        this.torrentStreamGroup.streaming(index);
+    }
+    
+    /**
+     * 获取边下边播地址
+     * 
+     * @param fileIndex 文件索引（种子文件列表索引）
+     * 
+     * @return 边下边播地址（服务启动失败：null）
+     * 
+     * @see TorrentStreamingServer#url(String, int)
+     */
+    public String streamingUrl(int fileIndex) {
+        return TorrentStreamingServer.getInstance().url(this.infoHashHex(), fileIndex);
+    }
+    
     /**
      * 挑选下载Piece
      * 
      * @param peerPieces    Peer已经下载Piece位图
      * @param suggestPieces Peer推荐Piece位图
+     * @param speed         Peer下载速度
      * 
      * @return 下载Piece
      * 
-     * @see TorrentStreamGroup#pick(BitSet, BitSet)
+     * @see TorrentStreamGroup#pick(BitSet, BitSet, long)
      */
-    public TorrentPiece pick(BitSet peerPieces, BitSet suggestPieces) {
-        return torrentStreamGroup.pick(peerPieces, suggestPieces);
+    public TorrentPiece pick(BitSet peerPieces, BitSet suggestPieces, long speed) {
+        return torrentStreamGroup.pick(peerPieces, suggestPieces, speed);
+    }
+    
+    /**
+     * 判断是否缓存背压
+     * 
+     * @return 是否缓存背压
+     * 
+     * @see TorrentStreamGroup#backpressure()
+     */
+    public boolean backpressure() {
+        return this.torrentStreamGroup.backpressure();
     }
     
     /**
@@ -855,7 +950,87 @@ public final class TorrentSession implements IMultifileCompletedChecker {
     public byte[] read(int index, int begin, int length) throws NetException {
         return this.torrentStreamGroup.read(index, begin, length);
     }
+    
+    /**
+     * 读取Piece数据到缓冲
+     * 
+     * @param index  Piece索引
+     * @param begin  Piece偏移
+     * @param buffer 缓冲（读取大小：剩余大小）
+     * 
+     * @throws NetException 网络异常
+     * 
+     * @see TorrentStreamGroup#read(int, int, ByteBuffer)
+     */
+    public void read(int index, int begin, ByteBuffer buffer) throws NetException {
+        this.torrentStreamGroup.read(index, begin, buffer);
+    }
 
+    /**
+     * 计算数据块Hash
+     * 
+     * @param piecesRoot 文件Merkle树根Hash
+     * @param index      叶子节点在文件中的索引
+     * @param length     叶子节点数量
+     * 
+     * @return 数据块Hash（没有下载：null）
+     * 
+     * @throws NetException 网络异常
+     * 
+     * @see TorrentStreamGroup#hashes(byte[], int, int)
+     */
+    public byte[][] hashes(byte[] piecesRoot, int index, int length) throws NetException {
+        return this.torrentStreamGroup.hashes(piecesRoot, index, length);
+    }
+    
+    /**
+     * 设置下载中Piece的数据块Hash
+     * 
+     * @param piecesRoot 文件Merkle树根Hash
+     * @param index      叶子节点在文件中的索引
+     * @param hashes     数据块Hash
+     * 
+     * @return 发送校验失败Slice的Peer
+     * 
+     * @see TorrentStreamGroup#leaves(byte[], int, byte[][])
+     */
+    public List<PeerSession> leaves(byte[] piecesRoot, int index, byte[][] hashes) {
+        return this.torrentStreamGroup.leaves(piecesRoot, index, hashes);
+    }
+    
+    /**
+     * Piece校验失败
+     * 
+     * @param piece Piece
+     * 
+     * @see TorrentStreamGroup#verifyFail(TorrentPiece)
+     */
+    public void verifyFail(TorrentPiece piece) {
+        this.torrentStreamGroup.verifyFail(piece);
+    }
+    
+    /**
+     * Piece校验成功
+     * 
+     * @param piece Piece
+     * 
+     * @see TorrentStreamGroup#verifySuccess(TorrentPiece)
+     */
+    public void verifySuccess(TorrentPiece piece) {
+        this.torrentStreamGroup.verifySuccess(piece);
+    }
+    
+    /**
+     * 记录Peer发送错误数据
+     * 
+     * @param peerSession Peer信息
+     * 
+     * @see TorrentStreamGroup#corrupt(PeerSession)
+     */
+    public void corrupt(PeerSession peerSession) {
+        this.torrentStreamGroup.corrupt(peerSession);
+    }
+    
     /**
      * 保存Piece
      * 
@@ -913,6 +1088,65 @@ public final class TorrentSession implements IMultifileCompletedChecker {
         this.torrentStreamGroup.fullPieces();
     }
     
+    /**
+     * 增加Piece可用数量
+     * 
+     * @param pieces Peer新增Piece位图
+     * 
+     * @see TorrentStreamGroup#available(BitSet)
+     */
+    public void available(BitSet pieces) {
+        this.torrentStreamGroup.available(pieces);
+    }
+    
+    /**
+     * 增加Piece可用数量
+     * 
+     * @param index Piece索引
+     * 
+     * @see TorrentStreamGroup#available(int)
+     */
+    public void available(int index) {
+        this.torrentStreamGroup.available(index);
+    }
+    
+    /**
+     * 减少Piece可用数量
+     * 
+     * @param pieces Peer减少Piece位图
+     * 
+     * @see TorrentStreamGroup#unavailable(BitSet)
+     */
+    public void unavailable(BitSet pieces) {
+        if(this.torrentStreamGroup != null) {
+            this.torrentStreamGroup.unavailable(pieces);
+        }
+    }
+    
+    /**
+     * 减少Piece可用数量
+     * 
+     * @param index Piece索引
+     * 
+     * @see TorrentStreamGroup#unavailable(int)
+     */
+    public void unavailable(int index) {
+        if(this.torrentStreamGroup != null) {
+            this.torrentStreamGroup.unavailable(index);
+        }
+    }
+    
+    /**
+     * 设置Piece挑选策略
+     * 
+     * @param strategy Piece挑选策略
+     * 
+     * @see TorrentStreamGroup#strategy(PieceStrategy)
+     */
+    public void strategy(PieceStrategy strategy) {
+        this.torrentStreamGroup.strategy(strategy);
+    }
+    
     /**
      * 获取健康度
      * 
@@ -940,6 +1174,17 @@ public final class TorrentSession implements IMultifileCompletedChecker {
         return false;
     }
     
+    /**
+     * 获取校验进度
+     * 
+     * @return 校验进度（0~100）
+     * 
+     * @see TorrentStreamGroup#verifyProgress()
+     */
+    public int verifyProgress() {
+        return this.torrentStreamGroup.verifyProgress();
+    }
+    
     /**
      * 获取已经下载Piece位图
      * 
@@ -0,0 +1,194 @@
+package com.acgist.snail.net.torrent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.net.torrent.peer.PeerSession;
+import com.acgist.snail.utils.DigestUtils;
+
+/**
+ * 错误数据Peer识别
+ * Piece校验失败时记录每个Slice的Hash和来源Peer，重新下载校验成功以后对比Slice Hash：Hash不同的Slice来源Peer发送错误数据。
+ * 错误次数超过限制禁止Peer连接。
+ * 
+ * @author acgist
+ */
+public final class TorrentSmartBan {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentSmartBan.class);
+    
+    /**
+     * 最大校验失败记录数量：{@value}
+     */
+    private static final int MAX_SIZE = 128;
+    
+    /**
+     * 校验失败记录
+     * Piece开始偏移=Slice记录
+     */
+    private final Map<Long, Block[]> records;
+    
+    private TorrentSmartBan() {
+        this.records = new LinkedHashMap<>();
+    }
+    
+    /**
+     * 新建错误数据Peer识别
+     * 
+     * @return {@link TorrentSmartBan}
+     */
+    public static final TorrentSmartBan newInstance() {
+        return new TorrentSmartBan();
+    }
+    
+    /**
+     * Piece校验失败
+     * 所有来源Peer设置下载错误Piece位图；只有一个来源Peer直接记录错误，否则记录Slice Hash等待对比。
+     * 
+     * @param piece Piece
+     */
+    public void fail(TorrentPiece piece) {
+        final byte[] data = piece.getData();
+        if(data == null) {
+            return;
+        }
+        final Block[] blocks = new Block[piece.sliceSize()];
+        final List<PeerSession> sources = new ArrayList<>();
+        for (int slice = 0; slice < blocks.length; slice++) {
+            final PeerSession source = piece.source(slice);
+            if(source == null) {
+                continue;
+            }
+            final int position = slice * TorrentPiece.SLICE_LENGTH;
+            final byte[] hash = hash(data, position, piece.sliceLength(position));
+            blocks[slice] = new Block(hash, source);
+            if(!sources.contains(source)) {
+                sources.add(source);
+            }
+        }
+        sources.forEach(source -> source.badPieces(piece.getIndex()));
+        if(sources.size() == 1) {
+            this.corrupt(sources.get(0));
+            return;
+        }
+        if(sources.isEmpty()) {
+            return;
+        }
+        synchronized (this.records) {
+            if(this.records.size() >= MAX_SIZE && !this.records.containsKey(piece.beginPos())) {
+                // 删除最早记录
+                final var iterator = this.records.keySet().iterator();
+                iterator.next();
+                iterator.remove();
+            }
+            this.records.put(piece.beginPos(), blocks);
+        }
+    }
+    
+    /**
+     * 判断Piece是否等待对比
+     * 等待对比的Piece不能共享下载：防止混入错误数据来源
+     * 
+     * @param beginPos Piece开始偏移
+     * 
+     * @return 是否等待对比
+     */
+    public boolean suspect(long beginPos) {
+        synchronized (this.records) {
+            return this.records.containsKey(beginPos);
+        }
+    }
+    
+    /**
+     * Piece校验成功
+     * 对比校验失败记录：Slice Hash不同的来源Peer记录错误
+     * 
+     * @param piece Piece
+     */
+    public void success(TorrentPiece piece) {
+        final Block[] blocks;
+        synchronized (this.records) {
+            blocks = this.records.remove(piece.beginPos());
+        }
+        final byte[] data = piece.getData();
+        if(blocks == null || data == null || blocks.length != piece.sliceSize()) {
+            return;
+        }
+        final List<PeerSession> corruptPeers = new ArrayList<>();
+        for (int slice = 0; slice < blocks.length; slice++) {
+            final Block block = blocks[slice];
+            if(block == null || corruptPeers.contains(block.source)) {
+                continue;
+            }
+            final int position = slice * TorrentPiece.SLICE_LENGTH;
+            final byte[] hash = hash(data, position, piece.sliceLength(position));
+            if(!Arrays.equals(hash, block.hash)) {
+                corruptPeers.add(block.source);
+            }
+        }
+        corruptPeers.forEach(this::corrupt);
+    }
+    
+    /**
+     * 记录Peer发送错误数据
+     * 
+     * @param peerSession Peer信息
+     */
+    public void corrupt(PeerSession peerSession) {
+        if(peerSession.corrupt()) {
+            LOGGER.warn("禁止Peer（发送错误数据）：{}", peerSession);
+        } else {
+            LOGGER.debug("Peer发送错误数据：{}", peerSession);
+        }
+    }
+    
+    /**
+     * @return 校验失败记录数量
+     */
+    public int size() {
+        synchronized (this.records) {
+            return this.records.size();
+        }
+    }
+    
+    /**
+     * 清除校验失败记录
+     */
+    public void clear() {
+        synchronized (this.records) {
+            this.records.clear();
+        }
+    }
+    
+    /**
+     * 计算Slice Hash
+     * 
+     * @param data   数据
+     * @param offset 数据偏移
+     * @param length 数据长度
+     * 
+     * @return Slice Hash
+     */
+    private static final byte[] hash(byte[] data, int offset, int length) {
+        final var digest = DigestUtils.sha1();
+        digest.update(data, offset, length);
+        return digest.digest();
+    }
+    
+    /**
+     * Slice记录
+     * 
+     * @author acgist
+     * 
+     * @param hash   Slice Hash
+     * @param source 来源Peer
+     */
+    private static final record Block(byte[] hash, PeerSession source) {
+    }
+    
+}
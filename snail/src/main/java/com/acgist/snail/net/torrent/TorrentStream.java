@@ -1,15 +1,18 @@
 package com.acgist.snail.net.torrent;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.logger.Logger;
@@ -17,8 +20,6 @@ import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.net.DownloadException;
 import com.acgist.snail.utils.BeanUtils;
 import com.acgist.snail.utils.DigestUtils;
-import com.acgist.snail.utils.FileUtils;
-import com.acgist.snail.utils.IoUtils;
 import com.acgist.snail.utils.StringUtils;
 
 /**
@@ -31,9 +32,13 @@ public final class TorrentStream {
     private static final Logger LOGGER = LoggerFactory.getLogger(TorrentStream.class);
     
     /**
-     * 文件流模式：{@value}
+     * 单次集中写入最大Piece数量：{@value}
      */
-    private static final String STREAM_MODE = "rw";
+    private static final int MAX_FLUSH_SIZE = 64;
+    /**
+     * 单次集中写入最大数据大小：{@value}
+     */
+    private static final long MAX_FLUSH_LENGTH = 16L * SystemConfig.ONE_MB;
 
     /**
      * 文件是否选择下载
@@ -95,15 +100,33 @@ public final class TorrentStream {
      */
     private final BlockingQueue<TorrentPiece> cachePieces;
     /**
-     * 文件流
-     * 
-     * TODO：使用NIO（FileChannel或者MappedByteBuffer）结合TorrentPiece优化读写性能（没太大必要毕竟下载最重要的问题是网络IO）
+     * 最早缓存时间
+     * 没有缓存：0
+     */
+    private volatile long cacheTime;
+    /**
+     * 是否需要重新校验
+     * 快速恢复信息记录文件已经修改
+     */
+    private boolean recheck;
+    /**
+     * 刷出锁
+     * 文件读写不用加锁（绝对偏移读写），只有刷出缓存需要顺序执行。
      */
-    private final RandomAccessFile fileStream;
+    private final Lock flushLock;
+    /**
+     * 文件存储
+     */
+    private final ITorrentStorage storage;
     /**
      * 文件流组
      */
     private final TorrentStreamGroup torrentStreamGroup;
+    /**
+     * 文件Merkle树
+     * V2种子和混合种子使用
+     */
+    private volatile TorrentMerkle merkle;
     
     /**
      * @param pieceLength        Piece大小
@@ -137,9 +160,17 @@ public final class TorrentStream {
         this.pausePieces = new BitSet();
         this.downloadPieces = new BitSet();
         this.cachePieces = new LinkedBlockingQueue<>();
-        this.fileStream = this.buildFileStream();
+        this.cacheTime = 0L;
+        this.recheck = false;
+        this.flushLock = new ReentrantLock();
         this.torrentStreamGroup = torrentStreamGroup;
-        this.buildPieces(completed);
+        // 新建文件存储之前判断做种模式：内存映射会新建完整大小文件
+        final boolean seedMode =
+            !completed &&
+            torrentStreamGroup.seedMode() &&
+            TorrentResume.seedMode(path, size);
+        this.storage = this.buildStorage();
+        this.buildPieces(completed, seedMode);
         this.buildFileDownloadSize();
         if(LOGGER.isDebugEnabled()) {
             final int downloadPieceSize = this.pieces.cardinality();
@@ -187,19 +218,21 @@ public final class TorrentStream {
     }
     
     /**
-     * 新建文件流
+     * 新建文件存储
+     * 小文件使用内存映射，其他文件使用FileChannel。
      * 
-     * @return 文件流
+     * @return 文件存储
      * 
      * @throws DownloadException 下载异常
+     * 
+     * @see SystemConfig#getStorageMappedSizeByte()
      */
-    private RandomAccessFile buildFileStream() throws DownloadException {
-        FileUtils.buildParentFolder(this.filePath);
-        try {
-            return new RandomAccessFile(this.filePath, STREAM_MODE);
-        } catch (FileNotFoundException e) {
-            throw new DownloadException("新建文件流失败：" + this.filePath, e);
+    private ITorrentStorage buildStorage() throws DownloadException {
+        final long mappedSize = SystemConfig.getStorageMappedSizeByte();
+        if(this.fileSize > 0L && this.fileSize <= mappedSize) {
+            return TorrentMappedStorage.newInstance(this.filePath, this.fileSize);
         }
+        return TorrentFileStorage.newInstance(this.filePath);
     }
     
     /**
@@ -216,6 +249,15 @@ public final class TorrentStream {
         this.selected = false;
     }
     
+    /**
+     * 设置文件Merkle树
+     * 
+     * @param merkle 文件Merkle树
+     */
+    void merkle(TorrentMerkle merkle) {
+        this.merkle = merkle;
+    }
+    
     /**
      * 判断是否选择下载
      * 
@@ -278,24 +320,121 @@ public final class TorrentStream {
                 return null;
             }
             LOGGER.debug("选择Piece（选中）：{}-{}", index, this.downloadPieces);
-            this.downloadPieces.set(index);
-            // 是否验证：第一块和最后一块不用校验
-            boolean verify = true;
-            // Piece开始内偏移
-            int begin = 0;
-            if(index == this.fileBeginPieceIndex) {
-                verify = false;
-                begin = this.firstPiecePos();
+            return this.buildPiece(index);
+        }
+    }
+    
+    /**
+     * 挑选指定下载Piece
+     * 
+     * @param index Piece索引
+     * 
+     * @return 下载Piece（文件不含该Piece或者已经下载返回：null）
+     */
+    TorrentPiece pick(int index) {
+        if(index < this.fileBeginPieceIndex || index > this.fileEndPieceIndex) {
+            return null;
+        }
+        synchronized (this) {
+            if(this.pieces.get(index)) {
+                return null;
             }
-            // Piece结束内偏移
-            int end = (int) this.pieceLength;
-            if(index == this.fileEndPieceIndex) {
-                verify = false;
-                end = this.lastPiecePos();
+            LOGGER.debug("选择Piece（指定）：{}-{}", index, this.downloadPieces);
+            return this.buildPiece(index);
+        }
+    }
+    
+    /**
+     * 设置下载中的Piece
+     * 继续下载部分下载的Piece时使用
+     * 
+     * @param piece Piece
+     * 
+     * @return 是否设置成功（文件不含该Piece或者已经下载返回：false）
+     */
+    boolean download(TorrentPiece piece) {
+        if(!piece.contain(this.fileBeginPos, this.fileEndPos)) {
+            return false;
+        }
+        synchronized (this) {
+            if(this.pieces.get(piece.getIndex())) {
+                return false;
             }
-            // 快速循环挑选Piece：新建Piece数据消耗性能
-            final byte[] hash = this.torrentStreamGroup.pieceHash(index);
-            return TorrentPiece.newInstance(this.pieceLength, index, begin, end, hash, verify);
+            this.downloadPieces.set(piece.getIndex());
+            return true;
+        }
+    }
+    
+    /**
+     * 新建下载Piece
+     * 设置下载中的Piece
+     * 
+     * @param index Piece索引
+     * 
+     * @return 下载Piece（缓冲池用完：null）
+     */
+    private TorrentPiece buildPiece(int index) {
+        // 是否验证：第一块和最后一块不用校验
+        boolean verify = true;
+        // Piece开始内偏移
+        int begin = 0;
+        if(index == this.fileBeginPieceIndex) {
+            verify = false;
+            begin = this.firstPiecePos();
+        }
+        if(this.downloadPieces.get(index)) {
+            // 重复挑选下载中的Piece（任务接近完成）：共享下载
+            final TorrentPiece sharePiece = this.torrentStreamGroup.share(index * this.pieceLength + begin);
+            if(sharePiece != null) {
+                return sharePiece;
+            }
+        }
+        this.downloadPieces.set(index);
+        // Piece结束内偏移
+        int end = (int) this.pieceLength;
+        if(index == this.fileEndPieceIndex) {
+            verify = false;
+            end = this.lastPiecePos();
+        }
+        // 快速循环挑选Piece：新建Piece数据消耗性能
+        final byte[] hash = this.torrentStreamGroup.pieceHash(index);
+        final TorrentPiece piece = TorrentPiece.newInstance(this.pieceLength, index, begin, end, hash, verify);
+        if(piece != null && this.merkle != null) {
+            // 文件第一块和最后一块可以使用Merkle树校验
+            piece.merkle(this.merkle, index - this.fileBeginPieceIndex);
+        }
+        if(piece == null) {
+            // 缓冲池用完
+            this.downloadPieces.clear(index);
+        } else if(!this.torrentStreamGroup.downloading(piece)) {
+            // 相同位置已经有下载中的Piece（不能共享下载）：不能重复下载
+            LOGGER.debug("选择Piece（正在下载）：{}", index);
+            piece.release();
+            return null;
+        }
+        return piece;
+    }
+    
+    /**
+     * 挑选文件范围内的下载Piece位图
+     * 稀有优先策略使用：文件流组合并所有文件位图以后挑选
+     * 
+     * @param peerPieces    Peer已经下载Piece位图
+     * @param suggestPieces Peer推荐Piece位图
+     * 
+     * @return 下载Piece位图
+     * 
+     * @see #pickPieces(BitSet, BitSet)
+     */
+    BitSet pickFilePieces(final BitSet peerPieces, final BitSet suggestPieces) {
+        if(this.completed()) {
+            return new BitSet();
+        }
+        synchronized (this) {
+            final BitSet pickPieces = this.pickPieces(peerPieces, suggestPieces);
+            pickPieces.clear(0, this.fileBeginPieceIndex);
+            pickPieces.clear(this.fileEndPieceIndex + 1, Math.max(pickPieces.length(), this.fileEndPieceIndex + 1));
+            return pickPieces;
         }
     }
 
@@ -372,9 +511,14 @@ public final class TorrentStream {
                 // 此处不能返回成功：防止计算文件已经下载大小错误
                 return false;
             }
+            if(this.cachePieces.isEmpty()) {
+                this.cacheTime = System.currentTimeMillis();
+            }
             // 加入缓存队列
             if(this.cachePieces.offer(piece)) {
                 LOGGER.debug("保存Piece成功：{}", index);
+                // 缓存持有引用：写出以后释放
+                piece.retain();
                 this.done(index);
                 this.buildFileDownloadSize();
                 // 下载完成数据刷出
@@ -432,9 +576,7 @@ public final class TorrentStream {
      * @see #read(int, int, int, boolean)
      */
     public byte[] read(int index, int length, int pos) {
-        synchronized (this) {
-            return this.read(index, length, pos, false);
-        }
+        return this.read(index, length, pos, false);
     }
     
     /**
@@ -450,14 +592,20 @@ public final class TorrentStream {
      * @return Piece数据
      */
     private byte[] read(int index, int length, int pos, boolean ignoreHasPiece) {
-        // 判断Piece数据是否已经下载
-        if(!ignoreHasPiece && !this.hasPiece(index)) {
-            return null;
-        }
-        // 读取缓存数据
-        final TorrentPiece cachePiece = this.cachePiece(index);
-        if(cachePiece != null) {
-            return cachePiece.read(pos, length);
+        synchronized (this) {
+            // 判断Piece数据是否已经下载
+            if(!ignoreHasPiece && !this.hasPiece(index)) {
+                return null;
+            }
+            // 读取缓存数据：缓存数据写出完成才会移除
+            final TorrentPiece cachePiece = this.cachePiece(index);
+            if(cachePiece != null) {
+                final byte[] bytes = cachePiece.read(pos, length);
+                // 缓存已经释放：数据已经写出读取文件数据
+                if(bytes != null) {
+                    return bytes;
+                }
+            }
         }
         // 读取文件数据
         // 文件偏移
@@ -485,9 +633,8 @@ public final class TorrentStream {
         }
         try {
             final byte[] bytes = new byte[length];
-            // 注意线程安全
-            this.fileStream.seek(seek);
-            this.fileStream.read(bytes);
+            // 绝对偏移读取：不用加锁
+            this.storage.read(ByteBuffer.wrap(bytes), seek);
             return bytes;
         } catch (IOException e) {
             LOGGER.error("读取Piece异常：{}-{}-{}-{}", index, seek, length, pos, e);
@@ -495,6 +642,59 @@ public final class TorrentStream {
         return null;
     }
     
+    /**
+     * 读取Piece数据到缓冲
+     * 直接读取文件数据到缓冲：不用新建中间数组
+     * 缓冲剩余部分对应Piece数据[pos, pos + remaining)：只读取文件范围内的数据写入缓冲对应位置
+     * 数据可能跨越多个文件：不会修改缓冲位置，每个文件流按照绝对偏移写入自己的部分。
+     * 
+     * @param index  Piece索引
+     * @param pos    数据偏移
+     * @param buffer 缓冲（读取大小：剩余大小）
+     * 
+     * @return 读取数据大小（读取异常或者文件数据不完整：-1）
+     */
+    int read(int index, int pos, ByteBuffer buffer) {
+        final long rangePos = this.pieceLength * index + pos;
+        // 开始偏移
+        final long beginPos = Math.max(rangePos, this.fileBeginPos);
+        // 结束偏移
+        final long endPos = Math.min(rangePos + buffer.remaining(), this.fileEndPos);
+        if(beginPos >= endPos) {
+            return 0;
+        }
+        final int length = (int) (endPos - beginPos);
+        // 缓冲写入位置
+        final int position = buffer.position() + (int) (beginPos - rangePos);
+        synchronized (this) {
+            if(!this.hasPiece(index)) {
+                return 0;
+            }
+            final TorrentPiece cachePiece = this.cachePiece(index);
+            if(cachePiece != null) {
+                final byte[] bytes = cachePiece.read((int) (beginPos - this.pieceLength * index), length);
+                // 缓存只有部分数据：读取文件数据
+                if(bytes != null && bytes.length == length) {
+                    buffer.put(position, bytes);
+                    return length;
+                }
+            }
+        }
+        // 文件偏移
+        final long seek = beginPos - this.fileBeginPos;
+        try {
+            // 绝对偏移读取：不用加锁
+            final int size = this.storage.read(buffer.slice(position, length), seek);
+            if(size == length) {
+                return length;
+            }
+            LOGGER.warn("读取Piece数据不完整：{}-{}-{}-{}", index, seek, length, size);
+        } catch (IOException e) {
+            LOGGER.error("读取Piece异常：{}-{}-{}-{}", index, seek, length, pos, e);
+        }
+        return -1;
+    }
+    
     /**
      * 获取文件已经下载大小
      * 
@@ -547,7 +747,7 @@ public final class TorrentStream {
      */
     public void release() {
         this.flush();
-        IoUtils.close(this.fileStream);
+        this.storage.close();
     }
 
     /**
@@ -598,28 +798,91 @@ public final class TorrentStream {
      * @return 是否成功
      * 
      * @throws IOException IO异常
+     * 
+     * @see TorrentVerifier#verify(List)
      */
     public boolean verify() throws IOException {
-        int verifyFailCount = 0;
-        final boolean empty = this.fileStream.length() == 0;
-        synchronized (this) {
-            final MessageDigest digest = DigestUtils.sha1();
-            for (int index = this.fileBeginPieceIndex; index <= this.fileEndPieceIndex; index++) {
-                if(empty) {
-                    verifyFailCount++;
-                    this.verifyFail(index);
-                    continue;
+        this.flush();
+        return TorrentVerifier.getInstance().verify(List.of(this)) == 0;
+    }
+    
+    /**
+     * 校验连续Piece
+     * 按照缓冲大小分块读取连续Piece数据，Piece跨越数据块时分段计算Hash，只在设置Piece状态时加锁。
+     * 读取数据不会包含缓存数据：校验之前需要刷出缓存。
+     * 
+     * @param beginIndex 开始Piece索引
+     * @param endIndex   结束Piece索引（包含）
+     * @param buffer     读取缓冲（大小固定：不用大于Piece大小）
+     * @param digest     SHA-1算法工具
+     * 
+     * @return 校验失败Piece数量
+     * 
+     * @throws IOException IO异常
+     */
+    int verify(int beginIndex, int endIndex, ByteBuffer buffer, MessageDigest digest) throws IOException {
+        // 开始偏移
+        final long beginPos = Math.max(this.fileBeginPos, beginIndex * this.pieceLength);
+        // 结束偏移
+        final long endPos = Math.min(this.fileEndPos, (endIndex + 1) * this.pieceLength);
+        final BitSet verifyPieces = new BitSet();
+        // 当前Piece索引
+        int pieceIndex = beginIndex;
+        // 当前Piece是否含有数据：第一块和最后一块
+        boolean hasData = false;
+        long pos = beginPos;
+        digest.reset();
+        while(pos < endPos) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), endPos - pos));
+            // 绝对偏移读取：不用加锁
+            final int readSize = Math.max(0, this.storage.read(buffer, pos - this.fileBeginPos));
+            int offset = 0;
+            while(offset < readSize) {
+                // Piece结束偏移
+                final long pieceEndPos = Math.min(this.fileEndPos, (pieceIndex + 1) * this.pieceLength);
+                final int size = (int) Math.min(readSize - offset, pieceEndPos - pos - offset);
+                final boolean edge = pieceIndex == this.fileBeginPieceIndex || pieceIndex == this.fileEndPieceIndex;
+                if(edge) {
+                    // 验证是否有数据：第一块和最后一块
+                    hasData = hasData || this.hasData(buffer.slice(offset, size));
+                } else {
+                    // 分段计算Hash
+                    digest.update(buffer.slice(offset, size));
                 }
-                if(this.verify(index, digest)) {
+                offset += size;
+                if(pos + offset == pieceEndPos) {
+                    if(edge ? hasData : Arrays.equals(digest.digest(), this.torrentStreamGroup.pieceHash(pieceIndex))) {
+                        verifyPieces.set(pieceIndex);
+                    }
+                    hasData = false;
+                    pieceIndex++;
+                }
+            }
+            pos += readSize;
+            if(readSize < buffer.limit()) {
+                // 文件结束
+                break;
+            }
+        }
+        if(hasData) {
+            // 文件结束：第一块和最后一块只有部分数据
+            verifyPieces.set(pieceIndex);
+        }
+        // 没有完整数据的Piece
+        digest.reset();
+        final int verifyFailCount = endIndex - beginIndex + 1 - verifyPieces.cardinality();
+        synchronized (this) {
+            for (int index = beginIndex; index <= endIndex; index++) {
+                if(verifyPieces.get(index)) {
                     this.done(index);
                 } else {
-                    verifyFailCount++;
                     this.verifyFail(index);
                 }
             }
             this.buildFileDownloadSize();
         }
-        return verifyFailCount == 0;
+        this.torrentStreamGroup.verified(beginIndex, endIndex);
+        return verifyFailCount;
     }
     
     /**
@@ -635,55 +898,95 @@ public final class TorrentStream {
     
     /**
      * 刷出缓存
+     * 先写出数据再移除缓存：防止读取线程读到没有写出的数据
+     * 按照文件偏移排序，合并连续Piece集中写入。
+     * 
+     * @return 刷出Piece数量
      */
-    public void flush() {
-        synchronized (this) {
-            final var list = new ArrayList<TorrentPiece>();
-            this.cachePieces.drainTo(list);
-            list.forEach(this::flush);
+    public int flush() {
+        this.flushLock.lock();
+        try {
+            if(this.cachePieces.isEmpty()) {
+                return 0;
+            }
+            final var list = new ArrayList<TorrentPiece>(this.cachePieces);
+            list.sort(Comparator.comparingLong(TorrentPiece::beginPos));
+            int begin = 0;
+            long runSize = 0L;
+            for (int index = 0; index < list.size(); index++) {
+                final TorrentPiece piece = list.get(index);
+                final boolean adjacent = index > begin && list.get(index - 1).endPos() == piece.beginPos();
+                if(index > begin && (!adjacent || index - begin >= MAX_FLUSH_SIZE || runSize + piece.getLength() > MAX_FLUSH_LENGTH)) {
+                    this.flush(list.subList(begin, index));
+                    begin = index;
+                    runSize = 0L;
+                }
+                runSize += piece.getLength();
+            }
+            this.flush(list.subList(begin, list.size()));
+            this.cachePieces.removeAll(list);
+            list.forEach(TorrentPiece::release);
+            this.cacheTime = this.cachePieces.isEmpty() ? 0L : System.currentTimeMillis();
+            return list.size();
+        } finally {
+            this.flushLock.unlock();
         }
     }
     
     /**
-     * 写出Piece
+     * 写出连续Piece
      * 
-     * @param piece Piece
+     * @param pieces 连续Piece
      */
-    private void flush(TorrentPiece piece) {
-        final int index = piece.getIndex();
-        LOGGER.debug("写出Piece：{}", index);
-        // 数据偏移
-        int offset = 0;
+    private void flush(List<TorrentPiece> pieces) {
         // 文件偏移
-        long seek = 0L;
-        // 数据长度
-        int length = piece.getLength();
-        // 开始偏移
-        final long beginPos = piece.beginPos();
-        // 结束偏移
-        final long endPos = piece.endPos();
-        if(beginPos <= this.fileBeginPos) {
-            // Piece包含文件开始
-            offset = (int) (this.fileBeginPos - beginPos);
-            length = length - offset;
-        } else {
-            // 文件包含Piece开始
-            seek = beginPos - this.fileBeginPos;
-        }
-        if(endPos >= this.fileEndPos) {
-            // Piece包含文件结束
-            length = (int) (length - (endPos - this.fileEndPos));
+        long seek = -1L;
+        final ByteBuffer[] buffers = new ByteBuffer[pieces.size()];
+        for (int index = 0; index < buffers.length; index++) {
+            final TorrentPiece piece = pieces.get(index);
+            // 数据偏移
+            int offset = 0;
+            // 数据长度
+            int length = piece.getLength();
+            // 开始偏移
+            final long beginPos = piece.beginPos();
+            // 结束偏移
+            final long endPos = piece.endPos();
+            if(beginPos <= this.fileBeginPos) {
+                // Piece包含文件开始
+                offset = (int) (this.fileBeginPos - beginPos);
+                length = length - offset;
+                if(seek < 0L) {
+                    seek = 0L;
+                }
+            } else if(seek < 0L) {
+                // 文件包含Piece开始
+                seek = beginPos - this.fileBeginPos;
+            }
+            if(endPos >= this.fileEndPos) {
+                // Piece包含文件结束
+                length = (int) (length - (endPos - this.fileEndPos));
+            }
+            buffers[index] = ByteBuffer.wrap(piece.getData(), offset, length);
         }
+        LOGGER.debug("写出Piece：{}-{}", pieces.get(0).getIndex(), buffers.length);
         try {
-            final byte[] bytes = piece.getData();
-            // 注意线程安全
-            this.fileStream.seek(seek);
-            this.fileStream.write(bytes, offset, length);
+            // 集中写入：减少系统调用
+            this.storage.write(buffers, seek);
         } catch (IOException e) {
-            LOGGER.error("写出Piece异常：{}-{}-{}-{}", index, seek, offset, length, e);
+            LOGGER.error("写出Piece异常：{}-{}-{}", pieces.get(0).getIndex(), buffers.length, seek, e);
         }
     }
     
+    /**
+     * 获取最早缓存时间
+     * 
+     * @return 最早缓存时间（没有缓存：0）
+     */
+    public long cacheTime() {
+        return this.cacheTime;
+    }
+    
     /**
      * 读取Piece缓存数据
      * 
@@ -705,13 +1008,36 @@ public final class TorrentStream {
     
     /**
      * 加载已经下载Piece位图
+     * 快速恢复信息文件没有修改：直接使用位图
+     * 快速恢复信息文件已经修改：重新校验文件
+     * 没有快速恢复信息：做种模式或者校验第一块和最后一块
      * 
      * @param completed 任务是否完成
+     * @param seedMode  文件是否已经存在（做种模式）
      */
-    private void buildPieces(boolean completed) {
+    private void buildPieces(boolean completed, boolean seedMode) {
+        final TorrentResume torrentResume = this.torrentStreamGroup.torrentResume();
+        if(!completed && torrentResume.unchanged(this.filePath)) {
+            LOGGER.debug("文件没有修改（快速恢复）：{}", this.filePath);
+            for (int index = this.fileBeginPieceIndex; index <= this.fileEndPieceIndex; index++) {
+                if(this.torrentStreamGroup.hasPiece(index)) {
+                    this.done(index);
+                }
+            }
+            return;
+        }
+        if(!completed && torrentResume.contain(this.filePath)) {
+            LOGGER.debug("文件已经修改（重新校验）：{}", this.filePath);
+            this.recheck = true;
+            return;
+        }
         final MessageDigest digest = DigestUtils.sha1();
+        if(seedMode) {
+            seedMode = this.verifySeed(digest);
+            LOGGER.debug("文件已经存在（做种模式）：{}-{}", this.filePath, seedMode);
+        }
         for (int index = this.fileBeginPieceIndex; index <= this.fileEndPieceIndex; index++) {
-            if(completed) {
+            if(completed || seedMode) {
                 this.done(index);
             } else if(index == this.fileBeginPieceIndex) {
                 if(this.verify(index, digest)) {
@@ -727,6 +1053,35 @@ public final class TorrentStream {
         }
     }
     
+    /**
+     * 校验做种文件
+     * 第一块和最后一块必须含有数据，文件内部完整Piece校验第一块和最后一块Hash。
+     * 
+     * @param digest SHA-1算法工具
+     * 
+     * @return 是否校验成功
+     */
+    private boolean verifySeed(MessageDigest digest) {
+        // 最后一块包含数据的Piece索引
+        final int endIndex = this.fileBeginPieceIndex + this.filePieceSize - 1;
+        if(
+            endIndex < this.fileBeginPieceIndex ||
+            !this.verify(this.fileBeginPieceIndex, digest) ||
+            !this.verify(endIndex, digest)
+        ) {
+            return false;
+        }
+        // 文件内部完整Piece：已经校验Piece不用重复校验
+        final int beginInnerIndex = this.fileBeginPieceIndex + 1;
+        final int endInnerIndex = this.fileEndPieceIndex - 1;
+        if(beginInnerIndex > endInnerIndex) {
+            return true;
+        }
+        return
+            this.verify(beginInnerIndex, digest) &&
+            (endInnerIndex == beginInnerIndex || endInnerIndex == endIndex || this.verify(endInnerIndex, digest));
+    }
+    
     /**
      * 设置文件已经下载大小
      */
@@ -824,6 +1179,85 @@ public final class TorrentStream {
         return false;
     }
 
+    /**
+     * 判断是否含有数据
+     * 
+     * @param buffer 数据
+     * 
+     * @return 是否含有
+     */
+    private boolean hasData(ByteBuffer buffer) {
+        while(buffer.hasRemaining()) {
+            if(buffer.get() != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @return Piece大小
+     */
+    long pieceLength() {
+        return this.pieceLength;
+    }
+    
+    /**
+     * @return 是否需要重新校验
+     */
+    boolean recheck() {
+        return this.recheck;
+    }
+    
+    /**
+     * @return 文件路径
+     */
+    String filePath() {
+        return this.filePath;
+    }
+    
+    /**
+     * @return 文件大小
+     */
+    long fileSize() {
+        return this.fileSize;
+    }
+    
+    /**
+     * @return 文件存储
+     */
+    ITorrentStorage storage() {
+        return this.storage;
+    }
+    
+    /**
+     * @return 文件开始偏移
+     */
+    long fileBeginPos() {
+        return this.fileBeginPos;
+    }
+    
+    /**
+     * @return 文件结束偏移
+     */
+    long fileEndPos() {
+        return this.fileEndPos;
+    }
+    
+    /**
+     * @return 文件Piece开始索引
+     */
+    int fileBeginPieceIndex() {
+        return this.fileBeginPieceIndex;
+    }
+    
+    /**
+     * @return 文件Piece结束索引
+     */
+    int fileEndPieceIndex() {
+        return this.fileEndPieceIndex;
+    }
+    
     /**
      * 判断是否已经下载Piece数据
      * 
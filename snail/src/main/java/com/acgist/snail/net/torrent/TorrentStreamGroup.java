@@ -4,21 +4,34 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.acgist.snail.config.DownloadConfig;
 import com.acgist.snail.config.PeerConfig;
+import com.acgist.snail.config.PeerConfig.PieceStrategy;
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.PacketSizeException;
+import com.acgist.snail.net.torrent.peer.PeerSession;
 import com.acgist.snail.utils.CollectionUtils;
 import com.acgist.snail.utils.FileUtils;
+import com.acgist.snail.utils.StringUtils;
 
 /**
  * 文件流组
@@ -33,9 +46,35 @@ public final class TorrentStreamGroup {
      * 指定下载Piece索引
      * 选择下载Piece开始位置索引
      * 
-     * @see #pick(BitSet, BitSet)
+     * @see #pickSequence(BitSet, BitSet)
      */
     private volatile int piecePos = 0;
+    /**
+     * Piece挑选策略
+     * 
+     * @see #pick(BitSet, BitSet)
+     */
+    private volatile PieceStrategy strategy;
+    /**
+     * Piece可用数量
+     * 连接Peer中含有该Piece的Peer数量
+     */
+    private final AtomicIntegerArray availability;
+    /**
+     * 部分下载Piece
+     * Peer释放时没有下载完成的Piece：优先继续下载
+     * 
+     * @see #undone(TorrentPiece)
+     */
+    private final Map<Integer, TorrentPiece> partialPieces;
+    /**
+     * 下载中的Piece
+     * 任务接近完成时多个Peer共享下载同一个Piece：先到的Slice有效，其他Peer取消相同请求。
+     * Piece开始偏移=Piece
+     * 
+     * @see #share(long)
+     */
+    private final Map<Long, TorrentPiece> downloadPieces;
     /**
      * 已经下载Piece位图
      */
@@ -65,15 +104,59 @@ public final class TorrentStreamGroup {
      * 文件流中Piece缓存大小
      */
     private final AtomicLong fileBufferSize;
+    /**
+     * 校验Piece数量
+     */
+    private volatile int verifySize;
+    /**
+     * 已经校验Piece数量
+     */
+    private final AtomicInteger verifyCount;
+    /**
+     * 校验中Piece位图
+     * 选择Piece需要排除：校验期间只能下载已经校验的Piece
+     */
+    private final BitSet verifyPieces;
     /**
      * 种子信息
      */
     private final Torrent torrent;
+    /**
+     * 快速恢复信息
+     */
+    private final TorrentResume torrentResume;
+    /**
+     * 边下边播
+     */
+    private final TorrentStreaming streaming;
+    /**
+     * 是否可以使用做种模式
+     * 新建任务：没有快速恢复信息并且没有已经下载Piece
+     */
+    private final boolean seedMode;
     /**
      * 文件流的集合
-     * 注意顺序：跨越文件数据读取
+     * 注意顺序：按照文件偏移排序（二分查找Piece对应文件流）
+     * 
+     * @see #streams(int)
+     * @see #streams(long, long)
      */
     private final List<TorrentStream> streams;
+    /**
+     * 文件流索引
+     * 文件路径=文件流
+     */
+    private final Map<String, TorrentStream> streamPaths;
+    /**
+     * 文件Merkle树
+     * 文件Merkle树根Hash（HEX）=文件Merkle树
+     * 只有V2种子和混合种子使用
+     */
+    private final Map<String, TorrentMerkle> merkles;
+    /**
+     * 错误数据Peer识别
+     */
+    private final TorrentSmartBan smartBan;
     /**
      * BT任务信息
      */
@@ -94,24 +177,50 @@ public final class TorrentStreamGroup {
      * @see #readWriteLock
      */
     private final Lock writeLock;
+    /**
+     * Piece等待锁
+     * 边下边播等待Piece下载完成：虚拟线程等待不会占用载体线程
+     */
+    private final Lock awaitLock;
+    /**
+     * Piece等待条件
+     * 
+     * @see #awaitLock
+     */
+    private final Condition awaitCondition;
 
     /**
      * @param torrentSession BT任务信息
      */
     private TorrentStreamGroup(TorrentSession torrentSession) {
         final Torrent torrent = torrentSession.torrent();
-        this.pieces = torrentSession.buildPieces();
+        this.strategy = SystemConfig.getPieceStrategy();
+        this.availability = new AtomicIntegerArray(torrent.getInfo().pieceSize());
+        this.partialPieces = new LinkedHashMap<>();
+        this.downloadPieces = new HashMap<>();
+        this.torrentResume = torrentSession.buildResume();
+        this.pieces = torrentSession.buildPieces(this.torrentResume);
+        this.seedMode = !this.torrentResume.available() && this.pieces.isEmpty();
+        this.streaming = TorrentStreaming.newInstance(torrent.getInfo().pieceSize());
         this.selectPieces = new BitSet(torrent.getInfo().pieceSize());
         this.full = false;
         this.fullPieces = new BitSet();
         this.fullPieces(this.pieces);
         this.fileBufferSize = new AtomicLong(0);
+        this.verifySize = 0;
+        this.verifyCount = new AtomicInteger(0);
+        this.verifyPieces = new BitSet();
         this.torrent = torrent;
         this.streams = new ArrayList<>();
+        this.streamPaths = new HashMap<>();
+        this.merkles = this.buildMerkles(torrent);
+        this.smartBan = TorrentSmartBan.newInstance();
         this.torrentSession = torrentSession;
         this.readWriteLock = new ReentrantReadWriteLock();
         this.readLock = this.readWriteLock.readLock();
         this.writeLock = this.readWriteLock.writeLock();
+        this.awaitLock = new ReentrantLock();
+        this.awaitCondition = this.awaitLock.newCondition();
     }
     
     /**
@@ -157,6 +266,10 @@ public final class TorrentStreamGroup {
     private int load(boolean completed, String folder, List<TorrentFile> files) {
         // 新增下载文件数量：原来没有下载
         int loadFileCount = 0;
+        // 需要重新校验文件流：快速恢复信息文件已经修改
+        final List<TorrentStream> recheckStreams = new ArrayList<>();
+        // 需要预分配文件流：新增下载文件
+        final List<TorrentStream> allocateStreams = new ArrayList<>();
         if(CollectionUtils.isEmpty(files)) {
             LOGGER.error("任务文件列表为空：{}", files);
             return loadFileCount;
@@ -169,8 +282,6 @@ public final class TorrentStreamGroup {
             // 开始加载下载文件
             long pos = 0;
             final long pieceLength = this.torrent.getInfo().getPieceLength();
-            // 文件排序列表
-            final List<TorrentStream> sortList = new ArrayList<>();
             for (TorrentFile file : files) {
                 final long fileSize = file.getLength();
                 final String filePath = FileUtils.file(folder, file.path());
@@ -182,18 +293,24 @@ public final class TorrentStreamGroup {
                             LOGGER.debug("文件选择下载（加载）：{}", filePath);
                             loadFileCount++;
                             final TorrentStream newStream = TorrentStream.newInstance(pieceLength, filePath, fileSize, pos, completed, this);
-                            this.streams.add(newStream);
+                            newStream.merkle(this.merkle(file.getPiecesRoot()));
+                            this.insert(newStream);
                             newStream.buildSelectPieces(this.selectPieces);
                             newStream.install();
-                            sortList.add(newStream);
+                            if(newStream.recheck()) {
+                                recheckStreams.add(newStream);
+                            }
+                            if(!newStream.completed()) {
+                                allocateStreams.add(newStream);
+                            }
                         } else {
                             LOGGER.debug("文件选择下载（重载）：{}", filePath);
                             if(!oldStream.selected()) {
                                 loadFileCount++;
+                                allocateStreams.add(oldStream);
                             }
                             oldStream.buildSelectPieces(this.selectPieces);
                             oldStream.install();
-                            sortList.add(oldStream);
                         }
                     } else {
                         // 加载没有选择下载文件
@@ -203,7 +320,6 @@ public final class TorrentStreamGroup {
                             // 文件流不删除：标记为不下载
                             LOGGER.debug("文件没有选择下载（卸载）：{}", filePath);
                             oldStream.uninstall();
-                            sortList.add(oldStream);
                         }
                     }
                 } catch (Exception e) {
@@ -211,12 +327,6 @@ public final class TorrentStreamGroup {
                 }
                 pos += fileSize;
             }
-            // 文件排序
-            this.streams.sort((source, target) -> {
-                final int sourceIndex = sortList.indexOf(source);
-                final int targetIndex = sortList.indexOf(target);
-                return Integer.compare(sourceIndex, targetIndex);
-            });
             final long finishTime = System.currentTimeMillis();
             if(LOGGER.isDebugEnabled()) {
                 LOGGER.debug("任务加载耗时：{}-{}", this.torrentSession, (finishTime - startTime));
@@ -224,6 +334,15 @@ public final class TorrentStreamGroup {
         } finally {
             this.writeLock.unlock();
         }
+        if(!recheckStreams.isEmpty()) {
+            LOGGER.debug("文件已经修改重新校验：{}-{}", this.torrentSession, recheckStreams.size());
+            try {
+                this.verify(recheckStreams);
+            } catch (IOException e) {
+                LOGGER.error("文件校验异常：{}", this.torrentSession, e);
+            }
+        }
+        TorrentAllocator.getInstance().allocate(allocateStreams);
         this.torrentSession.downloadSize(this.downloadSize());
         this.fullPieces(this.pieces);
         return loadFileCount;
@@ -238,12 +357,79 @@ public final class TorrentStreamGroup {
      * @return {@link TorrentStream}
      */
     private TorrentStream oldStream(String path) {
-        for (TorrentStream torrentStream : this.streams) {
-            if(torrentStream.equalsPath(path)) {
-                return torrentStream;
+        return this.streamPaths.get(path);
+    }
+    
+    /**
+     * 添加文件流
+     * 二分查找插入位置保持文件偏移顺序：重载时只需插入新增文件流不用重新排序
+     * 文件偏移相同（空文件）按照结束偏移排序：保证结束偏移同样有序
+     * 
+     * @param torrentStream 文件流
+     */
+    private void insert(TorrentStream torrentStream) {
+        final long beginPos = torrentStream.fileBeginPos();
+        final long endPos = torrentStream.fileEndPos();
+        int low = 0;
+        int high = this.streams.size();
+        while(low < high) {
+            final int mid = (low + high) >>> 1;
+            final TorrentStream value = this.streams.get(mid);
+            if(
+                value.fileBeginPos() < beginPos ||
+                (value.fileBeginPos() == beginPos && value.fileEndPos() <= endPos)
+            ) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
         }
-        return null;
+        this.streams.add(low, torrentStream);
+        this.streamPaths.put(torrentStream.filePath(), torrentStream);
+    }
+    
+    /**
+     * 获取包含Piece数据的文件流
+     * 
+     * @param index Piece索引
+     * 
+     * @return 文件流（文件偏移顺序）
+     * 
+     * @see #streams(long, long)
+     */
+    private List<TorrentStream> streams(int index) {
+        final long pieceLength = this.torrent.getInfo().getPieceLength();
+        final long beginPos = index * pieceLength;
+        return this.streams(beginPos, beginPos + pieceLength);
+    }
+    
+    /**
+     * 获取包含数据范围的文件流
+     * 文件流按照文件偏移排序并且文件之间没有重叠：二分查找第一个结束偏移大于开始偏移的文件流
+     * 需要加锁（读锁）
+     * 
+     * @param beginPos 开始偏移（包含）
+     * @param endPos   结束偏移（不含）
+     * 
+     * @return 文件流（文件偏移顺序）
+     */
+    private List<TorrentStream> streams(long beginPos, long endPos) {
+        final int size = this.streams.size();
+        int low = 0;
+        int high = size;
+        while(low < high) {
+            final int mid = (low + high) >>> 1;
+            if(this.streams.get(mid).fileEndPos() <= beginPos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int end = low;
+        while(end < size && this.streams.get(end).fileBeginPos() < endPos) {
+            end++;
+        }
+        return this.streams.subList(low, end);
     }
     
     /**
@@ -275,28 +461,546 @@ public final class TorrentStreamGroup {
         }
     }
     
+    /**
+     * 移动边下边播读取位置
+     * 
+     * @param index Piece索引（-1：关闭边下边播）
+     * 
+     * @see TorrentStreaming#seek(int)
+     */
+    public void streaming(int index) {
+        this.streaming.seek(index);
+    }
+    
+    /**
+     * 移动边下边播读取位置
+     * 
+     * @param from 原来读取位置（-1：开始读取）
+     * @param to   新的读取位置（-1：结束读取）
+     * 
+     * @see TorrentStreaming#seek(int, int)
+     */
+    public void streaming(int from, int to) {
+        this.streaming.seek(from, to);
+    }
+    
+    /**
+     * 设置Piece挑选策略
+     * 
+     * @param strategy Piece挑选策略
+     */
+    public void strategy(PieceStrategy strategy) {
+        LOGGER.debug("设置Piece挑选策略：{}", strategy);
+        this.strategy = strategy;
+    }
+    
+    /**
+     * 获取Piece挑选策略
+     * 
+     * @return Piece挑选策略
+     */
+    public PieceStrategy strategy() {
+        return this.strategy;
+    }
+    
     /**
      * 挑选下载Piece
+     * 优先继续下载部分下载的Piece
+     * 指定下载Piece索引时使用顺序挑选
      * 
      * @param peerPieces    Peer已经下载Piece位图
      * @param suggestPieces Peer推荐Piece位图
      * 
      * @return {@link TorrentPiece}
      * 
-     * @see TorrentStream#pick(int, BitSet, BitSet)
+     * @see #pickPartial(BitSet)
+     * @see #pickRarest(BitSet, BitSet)
+     * @see #pickSequence(BitSet, BitSet)
      */
     public TorrentPiece pick(final BitSet peerPieces, final BitSet suggestPieces) {
+        final TorrentPiece pickPiece = this.pickPartial(peerPieces);
+        if(pickPiece != null) {
+            return pickPiece;
+        }
+        // 缓存背压不再挑选新的Piece：等待缓存刷出或者Piece写出归还缓冲
+        if(this.backpressure()) {
+            LOGGER.debug("选择Piece：缓存背压");
+            return null;
+        }
+        if(this.strategy == PieceStrategy.RAREST && this.piecePos == 0) {
+            return this.pickRarest(peerPieces, suggestPieces);
+        }
+        return this.pickSequence(peerPieces, suggestPieces);
+    }
+    
+    /**
+     * 挑选下载Piece
+     * 开启边下边播时快速Peer优先挑选窗口内的Piece
+     * 
+     * @param peerPieces    Peer已经下载Piece位图
+     * @param suggestPieces Peer推荐Piece位图
+     * @param speed         Peer下载速度
+     * 
+     * @return {@link TorrentPiece}
+     * 
+     * @see #pickStreaming(BitSet, long)
+     * @see #pick(BitSet, BitSet)
+     */
+    public TorrentPiece pick(final BitSet peerPieces, final BitSet suggestPieces, final long speed) {
+        final BitSet verifiedPeerPieces = this.verified(peerPieces);
+        if(this.streaming.streaming()) {
+            final TorrentPiece pickPiece = this.pickStreaming(verifiedPeerPieces, speed);
+            if(pickPiece != null) {
+                return pickPiece;
+            }
+        }
+        return this.pick(verifiedPeerPieces, this.verified(suggestPieces));
+    }
+    
+    /**
+     * 排除校验中的Piece
+     * 
+     * @param pieces Piece位图
+     * 
+     * @return 已经校验Piece位图（没有校验中的Piece：原始位图）
+     */
+    private BitSet verified(final BitSet pieces) {
+        synchronized (this.verifyPieces) {
+            if(this.verifyPieces.isEmpty()) {
+                return pieces;
+            }
+            final BitSet verifiedPieces = new BitSet();
+            verifiedPieces.or(pieces);
+            verifiedPieces.andNot(this.verifyPieces);
+            return verifiedPieces;
+        }
+    }
+    
+    /**
+     * 挑选边下边播窗口内的Piece
+     * 按照截止时间顺序（窗口顺序）挑选，超过截止时间的Piece可以重复挑选。
+     * 
+     * @param peerPieces Peer已经下载Piece位图
+     * @param speed      Peer下载速度
+     * 
+     * @return {@link TorrentPiece}
+     */
+    private TorrentPiece pickStreaming(final BitSet peerPieces, final long speed) {
+        if(!this.streaming.fast(speed)) {
+            return null;
+        }
+        final int cursor = this.streaming.cursor();
+        final int end = this.streaming.end();
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            this.readLock.lock();
+            try {
+                for (int index = cursor; index >= 0 && index <= end; index++) {
+                    if(
+                        this.pieces.get(index) ||
+                        !peerPieces.get(index) ||
+                        !this.selectPieces.get(index) ||
+                        !this.streaming.requestable(index, now)
+                    ) {
+                        continue;
+                    }
+                    for (TorrentStream torrentStream : this.streams(index)) {
+                        if(torrentStream.selected()) {
+                            final TorrentPiece pickPiece = torrentStream.pick(index);
+                            if(pickPiece != null) {
+                                LOGGER.debug("选择Piece（边下边播）：{}-{}", index, cursor);
+                                this.streaming.request(index, now);
+                                return pickPiece;
+                            }
+                        }
+                    }
+                }
+                return null;
+            } finally {
+                this.readLock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * 挑选部分下载Piece
+     * 
+     * @param peerPieces Peer已经下载Piece位图
+     * 
+     * @return {@link TorrentPiece}
+     */
+    private TorrentPiece pickPartial(final BitSet peerPieces) {
+        synchronized (this.partialPieces) {
+            if(this.partialPieces.isEmpty()) {
+                return null;
+            }
+            final Iterator<TorrentPiece> iterator = this.partialPieces.values().iterator();
+            while(iterator.hasNext()) {
+                final TorrentPiece piece = iterator.next();
+                final int index = piece.getIndex();
+                if(this.pieces.get(index) || !this.selectPieces.get(index)) {
+                    // 已经下载或者没有选择下载
+                    iterator.remove();
+                    piece.release();
+                    continue;
+                }
+                if(!peerPieces.get(index)) {
+                    continue;
+                }
+                iterator.remove();
+                // 相同位置已经重新下载：丢弃部分下载Piece
+                if(this.download(piece) && this.downloading(piece)) {
+                    LOGGER.debug("选择Piece（部分下载）：{}-{}", index, piece.getSize());
+                    piece.resume();
+                    return piece;
+                }
+                piece.release();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 设置下载中的Piece
+     * 
+     * @param piece Piece
+     * 
+     * @return 是否设置成功
+     * 
+     * @see TorrentStream#download(TorrentPiece)
+     */
+    private boolean download(TorrentPiece piece) {
+        boolean success = false;
+        this.readLock.lock();
+        try {
+            for (TorrentStream torrentStream : this.streams(piece.getIndex())) {
+                if(torrentStream.selected() && torrentStream.download(piece)) {
+                    success = true;
+                }
+            }
+        } finally {
+            this.readLock.unlock();
+        }
+        return success;
+    }
+    
+    /**
+     * 记录下载中的Piece
+     * 相同位置已经有下载中的Piece时不能替换：替换以后原来的Piece不能共享下载和设置数据块Hash
+     * 
+     * @param piece Piece
+     * 
+     * @return 是否记录成功
+     */
+    boolean downloading(TorrentPiece piece) {
+        synchronized (this.downloadPieces) {
+            return this.downloadPieces.putIfAbsent(piece.beginPos(), piece) == null;
+        }
+    }
+    
+    /**
+     * 删除下载中的Piece
+     * 保存Piece和设置下载失败Piece时删除：释放Piece以前必须删除
+     * 
+     * @param piece Piece
+     */
+    private void downloaded(TorrentPiece piece) {
+        synchronized (this.downloadPieces) {
+            this.downloadPieces.remove(piece.beginPos(), piece);
+        }
+    }
+    
+    /**
+     * 新建文件Merkle树
+     * 
+     * @param torrent 种子信息
+     * 
+     * @return 文件Merkle树
+     */
+    private Map<String, TorrentMerkle> buildMerkles(Torrent torrent) {
+        final TorrentInfo info = torrent.getInfo();
+        if(!info.v2()) {
+            return Map.of();
+        }
+        long pos = 0;
+        final Map<String, TorrentMerkle> map = new HashMap<>();
+        for (TorrentFile file : info.files()) {
+            final byte[] piecesRoot = file.getPiecesRoot();
+            final TorrentMerkle merkle = TorrentMerkle.newInstance(piecesRoot, torrent.pieceLayer(piecesRoot), pos, file.getLength(), info.getPieceLength());
+            if(merkle != null) {
+                map.put(StringUtils.hex(piecesRoot), merkle);
+            }
+            pos += file.getLength();
+        }
+        LOGGER.debug("文件Merkle树数量：{}", map.size());
+        return map;
+    }
+    
+    /**
+     * 获取文件Merkle树
+     * 
+     * @param piecesRoot 文件Merkle树根Hash
+     * 
+     * @return 文件Merkle树
+     */
+    public TorrentMerkle merkle(byte[] piecesRoot) {
+        if(piecesRoot == null) {
+            return null;
+        }
+        return this.merkles.get(StringUtils.hex(piecesRoot));
+    }
+    
+    /**
+     * 设置下载中Piece的数据块Hash
+     * 
+     * @param piecesRoot 文件Merkle树根Hash
+     * @param index      叶子节点在文件中的索引
+     * @param hashes     数据块Hash
+     * 
+     * @return 发送校验失败Slice的Peer（没有下载中的Piece、没有接收完成或者校验失败：null）
+     * 
+     * @see TorrentPiece#leaves(int, byte[][])
+     */
+    public List<PeerSession> leaves(byte[] piecesRoot, int index, byte[][] hashes) {
+        final TorrentMerkle merkle = this.merkle(piecesRoot);
+        if(merkle == null || index < 0) {
+            return null;
+        }
+        final int merkleIndex = merkle.leafPiece(index);
+        final long beginPos = merkle.getFileBeginPos() + merkleIndex * this.torrent.getInfo().getPieceLength();
+        final TorrentPiece piece;
+        synchronized (this.downloadPieces) {
+            piece = this.downloadPieces.get(beginPos);
+        }
+        if(piece == null || piece.merkle() != merkle) {
+            return null;
+        }
+        return piece.leaves(index - merkle.leafIndex(merkleIndex), hashes);
+    }
+    
+    /**
+     * 计算数据块Hash
+     * 只能计算已经下载的Piece：文件结尾以后的数据块Hash使用零值
+     * 
+     * @param piecesRoot 文件Merkle树根Hash
+     * @param index      叶子节点在文件中的索引
+     * @param length     叶子节点数量
+     * 
+     * @return 数据块Hash（没有下载：null）
+     * 
+     * @throws NetException 网络异常
+     */
+    public byte[][] hashes(byte[] piecesRoot, int index, int length) throws NetException {
+        final TorrentMerkle merkle = this.merkle(piecesRoot);
+        if(merkle == null || index < 0 || length <= 0) {
+            return null;
+        }
+        final long pieceLength = this.torrent.getInfo().getPieceLength();
+        final byte[][] hashes = new byte[length][];
+        for (int leaf = 0; leaf < length; leaf++) {
+            final long filePos = (long) (index + leaf) * TorrentMerkle.BLOCK_LENGTH;
+            if(filePos >= merkle.getFileSize()) {
+                hashes[leaf] = new byte[TorrentMerkle.HASH_LENGTH];
+                continue;
+            }
+            final long pos = merkle.getFileBeginPos() + filePos;
+            final int pieceIndex = (int) (pos / pieceLength);
+            if(!this.hasPiece(pieceIndex)) {
+                return null;
+            }
+            final int blockLength = (int) Math.min(TorrentMerkle.BLOCK_LENGTH, merkle.getFileSize() - filePos);
+            final byte[] bytes = this.read(pieceIndex, (int) (pos % pieceLength), blockLength);
+            hashes[leaf] = TorrentMerkle.hash(bytes, 0, bytes.length);
+        }
+        return hashes;
+    }
+    
+    /**
+     * 共享下载中的Piece
+     * 任务接近完成时重复挑选下载中的Piece：共享同一个Piece数据，不用重新下载已经下载的Slice。
+     * 
+     * @param beginPos Piece开始偏移
+     * 
+     * @return Piece（没有下载中的Piece或者Piece等待对比错误数据：null）
+     * 
+     * @see TorrentPiece#share()
+     * @see TorrentSmartBan#suspect(long)
+     */
+    TorrentPiece share(long beginPos) {
+        if(this.smartBan.suspect(beginPos)) {
+            return null;
+        }
+        synchronized (this.downloadPieces) {
+            final TorrentPiece piece = this.downloadPieces.get(beginPos);
+            if(piece != null && piece.share()) {
+                LOGGER.debug("选择Piece（共享下载）：{}", piece);
+                return piece;
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * Piece校验失败
+     * 
+     * @param piece Piece
+     * 
+     * @see TorrentSmartBan#fail(TorrentPiece)
+     */
+    public void verifyFail(TorrentPiece piece) {
+        this.smartBan.fail(piece);
+    }
+    
+    /**
+     * Piece校验成功
+     * 
+     * @param piece Piece
+     * 
+     * @see TorrentSmartBan#success(TorrentPiece)
+     */
+    public void verifySuccess(TorrentPiece piece) {
+        this.smartBan.success(piece);
+    }
+    
+    /**
+     * 记录Peer发送错误数据
+     * 
+     * @param peerSession Peer信息
+     * 
+     * @see TorrentSmartBan#corrupt(PeerSession)
+     */
+    public void corrupt(PeerSession peerSession) {
+        this.smartBan.corrupt(peerSession);
+    }
+    
+    /**
+     * 稀有优先挑选下载Piece
+     * 可用数量相同的Piece随机挑选
+     * 
+     * @param peerPieces    Peer已经下载Piece位图
+     * @param suggestPieces Peer推荐Piece位图
+     * 
+     * @return {@link TorrentPiece}
+     * 
+     * @see TorrentStream#pickFilePieces(BitSet, BitSet)
+     * @see TorrentStream#pick(int)
+     */
+    private TorrentPiece pickRarest(final BitSet peerPieces, final BitSet suggestPieces) {
+        if(peerPieces.isEmpty() && suggestPieces.isEmpty()) {
+            return null;
+        }
+        // 挑选和设置下载中的Piece需要同步：防止多个Peer挑选相同Piece
+        synchronized (this) {
+            this.readLock.lock();
+            try {
+                final BitSet pickPieces = new BitSet();
+                // 只有包含候选Piece的文件流需要挑选：跳过没有候选Piece的文件流
+                final BitSet candidatePieces = this.candidatePieces(peerPieces, suggestPieces);
+                int candidate = candidatePieces.nextSetBit(0);
+                while(candidate >= 0) {
+                    int candidateEnd = candidate;
+                    for (TorrentStream torrentStream : this.streams(candidate)) {
+                        if(torrentStream.selected()) {
+                            pickPieces.or(torrentStream.pickFilePieces(peerPieces, suggestPieces));
+                        }
+                        candidateEnd = Math.max(candidateEnd, torrentStream.fileEndPieceIndex());
+                    }
+                    candidate = candidatePieces.nextSetBit(candidateEnd + 1);
+                }
+                final int index = this.rarest(pickPieces);
+                if(index < 0) {
+                    LOGGER.debug("选择Piece（稀有优先）：没有匹配");
+                    return null;
+                }
+                for (TorrentStream torrentStream : this.streams(index)) {
+                    if(torrentStream.selected()) {
+                        final TorrentPiece pickPiece = torrentStream.pick(index);
+                        if(pickPiece != null) {
+                            return pickPiece;
+                        }
+                    }
+                }
+                return null;
+            } finally {
+                this.readLock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * 获取候选Piece位图
+     * 文件流挑选Piece位图一定是候选Piece位图的子集：没有候选Piece的文件流不用挑选
+     * 
+     * @param peerPieces    Peer已经下载Piece位图
+     * @param suggestPieces Peer推荐Piece位图
+     * 
+     * @return 候选Piece位图
+     */
+    private BitSet candidatePieces(final BitSet peerPieces, final BitSet suggestPieces) {
+        final BitSet candidatePieces = new BitSet();
+        candidatePieces.or(peerPieces);
+        candidatePieces.or(suggestPieces);
+        candidatePieces.and(this.selectPieces);
+        candidatePieces.andNot(this.pieces);
+        return candidatePieces;
+    }
+    
+    /**
+     * 挑选可用数量最少的Piece
+     * 可用数量相同的Piece随机挑选（蓄水池抽样）
+     * 
+     * @param pickPieces 下载Piece位图
+     * 
+     * @return Piece索引（没有匹配返回：-1）
+     */
+    private int rarest(final BitSet pickPieces) {
+        int rarestIndex = -1;
+        int rarestCount = 0;
+        int minAvailability = Integer.MAX_VALUE;
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int index = pickPieces.nextSetBit(0); index >= 0; index = pickPieces.nextSetBit(index + 1)) {
+            final int value = this.availability(index);
+            if(value < minAvailability) {
+                rarestIndex = index;
+                rarestCount = 1;
+                minAvailability = value;
+            } else if(value == minAvailability && random.nextInt(++rarestCount) == 0) {
+                rarestIndex = index;
+            }
+        }
+        return rarestIndex;
+    }
+    
+    /**
+     * 顺序挑选下载Piece
+     * 
+     * @param peerPieces    Peer已经下载Piece位图
+     * @param suggestPieces Peer推荐Piece位图
+     * 
+     * @return {@link TorrentPiece}
+     * 
+     * @see TorrentStream#pick(int, BitSet, BitSet)
+     */
+    private TorrentPiece pickSequence(final BitSet peerPieces, final BitSet suggestPieces) {
         TorrentPiece pickPiece = null;
         this.readLock.lock();
         try {
-            for (TorrentStream torrentStream : this.streams) {
-                // 挑选选择下载文件
-                if(torrentStream.selected()) {
-                    pickPiece = torrentStream.pick(this.piecePos, peerPieces, suggestPieces);
-                    if(pickPiece != null) {
-                        break;
+            final int piecePos = this.piecePos;
+            final BitSet candidatePieces = this.candidatePieces(peerPieces, suggestPieces);
+            int candidate = candidatePieces.nextSetBit(piecePos);
+            while(pickPiece == null && candidate >= 0) {
+                int candidateEnd = candidate;
+                for (TorrentStream torrentStream : this.streams(candidate)) {
+                    // 挑选选择下载文件
+                    if(torrentStream.selected()) {
+                        pickPiece = torrentStream.pick(piecePos, peerPieces, suggestPieces);
+                        if(pickPiece != null) {
+                            break;
+                        }
                     }
+                    candidateEnd = Math.max(candidateEnd, torrentStream.fileEndPieceIndex());
                 }
+                candidate = candidatePieces.nextSetBit(candidateEnd + 1);
             }
         } finally {
             this.readLock.unlock();
@@ -309,6 +1013,66 @@ public final class TorrentStreamGroup {
         return pickPiece;
     }
     
+    /**
+     * 增加Piece可用数量
+     * 
+     * @param pieces Peer新增Piece位图
+     */
+    public void available(BitSet pieces) {
+        final int length = this.availability.length();
+        for (int index = pieces.nextSetBit(0); index >= 0 && index < length; index = pieces.nextSetBit(index + 1)) {
+            this.availability.incrementAndGet(index);
+        }
+    }
+    
+    /**
+     * 增加Piece可用数量
+     * 
+     * @param index Piece索引
+     */
+    public void available(int index) {
+        if(index >= 0 && index < this.availability.length()) {
+            this.availability.incrementAndGet(index);
+        }
+    }
+    
+    /**
+     * 减少Piece可用数量
+     * 
+     * @param pieces Peer减少Piece位图
+     */
+    public void unavailable(BitSet pieces) {
+        final int length = this.availability.length();
+        for (int index = pieces.nextSetBit(0); index >= 0 && index < length; index = pieces.nextSetBit(index + 1)) {
+            this.availability.decrementAndGet(index);
+        }
+    }
+    
+    /**
+     * 减少Piece可用数量
+     * 
+     * @param index Piece索引
+     */
+    public void unavailable(int index) {
+        if(index >= 0 && index < this.availability.length()) {
+            this.availability.decrementAndGet(index);
+        }
+    }
+    
+    /**
+     * 获取Piece可用数量
+     * 
+     * @param index Piece索引
+     * 
+     * @return Piece可用数量
+     */
+    public int availability(int index) {
+        if(index >= 0 && index < this.availability.length()) {
+            return this.availability.get(index);
+        }
+        return 0;
+    }
+    
     /**
      * 读取Piece数据
      * 
@@ -320,27 +1084,73 @@ public final class TorrentStreamGroup {
      * 
      * @throws NetException 网络异常
      * 
-     * @see TorrentStream#read(int, int, int)
+     * @see #read(int, int, ByteBuffer)
      */
     public byte[] read(final int index, final int begin, final int length) throws NetException {
-        PacketSizeException.verify(length);
         final ByteBuffer buffer = ByteBuffer.allocate(length);
+        this.read(index, begin, buffer);
+        return buffer.array();
+    }
+    
+    /**
+     * 读取Piece数据到缓冲
+     * 已经下载的Piece读取完整Piece放入读取缓存（Piece太大直接读取文件流）
+     * 没有数据部分跳过（默认填充零）
+     * 
+     * @param index  Piece索引
+     * @param begin  Piece偏移
+     * @param buffer 缓冲（读取大小：剩余大小）
+     * 
+     * @throws NetException 网络异常：读取异常或者文件数据不完整
+     * 
+     * @see TorrentReadCache
+     * @see TorrentStream#read(int, int, ByteBuffer)
+     */
+    public void read(final int index, final int begin, final ByteBuffer buffer) throws NetException {
+        final int length = buffer.remaining();
+        PacketSizeException.verify(length);
+        final TorrentReadCache readCache = TorrentReadCache.getInstance();
+        final int pieceLength = this.torrent.getInfo().getPieceLength().intValue();
+        if(readCache.available(pieceLength) && this.hasPiece(index) && begin >= 0 && begin + length <= pieceLength) {
+            // 读取完整Piece缓存
+            byte[] bytes = readCache.get(this, index);
+            if(bytes == null) {
+                final ByteBuffer pieceBuffer = ByteBuffer.allocate(pieceLength);
+                this.readStreams(index, 0, pieceBuffer);
+                bytes = pieceBuffer.array();
+                readCache.put(this, index, bytes);
+            }
+            buffer.put(bytes, begin, length);
+            return;
+        }
+        this.readStreams(index, begin, buffer);
+    }
+    
+    /**
+     * 读取文件流Piece数据到缓冲
+     * 
+     * @param index  Piece索引
+     * @param begin  Piece偏移
+     * @param buffer 缓冲
+     * 
+     * @throws NetException 网络异常：读取异常或者文件数据不完整
+     */
+    private void readStreams(final int index, final int begin, final ByteBuffer buffer) throws NetException {
         this.readLock.lock();
         try {
-            // 如果跨越多个文件合并返回
-            for (TorrentStream torrentStream : this.streams) {
-                final byte[] bytes = torrentStream.read(index, length, begin);
-                if(bytes != null) {
-                    buffer.put(bytes);
-                    if(buffer.position() >= length) {
-                        break;
-                    }
+            // 如果跨越多个文件合并返回：每个文件流写入缓冲对应位置
+            final long beginPos = index * this.torrent.getInfo().getPieceLength() + begin;
+            for (TorrentStream torrentStream : this.streams(beginPos, beginPos + buffer.remaining())) {
+                if(torrentStream.read(index, begin, buffer) < 0) {
+                    // 不能发送错误数据
+                    throw new NetException("读取Piece数据失败：" + index);
                 }
             }
         } finally {
             this.readLock.unlock();
         }
-        return buffer.array();
+        // 没有数据部分跳过
+        buffer.position(buffer.limit());
     }
 
     /**
@@ -353,10 +1163,11 @@ public final class TorrentStreamGroup {
      * @see TorrentStream#write(TorrentPiece)
      */
     public boolean write(TorrentPiece piece) {
+        this.downloaded(piece);
         boolean success = false;
         this.readLock.lock();
         try {
-            for (TorrentStream torrentStream : this.streams) {
+            for (TorrentStream torrentStream : this.streams(piece.getIndex())) {
                 // 不能跳出：可能存在一个Piece处于多个文件
                 if(torrentStream.write(piece)) {
                     success = true;
@@ -369,14 +1180,13 @@ public final class TorrentStreamGroup {
             // 发送have消息
             this.have(piece.getIndex());
             // 修改缓存大小
-            final long oldValue = this.fileBufferSize.addAndGet(piece.getLength());
+            final long bufferSize = this.fileBufferSize.addAndGet(piece.getLength());
             // 判断是否刷出缓存
-            if(
-                oldValue > DownloadConfig.getMemoryBufferByte() &&
-                this.fileBufferSize.compareAndSet(oldValue, 0)
-            ) {
+            if(bufferSize > DownloadConfig.getMemoryBufferByte()) {
                 LOGGER.debug("缓冲区被占满：{}", this.torrentSession);
-                this.flush();
+                TorrentFlusher.getInstance().flush(this);
+            } else {
+                TorrentFlusher.getInstance().register(this);
             }
         }
         if(LOGGER.isDebugEnabled()) {
@@ -404,6 +1214,33 @@ public final class TorrentStreamGroup {
         return this.pieces.get(index);
     }
     
+    /**
+     * 等待Piece下载完成
+     * 边下边播读取没有下载的Piece时使用
+     * 
+     * @param index   Piece索引
+     * @param timeout 超时时间（毫秒）
+     * 
+     * @return 是否下载完成（超时：false）
+     * 
+     * @throws InterruptedException 等待中断
+     */
+    public boolean await(int index, long timeout) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.awaitLock.lock();
+        try {
+            while(!this.hasPiece(index)) {
+                if(nanos <= 0L) {
+                    return false;
+                }
+                nanos = this.awaitCondition.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            this.awaitLock.unlock();
+        }
+    }
+    
     /**
      * 设置已经下载Piece
      * 
@@ -413,6 +1250,14 @@ public final class TorrentStreamGroup {
         synchronized (this.pieces) {
             this.pieces.set(index);
         }
+        // 唤醒等待Piece的读取线程
+        this.awaitLock.lock();
+        try {
+            this.awaitCondition.signalAll();
+        } finally {
+            this.awaitLock.unlock();
+        }
+        this.streaming.remove(index);
     }
     
     /**
@@ -424,24 +1269,46 @@ public final class TorrentStreamGroup {
         synchronized (this.pieces) {
             this.pieces.clear(index);
         }
+        this.streaming.remove(index);
+        TorrentReadCache.getInstance().remove(this, index);
     }
     
     /**
      * 设置下载失败Piece
+     * 部分下载Piece保存以后继续下载，其他Piece释放引用。
      * 
      * @param piece Piece
      * 
      * @see TorrentStream#undone(TorrentPiece)
      */
     public void undone(TorrentPiece piece) {
+        this.downloaded(piece);
+        this.streaming.remove(piece.getIndex());
         this.readLock.lock();
         try {
-            for (TorrentStream torrentStream : this.streams) {
+            for (TorrentStream torrentStream : this.streams(piece.getIndex())) {
                 torrentStream.undone(piece);
             }
         } finally {
             this.readLock.unlock();
         }
+        if(piece.getSize() > 0 && !piece.completed()) {
+            // 保存部分下载Piece：校验失败和保存失败的Piece已经下载完成不用保存
+            synchronized (this.partialPieces) {
+                if(!this.partialPieces.containsKey(piece.getIndex())) {
+                    if(this.partialPieces.size() >= SystemConfig.getPeerSize()) {
+                        // 超过数量删除最早保存的Piece
+                        final Iterator<TorrentPiece> iterator = this.partialPieces.values().iterator();
+                        iterator.next().release();
+                        iterator.remove();
+                    }
+                    // 部分下载Piece持有引用
+                    this.partialPieces.put(piece.getIndex(), piece);
+                    return;
+                }
+            }
+        }
+        piece.release();
     }
     
     /**
@@ -536,25 +1403,120 @@ public final class TorrentStreamGroup {
 
     /**
      * 校验文件
+     * 所有选择下载的文件并行校验
+     * 
+     * @return 是否校验成功
      * 
      * @throws IOException IO异常
+     * 
+     * @see TorrentVerifier#verify(List)
      */
     public boolean verify() throws IOException {
-        int verifyFailCount = 0;
+        final List<TorrentStream> verifyStreams = new ArrayList<>();
         this.readLock.lock();
         try {
             for (TorrentStream torrentStream : this.streams) {
-                if(torrentStream.selected() && !torrentStream.verify()) {
-                    verifyFailCount++;
+                if(torrentStream.selected()) {
+                    torrentStream.flush();
+                    verifyStreams.add(torrentStream);
                 }
             }
-            this.torrentSession.downloadSize(this.downloadSize());
         } finally {
             this.readLock.unlock();
         }
+        final int verifyFailCount = this.verify(verifyStreams);
+        this.torrentSession.downloadSize(this.downloadSize());
         return verifyFailCount == 0;
     }
     
+    /**
+     * 校验文件
+     * 
+     * @param verifyStreams 文件流
+     * 
+     * @return 校验失败Piece数量
+     * 
+     * @throws IOException IO异常
+     */
+    private int verify(List<TorrentStream> verifyStreams) throws IOException {
+        this.verifyCount.set(0);
+        this.verifySize = verifyStreams.stream()
+            .mapToInt(stream -> stream.fileEndPieceIndex() - stream.fileBeginPieceIndex() + 1)
+            .sum();
+        synchronized (this.verifyPieces) {
+            verifyStreams.forEach(stream -> this.verifyPieces.set(stream.fileBeginPieceIndex(), stream.fileEndPieceIndex() + 1));
+        }
+        try {
+            return TorrentVerifier.getInstance().verify(verifyStreams);
+        } finally {
+            synchronized (this.verifyPieces) {
+                verifyStreams.forEach(stream -> this.verifyPieces.clear(stream.fileBeginPieceIndex(), stream.fileEndPieceIndex() + 1));
+            }
+        }
+    }
+    
+    /**
+     * 获取快速恢复信息
+     * 
+     * @return 快速恢复信息
+     */
+    TorrentResume torrentResume() {
+        return this.torrentResume;
+    }
+    
+    /**
+     * 判断是否可以使用做种模式
+     * 
+     * @return 是否可以使用做种模式
+     */
+    boolean seedMode() {
+        return this.seedMode;
+    }
+    
+    /**
+     * 保存快速恢复信息
+     * 保存之前需要刷出缓存
+     */
+    public void saveResume() {
+        final BitSet pieces;
+        synchronized (this.pieces) {
+            pieces = (BitSet) this.pieces.clone();
+        }
+        this.readLock.lock();
+        try {
+            this.torrentResume.save(pieces, this.streams);
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+    
+    /**
+     * 设置已经校验Piece
+     * 已经校验的Piece可以下载
+     * 
+     * @param beginIndex 开始Piece索引
+     * @param endIndex   结束Piece索引（包含）
+     */
+    void verified(int beginIndex, int endIndex) {
+        synchronized (this.verifyPieces) {
+            this.verifyPieces.clear(beginIndex, endIndex + 1);
+        }
+        this.verifyCount.addAndGet(endIndex - beginIndex + 1);
+    }
+    
+    /**
+     * 获取校验进度
+     * 
+     * @return 校验进度（0~100）
+     */
+    public int verifyProgress() {
+        final int size = this.verifySize;
+        if(size <= 0) {
+            return 100;
+        }
+        return Math.min(100, this.verifyCount.get() * 100 / size);
+    }
+    
     /**
      * 获取Piece校验数据（Hash）
      * 
@@ -574,6 +1536,8 @@ public final class TorrentStreamGroup {
      */
     public void flush() {
         LOGGER.debug("刷出缓存：{}", this.torrentSession);
+        // 刷出过程中写入的缓存可能已经刷出：下次刷出时扣除
+        final long bufferSize = this.fileBufferSize.get();
         this.readLock.lock();
         try {
             for (TorrentStream torrentStream : this.streams) {
@@ -582,9 +1546,54 @@ public final class TorrentStreamGroup {
         } finally {
             this.readLock.unlock();
         }
+        this.releaseBuffer(bufferSize);
         this.torrentSession.updatePieces(false);
     }
     
+    /**
+     * 释放缓存大小
+     * 
+     * @param bufferSize 缓存大小
+     */
+    private void releaseBuffer(long bufferSize) {
+        this.fileBufferSize.addAndGet(-bufferSize);
+    }
+    
+    /**
+     * 判断是否缓存背压
+     * 缓存大小超过两倍磁盘缓存或者Piece缓冲池用完时不再挑选新的Piece：防止刷出速度跟不上下载速度导致内存溢出
+     * 不会等待：下载调度线程不能阻塞，背压期间由下载调度定时重试。
+     * 
+     * @return 是否缓存背压
+     */
+    public boolean backpressure() {
+        if(this.fileBufferSize.get() > 2L * DownloadConfig.getMemoryBufferByte()) {
+            return true;
+        }
+        return !TorrentBufferPool.getInstance().available(this.torrent.getInfo().getPieceLength().intValue());
+    }
+    
+    /**
+     * 获取最早缓存时间
+     * 
+     * @return 最早缓存时间（没有缓存：0）
+     */
+    long cacheTime() {
+        long cacheTime = 0L;
+        this.readLock.lock();
+        try {
+            for (TorrentStream torrentStream : this.streams) {
+                final long value = torrentStream.cacheTime();
+                if(value > 0L && (cacheTime == 0L || value < cacheTime)) {
+                    cacheTime = value;
+                }
+            }
+        } finally {
+            this.readLock.unlock();
+        }
+        return cacheTime;
+    }
+    
     /**
      * 获取任务已经下载大小
      * 
@@ -636,6 +1645,18 @@ public final class TorrentStreamGroup {
      */
     public void release() {
         LOGGER.debug("释放TorrentStreamGroup：{}", this.torrentSession);
+        TorrentFlusher.getInstance().remove(this);
+        TorrentReadCache.getInstance().remove(this);
+        synchronized (this.partialPieces) {
+            this.partialPieces.values().forEach(TorrentPiece::release);
+            this.partialPieces.clear();
+        }
+        synchronized (this.downloadPieces) {
+            // 下载Peer持有引用
+            this.downloadPieces.clear();
+        }
+        this.smartBan.clear();
+        final long bufferSize = this.fileBufferSize.get();
         this.readLock.lock();
         try {
             for (TorrentStream torrentStream : this.streams) {
@@ -644,6 +1665,7 @@ public final class TorrentStreamGroup {
         } finally {
             this.readLock.unlock();
         }
+        this.releaseBuffer(bufferSize);
     }
 
 }
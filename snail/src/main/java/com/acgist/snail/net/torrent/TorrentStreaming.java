@@ -0,0 +1,246 @@
+package com.acgist.snail.net.torrent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+
+/**
+ * 边下边播
+ * 读取位置之后的Piece组成滑动窗口，窗口内的Piece按照距离读取位置设置截止时间。
+ * 窗口内的Piece优先分配给下载速度较快的Peer，超过截止时间没有下载完成的Piece可以重复下载。
+ * 窗口以外的Piece继续使用正常的挑选策略。
+ * 多个读取位置（播放器同时发起多个范围请求）时使用最小读取位置，所有读取位置结束以后关闭边下边播。
+ * 
+ * @author acgist
+ */
+public final class TorrentStreaming {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentStreaming.class);
+    
+    /**
+     * 每个Piece截止时间间隔（毫秒）：{@value}
+     */
+    private static final long DEADLINE_INTERVAL = 2L * SystemConfig.ONE_SECOND_MILLIS;
+    /**
+     * 平均速度权重：{@value}
+     */
+    private static final int SPEED_WEIGHT = 8;
+    
+    /**
+     * 读取位置（Piece索引）
+     * 所有读取位置中的最小位置
+     * 没有开启边下边播：-1
+     */
+    private volatile int cursor;
+    /**
+     * 所有读取位置
+     * Piece索引=读取数量
+     */
+    private final TreeMap<Integer, Integer> cursors;
+    /**
+     * 读取位置修改时间
+     */
+    private volatile long cursorTime;
+    /**
+     * Peer平均下载速度
+     * 速度不低于平均速度的Peer属于快速Peer
+     */
+    private volatile long averageSpeed;
+    /**
+     * Piece数量
+     */
+    private final int pieceSize;
+    /**
+     * 窗口内正在下载的Piece
+     * Piece索引=请求时间
+     */
+    private final Map<Integer, Long> requests;
+    
+    /**
+     * @param pieceSize Piece数量
+     */
+    private TorrentStreaming(int pieceSize) {
+        this.cursor = -1;
+        this.cursorTime = 0L;
+        this.averageSpeed = 0L;
+        this.pieceSize = pieceSize;
+        this.cursors = new TreeMap<>();
+        this.requests = new HashMap<>();
+    }
+    
+    /**
+     * 新建边下边播
+     * 
+     * @param pieceSize Piece数量
+     * 
+     * @return {@link TorrentStreaming}
+     */
+    public static final TorrentStreaming newInstance(int pieceSize) {
+        return new TorrentStreaming(pieceSize);
+    }
+    
+    /**
+     * 判断是否开启边下边播
+     * 
+     * @return 是否开启
+     */
+    public boolean streaming() {
+        return this.cursor >= 0;
+    }
+    
+    /**
+     * 设置读取位置
+     * 清除所有读取位置只保留指定位置
+     * 
+     * @param index Piece索引（-1：关闭边下边播）
+     */
+    public void seek(int index) {
+        if(index >= this.pieceSize) {
+            return;
+        }
+        synchronized (this.requests) {
+            this.cursors.clear();
+            if(index >= 0) {
+                this.cursors.put(index, 1);
+            }
+            this.move();
+        }
+    }
+    
+    /**
+     * 移动读取位置
+     * 每个读取（范围请求）单独移动自己的读取位置
+     * 
+     * @param from 原来读取位置（-1：开始读取）
+     * @param to   新的读取位置（-1：结束读取）
+     */
+    public void seek(int from, int to) {
+        if(from == to) {
+            return;
+        }
+        synchronized (this.requests) {
+            if(from >= 0) {
+                this.cursors.computeIfPresent(from, (key, count) -> count > 1 ? count - 1 : null);
+            }
+            if(to >= 0 && to < this.pieceSize) {
+                this.cursors.merge(to, 1, Integer::sum);
+            }
+            this.move();
+        }
+    }
+    
+    /**
+     * 移动窗口
+     * 跳转以后立即移动窗口：删除窗口以外的请求并且重新计算截止时间
+     */
+    private void move() {
+        final int index = this.cursors.isEmpty() ? -1 : this.cursors.firstKey();
+        if(this.cursor == index) {
+            return;
+        }
+        LOGGER.debug("边下边播移动读取位置：{}-{}", this.cursor, index);
+        this.cursor = index;
+        this.cursorTime = System.currentTimeMillis();
+        final int end = this.end();
+        this.requests.keySet().removeIf(value -> value < index || value > end);
+    }
+    
+    /**
+     * 获取读取位置
+     * 
+     * @return 读取位置
+     */
+    public int cursor() {
+        return this.cursor;
+    }
+    
+    /**
+     * 获取窗口结束位置（包含）
+     * 
+     * @return 窗口结束位置
+     */
+    public int end() {
+        final int cursor = this.cursor;
+        if(cursor < 0) {
+            return -1;
+        }
+        return Math.min(this.pieceSize - 1, cursor + SystemConfig.getStreamingWindow() - 1);
+    }
+    
+    /**
+     * 判断是否是快速Peer
+     * 同时更新平均速度
+     * 
+     * @param speed Peer下载速度
+     * 
+     * @return 是否是快速Peer
+     */
+    public boolean fast(long speed) {
+        final long average = this.averageSpeed;
+        this.averageSpeed = (average * (SPEED_WEIGHT - 1) + speed) / SPEED_WEIGHT;
+        return speed >= average;
+    }
+    
+    /**
+     * 判断窗口内的Piece是否可以请求
+     * 没有请求：可以请求
+     * 已经请求：超过截止时间可以重复请求（重复请求间隔不能小于截止时间间隔）
+     * 
+     * @param index Piece索引
+     * @param now   当前时间
+     * 
+     * @return 是否可以请求
+     */
+    public boolean requestable(int index, long now) {
+        synchronized (this.requests) {
+            final Long requestTime = this.requests.get(index);
+            if(requestTime == null) {
+                return true;
+            }
+            return now > Math.max(requestTime + DEADLINE_INTERVAL, this.deadline(index));
+        }
+    }
+    
+    /**
+     * 设置窗口内的Piece已经请求
+     * 
+     * @param index Piece索引
+     * @param now   当前时间
+     */
+    public void request(int index, long now) {
+        synchronized (this.requests) {
+            this.requests.put(index, now);
+        }
+    }
+    
+    /**
+     * 删除窗口内的Piece请求
+     * Piece下载完成或者下载失败时使用
+     * 
+     * @param index Piece索引
+     */
+    public void remove(int index) {
+        if(this.cursor < 0) {
+            return;
+        }
+        synchronized (this.requests) {
+            this.requests.remove(index);
+        }
+    }
+    
+    /**
+     * 获取Piece截止时间
+     * 
+     * @param index Piece索引
+     * 
+     * @return 截止时间
+     */
+    public long deadline(int index) {
+        return this.cursorTime + (index - this.cursor + 1) * DEADLINE_INTERVAL;
+    }
+    
+}
@@ -0,0 +1,268 @@
+package com.acgist.snail.net.torrent;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import com.acgist.snail.config.SymbolConfig;
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.net.NetException;
+import com.acgist.snail.net.TcpMessageHandler;
+import com.acgist.snail.net.codec.IMessageDecoder;
+import com.acgist.snail.net.codec.LineMessageCodec;
+import com.acgist.snail.net.codec.StringMessageCodec;
+import com.acgist.snail.utils.StringUtils;
+
+/**
+ * 边下边播消息代理
+ * 只支持GET/HEAD范围请求，响应完成以后关闭连接。
+ * 读取没有下载的Piece时移动边下边播读取位置并且等待Piece下载完成。
+ * 
+ * @author acgist
+ */
+public final class TorrentStreamingMessageHandler extends TcpMessageHandler implements IMessageDecoder<String> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentStreamingMessageHandler.class);
+    
+    /**
+     * 每次发送数据大小：{@value}
+     */
+    private static final int SEND_LENGTH = 64 * SystemConfig.ONE_KB;
+    /**
+     * 每次等待Piece时间（毫秒）：{@value}
+     */
+    private static final long AWAIT_TIMEOUT = SystemConfig.ONE_SECOND_MILLIS;
+    /**
+     * 范围请求头
+     */
+    private static final String HEADER_RANGE = "range:";
+    /**
+     * 范围请求前缀
+     */
+    private static final String RANGE_PREFIX = "bytes=";
+    /**
+     * 边下边播响应线程池
+     * 等待Piece下载可能阻塞很长时间：不能占用系统线程池
+     */
+    private static final ExecutorService EXECUTOR;
+    
+    static {
+        EXECUTOR = SystemThreadContext.newCacheExecutor(0, 60L, SystemThreadContext.SNAIL_THREAD_STREAMING);
+    }
+    
+    /**
+     * 请求行和请求头
+     */
+    private final List<String> lines;
+    
+    public TorrentStreamingMessageHandler() {
+        final LineMessageCodec   lineMessageCodec   = new LineMessageCodec(this, SymbolConfig.LINE_SEPARATOR_COMPAT);
+        final StringMessageCodec stringMessageCodec = new StringMessageCodec(lineMessageCodec);
+        this.lines = new ArrayList<>();
+        this.messageDecoder = stringMessageCodec;
+    }
+    
+    @Override
+    public void onMessage(String message) {
+        if(StringUtils.isNotEmpty(message)) {
+            this.lines.add(message);
+            return;
+        }
+        if(this.lines.isEmpty()) {
+            return;
+        }
+        // 空行：请求头结束
+        final List<String> request = new ArrayList<>(this.lines);
+        this.lines.clear();
+        // 等待Piece下载会阻塞线程：不能使用通道线程和系统线程
+        EXECUTOR.submit(() -> {
+            try {
+                this.execute(request);
+            } catch (Exception e) {
+                LOGGER.debug("边下边播请求异常：{}", request, e);
+            } finally {
+                this.close();
+            }
+        });
+    }
+    
+    /**
+     * 处理请求
+     * 
+     * @param request 请求行和请求头
+     * 
+     * @throws NetException 网络异常
+     */
+    private void execute(List<String> request) throws NetException {
+        final String[] requestLine = request.get(0).split(" ");
+        final String method = requestLine[0];
+        final boolean head = "HEAD".equalsIgnoreCase(method);
+        if(requestLine.length < 2 || !(head || "GET".equalsIgnoreCase(method))) {
+            this.response("405 Method Not Allowed");
+            return;
+        }
+        // 地址格式：/InfoHashHex/文件索引
+        final String[] paths = requestLine[1].split("/");
+        if(paths.length < 3 || !StringUtils.isNumeric(paths[2])) {
+            this.response("404 Not Found");
+            return;
+        }
+        final TorrentSession torrentSession = TorrentContext.getInstance().torrentSession(paths[1]);
+        final TorrentStreamGroup group = torrentSession == null ? null : torrentSession.torrentStreamGroup();
+        final List<TorrentFile> files = torrentSession == null ? List.of() : torrentSession.torrent().getInfo().files();
+        final int fileIndex = Integer.parseInt(paths[2]);
+        if(group == null || fileIndex >= files.size() || !files.get(fileIndex).selected()) {
+            this.response("404 Not Found");
+            return;
+        }
+        // 文件开始偏移
+        long filePos = 0L;
+        for (int index = 0; index < fileIndex; index++) {
+            filePos += files.get(index).getLength();
+        }
+        final long fileSize = files.get(fileIndex).getLength();
+        final long[] range = this.range(request, fileSize);
+        if(range == null) {
+            this.send(
+                "HTTP/1.1 416 Range Not Satisfiable\r\n" +
+                "Content-Range: bytes */" + fileSize + "\r\n" +
+                "Content-Length: 0\r\n" +
+                "Connection: close\r\n\r\n"
+            );
+            return;
+        }
+        final long begin = range[0];
+        final long end = range[1];
+        final boolean partial = begin != 0L || end != fileSize - 1;
+        final StringBuilder builder = new StringBuilder();
+        builder.append(partial ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n")
+            .append("Content-Type: application/octet-stream\r\n")
+            .append("Accept-Ranges: bytes\r\n")
+            .append("Content-Length: ").append(end - begin + 1).append("\r\n");
+        if(partial) {
+            builder.append("Content-Range: bytes ").append(begin).append("-").append(end).append("/").append(fileSize).append("\r\n");
+        }
+        builder.append("Connection: close\r\n\r\n");
+        this.send(builder.toString());
+        if(!head) {
+            final long pieceLength = torrentSession.torrent().getInfo().getPieceLength();
+            this.send(group, pieceLength, filePos + begin, filePos + end);
+        }
+    }
+    
+    /**
+     * 解析范围请求
+     * 
+     * @param request  请求行和请求头
+     * @param fileSize 文件大小
+     * 
+     * @return 开始偏移和结束偏移（包含）（范围无效：null）
+     */
+    private long[] range(List<String> request, long fileSize) {
+        for (String line : request) {
+            if(!line.toLowerCase().startsWith(HEADER_RANGE)) {
+                continue;
+            }
+            final String value = line.substring(HEADER_RANGE.length()).trim();
+            if(!value.startsWith(RANGE_PREFIX) || value.indexOf(',') >= 0) {
+                // 不支持多个范围：返回完整文件
+                break;
+            }
+            final String[] values = value.substring(RANGE_PREFIX.length()).split("-", 2);
+            try {
+                long begin;
+                long end;
+                if(values[0].isEmpty()) {
+                    // 后缀范围：最后N个字节
+                    begin = Math.max(0L, fileSize - Long.parseLong(values[1].trim()));
+                    end = fileSize - 1;
+                } else {
+                    begin = Long.parseLong(values[0].trim());
+                    end = values.length < 2 || values[1].isBlank() ? fileSize - 1 : Math.min(fileSize - 1, Long.parseLong(values[1].trim()));
+                }
+                if(begin > end || begin >= fileSize) {
+                    return null;
+                }
+                return new long[] { begin, end };
+            } catch (NumberFormatException e) {
+                LOGGER.debug("范围请求格式错误：{}", line, e);
+                break;
+            }
+        }
+        return fileSize <= 0L ? null : new long[] { 0L, fileSize - 1 };
+    }
+    
+    /**
+     * 发送文件数据
+     * 每次发送之前移动边下边播读取位置，没有下载的Piece等待下载完成。
+     * 读取数据失败或者不完整时结束响应：不能发送错误数据。
+     * 响应结束以后删除读取位置：所有响应结束以后关闭边下边播。
+     * 
+     * @param group       文件流组
+     * @param pieceLength Piece大小
+     * @param begin       开始偏移（任务偏移）
+     * @param end         结束偏移（任务偏移、包含）
+     * 
+     * @throws NetException 网络异常
+     */
+    private void send(TorrentStreamGroup group, long pieceLength, long begin, long end) throws NetException {
+        long position = begin;
+        // 当前响应读取位置
+        int cursor = -1;
+        try {
+            while(position <= end && this.available()) {
+                final int index = (int) (position / pieceLength);
+                final int pieceBegin = (int) (position % pieceLength);
+                final int length = (int) Math.min(Math.min(SEND_LENGTH, pieceLength - pieceBegin), end - position + 1);
+                if(cursor != index) {
+                    group.streaming(cursor, index);
+                    cursor = index;
+                }
+                try {
+                    while(!group.await(index, AWAIT_TIMEOUT)) {
+                        if(!this.available()) {
+                            return;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // 线程中断结束响应：不能继续等待
+                    LOGGER.debug("边下边播等待Piece中断：{}", index, e);
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                final ByteBuffer buffer = ByteBuffer.allocate(length);
+                try {
+                    group.read(index, pieceBegin, buffer);
+                } catch (NetException e) {
+                    LOGGER.warn("边下边播读取数据失败：{}-{}-{}", index, pieceBegin, length, e);
+                    return;
+                }
+                if(buffer.position() != length) {
+                    LOGGER.warn("边下边播读取数据不完整：{}-{}-{}-{}", index, pieceBegin, length, buffer.position());
+                    return;
+                }
+                buffer.flip();
+                this.send(buffer);
+                position += length;
+            }
+        } finally {
+            group.streaming(cursor, -1);
+        }
+    }
+    
+    /**
+     * 发送没有内容的响应
+     * 
+     * @param status 响应状态
+     * 
+     * @throws NetException 网络异常
+     */
+    private void response(String status) throws NetException {
+        this.send("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n");
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.acgist.snail.net.torrent;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.net.TcpServer;
+import com.acgist.snail.utils.NetUtils;
+
+/**
+ * 边下边播服务端
+ * 本地HTTP服务：播放器通过范围请求读取正在下载的文件
+ * 地址格式：http://127.0.0.1:端口/InfoHashHex/文件索引
+ * 
+ * @author acgist
+ */
+public final class TorrentStreamingServer extends TcpServer<TorrentStreamingMessageHandler> {
+
+    private static final TorrentStreamingServer INSTANCE = new TorrentStreamingServer();
+    
+    public static final TorrentStreamingServer getInstance() {
+        return INSTANCE;
+    }
+    
+    private TorrentStreamingServer() {
+        super("Streaming Server", TorrentStreamingMessageHandler.class);
+    }
+    
+    /**
+     * 只监听本机环回地址
+     */
+    @Override
+    public boolean listen() {
+        return this.listen(NetUtils.LOOPBACK_HOST_ADDRESS, SystemConfig.getStreamingPort(), ADDR_UNREUSE);
+    }
+    
+    /**
+     * 获取边下边播地址
+     * 第一次使用时启动服务
+     * 
+     * @param infoHashHex InfoHashHex
+     * @param fileIndex   文件索引
+     * 
+     * @return 边下边播地址（服务启动失败：null）
+     */
+    public String url(String infoHashHex, int fileIndex) {
+        synchronized (this) {
+            if(!this.available() && !this.listen()) {
+                return null;
+            }
+        }
+        return "http://" + NetUtils.LOOPBACK_HOST_ADDRESS + ":" + SystemConfig.getStreamingPort() + "/" + infoHashHex + "/" + fileIndex;
+    }
+    
+}
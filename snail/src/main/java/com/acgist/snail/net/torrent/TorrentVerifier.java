@@ -0,0 +1,177 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.context.session.LimitSession;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.utils.DigestUtils;
+
+/**
+ * 文件校验
+ * 按照连续数据块读取文件，使用ForkJoin线程池并行校验Piece。
+ * 所有任务共用线程池和限速：防止校验影响下载上传。
+ * 
+ * @author acgist
+ */
+public final class TorrentVerifier {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentVerifier.class);
+    
+    private static final TorrentVerifier INSTANCE = new TorrentVerifier();
+    
+    public static final TorrentVerifier getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 校验读取数据块大小：{@value}
+     * Piece大小超过数据块大小时分块读取：读取缓冲大小固定
+     */
+    private static final int EXTENT_SIZE = 4 * SystemConfig.ONE_MB;
+    
+    /**
+     * 校验线程池
+     */
+    private final ForkJoinPool executor;
+    /**
+     * 校验限速
+     */
+    private final LimitSession limitSession;
+    /**
+     * 读取缓冲：线程复用（大小固定）
+     */
+    private final ThreadLocal<ByteBuffer> buffers;
+    /**
+     * SHA-1算法工具：线程复用
+     */
+    private final ThreadLocal<MessageDigest> digests;
+    
+    private TorrentVerifier() {
+        this.executor = SystemThreadContext.newForkJoinPool(
+            SystemThreadContext.threadSize(2, 4),
+            SystemThreadContext.SNAIL_THREAD_VERIFY
+        );
+        this.limitSession = new LimitSession(LimitSession.Type.VERIFY);
+        this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(EXTENT_SIZE));
+        this.digests = ThreadLocal.withInitial(DigestUtils::sha1);
+    }
+    
+    /**
+     * 校验文件
+     * 
+     * @param streams 文件流
+     * 
+     * @return 校验失败Piece数量
+     * 
+     * @throws IOException IO异常
+     */
+    public int verify(List<TorrentStream> streams) throws IOException {
+        final List<ForkJoinTask<Integer>> tasks = new ArrayList<>(streams.size());
+        for (TorrentStream stream : streams) {
+            final int extentPieceSize = (int) Math.max(1L, EXTENT_SIZE / stream.pieceLength());
+            tasks.add(this.executor.submit(new VerifyTask(stream, stream.fileBeginPieceIndex(), stream.fileEndPieceIndex(), extentPieceSize)));
+        }
+        int verifyFailCount = 0;
+        try {
+            for (ForkJoinTask<Integer> task : tasks) {
+                verifyFailCount += task.join();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return verifyFailCount;
+    }
+    
+    /**
+     * 校验连续Piece
+     * 
+     * @param stream     文件流
+     * @param beginIndex 开始Piece索引
+     * @param endIndex   结束Piece索引（包含）
+     * 
+     * @return 校验失败Piece数量
+     * 
+     * @throws IOException IO异常
+     */
+    private int verify(TorrentStream stream, int beginIndex, int endIndex) throws IOException {
+        final long size = (endIndex - beginIndex + 1) * stream.pieceLength();
+        this.limitSession.limit(size);
+        final int verifyFailCount = stream.verify(beginIndex, endIndex, this.buffers.get(), this.digests.get());
+        if(LOGGER.isDebugEnabled()) {
+            LOGGER.debug("文件校验：{}-{}-{}-{}", stream, beginIndex, endIndex, verifyFailCount);
+        }
+        return verifyFailCount;
+    }
+    
+    /**
+     * 校验任务
+     * 拆分连续Piece直到小于读取数据块大小
+     * 
+     * @author acgist
+     */
+    private final class VerifyTask extends RecursiveTask<Integer> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        /**
+         * 文件流
+         */
+        private final transient TorrentStream stream;
+        /**
+         * 开始Piece索引
+         */
+        private final int beginIndex;
+        /**
+         * 结束Piece索引（包含）
+         */
+        private final int endIndex;
+        /**
+         * 数据块Piece数量
+         */
+        private final int extentPieceSize;
+        
+        /**
+         * @param stream          文件流
+         * @param beginIndex      开始Piece索引
+         * @param endIndex        结束Piece索引（包含）
+         * @param extentPieceSize 数据块Piece数量
+         */
+        private VerifyTask(TorrentStream stream, int beginIndex, int endIndex, int extentPieceSize) {
+            this.stream = stream;
+            this.beginIndex = beginIndex;
+            this.endIndex = endIndex;
+            this.extentPieceSize = extentPieceSize;
+        }
+        
+        @Override
+        protected Integer compute() {
+            if(this.endIndex - this.beginIndex + 1 <= this.extentPieceSize) {
+                try {
+                    return TorrentVerifier.this.verify(this.stream, this.beginIndex, this.endIndex);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            // 按照数据块边界拆分：保证读取数据块大小
+            final int extentSize = (this.endIndex - this.beginIndex + 1) / this.extentPieceSize;
+            final int middleIndex = this.beginIndex + (extentSize / 2 + extentSize % 2) * this.extentPieceSize - 1;
+            final VerifyTask left = new VerifyTask(this.stream, this.beginIndex, middleIndex, this.extentPieceSize);
+            final VerifyTask right = new VerifyTask(this.stream, middleIndex + 1, this.endIndex, this.extentPieceSize);
+            right.fork();
+            return left.compute() + right.join();
+        }
+    
+    }
+    
+}
@@ -1,42 +1,26 @@
 package com.acgist.snail.net.torrent.codec;
 
 import java.nio.ByteBuffer;
-import java.security.InvalidKeyException;
-import java.security.Key;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.spec.SecretKeySpec;
 
 import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.torrent.InfoHash;
-import com.acgist.snail.utils.ByteUtils;
 import com.acgist.snail.utils.DigestUtils;
 
 /**
  * MSE加解密套件（ARC4）
  * 协议链接：https://baike.baidu.com/item/RC4/3454548
+ * 加密和解密各自持有密钥流：加密只在发送线程（发送加密锁）执行，解密只在接收线程执行，所以不用加锁。
+ * 数据直接在原始缓冲（堆内存或者直接内存）中加解密：不用复制数据
  * 
  * @author acgist
  */
 public final class MSECipher {
     
     /**
-     * 加密算法名称：{@value}
-     */
-    private static final String ARC4_ALGO = "ARCFOUR";
-    /**
-     * 加密算法：{@value}
-     * NoPadding：没有填充
-     * ZeroPadding：填充零
-     * PKCS5Padding：填充对齐（块大小固定为8的PKCS7Padding）
-     * PKCS7Padding：填充对齐（块大小不固定）
+     * 丢弃密钥流长度：{@value}
      */
-    private static final String ARC4_ALGO_TRANSFORMATION = ARC4_ALGO + "/ECB/NoPadding";
+    private static final int DISCARD_LENGTH = 1024;
     /**
      * 请求客户端Key：{@value}
      */
@@ -47,25 +31,21 @@ public final class MSECipher {
     private static final String KEY_RECV = "keyB";
 
     /**
-     * 加密套件
+     * 加密密钥流
      */
-    private final Cipher encryptCipher;
+    private final ARC4 encryptCipher;
     /**
-     * 解密套件
+     * 解密密钥流
      */
-    private final Cipher decryptCipher;
+    private final ARC4 decryptCipher;
     
     /**
      * @param encryptKey 加密Key
      * @param decryptKey 解密Key
-     * 
-     * @throws InvalidKeyException      密钥异常
-     * @throws NoSuchPaddingException   填充异常
-     * @throws NoSuchAlgorithmException 算法异常
      */
-    private MSECipher(Key encryptKey, Key decryptKey) throws InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException {
-        this.encryptCipher = this.buildCipher(Cipher.ENCRYPT_MODE, ARC4_ALGO_TRANSFORMATION, encryptKey);
-        this.decryptCipher = this.buildCipher(Cipher.DECRYPT_MODE, ARC4_ALGO_TRANSFORMATION, decryptKey);
+    private MSECipher(byte[] encryptKey, byte[] decryptKey) {
+        this.encryptCipher = ARC4.newInstance(encryptKey, DISCARD_LENGTH);
+        this.decryptCipher = ARC4.newInstance(decryptKey, DISCARD_LENGTH);
     }
     
     /**
@@ -79,13 +59,9 @@ public final class MSECipher {
      * @throws NetException 网络异常
      */
     public static final MSECipher newSender(byte[] secret, InfoHash infoHash) throws NetException {
-        final Key sendKey = MSECipher.buildSendKey(secret, infoHash.getInfoHash());
-        final Key recvKey = MSECipher.buildRecvKey(secret, infoHash.getInfoHash());
-        try {
-            return new MSECipher(sendKey, recvKey);
-        } catch (InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException e) {
-            throw new NetException("新建加密套件失败", e);
-        }
+        final byte[] sendKey = MSECipher.buildSendKey(secret, infoHash.getInfoHash());
+        final byte[] recvKey = MSECipher.buildRecvKey(secret, infoHash.getInfoHash());
+        return new MSECipher(sendKey, recvKey);
     }
     
     /**
@@ -99,13 +75,9 @@ public final class MSECipher {
      * @throws NetException 网络异常
      */
     public static final MSECipher newRecver(byte[] secret, InfoHash infoHash) throws NetException {
-        final Key sendKey = MSECipher.buildSendKey(secret, infoHash.getInfoHash());
-        final Key recvKey = MSECipher.buildRecvKey(secret, infoHash.getInfoHash());
-        try {
-            return new MSECipher(recvKey, sendKey);
-        } catch (InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException e) {
-            throw new NetException("新建加密套件失败", e);
-        }
+        final byte[] sendKey = MSECipher.buildSendKey(secret, infoHash.getInfoHash());
+        final byte[] recvKey = MSECipher.buildRecvKey(secret, infoHash.getInfoHash());
+        return new MSECipher(recvKey, sendKey);
     }
 
     /**
@@ -114,20 +86,7 @@ public final class MSECipher {
      * @param buffer 数据
      */
     public void encrypt(ByteBuffer buffer) {
-        boolean flip = true;
-        if(buffer.position() != 0) {
-            flip = false;
-            buffer.flip();
-        }
-        final byte[] value = ByteUtils.remainingToBytes(buffer);
-        byte[] encryptValue;
-        synchronized (this.encryptCipher) {
-            encryptValue = this.encryptCipher.update(value);
-        }
-        buffer.clear().put(encryptValue);
-        if(flip) {
-            buffer.flip();
-        }
+        this.encryptCipher.update(buffer);
     }
     
     /**
@@ -140,13 +99,9 @@ public final class MSECipher {
      * @throws NetException 网络异常
      */
     public byte[] encrypt(byte[] bytes) throws NetException {
-        try {
-            synchronized (this.encryptCipher) {
-                return this.encryptCipher.doFinal(bytes);
-            }
-        } catch (IllegalBlockSizeException | BadPaddingException e) {
-            throw new NetException("数据加密异常", e);
-        }
+        final byte[] value = bytes.clone();
+        this.encryptCipher.update(value, 0, value.length);
+        return value;
     }
     
     /**
@@ -155,20 +110,7 @@ public final class MSECipher {
      * @param buffer 数据
      */
     public void decrypt(ByteBuffer buffer) {
-        boolean flip = true;
-        if(buffer.position() != 0) {
-            flip = false;
-            buffer.flip();
-        }
-        final byte[] value = ByteUtils.remainingToBytes(buffer);
-        byte[] decryptValue;
-        synchronized (this.decryptCipher) {
-            decryptValue = this.decryptCipher.update(value);
-        }
-        buffer.clear().put(decryptValue);
-        if(flip) {
-            buffer.flip();
-        }
+        this.decryptCipher.update(buffer);
     }
     
     /**
@@ -181,13 +123,9 @@ public final class MSECipher {
      * @throws NetException 网络异常
      */
     public byte[] decrypt(byte[] bytes) throws NetException {
-        try {
-            synchronized (this.decryptCipher) {
-                return this.decryptCipher.doFinal(bytes);
-            }
-        } catch (IllegalBlockSizeException | BadPaddingException e) {
-            throw new NetException("数据解密异常", e);
-        }
+        final byte[] value = bytes.clone();
+        this.decryptCipher.update(value, 0, value.length);
+        return value;
     }
     
     /**
@@ -198,7 +136,7 @@ public final class MSECipher {
      * 
      * @return Key
      */
-    private static final Key buildSendKey(byte[] secret, byte[] skey) {
+    private static final byte[] buildSendKey(byte[] secret, byte[] skey) {
         return MSECipher.buildKey(KEY_SEND, secret, skey);
     }
 
@@ -210,7 +148,7 @@ public final class MSECipher {
      * 
      * @return Key
      */
-    private static final Key buildRecvKey(byte[] secret, byte[] skey) {
+    private static final byte[] buildRecvKey(byte[] secret, byte[] skey) {
         return MSECipher.buildKey(KEY_RECV, secret, skey);
     }
 
@@ -223,33 +161,114 @@ public final class MSECipher {
      * 
      * @return Key
      */
-    private static final Key buildKey(String key, byte[] secret, byte[] skey) {
+    private static final byte[] buildKey(String key, byte[] secret, byte[] skey) {
         final MessageDigest digest = DigestUtils.sha1();
         digest.update(key.getBytes());
         digest.update(secret);
         digest.update(skey);
-        return new SecretKeySpec(digest.digest(), ARC4_ALGO);
+        return digest.digest();
     }
 
     /**
-     * 新建Cipher
-     * 
-     * @param mode           模式
-     * @param transformation 算法
-     * @param key            Key
-     * 
-     * @return 加解密套件
+     * ARC4密钥流
+     * 数据直接在原始缓冲中加解密
      * 
-     * @throws InvalidKeyException      密钥异常
-     * @throws NoSuchPaddingException   填充异常
-     * @throws NoSuchAlgorithmException 算法异常
+     * @author acgist
      */
-    private Cipher buildCipher(int mode, String transformation, Key key) throws InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException {
-        final Cipher cipher = Cipher.getInstance(transformation);
-        cipher.init(mode, key);
-        // 丢弃1024字节
-        cipher.update(new byte[1024]);
-        return cipher;
+    static final class ARC4 {
+        
+        /**
+         * 状态向量
+         */
+        private final int[] state;
+        /**
+         * 状态索引
+         */
+        private int x;
+        /**
+         * 状态索引
+         */
+        private int y;
+        
+        /**
+         * @param key Key
+         */
+        private ARC4(byte[] key) {
+            this.state = new int[256];
+            for (int index = 0; index < this.state.length; index++) {
+                this.state[index] = index;
+            }
+            int j = 0;
+            for (int index = 0; index < this.state.length; index++) {
+                final int value = this.state[index];
+                j = (j + value + key[index % key.length]) & 0xFF;
+                this.state[index] = this.state[j];
+                this.state[j] = value;
+            }
+            this.x = 0;
+            this.y = 0;
+        }
+        
+        /**
+         * 新建ARC4密钥流
+         * 
+         * @param key     Key
+         * @param discard 丢弃密钥流长度
+         * 
+         * @return ARC4密钥流
+         */
+        static final ARC4 newInstance(byte[] key, int discard) {
+            final ARC4 arc4 = new ARC4(key);
+            arc4.update(new byte[discard], 0, discard);
+            return arc4;
+        }
+        
+        /**
+         * @return 下一个密钥
+         */
+        private int next() {
+            final int[] state = this.state;
+            this.x = (this.x + 1) & 0xFF;
+            final int value = state[this.x];
+            this.y = (this.y + value) & 0xFF;
+            final int swap = state[this.y];
+            state[this.x] = swap;
+            state[this.y] = value;
+            return state[(value + swap) & 0xFF];
+        }
+        
+        /**
+         * 加解密数组
+         * 
+         * @param bytes  数据
+         * @param offset 数据偏移
+         * @param length 数据长度
+         */
+        void update(byte[] bytes, int offset, int length) {
+            final int end = offset + length;
+            for (int index = offset; index < end; index++) {
+                bytes[index] ^= this.next();
+            }
+        }
+        
+        /**
+         * 加解密缓冲
+         * 写模式（position != 0）：加解密[0, position)；读模式：加解密[0, limit)。
+         * 加解密以后缓冲位置不变
+         * 
+         * @param buffer 数据
+         */
+        void update(ByteBuffer buffer) {
+            final int end = buffer.position() != 0 ? buffer.position() : buffer.limit();
+            if(buffer.hasArray()) {
+                this.update(buffer.array(), buffer.arrayOffset(), end);
+            } else {
+                for (int index = 0; index < end; index++) {
+                    buffer.put(index, (byte) (buffer.get(index) ^ this.next()));
+                }
+            }
+        }
+        
     }
 
 }
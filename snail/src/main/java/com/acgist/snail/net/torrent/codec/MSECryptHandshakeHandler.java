@@ -139,9 +139,10 @@ public final class MSECryptHandshakeHandler {
      */
     private MSECipher cipher;
     /**
-     * VC加密套件
+     * VC加密数据
+     * 密钥流只能使用一次：分段接收确认消息时不能重复加密
      */
-    private MSECipher cipherVC;
+    private byte[] vcMatch;
     /**
      * 密钥对
      */
@@ -427,7 +428,8 @@ public final class MSECryptHandshakeHandler {
         final byte[] dhSecretBytes = NumberUtils.encodeBigInteger(this.dhSecret, CryptConfig.PUBLIC_KEY_LENGTH);
         final InfoHash infoHash    = torrentSession.infoHash();
         this.cipher        = MSECipher.newSender(dhSecretBytes, infoHash);
-        this.cipherVC      = MSECipher.newSender(dhSecretBytes, infoHash);
+        // 相同数据发送方加密和接收方解密结果是一样的
+        this.vcMatch       = MSECipher.newSender(dhSecretBytes, infoHash).decrypt(CryptConfig.VC);
         ByteBuffer message = ByteBuffer.allocate(40);
         final MessageDigest digest = DigestUtils.sha1();
 //      HASH('req1', S)
@@ -532,6 +534,7 @@ public final class MSECryptHandshakeHandler {
         LOGGER.debug("加密握手（接收加密协议协商-确认加密协议）：{} - {}", provide, this.strategy);
         // PadC IA
         this.msePaddingSync = MSEPaddingSync.newInstance(2);
+        this.buffer.compact();
         this.receiveProvidePadding();
     }
     
@@ -542,7 +545,10 @@ public final class MSECryptHandshakeHandler {
      */
     private void receiveProvidePadding() throws PacketSizeException {
         LOGGER.debug("加密握手（接收加密协议协商Padding）步骤：{}", this.step);
+        // Padding可能分多次接收：没有读取的数据保留到下次接收
+        this.buffer.flip();
         final boolean success = this.msePaddingSync.sync(this.buffer);
+        this.buffer.compact();
         if(success) {
             LOGGER.debug("加密握手（接收加密协议协商Padding）：{}", this.msePaddingSync);
             this.sendConfirm();
@@ -587,9 +593,7 @@ public final class MSECryptHandshakeHandler {
      */
     private void receiveConfirm() throws NetException {
         LOGGER.debug("加密握手（接收确认加密协议）步骤：{}", this.step);
-        // 相同数据发送方加密和接收方解密结果是一样的
-        final byte[] vcMatch = this.cipherVC.decrypt(CryptConfig.VC);
-        if(!this.match(vcMatch)) {
+        if(!this.match(this.vcMatch)) {
             return;
         }
         if(this.buffer.position() < CONFIRM_MIN_LENGTH) {
@@ -608,6 +612,7 @@ public final class MSECryptHandshakeHandler {
         this.step         = Step.RECEIVE_CONFIRM_PADDING;
         LOGGER.debug("加密握手（接收确认加密协议-确认加密协议）：{} - {}", provide, this.strategy);
         this.msePaddingSync = MSEPaddingSync.newInstance(1);
+        this.buffer.compact();
         this.receiveConfirmPadding();
     }
     
@@ -618,7 +623,9 @@ public final class MSECryptHandshakeHandler {
      */
     private void receiveConfirmPadding() throws PacketSizeException {
         LOGGER.debug("加密握手（接收确认加密协议Padding）步骤：{}", this.step);
+        this.buffer.flip();
         final boolean success = this.msePaddingSync.sync(this.buffer);
+        this.buffer.compact();
         if(success) {
             LOGGER.debug("加密握手（接收确认加密协议Padding）：{}", this.msePaddingSync);
             this.completed(this.strategy.getCrypt());
@@ -771,7 +778,7 @@ public final class MSECryptHandshakeHandler {
         this.keyPair        = null;
         this.strategy       = null;
         this.dhSecret       = null;
-        this.cipherVC       = null;
+        this.vcMatch        = null;
         this.msePaddingSync = null;
         this.unlockHandshake();
     }
@@ -57,55 +57,40 @@ public final class MSEPaddingSync {
     
     /**
      * Padding数据同步
+     * 只读取缓冲剩余数据：没有读取的数据（数据长度不够）保留在缓冲中，调用方负责压缩缓冲。
      * 
-     * @param buffer Padding数据
+     * @param buffer Padding数据（读取模式）
      * 
      * @return 是否同步完成
      * 
      * @throws PacketSizeException 网络包大小异常
      */
     public boolean sync(ByteBuffer buffer) throws PacketSizeException {
-        if(this.count == 0) {
-            return true;
-        }
-        // 没有剩余数据
-        if(!buffer.hasRemaining()) {
-            return false;
-        }
-        // 开始新的同步数据
-        if(this.length == -1) {
-            if(buffer.remaining() < 2) {
-                // 数据长度不够
+        while(this.count > 0) {
+            // 开始新的同步数据
+            if(this.length == -1) {
+                if(buffer.remaining() < 2) {
+                    // 数据长度不够
+                    return false;
+                }
+                // 获取数据长度
+                this.length = buffer.getShort();
+                PacketSizeException.verify(this.length);
+                this.bytes  = new byte[this.length];
+            }
+            final int size = Math.min(this.length, buffer.remaining());
+            buffer.get(this.bytes, this.bytes.length - this.length, size);
+            this.length -= size;
+            if(this.length > 0) {
+                // 数据缺失
                 return false;
             }
-            // 获取数据长度
-            this.length = buffer.getShort();
-            PacketSizeException.verify(this.length);
-            this.bytes  = new byte[this.length];
-        }
-        final int remaining = buffer.remaining();
-        if(this.length == 0) {
-            // 数据完整：没有数据
-            this.count--;
-            this.length = -1;
-            this.list.add(this.bytes);
-            buffer.compact().flip();
-            return this.sync(buffer);
-        } else if(remaining >= this.length) {
-            // 数据完整：含有数据
-            buffer.get(this.bytes, this.bytes.length - this.length, this.length);
+            // 数据完整
             this.count--;
             this.length = -1;
             this.list.add(this.bytes);
-            buffer.compact().flip();
-            return this.sync(buffer);
-        } else {
-            // 数据缺失
-            buffer.get(this.bytes, this.bytes.length - this.length, remaining);
-            this.length -= remaining;
-            buffer.compact();
-            return false;
         }
+        return true;
     }
     
     @Override
@@ -7,15 +7,22 @@ import com.acgist.snail.config.PeerConfig;
 import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.PacketSizeException;
 import com.acgist.snail.net.codec.MessageCodec;
-import com.acgist.snail.net.torrent.peer.PeerSubMessageHandler;
+import com.acgist.snail.net.torrent.IPeerUnpackMessageDecoder;
 
 /**
  * Peer消息处理器：拆包
+ * piece消息头部解析完成以后数据直接写入下载中的Piece：每个字节只复制一次
  * 
  * @author acgist
  */
 public final class PeerUnpackMessageCodec extends MessageCodec<ByteBuffer, ByteBuffer> {
-
+    
+    /**
+     * piece消息头部长度：{@value}
+     * message_id(1) + index(4) + begin(4)
+     */
+    private static final int PIECE_HEADER_LENGTH = 9;
+    
     /**
      * 消息缓存
      */
@@ -25,37 +32,69 @@ public final class PeerUnpackMessageCodec extends MessageCodec<ByteBuffer, ByteB
      */
     private final ByteBuffer lengthStick;
     /**
-     * Peer消息代理
+     * 消息头部
+     * 判断是否是piece消息
+     */
+    private final ByteBuffer header;
+    /**
+     * 正在读取头部的消息长度
+     */
+    private int headerLength;
+    /**
+     * 直接写入的Piece索引
+     */
+    private int pieceIndex;
+    /**
+     * 直接写入的Piece内偏移
      */
-    private final PeerSubMessageHandler peerSubMessageHandler;
+    private int pieceBegin;
+    /**
+     * 直接写入的Piece数据内偏移
+     */
+    private int piecePosition;
+    /**
+     * 直接写入的Piece剩余数据长度
+     */
+    private int pieceRemaining;
+    /**
+     * Peer拆包消息处理
+     */
+    private final IPeerUnpackMessageDecoder peerSubMessageHandler;
     
     /**
-     * @param peerSubMessageHandler Peer消息代理
+     * @param peerSubMessageHandler Peer拆包消息处理
      */
-    public PeerUnpackMessageCodec(PeerSubMessageHandler peerSubMessageHandler) {
+    public PeerUnpackMessageCodec(IPeerUnpackMessageDecoder peerSubMessageHandler) {
         super(peerSubMessageHandler);
         this.lengthStick           = ByteBuffer.allocate(Integer.BYTES);
+        this.header                = ByteBuffer.allocate(PIECE_HEADER_LENGTH);
         this.peerSubMessageHandler = peerSubMessageHandler;
     }
     
     @Override
     public void doDecode(ByteBuffer buffer, InetSocketAddress address) throws NetException {
-        // 消息数据长度
-        int length = 0;
-        while(true) {
-            if(this.buffer == null) {
-                if(this.peerSubMessageHandler.handshakeRecv()) {
+        while(buffer.hasRemaining()) {
+            if(this.pieceRemaining > 0) {
+                this.readPiece(buffer);
+            } else if(this.headerLength > 0) {
+                this.readHeader(buffer);
+            } else if(this.buffer != null) {
+                this.readMessage(buffer, address);
+            } else {
+                // 消息数据长度
+                final int length;
+                final boolean handshakeRecv = this.peerSubMessageHandler.handshakeRecv();
+                if(handshakeRecv) {
                     while(this.lengthStick.hasRemaining() && buffer.hasRemaining()) {
                         this.lengthStick.put(buffer.get());
                     }
                     if(this.lengthStick.hasRemaining()) {
                         // 消息长度缺失跳出
                         break;
-                    } else {
-                        this.lengthStick.flip();
-                        length = this.lengthStick.getInt();
-                        this.lengthStick.compact();
                     }
+                    this.lengthStick.flip();
+                    length = this.lengthStick.getInt();
+                    this.lengthStick.compact();
                 } else {
                     // 握手消息长度
                     length = PeerConfig.HANDSHAKE_LENGTH;
@@ -63,46 +102,89 @@ public final class PeerUnpackMessageCodec extends MessageCodec<ByteBuffer, ByteB
                 // 心跳消息
                 if(length <= 0) {
                     this.peerSubMessageHandler.keepAlive();
-                    if(buffer.hasRemaining()) {
-                        // 还有消息：继续处理
-                        continue;
-                    } else {
-                        // 没有消息：跳出循环
-                        break;
-                    }
+                    continue;
                 }
                 PacketSizeException.verify(length);
-                this.buffer = ByteBuffer.allocate(length);
-            } else {
-                // 上次消息没有读取完成：计算剩余消息数据长度
-                length = this.buffer.capacity() - this.buffer.position();
+                if(handshakeRecv && length > PIECE_HEADER_LENGTH) {
+                    // 读取头部判断是否是piece消息
+                    this.headerLength = length;
+                } else {
+                    this.buffer = ByteBuffer.allocate(length);
+                }
             }
-            final int remaining = buffer.remaining();
-            if(remaining > length) {
-                // 包含一条完整消息：继续读取、清空缓存
-                final byte[] bytes = new byte[length];
-                buffer.get(bytes);
-                this.buffer.put(bytes);
-                this.buffer.flip();
-                this.doNext(this.buffer, address);
-                this.buffer = null;
-            } else if(remaining == length) {
-                // 刚好一条完整消息：跳出循环、清空缓存
-                final byte[] bytes = new byte[length];
-                buffer.get(bytes);
-                this.buffer.put(bytes);
-                this.buffer.flip();
-                this.doNext(this.buffer, address);
-                this.buffer = null;
-                break;
-            } else if(remaining < length) {
-                // 不是一条完整消息：跳出循环、保留缓存
-                final byte[] bytes = new byte[remaining];
-                buffer.get(bytes);
-                this.buffer.put(bytes);
-                break;
+        }
+    }
+    
+    /**
+     * 读取消息头部
+     * piece消息并且可以直接写入：直接写入Piece；其他消息：使用消息缓存。
+     * 
+     * @param buffer 消息
+     */
+    private void readHeader(ByteBuffer buffer) {
+        while(this.header.hasRemaining() && buffer.hasRemaining()) {
+            this.header.put(buffer.get());
+        }
+        if(this.header.hasRemaining()) {
+            return;
+        }
+        final int length = this.headerLength;
+        this.headerLength = 0;
+        this.header.flip();
+        if(this.header.get() == PeerConfig.Type.PIECE.getId()) {
+            final int index = this.header.getInt();
+            final int begin = this.header.getInt();
+            if(this.peerSubMessageHandler.pieceBegin(index, begin, length - PIECE_HEADER_LENGTH)) {
+                this.pieceIndex = index;
+                this.pieceBegin = begin;
+                this.piecePosition = 0;
+                this.pieceRemaining = length - PIECE_HEADER_LENGTH;
+                this.header.clear();
+                return;
             }
         }
+        this.header.rewind();
+        this.buffer = ByteBuffer.allocate(length);
+        this.buffer.put(this.header);
+        this.header.clear();
     }
-
+    
+    /**
+     * 读取piece消息数据
+     * 
+     * @param buffer 消息
+     */
+    private void readPiece(ByteBuffer buffer) {
+        final int length = Math.min(this.pieceRemaining, buffer.remaining());
+        this.peerSubMessageHandler.pieceReceive(this.pieceBegin, this.piecePosition, buffer, length);
+        this.piecePosition += length;
+        this.pieceRemaining -= length;
+        if(this.pieceRemaining == 0) {
+            this.peerSubMessageHandler.pieceEnd(this.pieceIndex, this.pieceBegin, this.piecePosition);
+        }
+    }
+    
+    /**
+     * 读取消息
+     * 
+     * @param buffer  消息
+     * @param address 地址
+     * 
+     * @throws NetException 网络异常
+     */
+    private void readMessage(ByteBuffer buffer, InetSocketAddress address) throws NetException {
+        final int length = Math.min(this.buffer.remaining(), buffer.remaining());
+        final int limit = buffer.limit();
+        buffer.limit(buffer.position() + length);
+        this.buffer.put(buffer);
+        buffer.limit(limit);
+        if(this.buffer.hasRemaining()) {
+            // 不是一条完整消息：保留缓存
+            return;
+        }
+        final ByteBuffer message = this.buffer.flip();
+        this.buffer = null;
+        this.doNext(message, address);
+    }
+    
 }
@@ -53,7 +53,7 @@ public final class ExtensionMessageHandler implements IExtensionMessageHandler {
     /**
      * 默认支持未完成请求数量：{@value}
      */
-    private static final int DEFAULT_REQQ = 128;
+    static final int DEFAULT_REQQ = 128;
     /**
      * 扩展协议信息：{@value}
      */
@@ -289,6 +289,11 @@ public final class ExtensionMessageHandler implements IExtensionMessageHandler {
         if(uploadOnly != null && uploadOnly.intValue() == UPLOAD_ONLY) {
             this.peerSession.flags(PeerConfig.PEX_UPLOAD_ONLY);
         }
+        // 请求队列长度
+        final Long reqq = decoder.getLong(EX_REQQ);
+        if(reqq != null && reqq.intValue() > 0) {
+            this.peerSession.reqq(reqq.intValue());
+        }
         // 种子InfoHash数据长度
         final Long metadataSize = decoder.getLong(EX_METADATA_SIZE);
         if(metadataSize != null && this.infoHash.getSize() <= 0) {
@@ -457,6 +462,17 @@ public final class ExtensionMessageHandler implements IExtensionMessageHandler {
         }
     }
     
+    /**
+     * 处理Peer不再含有Piece
+     * 
+     * @param index Piece索引
+     * 
+     * @see PeerSubMessageHandler#pieceOff(int)
+     */
+    public void pieceOff(int index) {
+        this.peerSubMessageHandler.pieceOff(index);
+    }
+    
     /**
      * 处理dontHave消息
      * 
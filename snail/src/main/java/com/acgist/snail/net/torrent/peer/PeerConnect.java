@@ -1,6 +1,11 @@
 package com.acgist.snail.net.torrent.peer;
 
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.acgist.snail.config.SystemConfig;
@@ -16,6 +21,8 @@ import com.acgist.snail.utils.BeanUtils;
  * Peer连接
  * 连接：下载、上传（解除阻塞可以上传）
  * 接入：上传、下载（解除阻塞可以下载）
+ * 下载使用事件驱动：收到响应、阻塞、拒绝请求、可写和超时事件时在调度线程执行一次下载状态机，不用每个Peer占用一个等待线程。
+ * 调度线程所有Peer共用：发送请求之前判断是否可以继续发送，不能继续发送时等待可写事件，调度线程不能阻塞。
  * 
  * @author acgist
  */
@@ -23,27 +30,19 @@ public abstract class PeerConnect implements IPeerConnect {
     
     private static final Logger LOGGER = LoggerFactory.getLogger(PeerConnect.class);
 
-    /**
-     * SLICE请求数量：{@value}
-     * 注意：过大会导致UTP信号量阻塞
-     */
-    private static final int SLICE_REQUEST_SIZE = 2;
-    /**
-     * SLICE最大请求数量：{@value}
-     */
-    private static final int SLICE_REQUEST_MAX_SIZE = 4;
     /**
      * SLICE请求等待时间（毫秒）：{@value}
+     * 超过时间没有收到任何响应：释放所有下载中的Piece
      */
     private static final long SLICE_TIMEOUT = 10L * SystemConfig.ONE_SECOND_MILLIS;
     /**
-     * PICEC完成等待时间（毫秒）：{@value}
+     * 最小超时检查时间（毫秒）：{@value}
      */
-    private static final long COMPLETED_TIMEOUT = 30L * SystemConfig.ONE_SECOND_MILLIS;
+    private static final long MIN_TIMEOUT = SystemConfig.ONE_SECOND_MILLIS;
     /**
-     * 释放等待时间（毫秒）：{@value}
+     * 缓存背压重试时间（毫秒）：{@value}
      */
-    private static final long RELEASE_TIMEOUT = 4L * SystemConfig.ONE_SECOND_MILLIS;
+    private static final long BACKPRESSURE_TIMEOUT = 200L;
     
     /**
      * 连接状态
@@ -54,29 +53,48 @@ public abstract class PeerConnect implements IPeerConnect {
      */
     private volatile boolean downloading = false;
     /**
-     * 当前下载Piece信息
+     * 是否缓存背压
+     * 没有下载中的Piece并且缓存背压：保留Peer定时重试
      */
-    private TorrentPiece downloadPiece;
+    private boolean backpressure = false;
     /**
-     * SLICE锁
-     * 
-     * @see #SLICE_TIMEOUT
-     * @see #SLICE_REQUEST_SIZE
-     * @see #SLICE_REQUEST_MAX_SIZE
+     * 下载中的Piece
+     * 请求可以跨越多个Piece：当前Piece请求发送完成以后继续请求下一个Piece
      */
-    private final AtomicInteger sliceLock;
+    private final Deque<TorrentPiece> downloadPieces;
     /**
-     * 完成锁
-     * 
-     * @see #COMPLETED_TIMEOUT
+     * 共享下载的Piece
+     * 任务接近完成时和其他Peer共享下载的Piece：使用独立请求位置请求所有没有下载的Slice
+     */
+    private TorrentPiece sharePiece;
+    /**
+     * 共享下载的Piece请求位置（数据内偏移）
+     */
+    private int sharePosition;
+    /**
+     * 正在直接写入的Piece
+     * 接收piece消息时数据直接写入Piece：释放下载时取消写入
+     */
+    private volatile TorrentPiece receivePiece;
+    /**
+     * 请求队列
+     */
+    private final PeerRequestQueue requestQueue;
+    /**
+     * 调度信号
+     * 调度期间收到的事件合并为一次调度：同一个Peer的状态机不会并发执行
      */
-    private final AtomicBoolean completedLock;
+    private final AtomicInteger signal;
     /**
-     * 释放锁
+     * 最后响应时间
      * 
-     * @see #RELEASE_TIMEOUT
+     * @see #SLICE_TIMEOUT
+     */
+    private volatile long responseTime;
+    /**
+     * 超时定时任务
      */
-    private final AtomicBoolean releaseLock;
+    private ScheduledFuture<?> timeout;
     /**
      * Peer信息
      */
@@ -104,9 +122,9 @@ public abstract class PeerConnect implements IPeerConnect {
      * @param peerSubMessageHandler Peer消息代理
      */
     protected PeerConnect(PeerSession peerSession, TorrentSession torrentSession, PeerSubMessageHandler peerSubMessageHandler) {
-        this.sliceLock             = new AtomicInteger(0);
-        this.completedLock         = new AtomicBoolean(false);
-        this.releaseLock           = new AtomicBoolean(false);
+        this.downloadPieces        = new ConcurrentLinkedDeque<>();
+        this.requestQueue          = PeerRequestQueue.newInstance();
+        this.signal                = new AtomicInteger(0);
         this.peerSession           = peerSession;
         this.statisticsSession     = peerSession.getStatistics();
         this.torrentSession        = torrentSession;
@@ -200,7 +218,7 @@ public abstract class PeerConnect implements IPeerConnect {
      * @return 是否可用
      */
     public final boolean available() {
-        return this.available && this.peerSubMessageHandler.available();
+        return this.available && !this.peerSession.banned() && this.peerSubMessageHandler.available();
     }
     
     /**
@@ -240,16 +258,19 @@ public abstract class PeerConnect implements IPeerConnect {
 
     /**
      * 开始下载
+     * 已经开始下载：调度继续请求
      */
     public void download() {
         if(!this.downloading) {
             synchronized (this) {
                 if(!this.downloading) {
+                    LOGGER.debug("开始请求下载：{}", this.peerSession);
                     this.downloading = true;
-                    this.torrentSession.submit(this::requests);
+                    this.responseTime = System.currentTimeMillis();
                 }
             }
         }
+        this.dispatch();
     }
     
     /**
@@ -260,23 +281,200 @@ public abstract class PeerConnect implements IPeerConnect {
      * @param bytes Piece数据
      */
     public final void piece(int index, int begin, byte[] bytes) {
-        if(bytes == null || this.downloadPiece == null) {
+        if(bytes == null) {
             return;
         }
-        final int downloadIndex = this.downloadPiece.getIndex();
-        if(index != downloadIndex) {
-            LOGGER.debug("下载Piece索引和当前Piece索引不符：{}-{}", index, downloadIndex);
+        if(!this.requestQueue.response(index, begin, bytes.length)) {
+            // 已经取消的请求（其他Peer已经下载）或者数据长度和请求不一致
+            LOGGER.debug("下载Slice没有请求：{}-{}", index, begin);
+            this.torrentSession.duplicate(bytes.length);
+            return;
+        }
+        final TorrentPiece piece = this.downloadPiece(index, begin);
+        if(piece == null) {
+            LOGGER.debug("下载Piece没有匹配：{}-{}", index, begin);
+        } else if(!piece.verifySlice(begin, bytes)) {
+            // 数据块校验失败：只丢弃当前Slice
+            LOGGER.warn("Slice校验失败：{}-{}", index, begin);
+            this.torrentSession.corrupt(this.peerSession);
+        } else if(piece.writeSlice(begin, bytes, this.peerSession)) {
+            if(piece.shared()) {
+                // 先到的Slice有效：取消其他Peer的相同请求
+                this.torrentSession.cancel(index, begin, bytes.length);
+            }
+        } else {
+            LOGGER.debug("下载Slice重复：{}-{}", index, begin);
+            this.torrentSession.duplicate(bytes.length);
+        }
+        this.response();
+    }
+    
+    /**
+     * 预留直接写入Slice
+     * 
+     * @param index  Piece索引
+     * @param begin  Piece偏移
+     * @param length Slice数据长度
+     * 
+     * @return 是否预留成功（不能直接写入：使用消息缓存接收）
+     * 
+     * @see TorrentPiece#reserveSlice(int, int, PeerSession)
+     */
+    public final boolean reserveSlice(int index, int begin, int length) {
+        final TorrentPiece piece = this.downloadPiece(index, begin);
+        if(piece == null || !piece.reserveSlice(begin, length, this.peerSession)) {
+            return false;
+        }
+        this.receivePiece = piece;
+        return true;
+    }
+    
+    /**
+     * 直接写入Slice数据
+     * 已经取消写入：丢弃数据
+     * 
+     * @param begin    Piece偏移
+     * @param position Slice内偏移
+     * @param buffer   数据
+     * @param length   数据长度
+     */
+    public final void receiveSlice(int begin, int position, ByteBuffer buffer, int length) {
+        final TorrentPiece piece = this.receivePiece;
+        if(piece == null || !piece.receiveSlice(begin, position, buffer, length, this.peerSession)) {
+            buffer.position(buffer.position() + length);
+        }
+    }
+    
+    /**
+     * 提交直接写入的Slice
+     * 
+     * @param index  Piece索引
+     * @param begin  Piece偏移
+     * @param length Slice数据长度
+     * 
+     * @see #piece(int, int, byte[])
+     */
+    public final void commitSlice(int index, int begin, int length) {
+        final TorrentPiece piece = this.receivePiece;
+        this.receivePiece = null;
+        if(!this.requestQueue.response(index, begin, length)) {
+            LOGGER.debug("下载Slice没有请求：{}-{}", index, begin);
+            if(piece != null) {
+                piece.abortSlice(this.peerSession);
+            }
+            this.torrentSession.duplicate(length);
             return;
         }
-        // 释放slice锁
-        this.unlockSlice();
-        final boolean completed = this.downloadPiece.write(begin, bytes);
-        // 下载完成：释放完成锁
-        if(completed) {
-            this.unlockCompleted();
+        if(piece == null) {
+            LOGGER.debug("下载Slice已经取消：{}-{}", index, begin);
+            this.torrentSession.duplicate(length);
+        } else if(!piece.verifySlice(begin, this.peerSession)) {
+            // 数据块校验失败：只丢弃当前Slice
+            LOGGER.warn("Slice校验失败：{}-{}", index, begin);
+            piece.abortSlice(this.peerSession);
+            this.torrentSession.corrupt(this.peerSession);
+        } else if(piece.commitSlice(begin, this.peerSession)) {
+            if(piece.shared()) {
+                // 先到的Slice有效：取消其他Peer的相同请求
+                this.torrentSession.cancel(index, begin, length);
+            }
+        } else {
+            LOGGER.debug("下载Slice重复：{}-{}", index, begin);
+            this.torrentSession.duplicate(length);
+        }
+        this.response();
+    }
+    
+    /**
+     * 取消直接写入的Slice
+     */
+    private void abortSlice() {
+        final TorrentPiece piece = this.receivePiece;
+        if(piece != null) {
+            this.receivePiece = null;
+            piece.abortSlice(this.peerSession);
+        }
+    }
+    
+    /**
+     * 获取下载中的Piece
+     * 
+     * @param index Piece索引
+     * @param begin Piece偏移
+     * 
+     * @return Piece
+     */
+    private TorrentPiece downloadPiece(int index, int begin) {
+        for (TorrentPiece piece : this.downloadPieces) {
+            if(piece.getIndex() == index && begin >= piece.getBegin() && begin < piece.getEnd()) {
+                return piece;
+            }
         }
+        return null;
+    }
+    
+    /**
+     * @return 请求队列
+     */
+    public final PeerRequestQueue requestQueue() {
+        return this.requestQueue;
     }
 
+    /**
+     * 取消请求
+     * 共享下载的Piece其他Peer已经收到Slice：只有含有相同请求时发送cancel消息
+     * 
+     * @param index  Piece索引
+     * @param begin  Piece内偏移
+     * @param length 数据长度
+     */
+    public final void cancel(int index, int begin, int length) {
+        if(this.requestQueue.cancel(index, begin)) {
+            this.peerSubMessageHandler.cancel(index, begin, length);
+            // 继续请求
+            this.response();
+        }
+    }
+    
+    /**
+     * Peer阻塞
+     * 不支持Fast扩展的Peer丢弃没有响应的请求：释放下载中的Piece
+     */
+    public final void peerChoked() {
+        if(!this.peerSession.supportFastExtensionProtocol()) {
+            synchronized (this) {
+                if(this.downloading) {
+                    this.undone();
+                }
+            }
+        }
+        this.dispatch();
+    }
+    
+    /**
+     * Peer拒绝请求
+     * 被拒绝的Slice不会再次请求：立即释放Piece，其他Slice请求一起取消，Piece可以重新挑选下载。
+     * 
+     * @param index Piece索引
+     * @param begin Piece内偏移
+     */
+    public final void rejectRequest(int index, int begin) {
+        if(this.requestQueue.cancel(index, begin)) {
+            synchronized (this) {
+                this.undone(index);
+            }
+            this.dispatch();
+        }
+    }
+    
+    /**
+     * 可写事件
+     * 发送队列或者发送窗口可以继续发送：继续调度请求
+     */
+    public final void writable() {
+        this.dispatch();
+    }
+    
     /**
      * 释放资源
      * 释放下载、阻塞Peer、关闭Peer连接
@@ -291,32 +489,93 @@ public abstract class PeerConnect implements IPeerConnect {
     }
     
     /**
-     * 请求下载
+     * 收到响应：更新响应时间继续调度
+     */
+    private void response() {
+        this.responseTime = System.currentTimeMillis();
+        this.dispatch();
+    }
+    
+    /**
+     * 调度下载状态机
+     * 调度任务没有执行完成时只增加调度信号
      */
-    private void requests() {
-        LOGGER.debug("开始请求下载：{}", this.peerSession);
-        boolean success = true;
-        while(success) {
+    private void dispatch() {
+        if(this.signal.getAndIncrement() == 0) {
+            PeerDispatcher.getInstance().dispatch(this::drive);
+        }
+    }
+    
+    /**
+     * 执行调度
+     * 执行期间收到的调度信号合并执行
+     */
+    private void drive() {
+        int signal = this.signal.get();
+        do {
+            this.step();
+        } while((signal = this.signal.addAndGet(-signal)) > 0);
+    }
+    
+    /**
+     * 执行下载状态机
+     * 不能继续下载：保存下载完成Piece、释放没有完成的Piece并且结束下载
+     */
+    private void step() {
+        synchronized (this) {
+            if(!this.downloading) {
+                return;
+            }
             try {
-                success = this.request();
+                if(!this.request()) {
+                    this.finish();
+                    return;
+                }
             } catch (Exception e) {
                 LOGGER.error("Peer请求异常", e);
             }
+            this.timeout();
         }
-        this.completedLock.set(true);
-        this.releaseDownload();
-        this.torrentSession.checkCompletedAndUnlock();
-        // 验证最后选择Piece是否下载完成
-        if(this.downloadPiece != null && !this.downloadPiece.completedAndVerify()) {
-            LOGGER.debug("Piece最后失败：{}", this.downloadPiece);
-            this.torrentSession.undone(this.downloadPiece);
-            this.peerSubMessageHandler.cancel(this.downloadPiece.getIndex(), this.downloadPiece.getBegin(), this.downloadPiece.getLength());
+    }
+    
+    /**
+     * 结束下载
+     */
+    private void finish() {
+        this.downloading = false;
+        if(this.timeout != null) {
+            this.timeout.cancel(false);
+            this.timeout = null;
         }
+        this.completed();
+        this.undone();
+        this.torrentSession.checkCompletedAndUnlock();
         LOGGER.debug("结束请求下载：{}", this.peerSession);
     }
     
+    /**
+     * 设置超时定时任务
+     * 定时任务执行以后重新调度：检查请求超时
+     */
+    private void timeout() {
+        if(this.backpressure) {
+            // 缓存背压：缩短调度时间重新挑选Piece
+            if(this.timeout != null && !this.timeout.isDone()) {
+                if(this.timeout.getDelay(TimeUnit.MILLISECONDS) <= BACKPRESSURE_TIMEOUT) {
+                    return;
+                }
+                this.timeout.cancel(false);
+            }
+            this.timeout = PeerDispatcher.getInstance().schedule(BACKPRESSURE_TIMEOUT, this::dispatch);
+        } else if(this.timeout == null || this.timeout.isDone()) {
+            final long delay = SLICE_TIMEOUT - (System.currentTimeMillis() - this.responseTime);
+            this.timeout = PeerDispatcher.getInstance().schedule(Math.max(MIN_TIMEOUT, delay), this::dispatch);
+        }
+    }
+    
     /**
      * 请求数据
+     * 请求队列没有填满时持续发送请求，请求队列填满以后等待响应事件。
      * 
      * @return 是否可以继续下载
      */
@@ -328,173 +587,247 @@ public abstract class PeerConnect implements IPeerConnect {
             LOGGER.debug("释放Peer：任务不可下载");
             return false;
         }
-        this.pick();
-        if(this.downloadPiece == null) {
-            LOGGER.debug("释放Peer：没有匹配Piece下载");
-            this.peerSubMessageHandler.notInterested();
-            return false;
+        this.backpressure = false;
+        this.completed();
+        if(this.requestQueue.requestSize() > 0) {
+            if(System.currentTimeMillis() - this.responseTime >= SLICE_TIMEOUT) {
+                LOGGER.debug("Slice请求超时：{}-{}", this.peerSession, this.requestQueue.requestSize());
+                this.undone();
+                this.responseTime = System.currentTimeMillis();
+            }
+        } else {
+            // 没有等待响应的请求：重新计算超时
+            this.responseTime = System.currentTimeMillis();
         }
-        final int index = this.downloadPiece.getIndex();
-        while(this.available()) {
-            // 超过slice请求数量进入等待
-            if (this.sliceLock.get() >= SLICE_REQUEST_SIZE) {
-                this.lockSlice();
+        this.requestQueue.maxSize(this.peerSession.reqq());
+        while(this.available() && this.requestQueue.available()) {
+            if(!this.peerSubMessageHandler.writable()) {
+                // 不能继续发送：等待可写事件继续请求
+                LOGGER.debug("等待Peer可写：{}", this.peerSession);
+                return true;
             }
-            // 超过slice最大请求数量跳出循环
-            if (this.sliceLock.get() >= SLICE_REQUEST_MAX_SIZE) {
-                LOGGER.debug("超过slice最大请求数量跳出循环");
+            final TorrentPiece piece = this.requestPiece();
+            if(piece == null) {
                 break;
             }
-            this.sliceLock.incrementAndGet();
-            // 顺序不能调换：position、length
-            final int begin = this.downloadPiece.position();
-            final int length = this.downloadPiece.length();
-            this.peerSubMessageHandler.request(index, begin, length);
-            // 是否还有更多SLICE
-            if(!this.downloadPiece.hasMoreSlice()) {
+            final int index = piece.getIndex();
+            final int begin;
+            final int length;
+            if(piece == this.sharePiece) {
+                final int position = piece.nextSlice(this.sharePosition);
+                if(position < 0) {
+                    continue;
+                }
+                begin = piece.getBegin() + position;
+                length = piece.sliceLength(position);
+                this.sharePosition = position + length;
+            } else {
+                // 顺序不能调换：position、length
+                begin = piece.position();
+                length = piece.length();
+            }
+            // 先记录请求：响应可能在发送返回之前到达
+            this.requestQueue.request(index, begin, length);
+            if(!this.peerSubMessageHandler.request(index, begin, length)) {
+                // 请求没有发送：删除请求记录并且退回请求位置
+                this.requestQueue.cancel(index, begin);
+                if(piece == this.sharePiece) {
+                    this.sharePosition = begin - piece.getBegin();
+                } else {
+                    piece.retrySlice(begin);
+                }
                 break;
             }
         }
-        // 添加完成锁：请求发送完成必须进入完成等待（数据可能没有全部返回）
-        this.lockCompleted();
-        // 释放释放锁
-        this.unlockRelease();
+        if(this.downloadPieces.isEmpty()) {
+            if(this.torrentSession.backpressure()) {
+                LOGGER.debug("缓存背压：{}", this.peerSession);
+                this.backpressure = true;
+                return true;
+            }
+            LOGGER.debug("释放Peer：没有匹配Piece下载");
+            this.peerSubMessageHandler.notInterested();
+            return false;
+        }
+        if(this.requestQueue.requestSize() == 0) {
+            // 没有请求并且没有可以请求的Slice（拒绝请求）：释放Piece等待超时重新挑选
+            LOGGER.debug("Slice请求失败：{}", this.peerSession);
+            this.undone();
+        }
         return true;
     }
     
     /**
-     * 选择下载Piece
+     * 获取需要请求的Piece
+     * 最后一个Piece请求发送完成以后挑选新的Piece
+     * 
+     * @return Piece
      */
-    private void pick() {
-        if(this.downloadPiece == null) {
-            // 没有Piece
-        } else if(this.downloadPiece.completed()) {
-            if(this.downloadPiece.verify()) {
-                final boolean success = this.torrentSession.write(this.downloadPiece);
-                if(success) {
-                    // 统计下载有效数据
-                    this.statisticsSession.download(this.downloadPiece.getLength());
-                } else {
-                    LOGGER.debug("Piece保存失败：{}", this.downloadPiece);
-                    this.torrentSession.undone(this.downloadPiece);
-                }
-            } else {
-                // 设置下载错误Piece位图
-                this.peerSession.badPieces(this.downloadPiece.getIndex());
-                LOGGER.warn("Piece校验失败：{}", this.downloadPiece);
-                this.torrentSession.undone(this.downloadPiece);
-            }
-        } else {
-            LOGGER.debug("Piece下载失败：{}", this.downloadPiece);
-            this.torrentSession.undone(this.downloadPiece);
+    private TorrentPiece requestPiece() {
+        final TorrentPiece lastPiece = this.downloadPieces.peekLast();
+        if(lastPiece != null && this.hasMoreSlice(lastPiece)) {
+            return lastPiece;
         }
-        if(this.peerConnectSession.isPeerUnchoked()) {
-            LOGGER.debug("选择下载Piece：解除阻塞");
-            this.downloadPiece = this.torrentSession.pick(this.peerSession.availablePieces(), this.peerSession.suggestPieces());
-        } else {
-            LOGGER.debug("选择下载Piece：快速允许");
-            this.downloadPiece = this.torrentSession.pick(this.peerSession.allowedPieces(), this.peerSession.allowedPieces());
+        final TorrentPiece piece = this.pick();
+        if(piece == null) {
+            return null;
+        }
+        if(this.downloadPiece(piece.getIndex(), piece.getBegin()) != null) {
+            // 任务接近完成时可能重复挑选正在下载的Piece
+            LOGGER.debug("选择下载Piece（正在下载）：{}", piece);
+            piece.leave();
+            piece.release();
+            return null;
         }
-        LOGGER.debug("选择下载Piece：{}", this.downloadPiece);
-        this.sliceLock.set(0);
-        this.completedLock.set(false);
+        if(piece.shared()) {
+            LOGGER.debug("选择下载Piece（共享下载）：{}", piece);
+            this.sharePiece = piece;
+            this.sharePosition = 0;
+        }
+        this.downloadPieces.offerLast(piece);
+        if(piece.needLeaves()) {
+            // 请求数据块Hash：每个Slice单独校验
+            this.peerSubMessageHandler.hashRequest(piece);
+        }
+        return piece;
     }
     
     /**
-     * PeerConnect释放下载
+     * 判断是否还有更多的数据请求
+     * 
+     * @param piece Piece
+     * 
+     * @return 是否还有更多的数据请求
      */
-    protected final void releaseDownload() {
-        if(this.downloading) {
-            LOGGER.debug("PeerConnect释放下载：{}", this.peerSession);
-            this.downloading = false;
-            // 没有完成：等待下载完成
-            if(!this.completedLock.get()) {
-                this.lockRelease();
-            }
+    private boolean hasMoreSlice(TorrentPiece piece) {
+        if(piece == this.sharePiece) {
+            return piece.nextSlice(this.sharePosition) >= 0;
         }
+        return piece.hasMoreSlice();
     }
     
     /**
-     * 添加slice锁
+     * 选择下载Piece
+     * 
+     * @return Piece
      */
-    private void lockSlice() {
-        synchronized (this.sliceLock) {
-            try {
-                this.sliceLock.wait(SLICE_TIMEOUT);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                LOGGER.debug("线程等待异常", e);
-            }
+    private TorrentPiece pick() {
+        final TorrentPiece piece;
+        final long speed = this.statisticsSession.getDownloadSpeed();
+        if(this.peerConnectSession.isPeerUnchoked()) {
+            LOGGER.debug("选择下载Piece：解除阻塞");
+            piece = this.torrentSession.pick(this.peerSession.availablePieces(), this.peerSession.suggestPieces(), speed);
+        } else {
+            LOGGER.debug("选择下载Piece：快速允许");
+            piece = this.torrentSession.pick(this.peerSession.allowedPieces(), this.peerSession.allowedPieces(), speed);
         }
+        LOGGER.debug("选择下载Piece：{}", piece);
+        return piece;
     }
     
     /**
-     * 释放slice锁
+     * 保存下载完成Piece
      */
-    private void unlockSlice() {
-        if (this.sliceLock.decrementAndGet() <= 0) {
-            synchronized (this.sliceLock) {
-                this.sliceLock.notifyAll();
+    private void completed() {
+        final Iterator<TorrentPiece> iterator = this.downloadPieces.iterator();
+        while(iterator.hasNext()) {
+            final TorrentPiece piece = iterator.next();
+            if(!piece.completed()) {
+                continue;
+            }
+            iterator.remove();
+            if(piece == this.sharePiece) {
+                this.sharePiece = null;
+            }
+            if(!piece.claim()) {
+                // 共享下载的Piece已经被其他Peer保存
+                piece.release();
+                continue;
+            }
+            if(piece.verify()) {
+                // 对比校验失败记录：找出发送错误数据的Peer
+                this.torrentSession.verifySuccess(piece);
+                final boolean success = this.torrentSession.write(piece);
+                if(success) {
+                    // 统计下载有效数据
+                    this.statisticsSession.download(piece.getLength());
+                    // 文件流缓存持有引用
+                    piece.release();
+                } else {
+                    LOGGER.debug("Piece保存失败：{}", piece);
+                    this.torrentSession.undone(piece);
+                }
+            } else {
+                // 所有来源Peer设置下载错误Piece位图：只能从其他Peer重新下载
+                this.peerSession.badPieces(piece.getIndex());
+                this.torrentSession.verifyFail(piece);
+                LOGGER.warn("Piece校验失败：{}", piece);
+                this.torrentSession.undone(piece);
             }
         }
     }
     
     /**
-     * 添加完成锁
+     * 释放没有完成的Piece
+     * 取消请求：部分下载的Piece可以被其他Peer继续下载
      */
-    private void lockCompleted() {
-        if(!this.completedLock.get()) {
-            synchronized (this.completedLock) {
-                if(!this.completedLock.get()) {
-                    try {
-                        this.completedLock.wait(COMPLETED_TIMEOUT);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        LOGGER.debug("线程等待异常", e);
-                    }
-                }
+    private void undone() {
+        this.abortSlice();
+        TorrentPiece piece;
+        while((piece = this.downloadPieces.pollFirst()) != null) {
+            LOGGER.debug("Piece下载失败：{}", piece);
+            if(piece.leave()) {
+                this.torrentSession.undone(piece);
+            } else {
+                // 共享下载的Piece其他Peer继续下载
+                piece.release();
             }
         }
+        this.sharePiece = null;
+        // 取消没有响应的Slice请求
+        this.requestQueue.clear().forEach(request -> this.peerSubMessageHandler.cancel(request.index(), request.begin(), request.length()));
     }
     
     /**
-     * 释放完成锁
+     * 释放没有完成的Piece
+     * 只释放指定索引Piece并且取消这个Piece没有响应的Slice请求
+     * 
+     * @param index Piece索引
      */
-    private void unlockCompleted() {
-        synchronized (this.completedLock) {
-            this.completedLock.set(true);
-            this.completedLock.notifyAll();
-        }
-    }
-
-    /**
-     * 添加释放锁
-     */
-    private void lockRelease() {
-        if(!this.releaseLock.get()) {
-            synchronized (this.releaseLock) {
-                if(!this.releaseLock.get()) {
-                    this.releaseLock.set(true);
-                    try {
-                        this.releaseLock.wait(RELEASE_TIMEOUT);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        LOGGER.debug("线程等待异常", e);
-                    }
-                }
+    private void undone(int index) {
+        final Iterator<TorrentPiece> iterator = this.downloadPieces.iterator();
+        while(iterator.hasNext()) {
+            final TorrentPiece piece = iterator.next();
+            if(piece.getIndex() != index) {
+                continue;
+            }
+            iterator.remove();
+            LOGGER.debug("Piece下载失败：{}", piece);
+            if(piece == this.receivePiece) {
+                this.abortSlice();
+            }
+            if(piece == this.sharePiece) {
+                this.sharePiece = null;
+            }
+            if(piece.leave()) {
+                this.torrentSession.undone(piece);
+            } else {
+                piece.release();
             }
         }
+        this.requestQueue.cancel(index).forEach(request -> this.peerSubMessageHandler.cancel(request.index(), request.begin(), request.length()));
     }
-
+    
     /**
-     * 释放释放锁
+     * PeerConnect释放下载
+     * 保存下载完成Piece并且释放没有完成的Piece
      */
-    private void unlockRelease() {
-        if(this.releaseLock.get()) {
-            synchronized (this.releaseLock) {
-                if(this.releaseLock.get()) {
-                    this.releaseLock.notifyAll();
-                }
+    protected final void releaseDownload() {
+        this.abortSlice();
+        synchronized (this) {
+            if(this.downloading) {
+                LOGGER.debug("PeerConnect释放下载：{}", this.peerSession);
+                this.finish();
             }
         }
     }
@@ -243,6 +243,27 @@ public final class PeerContext implements IContext {
         }
     }
     
+    /**
+     * 发送cancel消息
+     * 只有含有相同请求的Peer发送cancel消息
+     * 
+     * @param infoHashHex InfoHashHex
+     * @param index       Piece索引
+     * @param begin       Piece内偏移
+     * @param length      数据长度
+     * 
+     * @see PeerConnect#cancel(int, int, int)
+     */
+    public void cancel(String infoHashHex, int index, int begin, int length) {
+        final List<PeerSession> sessions = this.listConnectPeerSession(infoHashHex);
+        sessions.forEach(session -> {
+            final PeerConnect peerConnect = session.peerConnect();
+            if(peerConnect != null && peerConnect.available()) {
+                peerConnect.cancel(index, begin, length);
+            }
+        });
+    }
+    
     /**
      * 发送PEX消息
      * 
@@ -0,0 +1,63 @@
+package com.acgist.snail.net.torrent.peer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.acgist.snail.context.SystemThreadContext;
+
+/**
+ * Peer下载调度
+ * 所有任务Peer共用少量线程：收到响应、阻塞、解除阻塞和超时事件时执行一次下载状态机，执行完成以后立即释放线程。
+ * 线程数量和Peer数量无关。
+ * 
+ * @author acgist
+ */
+public final class PeerDispatcher {
+    
+    private static final PeerDispatcher INSTANCE = new PeerDispatcher();
+    
+    public static final PeerDispatcher getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 调度线程池
+     * 每个Peer同时只有一个调度任务：任务数量不会超过Peer数量
+     */
+    private final ExecutorService executor;
+    /**
+     * 超时定时线程池
+     */
+    private final ScheduledExecutorService executorScheduled;
+    
+    private PeerDispatcher() {
+        final int poolSize = SystemThreadContext.threadSize(2, 4);
+        final int[] executor = {poolSize, poolSize, Short.MAX_VALUE};
+        this.executor = SystemThreadContext.newExecutor(executor, 60L, SystemThreadContext.SNAIL_THREAD_DISPATCH);
+        this.executorScheduled = SystemThreadContext.newScheduledExecutor(1, SystemThreadContext.SNAIL_THREAD_DISPATCH);
+    }
+    
+    /**
+     * 执行调度任务
+     * 
+     * @param runnable 调度任务
+     */
+    public void dispatch(Runnable runnable) {
+        this.executor.submit(runnable);
+    }
+    
+    /**
+     * 定时执行调度任务
+     * 
+     * @param delay    延迟时间（毫秒）
+     * @param runnable 调度任务
+     * 
+     * @return 定时任务
+     */
+    public ScheduledFuture<?> schedule(long delay, Runnable runnable) {
+        return this.executorScheduled.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+    }
+    
+}
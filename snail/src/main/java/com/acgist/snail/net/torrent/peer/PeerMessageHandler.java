@@ -1,6 +1,8 @@
 package com.acgist.snail.net.torrent.peer;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.TcpMessageHandler;
@@ -25,6 +27,11 @@ public final class PeerMessageHandler extends TcpMessageHandler implements IEncr
      * Peer消息代理
      */
     private final PeerSubMessageHandler peerSubMessageHandler;
+    /**
+     * 加密锁
+     * 加密密钥流没有加锁：加密顺序必须和放入发送队列顺序一致
+     */
+    private final Lock encryptLock = new ReentrantLock();
     
     /**
      * 服务端
@@ -54,8 +61,18 @@ public final class PeerMessageHandler extends TcpMessageHandler implements IEncr
     
     @Override
     public void sendEncrypt(ByteBuffer buffer, int timeout) throws NetException {
-        this.messageEncoder.encode(buffer);
-        this.send(buffer, timeout);
+        this.encryptLock.lock();
+        try {
+            this.messageEncoder.encode(buffer);
+            this.send(buffer, timeout);
+        } finally {
+            this.encryptLock.unlock();
+        }
+    }
+    
+    @Override
+    protected void onWritable() {
+        this.peerSubMessageHandler.writableEvent();
     }
     
     @Override
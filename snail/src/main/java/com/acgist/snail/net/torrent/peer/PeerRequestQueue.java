@@ -0,0 +1,336 @@
+package com.acgist.snail.net.torrent.peer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.net.torrent.TorrentPiece;
+
+/**
+ * Peer请求队列
+ * 记录已经发送没有响应的Slice请求，根据带宽时延积（下载速度 * 往返时间）调整请求队列长度。
+ * 请求队列长度不能超过Peer扩展握手消息中的请求队列长度（reqq）。
+ * 
+ * @author acgist
+ */
+public final class PeerRequestQueue {
+    
+    /**
+     * 最小请求队列长度：{@value}
+     */
+    private static final int MIN_SIZE = 2;
+    /**
+     * 初始请求队列长度：{@value}
+     */
+    private static final int INIT_SIZE = 4;
+    /**
+     * 默认最大请求队列长度：{@value}
+     * Peer没有发送请求队列长度（reqq）时使用
+     */
+    private static final int DEFAULT_MAX_SIZE = 128;
+    /**
+     * 请求队列长度增益：{@value}
+     * 请求数量超过带宽时延积才能探测更高的下载速度
+     */
+    private static final int GAIN = 2;
+    /**
+     * 下载速度统计周期（毫秒）：{@value}
+     */
+    private static final long RATE_INTERVAL = SystemConfig.ONE_SECOND_MILLIS;
+    /**
+     * 最小往返时间有效时间（毫秒）：{@value}
+     * 超过时间重新统计最小往返时间：防止网络变化以后一直使用过期数据
+     */
+    private static final long MIN_RTT_INTERVAL = 10L * SystemConfig.ONE_SECOND_MILLIS;
+    
+    /**
+     * 请求队列长度
+     */
+    private volatile int size;
+    /**
+     * 最大请求队列长度
+     */
+    private volatile int maxSize;
+    /**
+     * 平滑往返时间（毫秒）
+     */
+    private long rtt;
+    /**
+     * 最小往返时间（毫秒）
+     */
+    private long minRtt;
+    /**
+     * 最小往返时间统计时间
+     */
+    private long minRttTime;
+    /**
+     * 下载速度（B/S）
+     */
+    private long rate;
+    /**
+     * 统计周期下载大小
+     */
+    private long rateSize;
+    /**
+     * 统计周期开始时间
+     */
+    private long rateTime;
+    /**
+     * 没有响应的请求
+     * 请求标识=请求
+     */
+    private final Map<Long, Request> requests;
+    
+    private PeerRequestQueue() {
+        this.size       = INIT_SIZE;
+        this.maxSize    = DEFAULT_MAX_SIZE;
+        this.rtt        = 0L;
+        this.minRtt     = 0L;
+        this.minRttTime = 0L;
+        this.rate       = 0L;
+        this.rateSize   = 0L;
+        this.rateTime   = System.currentTimeMillis();
+        this.requests   = new HashMap<>();
+    }
+    
+    /**
+     * 新建Peer请求队列
+     * 
+     * @return {@link PeerRequestQueue}
+     */
+    public static final PeerRequestQueue newInstance() {
+        return new PeerRequestQueue();
+    }
+    
+    /**
+     * 设置最大请求队列长度
+     * 
+     * @param reqq Peer请求队列长度（reqq）：小于等于零使用默认值
+     */
+    public void maxSize(int reqq) {
+        this.maxSize = reqq <= 0 ? DEFAULT_MAX_SIZE : Math.max(MIN_SIZE, reqq);
+        if(this.size > this.maxSize) {
+            this.size = this.maxSize;
+        }
+    }
+    
+    /**
+     * 判断是否可以发送请求
+     * 
+     * @return 是否可以发送请求
+     */
+    public boolean available() {
+        synchronized (this) {
+            return this.requests.size() < this.size;
+        }
+    }
+    
+    /**
+     * 记录发送请求
+     * 
+     * @param index  Piece索引
+     * @param begin  Piece内偏移
+     * @param length 数据长度
+     */
+    public void request(int index, int begin, int length) {
+        synchronized (this) {
+            this.requests.put(this.key(index, begin), new Request(index, begin, length, System.currentTimeMillis()));
+        }
+    }
+    
+    /**
+     * 记录请求响应
+     * 统计往返时间和下载速度，重新计算请求队列长度。
+     * 
+     * @param index  Piece索引
+     * @param begin  Piece内偏移
+     * @param length 数据长度
+     * 
+     * @return 是否是请求响应（没有请求或者数据长度和请求不一致：false）
+     */
+    public boolean response(int index, int begin, int length) {
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            final long key = this.key(index, begin);
+            final Request request = this.requests.get(key);
+            if(request == null || request.length() != length) {
+                return false;
+            }
+            this.requests.remove(key);
+            this.rtt(now - request.time());
+            this.rate(now, length);
+            return true;
+        }
+    }
+    
+    /**
+     * 统计往返时间
+     * 
+     * @param sample 往返时间样本
+     */
+    private void rtt(long sample) {
+        final long value = Math.max(1L, sample);
+        // 平滑往返时间：RTT = 7/8 * RTT + 1/8 * 样本
+        this.rtt = this.rtt == 0L ? value : (7 * this.rtt + value) / 8;
+        final long now = System.currentTimeMillis();
+        if(this.minRtt == 0L || value < this.minRtt || now - this.minRttTime > MIN_RTT_INTERVAL) {
+            this.minRtt = value;
+            this.minRttTime = now;
+        }
+    }
+    
+    /**
+     * 统计下载速度
+     * 
+     * @param now    当前时间
+     * @param length 数据长度
+     */
+    private void rate(long now, int length) {
+        this.rateSize += length;
+        final long interval = now - this.rateTime;
+        if(interval < RATE_INTERVAL) {
+            return;
+        }
+        final long value = this.rateSize * SystemConfig.ONE_SECOND_MILLIS / interval;
+        this.rate = this.rate == 0L ? value : (this.rate + value) / 2;
+        this.rateSize = 0L;
+        this.rateTime = now;
+        this.resize();
+    }
+    
+    /**
+     * 计算请求队列长度
+     * 请求队列长度 = 下载速度 * 最小往返时间 * 增益 / Slice大小
+     */
+    private void resize() {
+        if(this.rate <= 0L || this.minRtt <= 0L) {
+            return;
+        }
+        final long bdp = this.rate * this.minRtt / SystemConfig.ONE_SECOND_MILLIS;
+        final long size = bdp * GAIN / TorrentPiece.SLICE_LENGTH + 1;
+        this.size = (int) Math.max(MIN_SIZE, Math.min(this.maxSize, size));
+    }
+    
+    /**
+     * 取消请求
+     * 
+     * @param index Piece索引
+     * @param begin Piece内偏移
+     * 
+     * @return 是否含有请求
+     */
+    public boolean cancel(int index, int begin) {
+        synchronized (this) {
+            return this.requests.remove(this.key(index, begin)) != null;
+        }
+    }
+    
+    /**
+     * 取消Piece所有请求
+     * 
+     * @param index Piece索引
+     * 
+     * @return 没有响应的请求：用于发送取消请求
+     */
+    public List<Request> cancel(int index) {
+        synchronized (this) {
+            final List<Request> list = new ArrayList<>();
+            final var iterator = this.requests.values().iterator();
+            while(iterator.hasNext()) {
+                final Request request = iterator.next();
+                if(request.index() == index) {
+                    iterator.remove();
+                    list.add(request);
+                }
+            }
+            return list;
+        }
+    }
+    
+    /**
+     * 清空请求
+     * 
+     * @return 没有响应的请求：用于发送取消请求
+     */
+    public List<Request> clear() {
+        synchronized (this) {
+            final List<Request> list = new ArrayList<>(this.requests.values());
+            this.requests.clear();
+            return list;
+        }
+    }
+    
+    /**
+     * @return 没有响应的请求数量
+     */
+    public int requestSize() {
+        synchronized (this) {
+            return this.requests.size();
+        }
+    }
+    
+    /**
+     * @return 请求队列长度
+     */
+    public int size() {
+        return this.size;
+    }
+    
+    /**
+     * @return 平滑往返时间（毫秒）
+     */
+    public long rtt() {
+        synchronized (this) {
+            return this.rtt;
+        }
+    }
+    
+    /**
+     * @return 下载速度（B/S）
+     */
+    public long rate() {
+        synchronized (this) {
+            return this.rate;
+        }
+    }
+    
+    /**
+     * 请求标识
+     * 
+     * @param index Piece索引
+     * @param begin Piece内偏移
+     * 
+     * @return 请求标识
+     */
+    private long key(int index, int begin) {
+        return ((long) index << 32) | (begin & 0xFFFFFFFFL);
+    }
+    
+    /**
+     * 没有响应的请求
+     * 
+     * @author acgist
+     */
+    public static final record Request(
+        /**
+         * Piece索引
+         */
+        int index,
+        /**
+         * Piece内偏移
+         */
+        int begin,
+        /**
+         * 数据长度
+         */
+        int length,
+        /**
+         * 发送时间
+         */
+        long time
+    ) {
+    }
+    
+}
@@ -57,6 +57,10 @@ public final class PeerSession extends StatisticsGetter implements IPeerConnect
      * 连接失败次数
      */
     private volatile byte failTimes = 0;
+    /**
+     * 发送错误数据次数
+     */
+    private volatile byte corruptTimes = 0;
     /**
      * Peer地址
      */
@@ -74,6 +78,11 @@ public final class PeerSession extends StatisticsGetter implements IPeerConnect
      * 协议链接：http://www.bittorrent.org/beps/bep_0004.html
      */
     private byte[] reserved;
+    /**
+     * Peer请求队列长度（reqq）
+     * 没有设置：0
+     */
+    private volatile int reqq;
     /**
      * 已经下载Piece位图
      * 
@@ -129,7 +138,8 @@ public final class PeerSession extends StatisticsGetter implements IPeerConnect
      * @param port   Peer端口
      */
     private PeerSession(IStatisticsSession parent, String host, Integer port) {
-        super(new StatisticsSession(false, false, parent));
+        // 统计速度：边下边播优先使用快速Peer
+        super(new StatisticsSession(false, true, parent));
         this.host          = host;
         this.port          = port;
         this.pieces        = new BitSet();
@@ -231,6 +241,22 @@ public final class PeerSession extends StatisticsGetter implements IPeerConnect
         this.port = port;
     }
     
+    /**
+     * @return Peer请求队列长度（reqq）
+     */
+    public int reqq() {
+        return this.reqq;
+    }
+    
+    /**
+     * 设置Peer请求队列长度（reqq）
+     * 
+     * @param reqq Peer请求队列长度（reqq）
+     */
+    public void reqq(int reqq) {
+        this.reqq = reqq;
+    }
+    
     /**
      * @return DHT端口
      */
@@ -383,6 +409,32 @@ public final class PeerSession extends StatisticsGetter implements IPeerConnect
         this.failTimes++;
     }
     
+    /**
+     * 增加发送错误数据次数
+     * 
+     * @return 是否禁止连接
+     */
+    public boolean corrupt() {
+        synchronized (this) {
+            if(this.corruptTimes < PeerConfig.MAX_CORRUPT_TIMES) {
+                this.corruptTimes++;
+            }
+        }
+        return this.banned();
+    }
+    
+    /**
+     * 判断是否禁止连接
+     * 
+     * @return 是否禁止连接
+     * 
+     * @see #corruptTimes
+     * @see PeerConfig#MAX_CORRUPT_TIMES
+     */
+    public boolean banned() {
+        return this.corruptTimes >= PeerConfig.MAX_CORRUPT_TIMES;
+    }
+    
     /**
      * 判断是否可用
      * 
@@ -391,11 +443,13 @@ public final class PeerSession extends StatisticsGetter implements IPeerConnect
      * @see #port
      * @see #failTimes
      * @see PeerConfig#MAX_FAIL_TIMES
+     * @see #banned()
      */
     public boolean available() {
         return
             this.port != null &&
-            this.failTimes < PeerConfig.MAX_FAIL_TIMES;
+            this.failTimes < PeerConfig.MAX_FAIL_TIMES &&
+            !this.banned();
     }
     
     /**
@@ -446,6 +500,15 @@ public final class PeerSession extends StatisticsGetter implements IPeerConnect
         return this.supportExtension(7, PeerConfig.RESERVED_FAST_PROTOCOL);
     }
     
+    /**
+     * 判断是否支持V2协议
+     * 
+     * @return 是否支持V2协议
+     */
+    public boolean supportV2Protocol() {
+        return this.supportExtension(7, PeerConfig.RESERVED_V2_PROTOCOL);
+    }
+    
     /**
      * 添加Peer支持的扩展协议
      * 
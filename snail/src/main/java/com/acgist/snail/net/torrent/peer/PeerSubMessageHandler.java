@@ -4,17 +4,22 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.List;
 
 import com.acgist.snail.config.PeerConfig;
 import com.acgist.snail.config.PeerConfig.Type;
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.net.ByteBufferPool;
 import com.acgist.snail.net.NetException;
-import com.acgist.snail.net.codec.IMessageDecoder;
 import com.acgist.snail.net.torrent.IEncryptMessageSender;
 import com.acgist.snail.net.torrent.IPeerConnect;
+import com.acgist.snail.net.torrent.IPeerUnpackMessageDecoder;
 import com.acgist.snail.net.torrent.TorrentContext;
+import com.acgist.snail.net.torrent.TorrentMerkle;
+import com.acgist.snail.net.torrent.TorrentPiece;
+import com.acgist.snail.net.torrent.TorrentReader;
 import com.acgist.snail.net.torrent.TorrentSession;
 import com.acgist.snail.utils.ArrayUtils;
 import com.acgist.snail.utils.BitfieldUtils;
@@ -36,7 +41,7 @@ import com.acgist.snail.utils.StringUtils;
  * 
  * @author acgist
  */
-public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>, IPeerConnect {
+public final class PeerSubMessageHandler implements IPeerUnpackMessageDecoder, IPeerConnect {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PeerSubMessageHandler.class);
     
@@ -44,6 +49,11 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
      * 检查是否使用最大次数：{@value}
      */
     private static final int MAX_USELESS_CHECK = 3;
+    /**
+     * piece消息头部长度：{@value}
+     * length_prefix(4) + message_id(1) + index(4) + begin(4)
+     */
+    private static final int PIECE_HEADER_LENGTH = 13;
     
     /**
      * 检查是否使用次数
@@ -53,6 +63,21 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
      * 是否可用
      */
     private volatile boolean available = false;
+    /**
+     * 已经计入Piece可用数量的Piece位图
+     * 释放Peer时减少Piece可用数量
+     * 
+     * @see TorrentSession#available(BitSet)
+     * @see TorrentSession#unavailable(BitSet)
+     */
+    private final BitSet availablePieces = new BitSet();
+    /**
+     * 上传队列
+     * 
+     * @see #request(ByteBuffer)
+     * @see #cancel(ByteBuffer)
+     */
+    private final PeerUploadQueue uploadQueue = PeerUploadQueue.newInstance();
     /**
      * 是否已经发送握手
      */
@@ -184,6 +209,10 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
             null,
             PeerConfig.Source.CONNECT
         );
+        if(peerSession.banned()) {
+            LOGGER.debug("Peer接入失败（发送错误数据禁止连接）：{}", infoHashHex);
+            return false;
+        }
         final PeerUploader peerUploader = torrentSession.newPeerUploader(peerSession, this);
         if(peerUploader == null) {
             return false;
@@ -227,6 +256,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
      * 
      * @return 是否处理握手消息
      */
+    @Override
     public boolean handshakeRecv() {
         return this.handshakeRecv;
     }
@@ -301,6 +331,9 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
                 case SUGGEST_PIECE  -> this.suggestPiece(buffer);
                 case REJECT_REQUEST -> this.rejectRequest(buffer);
                 case ALLOWED_FAST   -> this.allowedFast(buffer);
+                case HASH_REQUEST   -> this.hashRequest(buffer);
+                case HASHES         -> this.hashes(buffer);
+                case HASH_REJECT    -> this.hashReject(buffer);
                 default             -> LOGGER.warn("处理Peer消息错误（类型未适配）：{}", type);
             }
         } else {
@@ -398,6 +431,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
      * 发送心跳消息
      * 格式：len=0000
      */
+    @Override
     public void keepAlive() {
         LOGGER.debug("发送心跳消息");
         this.pushMessage(null, null);
@@ -411,6 +445,8 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         LOGGER.debug("发送阻塞消息");
         this.peerConnectSession.amChoked();
         this.pushMessage(PeerConfig.Type.CHOKE);
+        // 阻塞以后清空上传队列：Fast扩展需要拒绝没有发送的请求
+        this.uploadQueue.clear().forEach(request -> this.rejectRequest(request.index(), request.begin(), request.length()));
     }
 
     /**
@@ -423,6 +459,9 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         this.peerConnectSession.peerChoked();
         // 不用释放资源：系统自动优化剔除
 //        this.peerConnect.release();
+        if(this.peerConnect != null) {
+            this.peerConnect.peerChoked();
+        }
     }
     
     /**
@@ -568,6 +607,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         final int index = buffer.getInt();
         LOGGER.debug("处理have消息：{}", index);
         this.peerSession.piece(index);
+        this.available(index);
         if(!this.torrentSession.hasPiece(index)) {
             this.interested();
         }
@@ -603,6 +643,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         LOGGER.debug("处理haveAll消息");
         final BitSet allPieces = this.torrentSession.allPieces();
         this.peerSession.pieces(allPieces);
+        this.available(allPieces);
         this.torrentSession.fullPieces();
         if(!this.torrentSession.completed()) {
             this.interested();
@@ -626,6 +667,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
     private void haveNone(ByteBuffer buffer) {
         LOGGER.debug("处理haveAll消息");
         this.peerSession.cleanPieces();
+        this.unavailable();
         this.notInterested();
     }
     
@@ -712,6 +754,9 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         final int begin = buffer.getInt();
         final int length = buffer.getInt();
         LOGGER.debug("处理rejectRequest消息：{}-{}-{}", index, begin, length);
+        if(this.peerConnect != null) {
+            this.peerConnect.rejectRequest(index, begin);
+        }
     }
     
     /**
@@ -761,6 +806,176 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         this.allowedFastDownload();
     }
     
+    /**
+     * 发送hashRequest消息
+     * 格式：len=0031 id=0x15 pieces_root base_layer index length proof_layers
+     * pieces_root：文件Merkle树根Hash
+     * base_layer：请求Hash层级（叶子节点：0）
+     * index：请求Hash开始索引
+     * length：请求Hash数量（二的幂）
+     * proof_layers：证明Hash层数
+     * 
+     * 请求Piece所有数据块Hash：已经含有Piece层Hash所以不用请求证明Hash
+     * 只有一个数据块的Piece不用请求：Piece层Hash就是数据块Hash（请求数量最少两个）
+     * 
+     * @param piece Piece
+     */
+    public void hashRequest(TorrentPiece piece) {
+        if(!this.peerSession.supportV2Protocol()) {
+            LOGGER.debug("发送hashRequest消息：Peer不支持V2协议");
+            return;
+        }
+        final TorrentMerkle merkle = piece.merkle();
+        final int merkleIndex = piece.merkleIndex();
+        final int leafIndex = merkle.leafIndex(merkleIndex);
+        final int leafSize = merkle.leafSize(merkleIndex);
+        if(leafSize < 2) {
+            LOGGER.debug("发送hashRequest消息：只有一个数据块");
+            return;
+        }
+        LOGGER.debug("发送hashRequest消息：{}-{}", piece, leafSize);
+        for (int offset = 0; offset < leafSize; offset += TorrentMerkle.MAX_HASH_SIZE) {
+            final int length = Math.min(TorrentMerkle.MAX_HASH_SIZE, leafSize - offset);
+            this.pushMessage(PeerConfig.Type.HASH_REQUEST, this.buildHashMessage(merkle.getPiecesRoot(), leafIndex + offset, length, null));
+        }
+    }
+    
+    /**
+     * 处理hashRequest消息
+     * 只支持请求叶子节点并且没有证明Hash：读取数据计算Hash
+     * 
+     * @param buffer 消息
+     */
+    private void hashRequest(ByteBuffer buffer) {
+        final byte[] piecesRoot = new byte[TorrentMerkle.HASH_LENGTH];
+        buffer.get(piecesRoot);
+        final int baseLayer = buffer.getInt();
+        final int index = buffer.getInt();
+        final int length = buffer.getInt();
+        final int proofLayers = buffer.getInt();
+        LOGGER.debug("处理hashRequest消息：{}-{}-{}-{}", baseLayer, index, length, proofLayers);
+        if(
+            !this.torrentSession.uploadable() ||
+            baseLayer != 0 ||
+            proofLayers != 0 ||
+            length < 2 ||
+            length > TorrentMerkle.MAX_HASH_SIZE ||
+            Integer.bitCount(length) != 1 ||
+            index % length != 0
+        ) {
+            this.hashReject(piecesRoot, baseLayer, index, length, proofLayers);
+            return;
+        }
+        // 读取数据计算Hash：不能占用网络线程
+        TorrentReader.getInstance().read(() -> {
+            byte[][] hashes = null;
+            try {
+                hashes = this.torrentSession.hashes(piecesRoot, index, length);
+            } catch (NetException e) {
+                LOGGER.error("计算数据块Hash异常", e);
+            }
+            final byte[][] message = hashes;
+            this.torrentSession.submit(() -> {
+                if(message == null) {
+                    this.hashReject(piecesRoot, baseLayer, index, length, proofLayers);
+                } else {
+                    LOGGER.debug("发送hashes消息：{}-{}", index, length);
+                    this.pushMessage(PeerConfig.Type.HASHES, this.buildHashMessage(piecesRoot, index, length, message));
+                }
+            });
+        });
+    }
+    
+    /**
+     * 处理hashes消息
+     * 格式：len=0031+X id=0x16 pieces_root base_layer index length proof_layers hashes
+     * 
+     * @param buffer 消息
+     */
+    private void hashes(ByteBuffer buffer) {
+        if(!this.torrentSession.downloadable()) {
+            LOGGER.debug("处理hashes消息：任务不可下载");
+            return;
+        }
+        final byte[] piecesRoot = new byte[TorrentMerkle.HASH_LENGTH];
+        buffer.get(piecesRoot);
+        final int baseLayer = buffer.getInt();
+        final int index = buffer.getInt();
+        final int length = buffer.getInt();
+        final int proofLayers = buffer.getInt();
+        LOGGER.debug("处理hashes消息：{}-{}-{}-{}", baseLayer, index, length, proofLayers);
+        if(baseLayer != 0 || length <= 0 || buffer.remaining() < length * TorrentMerkle.HASH_LENGTH) {
+            LOGGER.debug("处理hashes消息：格式错误");
+            return;
+        }
+        // 忽略证明Hash：使用Piece层Hash校验
+        final byte[][] hashes = new byte[length][TorrentMerkle.HASH_LENGTH];
+        for (byte[] hash : hashes) {
+            buffer.get(hash);
+        }
+        final List<PeerSession> corruptPeers = this.torrentSession.leaves(piecesRoot, index, hashes);
+        if(corruptPeers != null && !corruptPeers.isEmpty()) {
+            LOGGER.debug("处理hashes消息：删除校验失败Slice：{}", corruptPeers.size());
+            corruptPeers.forEach(this.torrentSession::corrupt);
+        }
+    }
+    
+    /**
+     * 发送hashReject消息
+     * 格式：len=0031 id=0x17 pieces_root base_layer index length proof_layers
+     * 
+     * @param piecesRoot  文件Merkle树根Hash
+     * @param baseLayer   请求Hash层级
+     * @param index       请求Hash开始索引
+     * @param length      请求Hash数量
+     * @param proofLayers 证明Hash层数
+     */
+    private void hashReject(byte[] piecesRoot, int baseLayer, int index, int length, int proofLayers) {
+        LOGGER.debug("发送hashReject消息：{}-{}-{}-{}", baseLayer, index, length, proofLayers);
+        final ByteBuffer buffer = ByteBuffer.allocate(TorrentMerkle.HASH_LENGTH + 16);
+        buffer.put(piecesRoot);
+        buffer.putInt(baseLayer);
+        buffer.putInt(index);
+        buffer.putInt(length);
+        buffer.putInt(proofLayers);
+        this.pushMessage(PeerConfig.Type.HASH_REJECT, buffer.array());
+    }
+    
+    /**
+     * 处理hashReject消息
+     * 
+     * @param buffer 消息
+     */
+    private void hashReject(ByteBuffer buffer) {
+        LOGGER.debug("处理hashReject消息：{}", this.peerSession);
+    }
+    
+    /**
+     * 新建Hash消息负载
+     * 
+     * @param piecesRoot 文件Merkle树根Hash
+     * @param index      叶子节点在文件中的索引
+     * @param length     叶子节点数量
+     * @param hashes     数据块Hash（请求消息：null）
+     * 
+     * @return 消息负载
+     */
+    private byte[] buildHashMessage(byte[] piecesRoot, int index, int length, byte[][] hashes) {
+        final int hashSize = hashes == null ? 0 : hashes.length;
+        final ByteBuffer buffer = ByteBuffer.allocate(TorrentMerkle.HASH_LENGTH + 16 + hashSize * TorrentMerkle.HASH_LENGTH);
+        buffer.put(piecesRoot);
+        // 叶子节点
+        buffer.putInt(0);
+        buffer.putInt(index);
+        buffer.putInt(length);
+        // 没有证明Hash
+        buffer.putInt(0);
+        for (int offset = 0; offset < hashSize; offset++) {
+            buffer.put(hashes[offset]);
+        }
+        return buffer.array();
+    }
+    
     /**
      * 快速交换Piece位图
      * 
@@ -830,6 +1045,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         // Peer已经下载Piece位图
         final BitSet pieces = BitfieldUtils.toBitSet(bytes);
         this.peerSession.pieces(pieces);
+        this.available(pieces);
         this.torrentSession.fullPieces(pieces);
         // 客户端没有下载Piece位图
         final BitSet notHave = new BitSet();
@@ -859,15 +1075,17 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
      * @param index Piece索引
      * @param begin Piece内偏移
      * @param length 请求数据长度
+     * 
+     * @return 是否发送（任务不可下载或者阻塞：false）
      */
-    public void request(int index, int begin, int length) {
+    public boolean request(int index, int begin, int length) {
         if(!this.torrentSession.downloadable()) {
             LOGGER.debug("发送request消息：任务不可下载");
-            return;
+            return false;
         }
         if(this.peerConnectSession.isPeerChoked()) {
             LOGGER.debug("发送request消息：阻塞");
-            return;
+            return false;
         }
         LOGGER.debug("发送request消息：{}-{}-{}", index, begin, length);
         final ByteBuffer buffer = ByteBuffer.allocate(12);
@@ -875,6 +1093,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         buffer.putInt(begin);
         buffer.putInt(length);
         this.pushMessage(PeerConfig.Type.REQUEST, buffer.array());
+        return true;
     }
 
     /**
@@ -890,6 +1109,18 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         final int index = buffer.getInt();
         final int begin = buffer.getInt();
         final int length = buffer.getInt();
+        final long pieceLength = this.torrentSession.torrent().getInfo().getPieceLength();
+        if(
+            begin < 0 ||
+            length <= 0 ||
+            length > PeerConfig.MAX_REQUEST_LENGTH ||
+            (long) begin + length > pieceLength
+        ) {
+            // 先校验再放入上传队列：防止申请超大缓冲
+            LOGGER.debug("处理request消息：请求数据错误：{}-{}-{}", index, begin, length);
+            this.rejectRequest(index, begin, length);
+            return;
+        }
         if(this.peerConnectSession.isAmChoked()) {
             LOGGER.debug("处理request消息：阻塞");
             this.rejectRequest(index, begin, length);
@@ -903,40 +1134,113 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         }
         if(this.torrentSession.hasPiece(index)) {
             LOGGER.debug("处理request消息：{}-{}-{}", index, begin, length);
-            try {
-                this.piece(index, begin, this.torrentSession.read(index, begin, length));
-            } catch (NetException e) {
-                LOGGER.error("处理request消息异常", e);
+            if(!this.uploadQueue.offer(index, begin, length)) {
+                LOGGER.debug("处理request消息：上传队列已满");
+                this.rejectRequest(index, begin, length);
+                return;
+            }
+            if(this.uploadQueue.schedule()) {
+                this.uploadQueue.execute(TorrentReader.getInstance()::read, this::uploadRead);
             }
         } else {
             LOGGER.debug("处理request消息：Piece没有下载");
+            this.rejectRequest(index, begin, length);
         }
     }
+    
+    /**
+     * 上传读取
+     * 磁盘读取线程读取上传队列中的请求，读取完成以后交给任务线程发送，发送完成以后再读取下一个请求。
+     * 同一个Peer同时只有一个请求读取或者发送：保证消息顺序和加密顺序，上传期间收到的cancel消息会直接删除队列中的请求。
+     * 
+     * @see TorrentReader
+     */
+    private void uploadRead() {
+        final PeerUploadQueue.Request request = this.uploadQueue.poll();
+        if(request == null) {
+            return;
+        }
+        ByteBuffer buffer = null;
+        if(this.peerConnectSession.isAmChoked()) {
+            LOGGER.debug("上传读取：阻塞");
+        } else {
+            try {
+                buffer = this.piece(request.index(), request.begin(), request.length());
+            } catch (NetException | RuntimeException e) {
+                // 读取异常或者数据不完整：拒绝请求
+                LOGGER.error("上传读取异常", e);
+            }
+        }
+        final ByteBuffer message = buffer;
+        if(
+            !this.uploadQueue.execute(this.torrentSession::submit, () -> this.uploadSend(request, message)) &&
+            message != null &&
+            message.isDirect()
+        ) {
+            ByteBufferPool.getInstance().giveBack(message);
+        }
+    }
+    
+    /**
+     * 上传发送
+     * 
+     * @param request 请求
+     * @param buffer  piece消息（没有读取：拒绝请求）
+     */
+    private void uploadSend(PeerUploadQueue.Request request, ByteBuffer buffer) {
+        if(buffer == null) {
+            this.rejectRequest(request.index(), request.begin(), request.length());
+        } else {
+            this.peerConnect.uploadMark(request.length());
+            // TCP发送完成自动归还缓冲
+            this.sendEncrypt(buffer);
+        }
+        this.uploadQueue.execute(TorrentReader.getInstance()::read, this::uploadRead);
+    }
 
     /**
-     * 发送piece消息
+     * 新建piece消息
      * 格式：len=0009+X id=0x07 index begin block
      * X：block.length（默认：16KB）
      * index：Piece索引
      * begin：Piece内偏移
      * block：Piece请求数据
      * 
-     * @param index Piece索引
-     * @param begin Piece内偏移
-     * @param bytes Piece请求数据
+     * 消息头部和Piece数据使用同一个缓冲：Piece数据直接从文件读取到消息缓冲
+     * TCP连接使用直接内存缓冲池：发送数据不用经过堆内存复制，发送完成归还缓冲。
+     * 
+     * @param index  Piece索引
+     * @param begin  Piece内偏移
+     * @param length Piece请求数据长度
+     * 
+     * @return piece消息（任务不可上传：null）
+     * 
+     * @throws NetException 网络异常
      */
-    private void piece(int index, int begin, byte[] bytes) {
+    private ByteBuffer piece(int index, int begin, int length) throws NetException {
         if(!this.torrentSession.uploadable()) {
-            LOGGER.debug("发送piece消息：任务不可上传");
-            return;
+            LOGGER.debug("新建piece消息：任务不可上传");
+            return null;
+        }
+        LOGGER.debug("新建piece消息：{}-{}", index, begin);
+        final int capacity = PIECE_HEADER_LENGTH + length;
+        final ByteBuffer buffer = this.connectType() == IPeerConnect.ConnectType.TCP ?
+            ByteBufferPool.getInstance().borrow(capacity) :
+            ByteBuffer.allocate(capacity);
+        try {
+            buffer.putInt(capacity - 4);
+            buffer.put(PeerConfig.Type.PIECE.getId());
+            buffer.putInt(index);
+            buffer.putInt(begin);
+            this.torrentSession.read(index, begin, buffer);
+        } catch (NetException | RuntimeException e) {
+            if(buffer.isDirect()) {
+                ByteBufferPool.getInstance().giveBack(buffer);
+            }
+            throw e;
         }
-        LOGGER.debug("发送piece消息：{}-{}", index, begin);
-        this.peerConnect.uploadMark(bytes.length);
-        final ByteBuffer buffer = ByteBuffer.allocate(8 + bytes.length);
-        buffer.putInt(index);
-        buffer.putInt(begin);
-        buffer.put(bytes);
-        this.pushMessage(PeerConfig.Type.PIECE, buffer.array());
+        buffer.flip();
+        return buffer;
     }
 
     /**
@@ -959,6 +1263,51 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         }
     }
 
+    /**
+     * 开始接收piece消息数据
+     * 消息头部解析完成以后数据直接写入下载中的Piece：减少数据复制
+     * 
+     * @param index  Piece索引
+     * @param begin  Piece内偏移
+     * @param length Piece数据长度
+     * 
+     * @return 是否直接写入（不能直接写入：使用消息缓存接收）
+     */
+    @Override
+    public boolean pieceBegin(int index, int begin, int length) {
+        if(!this.available || this.peerConnect == null || !this.torrentSession.downloadable()) {
+            return false;
+        }
+        LOGGER.debug("处理piece消息（直接写入）：{}-{}", index, begin);
+        return this.peerConnect.reserveSlice(index, begin, length);
+    }
+    
+    /**
+     * 接收piece消息数据
+     * 
+     * @param begin    Piece内偏移
+     * @param position Piece数据内偏移
+     * @param buffer   数据
+     * @param length   数据长度
+     */
+    @Override
+    public void pieceReceive(int begin, int position, ByteBuffer buffer, int length) {
+        this.peerConnect.receiveSlice(begin, position, buffer, length);
+    }
+    
+    /**
+     * 完成接收piece消息数据
+     * 
+     * @param index  Piece索引
+     * @param begin  Piece内偏移
+     * @param length Piece数据长度
+     */
+    @Override
+    public void pieceEnd(int index, int begin, int length) {
+        this.peerConnect.downloadMark(length);
+        this.peerConnect.commitSlice(index, begin, length);
+    }
+    
     /**
      * 发送cancel消息
      * 格式：len=0013 id=0x08 index begin length
@@ -989,6 +1338,10 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         final int begin = buffer.getInt();
         final int length = buffer.getInt();
         LOGGER.debug("处理cancel消息：{}-{}-{}", index, begin, length);
+        if(this.uploadQueue.cancel(index, begin, length)) {
+            // Fast扩展：取消请求必须响应rejectRequest或者piece消息
+            this.rejectRequest(index, begin, length);
+        }
     }
     
     /**
@@ -1143,9 +1496,79 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
      * @see IEncryptMessageSender#close()
      */
     public void close() {
+        this.unavailable();
+        this.uploadQueue.clear();
         this.messageEncryptSender.close();
     }
     
+    /**
+     * @return 上传队列长度
+     * 
+     * @see TorrentReader#size()
+     */
+    public int uploadSize() {
+        return this.uploadQueue.size();
+    }
+    
+    /**
+     * 处理Peer不再含有Piece
+     * 
+     * @param index Piece索引
+     */
+    public void pieceOff(int index) {
+        this.peerSession.pieceOff(index);
+        synchronized (this.availablePieces) {
+            if(PeerConfig.checkPiece(index) && this.availablePieces.get(index)) {
+                this.availablePieces.clear(index);
+                this.torrentSession.unavailable(index);
+            }
+        }
+    }
+    
+    /**
+     * 增加Piece可用数量
+     * 
+     * @param index Piece索引
+     */
+    private void available(int index) {
+        synchronized (this.availablePieces) {
+            if(PeerConfig.checkPiece(index) && !this.availablePieces.get(index)) {
+                this.availablePieces.set(index);
+                this.torrentSession.available(index);
+            }
+        }
+    }
+    
+    /**
+     * 增加Piece可用数量
+     * 
+     * @param pieces Piece位图
+     */
+    private void available(BitSet pieces) {
+        synchronized (this.availablePieces) {
+            final BitSet newPieces = new BitSet();
+            newPieces.or(pieces);
+            newPieces.andNot(this.availablePieces);
+            if(!newPieces.isEmpty()) {
+                this.availablePieces.or(newPieces);
+                this.torrentSession.available(newPieces);
+            }
+        }
+    }
+    
+    /**
+     * 减少Piece可用数量
+     * 释放Peer或者Peer没有Piece时减少全部已经计入Piece可用数量
+     */
+    private void unavailable() {
+        synchronized (this.availablePieces) {
+            if(!this.availablePieces.isEmpty() && this.torrentSession != null) {
+                this.torrentSession.unavailable(this.availablePieces);
+                this.availablePieces.clear();
+            }
+        }
+    }
+    
     /**
      * 是否可用
      * 
@@ -1157,6 +1580,31 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         return this.messageEncryptSender.available();
     }
     
+    /**
+     * 判断是否可以继续发送
+     * 不能继续发送时等待可写通知
+     * 
+     * @return 是否可以继续发送
+     * 
+     * @see IEncryptMessageSender#writable()
+     * @see #writableEvent()
+     */
+    public boolean writable() {
+        return this.messageEncryptSender.writable();
+    }
+    
+    /**
+     * 可写通知
+     * 继续调度下载
+     * 
+     * @see PeerConnect#writable()
+     */
+    public void writableEvent() {
+        if(this.peerConnect != null) {
+            this.peerConnect.writable();
+        }
+    }
+    
     /**
      * 发送Peer消息
      * 
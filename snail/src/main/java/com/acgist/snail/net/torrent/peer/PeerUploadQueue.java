@@ -0,0 +1,213 @@
+package com.acgist.snail.net.torrent.peer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.net.torrent.TorrentReader;
+
+/**
+ * Peer上传队列
+ * 收到request消息以后放入队列，由上传调度按照顺序读取数据发送piece消息。
+ * 收到cancel消息删除队列中的请求，阻塞Peer时清空队列：不会浪费上传带宽发送没有需要的数据。
+ * 队列长度不能超过扩展握手消息中的请求队列长度（reqq）和所有Peer共用的上传队列长度：超过长度拒绝请求
+ * 
+ * @author acgist
+ */
+public final class PeerUploadQueue {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(PeerUploadQueue.class);
+    
+    /**
+     * 最大队列长度：{@value}
+     */
+    private static final int MAX_SIZE = ExtensionMessageHandler.DEFAULT_REQQ;
+    
+    /**
+     * 是否正在上传
+     * 同一个Peer同时只有一个上传调度
+     */
+    private boolean uploading;
+    /**
+     * 请求队列
+     */
+    private final Deque<Request> requests;
+    
+    private PeerUploadQueue() {
+        this.uploading = false;
+        this.requests = new ArrayDeque<>();
+    }
+    
+    /**
+     * 新建Peer上传队列
+     * 
+     * @return {@link PeerUploadQueue}
+     */
+    public static final PeerUploadQueue newInstance() {
+        return new PeerUploadQueue();
+    }
+    
+    /**
+     * 添加请求
+     * 
+     * @param index  Piece索引
+     * @param begin  Piece内偏移
+     * @param length 数据长度
+     * 
+     * @return 是否添加成功（队列已满：false）
+     * 
+     * @see TorrentReader#acquire()
+     */
+    public boolean offer(int index, int begin, int length) {
+        synchronized (this) {
+            if(this.requests.size() >= MAX_SIZE) {
+                return false;
+            }
+            if(!TorrentReader.getInstance().acquire()) {
+                return false;
+            }
+            return this.requests.offerLast(new Request(index, begin, length));
+        }
+    }
+    
+    /**
+     * 开始上传调度
+     * 
+     * @return 是否需要开始上传调度（已经开始：false）
+     */
+    public boolean schedule() {
+        synchronized (this) {
+            if(this.uploading || this.requests.isEmpty()) {
+                return false;
+            }
+            this.uploading = true;
+            return true;
+        }
+    }
+    
+    /**
+     * 获取请求
+     * 没有请求时结束上传调度
+     * 
+     * @return 请求（没有请求：null）
+     */
+    public Request poll() {
+        synchronized (this) {
+            final Request request = this.requests.pollFirst();
+            if(request == null) {
+                this.uploading = false;
+            } else {
+                TorrentReader.getInstance().release(1);
+            }
+            return request;
+        }
+    }
+    
+    /**
+     * 执行上传任务
+     * 上传任务异常或者执行器拒绝任务时结束上传调度：防止上传状态不能结束导致Peer不能继续上传
+     * 
+     * @param executor 执行器
+     * @param runnable 上传任务
+     * 
+     * @return 是否提交成功
+     */
+    public boolean execute(Consumer<Runnable> executor, Runnable runnable) {
+        try {
+            executor.accept(() -> {
+                try {
+                    runnable.run();
+                } catch (Exception e) {
+                    LOGGER.error("上传任务异常", e);
+                    this.finish();
+                }
+            });
+            return true;
+        } catch (Exception e) {
+            LOGGER.error("上传任务提交异常", e);
+            this.finish();
+            return false;
+        }
+    }
+    
+    /**
+     * 结束上传调度
+     * 清空没有发送的请求
+     * 
+     * @return 没有发送的请求
+     */
+    public List<Request> finish() {
+        synchronized (this) {
+            this.uploading = false;
+            return this.clear();
+        }
+    }
+    
+    /**
+     * 取消请求
+     * 
+     * @param index  Piece索引
+     * @param begin  Piece内偏移
+     * @param length 数据长度
+     * 
+     * @return 是否取消成功（请求已经发送或者没有请求：false）
+     */
+    public boolean cancel(int index, int begin, int length) {
+        synchronized (this) {
+            if(this.requests.remove(new Request(index, begin, length))) {
+                TorrentReader.getInstance().release(1);
+                return true;
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * 清空请求
+     * 
+     * @return 没有发送的请求
+     */
+    public List<Request> clear() {
+        synchronized (this) {
+            final List<Request> list = new ArrayList<>(this.requests);
+            this.requests.clear();
+            TorrentReader.getInstance().release(list.size());
+            return list;
+        }
+    }
+    
+    /**
+     * @return 队列长度
+     */
+    public int size() {
+        synchronized (this) {
+            return this.requests.size();
+        }
+    }
+    
+    /**
+     * 上传请求
+     * 
+     * @author acgist
+     */
+    public static final record Request(
+        /**
+         * Piece索引
+         */
+        int index,
+        /**
+         * Piece内偏移
+         */
+        int begin,
+        /**
+         * 数据长度
+         */
+        int length
+    ) {
+    }
+    
+}
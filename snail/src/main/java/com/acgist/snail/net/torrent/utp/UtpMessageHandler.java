@@ -6,6 +6,8 @@ import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.config.UtpConfig;
@@ -80,6 +82,11 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
      * 收到ack消息重复次数
      */
     private final AtomicInteger ackLossTimes;
+    /**
+     * 是否等待可写
+     * 判断不能继续发送以后设置：收到响应释放窗口以后通知可写
+     */
+    private volatile boolean waitWritable;
     /**
      * 连接锁
      */
@@ -92,6 +99,11 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
      * Peer消息代理
      */
     private final PeerSubMessageHandler peerSubMessageHandler;
+    /**
+     * 加密锁
+     * 加密密钥流没有加锁：加密顺序必须和发送顺序一致
+     */
+    private final Lock encryptLock = new ReentrantLock();
     
     /**
      * 服务端
@@ -226,8 +238,26 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
     
     @Override
     public void sendEncrypt(ByteBuffer buffer, int timeout) throws NetException {
-        this.messageEncoder.encode(buffer);
-        this.sendPacket(buffer);
+        this.encryptLock.lock();
+        try {
+            this.messageEncoder.encode(buffer);
+            this.sendPacket(buffer);
+        } finally {
+            this.encryptLock.unlock();
+        }
+    }
+    
+    /**
+     * 发送窗口没有信号量时记录等待：收到响应释放窗口以后通知可写
+     */
+    @Override
+    public boolean writable() {
+        if(this.sendWindow.writable()) {
+            return true;
+        }
+        this.waitWritable = true;
+        // 设置等待以后再次判断：防止丢失通知
+        return this.sendWindow.writable();
     }
     
     @Override
@@ -381,6 +411,10 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
         } else {
             this.ackLossTimes.set(0);
         }
+        if(this.waitWritable && this.sendWindow.writable()) {
+            this.waitWritable = false;
+            this.peerSubMessageHandler.writableEvent();
+        }
     }
     
     /**
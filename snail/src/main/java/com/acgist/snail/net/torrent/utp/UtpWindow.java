@@ -414,6 +414,15 @@ public final class UtpWindow {
         LOGGER.debug("UTP窗口大小：{}", this.wnd);
     }
     
+    /**
+     * 判断是否可以继续发送
+     * 
+     * @return 是否可以继续发送（发送数据不用等待信号量）
+     */
+    public boolean writable() {
+        return this.close || this.semaphore == null || this.semaphore.availablePermits() > 0;
+    }
+    
     /**
      * 获取信号量
      */
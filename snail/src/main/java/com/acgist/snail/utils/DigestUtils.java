@@ -22,6 +22,10 @@ public final class DigestUtils {
      * 散列算法：{@value}
      */
     public static final String ALGO_SHA1 = "SHA-1";
+    /**
+     * 散列算法：{@value}
+     */
+    public static final String ALGO_SHA256 = "SHA-256";
     
     /**
      * @return MD5散列算法对象
@@ -41,6 +45,15 @@ public final class DigestUtils {
         return DigestUtils.digest(ALGO_SHA1);
     }
     
+    /**
+     * @return SHA-256散列算法对象
+     * 
+     * @see #digest(String)
+     */
+    public static final MessageDigest sha256() {
+        return DigestUtils.digest(ALGO_SHA256);
+    }
+    
     /**
      * @param algo 算法名称
      * 
@@ -87,6 +100,17 @@ public final class DigestUtils {
         return DigestUtils.sha1().digest(bytes);
     }
     
+    /**
+     * 计算字节数组的SHA-256散列值
+     * 
+     * @param bytes 字节数组
+     * 
+     * @return SHA-256散列值
+     */
+    public static final byte[] sha256(byte[] bytes) {
+        return DigestUtils.sha256().digest(bytes);
+    }
+    
     /**
      * 计算字符串的SHA-1散列值
      * 
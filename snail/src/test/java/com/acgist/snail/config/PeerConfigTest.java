@@ -14,7 +14,7 @@ class PeerConfigTest extends Performance {
     @Test
     void testReserved() {
         this.log(PeerConfig.RESERVED);
-        int value = PeerConfig.RESERVED_DHT_PROTOCOL + PeerConfig.RESERVED_PEER_EXCHANGE + PeerConfig.RESERVED_FAST_PROTOCOL;
+        int value = PeerConfig.RESERVED_DHT_PROTOCOL + PeerConfig.RESERVED_PEER_EXCHANGE + PeerConfig.RESERVED_FAST_PROTOCOL + PeerConfig.RESERVED_V2_PROTOCOL;
         assertEquals(value, PeerConfig.RESERVED[7]);
         assertEquals(PeerConfig.RESERVED_EXTENSION_PROTOCOL, PeerConfig.RESERVED[5]);
         value += PeerConfig.RESERVED_NAT_TRAVERSAL;
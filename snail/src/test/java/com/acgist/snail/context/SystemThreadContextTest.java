@@ -3,12 +3,15 @@ package com.acgist.snail.context;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.lang.reflect.Field;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
@@ -58,6 +61,42 @@ class SystemThreadContextTest extends Performance {
         this.log(SystemThreadContext.threadSize(128, 256));
     }
 
+    @Test
+    void testCacheExecutor() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final var executor = SystemThreadContext.newCacheExecutor(0, 60L, "ACGIST");
+        executor.submit(() -> {
+            this.log("线程：{}-{}", Thread.currentThread().getName(), Thread.currentThread().isDaemon());
+            latch.countDown();
+        });
+        latch.await();
+        assertEquals(0, latch.getCount());
+        SystemThreadContext.shutdown(executor);
+    }
+    
+    @Test
+    void testVirtualExecutor() throws Exception {
+        final var executor = SystemThreadContext.newVirtualExecutor("ACGIST");
+        if(Runtime.version().feature() < 21) {
+            // 不支持虚拟线程：使用平台线程
+            assertNull(executor);
+            final var platform = SystemThreadContext.newCacheExecutor(0, 60L, "ACGIST");
+            assertTrue(platform instanceof ThreadPoolExecutor);
+            SystemThreadContext.shutdown(platform);
+            return;
+        }
+        assertNotNull(executor);
+        final AtomicBoolean virtual = new AtomicBoolean(false);
+        final String name = executor.submit(() -> {
+            virtual.set((Boolean) Thread.class.getMethod("isVirtual").invoke(Thread.currentThread()));
+            return Thread.currentThread().getName();
+        }).get();
+        this.log("线程：{}", name);
+        assertTrue(virtual.get());
+        assertTrue(name.startsWith("ACGIST-"));
+        SystemThreadContext.shutdown(executor);
+    }
+    
     @Test
     void testRejected() throws InterruptedException {
         final int size = 8;
@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 
 import com.acgist.snail.config.DownloadConfig;
+import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.context.session.LimitSession.Type;
 import com.acgist.snail.utils.Performance;
 
@@ -38,4 +39,19 @@ class LimitSessionTest extends Performance {
         assertTrue(this.costed() >= 1000);
     }
     
+    @Test
+    void testVerifyLimit() {
+        final LimitSession session = new LimitSession(Type.VERIFY);
+        final long size = SystemConfig.getVerifyBufferByte();
+        this.log("校验限速大小：{}", size);
+        final int buffer = 4 * SystemConfig.ONE_MB;
+        this.cost();
+        long value = 0;
+        while(value < 2 * size) {
+            value += buffer;
+            session.limit(buffer);
+        }
+        assertTrue(this.costed() >= 1000);
+    }
+    
 }
@@ -0,0 +1,85 @@
+package com.acgist.snail.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.utils.Performance;
+
+class ByteBufferPoolTest extends Performance {
+    
+    @Test
+    void testBorrow() {
+        final ByteBufferPool pool = ByteBufferPool.getInstance();
+        final int outstanding = pool.outstanding();
+        final ByteBuffer buffer = pool.borrow(3000);
+        assertTrue(buffer.isDirect());
+        assertEquals(0, buffer.position());
+        assertEquals(3000, buffer.limit());
+        assertEquals(4 * 1024, buffer.capacity());
+        assertEquals(outstanding + 1, pool.outstanding());
+        buffer.put((byte) 1);
+        pool.giveBack(buffer);
+        assertEquals(outstanding, pool.outstanding());
+        final long reuseCount = pool.reuseCount();
+        final ByteBuffer reuse = pool.borrow(4096);
+        assertSame(buffer, reuse);
+        assertEquals(0, reuse.position());
+        assertEquals(4096, reuse.limit());
+        assertEquals(reuseCount + 1, pool.reuseCount());
+        pool.giveBack(reuse);
+        // 重复归还
+        pool.giveBack(reuse);
+        assertEquals(outstanding, pool.outstanding());
+        final ByteBuffer first = pool.borrow(4000);
+        final ByteBuffer second = pool.borrow(4000);
+        assertSame(reuse, first);
+        assertNotSame(first, second);
+        pool.giveBack(first);
+        pool.giveBack(second);
+        assertEquals(outstanding, pool.outstanding());
+    }
+    
+    @Test
+    void testDuplicate() {
+        final ByteBufferPool pool = ByteBufferPool.getInstance();
+        final int outstanding = pool.outstanding();
+        final ByteBuffer first = pool.borrow(2048);
+        final ByteBuffer second = pool.borrow(2048);
+        pool.giveBack(first);
+        // 其他缓冲没有归还时重复归还
+        pool.giveBack(first);
+        assertEquals(outstanding + 1, pool.outstanding());
+        final ByteBuffer reuse = pool.borrow(2048);
+        final ByteBuffer other = pool.borrow(2048);
+        assertSame(first, reuse);
+        assertNotSame(reuse, other);
+        pool.giveBack(second);
+        pool.giveBack(reuse);
+        pool.giveBack(other);
+        assertEquals(outstanding, pool.outstanding());
+    }
+    
+    @Test
+    void testLarge() {
+        final ByteBufferPool pool = ByteBufferPool.getInstance();
+        final ByteBuffer buffer = pool.borrow(ByteBufferPool.MAX_LENGTH + 1);
+        assertEquals(ByteBufferPool.MAX_LENGTH + 1, buffer.capacity());
+        final long freeSize = pool.freeSize();
+        pool.giveBack(buffer);
+        assertEquals(freeSize, pool.freeSize());
+    }
+    
+    @Test
+    void testCosted() {
+        final ByteBufferPool pool = ByteBufferPool.getInstance();
+        this.costed(100000, () -> pool.giveBack(pool.borrow(16 * 1024)));
+        this.log("新建次数：{}，复用次数：{}", pool.allocateCount(), pool.reuseCount());
+    }
+    
+}
@@ -0,0 +1,121 @@
+package com.acgist.snail.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.utils.IoUtils;
+import com.acgist.snail.utils.Performance;
+import com.acgist.snail.utils.ThreadUtils;
+
+class TcpMessageHandlerTest extends Performance {
+    
+    @Test
+    void testSend() throws Exception {
+        final int size = 10000;
+        try(final AsynchronousServerSocketChannel server = AsynchronousServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            final var accept = server.accept();
+            final AsynchronousSocketChannel client = AsynchronousSocketChannel.open();
+            client.connect(server.getLocalAddress()).get(SystemConfig.CONNECT_TIMEOUT, TimeUnit.SECONDS);
+            final TcpMessageHandler handler = new TcpMessageHandler() {
+            };
+            handler.handle(client);
+            try(final AsynchronousSocketChannel channel = accept.get(SystemConfig.CONNECT_TIMEOUT, TimeUnit.SECONDS)) {
+                // 不用等待发送完成
+                for (int index = 0; index < size; index++) {
+                    handler.send(ByteBuffer.allocate(4).putInt(index));
+                }
+                final ByteBuffer pooled = ByteBufferPool.getInstance().borrow(4);
+                pooled.putInt(size);
+                handler.send(pooled);
+                // 关闭等待发送完成
+                handler.close();
+                assertFalse(handler.available());
+                final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                final ByteBuffer buffer = ByteBuffer.allocate(SystemConfig.TCP_BUFFER_LENGTH);
+                while(channel.read(buffer).get(SystemConfig.CONNECT_TIMEOUT, TimeUnit.SECONDS) >= 0) {
+                    buffer.flip();
+                    output.write(buffer.array(), 0, buffer.limit());
+                    buffer.clear();
+                }
+                final ByteBuffer data = ByteBuffer.wrap(output.toByteArray());
+                assertEquals((size + 1) * 4, data.remaining());
+                for (int index = 0; index <= size; index++) {
+                    assertEquals(index, data.getInt());
+                }
+                assertEquals(0, handler.pendingSize());
+                assertTrue(handler.writable());
+            }
+        }
+    }
+    
+    @Test
+    void testWritable() throws Exception {
+        try(final AsynchronousServerSocketChannel server = AsynchronousServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            final var accept = server.accept();
+            final AsynchronousSocketChannel client = AsynchronousSocketChannel.open();
+            client.connect(server.getLocalAddress()).get(SystemConfig.CONNECT_TIMEOUT, TimeUnit.SECONDS);
+            final CountDownLatch latch = new CountDownLatch(1);
+            final TcpMessageHandler handler = new TcpMessageHandler() {
+                @Override
+                protected void onWritable() {
+                    latch.countDown();
+                }
+            };
+            handler.handle(client);
+            try(final AsynchronousSocketChannel channel = accept.get(SystemConfig.CONNECT_TIMEOUT, TimeUnit.SECONDS)) {
+                // 对端没有读取数据：发送数据超过高水位
+                final int size = 2 * TcpMessageHandler.WRITE_HIGH_WATER;
+                handler.send(ByteBuffer.allocate(size));
+                assertFalse(handler.writable());
+                long read = 0L;
+                final ByteBuffer buffer = ByteBuffer.allocate(SystemConfig.TCP_BUFFER_LENGTH);
+                while(read < size) {
+                    read += channel.read(buffer).get(SystemConfig.CONNECT_TIMEOUT, TimeUnit.SECONDS);
+                    buffer.clear();
+                }
+                assertTrue(latch.await(SystemConfig.CONNECT_TIMEOUT, TimeUnit.SECONDS));
+                assertTrue(handler.writable());
+                handler.close();
+            }
+        }
+    }
+    
+    @Test
+    void testSendDrop() throws Exception {
+        try(final AsynchronousServerSocketChannel server = AsynchronousServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            final var accept = server.accept();
+            final AsynchronousSocketChannel client = AsynchronousSocketChannel.open();
+            client.connect(server.getLocalAddress()).get(SystemConfig.CONNECT_TIMEOUT, TimeUnit.SECONDS);
+            final TcpMessageHandler handler = new TcpMessageHandler() {
+            };
+            handler.handle(client);
+            try(final AsynchronousSocketChannel channel = accept.get(SystemConfig.CONNECT_TIMEOUT, TimeUnit.SECONDS)) {
+                // 对端不读取数据：发送失败丢弃数据
+                new Thread(() -> {
+                    ThreadUtils.sleep(1000);
+                    IoUtils.close(client);
+                }).start();
+                final ByteBuffer buffer = ByteBuffer.allocate(32 * SystemConfig.ONE_MB);
+                assertThrows(NetException.class, () -> handler.send(buffer, SystemConfig.CONNECT_TIMEOUT));
+                assertFalse(handler.available());
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,65 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.utils.Performance;
+
+class TorrentBufferPoolTest extends Performance {
+
+    @Test
+    void testBorrow() {
+        final TorrentBufferPool pool = TorrentBufferPool.getInstance();
+        // 其他测试没有归还的缓冲
+        final long available = SystemConfig.getPieceBufferSizeByte() - pool.size() + pool.freeSize();
+        final int length = (int) (available / 2);
+        final byte[] a = pool.borrow(length);
+        final byte[] b = pool.borrow(length);
+        assertNotNull(a);
+        assertNotNull(b);
+        // 缓冲池用完
+        assertNull(pool.borrow(length));
+        assertFalse(pool.available(length));
+        pool.giveBack(a);
+        assertTrue(pool.available(length));
+        // 复用缓冲
+        assertSame(a, pool.borrow(length));
+        pool.giveBack(a);
+        pool.giveBack(b);
+        // 淘汰其他大小空闲缓冲
+        final byte[] c = pool.borrow(length + 1);
+        assertNotNull(c);
+        this.log("缓冲大小：{}-{}", pool.size(), pool.freeSize());
+        pool.giveBack(c);
+        // 不是缓冲池借出或者重复归还
+        final long size = pool.size();
+        final long freeSize = pool.freeSize();
+        pool.giveBack(new byte[length]);
+        pool.giveBack(c);
+        assertEquals(size, pool.size());
+        assertEquals(freeSize, pool.freeSize());
+    }
+    
+    @Test
+    void testRelease() {
+        final TorrentBufferPool pool = TorrentBufferPool.getInstance();
+        final TorrentPiece piece = TorrentPiece.newInstance(16 * 1024, 0, 0, 16 * 1024, null, false);
+        final long freeSize = pool.freeSize();
+        piece.retain();
+        piece.release();
+        assertNotNull(piece.getData());
+        piece.release();
+        assertNull(piece.getData());
+        assertEquals(freeSize + 16 * 1024, pool.freeSize());
+        // 释放以后不能写入
+        assertFalse(piece.write(0, new byte[16 * 1024]));
+    }
+    
+}
@@ -0,0 +1,47 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.utils.FileUtils;
+import com.acgist.snail.utils.Performance;
+
+class TorrentChannelPoolTest extends Performance {
+    
+    @Test
+    void testEvict() throws IOException {
+        final TorrentChannelPool pool = TorrentChannelPool.getInstance();
+        final String folder = "D:/tmp/snail/channel/" + System.currentTimeMillis();
+        final int size = SystemConfig.getStorageChannelSize() + 8;
+        final List<TorrentFileStorage> list = new ArrayList<>();
+        for (int index = 0; index < size; index++) {
+            final TorrentFileStorage storage = TorrentFileStorage.newInstance(folder + "/" + index);
+            storage.write(ByteBuffer.wrap(("acgist-" + index).getBytes()), 0);
+            list.add(storage);
+        }
+        assertTrue(pool.size() <= SystemConfig.getStorageChannelSize());
+        assertTrue(pool.evictCount() >= 8);
+        // 淘汰以后重新打开
+        final byte[] bytes = "acgist-0".getBytes();
+        final ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+        list.get(0).read(buffer, 0);
+        assertArrayEquals(bytes, buffer.array());
+        list.get(0).force();
+        this.log("文件句柄：{}-{}-{}-{}", pool.size(), pool.hitCount(), pool.openCount(), pool.evictCount());
+        list.forEach(TorrentFileStorage::close);
+        // 关闭以后不能读写
+        assertThrows(ClosedChannelException.class, () -> list.get(0).read(ByteBuffer.allocate(1), 0));
+        FileUtils.delete(folder);
+    }
+    
+}
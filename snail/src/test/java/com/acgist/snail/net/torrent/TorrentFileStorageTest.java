@@ -0,0 +1,119 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.net.DownloadException;
+import com.acgist.snail.utils.FileUtils;
+import com.acgist.snail.utils.Performance;
+
+class TorrentFileStorageTest extends Performance {
+
+    @Test
+    void testReadWrite() throws DownloadException, IOException {
+        final String path = "D:/tmp/snail/storage/" + System.currentTimeMillis();
+        final ITorrentStorage storage = TorrentFileStorage.newInstance(path);
+        final byte[] bytes = "acgist".getBytes();
+        assertEquals(bytes.length, storage.write(ByteBuffer.wrap(bytes), 1024));
+        assertEquals(1024 + bytes.length, storage.size());
+        final ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+        assertEquals(bytes.length, storage.read(buffer, 1024));
+        assertArrayEquals(bytes, buffer.array());
+        // 超过文件大小
+        final ByteBuffer eof = ByteBuffer.allocate(bytes.length);
+        assertEquals(2, storage.read(eof, 1024 + bytes.length - 2));
+        storage.close();
+        FileUtils.delete(path);
+    }
+    
+    @Test
+    void testWriteBuffers() throws DownloadException, IOException {
+        final String path = "D:/tmp/snail/storage/" + System.currentTimeMillis();
+        final ITorrentStorage storage = TorrentFileStorage.newInstance(path);
+        final ByteBuffer[] buffers = {
+            ByteBuffer.wrap("acgist".getBytes()),
+            ByteBuffer.wrap("snail".getBytes(), 1, 4)
+        };
+        assertEquals(10, storage.write(buffers, 1024));
+        assertEquals(1024 + 10, storage.size());
+        final ByteBuffer buffer = ByteBuffer.allocate(10);
+        storage.read(buffer, 1024);
+        assertArrayEquals("acgistnail".getBytes(), buffer.array());
+        // 集中写入以后绝对偏移写入不受通道位置影响
+        storage.write(ByteBuffer.wrap("A".getBytes()), 0);
+        assertEquals(1024 + 10, storage.size());
+        storage.close();
+        FileUtils.delete(path);
+    }
+    
+    @Test
+    void testAllocate() throws DownloadException, IOException {
+        final String path = "D:/tmp/snail/storage/" + System.currentTimeMillis();
+        final ITorrentStorage storage = TorrentFileStorage.newInstance(path);
+        final byte[] bytes = "acgist".getBytes();
+        storage.write(ByteBuffer.wrap(bytes), 1024);
+        assertTrue(storage.allocateBegin(4096));
+        final ByteBuffer buffer = ByteBuffer.allocate(1000);
+        long position = 0L;
+        while(position < 4096) {
+            buffer.clear().limit((int) Math.min(1000, 4096 - position));
+            position += storage.allocate(buffer, position);
+        }
+        storage.allocateEnd();
+        assertEquals(4096, storage.size());
+        assertFalse(storage.allocateBegin(4096));
+        // 预分配不会覆盖已经写入的数据
+        final ByteBuffer read = ByteBuffer.allocate(bytes.length);
+        storage.read(read, 1024);
+        assertArrayEquals(bytes, read.array());
+        storage.close();
+        FileUtils.delete(path);
+    }
+    
+    @Test
+    void testAllocateWrite() throws DownloadException, IOException, InterruptedException {
+        final String path = "D:/tmp/snail/storage/" + System.currentTimeMillis();
+        final ITorrentStorage storage = TorrentFileStorage.newInstance(path);
+        final int size = 1024 * 1024;
+        final byte[] bytes = new byte[1024];
+        Arrays.fill(bytes, (byte) 1);
+        // 预分配期间同时写入
+        final Thread thread = new Thread(() -> {
+            try {
+                for (int position = 0; position < size; position += 4096) {
+                    storage.write(ByteBuffer.wrap(bytes), position);
+                }
+            } catch (IOException e) {
+                this.log("写入异常", e);
+            }
+        });
+        thread.start();
+        assertTrue(storage.allocateBegin(size));
+        final ByteBuffer buffer = ByteBuffer.allocate(1000);
+        long position = 0L;
+        while(position < size) {
+            buffer.clear().limit((int) Math.min(1000, size - position));
+            position += storage.allocate(buffer, position);
+        }
+        storage.allocateEnd();
+        thread.join();
+        // 预分配不会覆盖同时写入的数据
+        final ByteBuffer read = ByteBuffer.allocate(bytes.length);
+        for (int index = 0; index < size; index += 4096) {
+            read.clear();
+            storage.read(read, index);
+            assertArrayEquals(bytes, read.array());
+        }
+        storage.close();
+        FileUtils.delete(path);
+    }
+    
+}
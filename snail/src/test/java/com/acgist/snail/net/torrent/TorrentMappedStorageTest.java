@@ -0,0 +1,34 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.net.DownloadException;
+import com.acgist.snail.utils.FileUtils;
+import com.acgist.snail.utils.Performance;
+
+class TorrentMappedStorageTest extends Performance {
+
+    @Test
+    void testReadWrite() throws DownloadException, IOException {
+        final String path = "D:/tmp/snail/storage/" + System.currentTimeMillis();
+        final ITorrentStorage storage = TorrentMappedStorage.newInstance(path, 2048);
+        assertEquals(2048, storage.size());
+        final byte[] bytes = "acgist".getBytes();
+        assertEquals(bytes.length, storage.write(ByteBuffer.wrap(bytes), 1024));
+        final ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+        assertEquals(bytes.length, storage.read(buffer, 1024));
+        assertArrayEquals(bytes, buffer.array());
+        assertThrows(IOException.class, () -> storage.write(ByteBuffer.wrap(bytes), 2046));
+        storage.close();
+        assertEquals(2048, FileUtils.fileSize(path));
+        FileUtils.delete(path);
+    }
+    
+}
@@ -0,0 +1,126 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.net.torrent.peer.PeerSession;
+import com.acgist.snail.utils.Performance;
+
+class TorrentMerkleTest extends Performance {
+    
+    /**
+     * Piece大小：两个数据块
+     */
+    private static final int PIECE_LENGTH = 2 * TorrentMerkle.BLOCK_LENGTH;
+    /**
+     * 文件大小：三个Piece（最后一个Piece只有半个数据块）
+     */
+    private static final int FILE_SIZE = 4 * TorrentMerkle.BLOCK_LENGTH + TorrentMerkle.BLOCK_LENGTH / 2;
+    
+    private byte[] data() {
+        final byte[] data = new byte[FILE_SIZE];
+        for (int index = 0; index < data.length; index++) {
+            data[index] = (byte) (index + index / TorrentMerkle.BLOCK_LENGTH);
+        }
+        return data;
+    }
+    
+    private byte[][] leaves(byte[] data) {
+        final int size = (data.length + TorrentMerkle.BLOCK_LENGTH - 1) / TorrentMerkle.BLOCK_LENGTH;
+        final byte[][] leaves = new byte[size][];
+        for (int index = 0; index < size; index++) {
+            final int offset = index * TorrentMerkle.BLOCK_LENGTH;
+            leaves[index] = TorrentMerkle.hash(data, offset, Math.min(TorrentMerkle.BLOCK_LENGTH, data.length - offset));
+        }
+        return leaves;
+    }
+    
+    private byte[] pieceLayer(byte[][] leaves) {
+        final byte[] layer = new byte[3 * TorrentMerkle.HASH_LENGTH];
+        for (int index = 0; index < 3; index++) {
+            final byte[][] hashes = Arrays.copyOfRange(leaves, index * 2, Math.min(leaves.length, index * 2 + 2));
+            System.arraycopy(TorrentMerkle.root(hashes, 2, new byte[TorrentMerkle.HASH_LENGTH]), 0, layer, index * TorrentMerkle.HASH_LENGTH, TorrentMerkle.HASH_LENGTH);
+        }
+        return layer;
+    }
+    
+    @Test
+    void testMerkle() {
+        final byte[][] leaves = this.leaves(this.data());
+        final byte[] piecesRoot = TorrentMerkle.root(leaves, 8, new byte[TorrentMerkle.HASH_LENGTH]);
+        final byte[] pieceLayer = this.pieceLayer(leaves);
+        final TorrentMerkle merkle = TorrentMerkle.newInstance(piecesRoot, pieceLayer, 0, FILE_SIZE, PIECE_LENGTH);
+        assertNotNull(merkle);
+        assertEquals(3, merkle.pieceSize());
+        assertEquals(1, merkle.blockSize(2));
+        assertEquals(2, merkle.leafSize(2));
+        assertTrue(merkle.verify(0, Arrays.copyOfRange(leaves, 0, 2)));
+        assertTrue(merkle.verify(2, Arrays.copyOfRange(leaves, 4, 5)));
+        assertFalse(merkle.verify(1, Arrays.copyOfRange(leaves, 0, 2)));
+        // Piece层Hash错误
+        pieceLayer[0]++;
+        assertNull(TorrentMerkle.newInstance(piecesRoot, pieceLayer, 0, FILE_SIZE, PIECE_LENGTH));
+        // 文件没有对齐
+        assertNull(TorrentMerkle.newInstance(piecesRoot, this.pieceLayer(leaves), 1, FILE_SIZE, PIECE_LENGTH));
+    }
+    
+    @Test
+    void testPiece() {
+        final byte[] data = this.data();
+        final byte[][] leaves = this.leaves(data);
+        final byte[] piecesRoot = TorrentMerkle.root(leaves, 8, new byte[TorrentMerkle.HASH_LENGTH]);
+        final TorrentMerkle merkle = TorrentMerkle.newInstance(piecesRoot, this.pieceLayer(leaves), 0, FILE_SIZE, PIECE_LENGTH);
+        final TorrentPiece piece = TorrentPiece.newInstance(PIECE_LENGTH, 0, 0, PIECE_LENGTH, null, false);
+        piece.merkle(merkle, 0);
+        assertTrue(piece.needLeaves());
+        // 错误数据块：收到数据块Hash以后删除
+        final byte[] bad = Arrays.copyOfRange(data, 0, TorrentMerkle.BLOCK_LENGTH);
+        bad[0]++;
+        final PeerSession source = PeerSession.newInstance(null, "192.168.1.1", 18888);
+        piece.writeSlice(0, bad, source);
+        assertNull(piece.leaves(0, new byte[][] { leaves[1], leaves[0] }));
+        final List<PeerSession> corruptPeers = piece.leaves(0, Arrays.copyOfRange(leaves, 0, 2));
+        assertEquals(List.of(source), corruptPeers);
+        assertNull(piece.source(0));
+        assertFalse(piece.needLeaves());
+        assertEquals(0, piece.getSize());
+        // 收到数据块Hash以后每个Slice单独校验
+        assertFalse(piece.verifySlice(0, bad));
+        final byte[] good = Arrays.copyOfRange(data, 0, TorrentMerkle.BLOCK_LENGTH);
+        assertTrue(piece.verifySlice(0, good));
+        piece.write(0, good);
+        piece.write(TorrentMerkle.BLOCK_LENGTH, Arrays.copyOfRange(data, TorrentMerkle.BLOCK_LENGTH, PIECE_LENGTH));
+        assertTrue(piece.completedAndVerify());
+        // 没有数据块Hash：下载完成校验整个Piece
+        final TorrentPiece last = TorrentPiece.newInstance(PIECE_LENGTH, 2, 0, TorrentMerkle.BLOCK_LENGTH / 2, null, false);
+        last.merkle(merkle, 2);
+        last.write(0, Arrays.copyOfRange(data, 4 * TorrentMerkle.BLOCK_LENGTH, FILE_SIZE));
+        assertTrue(last.completedAndVerify());
+    }
+    
+    @Test
+    void testSingleBlock() {
+        final byte[] data = Arrays.copyOf(this.data(), TorrentMerkle.BLOCK_LENGTH / 2);
+        final byte[][] leaves = this.leaves(data);
+        final byte[] piecesRoot = TorrentMerkle.root(leaves, 1, new byte[TorrentMerkle.HASH_LENGTH]);
+        final TorrentMerkle merkle = TorrentMerkle.newInstance(piecesRoot, null, 0, data.length, PIECE_LENGTH);
+        assertNotNull(merkle);
+        assertEquals(1, merkle.leafSize(0));
+        final TorrentPiece piece = TorrentPiece.newInstance(PIECE_LENGTH, 0, 0, data.length, null, false);
+        piece.merkle(merkle, 0);
+        // 只有一个数据块：不用请求数据块Hash
+        assertFalse(piece.needLeaves());
+        assertTrue(piece.verifySlice(0, data));
+        piece.write(0, data);
+        assertTrue(piece.completedAndVerify());
+    }
+    
+}
@@ -7,8 +7,12 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import org.junit.jupiter.api.Test;
 
+import com.acgist.snail.net.torrent.peer.PeerSession;
 import com.acgist.snail.utils.DigestUtils;
 import com.acgist.snail.utils.Performance;
 
@@ -33,6 +37,129 @@ class TorrentPieceTest extends Performance {
         assertTrue(piece.verify());
     }
     
+    @Test
+    void testVerifyDisorder() {
+        final byte[] verify = new byte[3 * 16 * 1024];
+        verify[0] = 1;
+        verify[16 * 1024] = 2;
+        verify[2 * 16 * 1024] = 3;
+        final TorrentPiece piece = TorrentPiece.newInstance(3 * 16 * 1024, 0, 0, 3 * 16 * 1024, DigestUtils.sha1().digest(verify), true);
+        final byte[] slice = new byte[16 * 1024];
+        // 乱序下载
+        slice[0] = 3;
+        piece.write(2 * 16 * 1024, slice.clone());
+        assertFalse(piece.verify());
+        slice[0] = 1;
+        piece.write(0, slice.clone());
+        slice[0] = 2;
+        piece.write(16 * 1024, slice.clone());
+        assertTrue(piece.completed());
+        assertTrue(piece.verify());
+        // 重复校验
+        assertTrue(piece.verify());
+    }
+    
+    @Test
+    void testResume() {
+        final TorrentPiece piece = TorrentPiece.newInstance(3 * 16 * 1024, 0, 0, 3 * 16 * 1024, null, false);
+        assertEquals(0, piece.position());
+        assertEquals(16 * 1024, piece.length());
+        assertEquals(16 * 1024, piece.position());
+        assertEquals(16 * 1024, piece.length());
+        piece.write(16 * 1024, new byte[16 * 1024]);
+        // 重复下载
+        piece.write(16 * 1024, new byte[16 * 1024]);
+        assertEquals(16 * 1024, piece.getSize());
+        piece.resume();
+        assertEquals(0, piece.position());
+        assertEquals(16 * 1024, piece.length());
+        // 跳过已经下载Slice
+        assertEquals(2 * 16 * 1024, piece.position());
+        assertEquals(16 * 1024, piece.length());
+        assertFalse(piece.hasMoreSlice());
+    }
+    
+    @Test
+    void testRetrySlice() {
+        final TorrentPiece piece = TorrentPiece.newInstance(3 * 16 * 1024, 0, 0, 3 * 16 * 1024, null, false);
+        assertEquals(0, piece.position());
+        assertEquals(16 * 1024, piece.length());
+        assertEquals(16 * 1024, piece.position());
+        assertEquals(16 * 1024, piece.length());
+        // 请求没有发送：退回请求位置
+        piece.retrySlice(16 * 1024);
+        assertEquals(16 * 1024, piece.position());
+        piece.retrySlice(4 * 16 * 1024);
+        assertEquals(16 * 1024, piece.position());
+    }
+    
+    @Test
+    void testShare() {
+        final TorrentPiece piece = TorrentPiece.newInstance(3 * 16 * 1024, 0, 0, 3 * 16 * 1024, null, false);
+        assertFalse(piece.shared());
+        assertTrue(piece.share());
+        assertTrue(piece.shared());
+        // 共享下载请求所有没有下载的Slice
+        assertTrue(piece.writeSlice(16 * 1024, new byte[16 * 1024]));
+        assertEquals(0, piece.nextSlice(0));
+        assertEquals(2 * 16 * 1024, piece.nextSlice(16 * 1024));
+        // 重复下载
+        assertFalse(piece.writeSlice(16 * 1024, new byte[16 * 1024]));
+        // 没有对齐或者长度错误：不能覆盖其他Slice
+        assertFalse(piece.writeSlice(1, new byte[16 * 1024]));
+        assertFalse(piece.writeSlice(0, new byte[2 * 16 * 1024]));
+        assertFalse(piece.writeSlice(0, new byte[16 * 1024 - 1]));
+        assertFalse(piece.writeSlice(3 * 16 * 1024, new byte[16 * 1024]));
+        assertEquals(16 * 1024, piece.getSize());
+        // 其他Peer继续下载
+        assertFalse(piece.leave());
+        piece.write(0, new byte[16 * 1024]);
+        piece.write(2 * 16 * 1024, new byte[16 * 1024]);
+        assertEquals(-1, piece.nextSlice(0));
+        assertTrue(piece.completed());
+        // 只能保存一次
+        assertTrue(piece.claim());
+        assertFalse(piece.claim());
+        assertFalse(piece.share());
+    }
+    
+    @Test
+    void testReserveSlice() {
+        final byte[] verify = new byte[2 * 16 * 1024];
+        verify[1] = 1;
+        verify[16 * 1024 + 1] = 2;
+        final TorrentPiece piece = TorrentPiece.newInstance(2 * 16 * 1024, 0, 0, 2 * 16 * 1024, DigestUtils.sha1().digest(verify), true);
+        final PeerSession source = PeerSession.newInstance(null, "192.168.1.1", 18888);
+        final PeerSession other = PeerSession.newInstance(null, "192.168.1.2", 18888);
+        // 没有对齐
+        assertFalse(piece.reserveSlice(1, 16 * 1024 - 1, source));
+        assertTrue(piece.reserveSlice(16 * 1024, 16 * 1024, source));
+        // 正在写入
+        assertFalse(piece.reserveSlice(16 * 1024, 16 * 1024, other));
+        assertFalse(piece.writeSlice(16 * 1024, new byte[16 * 1024], other));
+        final ByteBuffer buffer = ByteBuffer.wrap(verify, 16 * 1024, 16 * 1024);
+        assertFalse(piece.receiveSlice(16 * 1024, 0, buffer, 1024, other));
+        assertTrue(piece.receiveSlice(16 * 1024, 0, buffer, 1024, source));
+        assertTrue(piece.receiveSlice(16 * 1024, 1024, buffer, 15 * 1024, source));
+        assertFalse(buffer.hasRemaining());
+        assertTrue(piece.verifySlice(16 * 1024, source));
+        assertTrue(piece.commitSlice(16 * 1024, source));
+        assertFalse(piece.commitSlice(16 * 1024, source));
+        assertEquals(16 * 1024, piece.getSize());
+        assertEquals(source, piece.source(1));
+        // 取消写入
+        assertTrue(piece.reserveSlice(0, 16 * 1024, other));
+        piece.abortSlice(other);
+        assertFalse(piece.receiveSlice(0, 0, ByteBuffer.wrap(verify), 16 * 1024, other));
+        assertFalse(piece.commitSlice(0, other));
+        assertTrue(piece.writeSlice(0, Arrays.copyOf(verify, 16 * 1024), other));
+        assertTrue(piece.completed());
+        assertTrue(piece.verify());
+        // 引用释放
+        piece.release();
+        assertFalse(piece.reserveSlice(0, 16 * 1024, source));
+    }
+    
     @Test
     void testRead() {
         final int pieceLength = 1024;
@@ -0,0 +1,77 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.net.DownloadException;
+import com.acgist.snail.utils.Performance;
+
+class TorrentReadCacheTest extends Performance {
+
+    @Test
+    void testCache() throws IOException, DownloadException {
+        final TorrentReadCache cache = TorrentReadCache.getInstance();
+        // 测试文件流组：缓存单例其他测试也会使用
+        final TorrentStreamGroup group = this.buildGroup();
+        final int length = (int) (SystemConfig.getReadCacheSizeByte() / 4);
+        final long hitCount = cache.hitCount();
+        final long missCount = cache.missCount();
+        for (int index = 0; index < 4; index++) {
+            cache.put(group, index, new byte[length]);
+        }
+        // 访问以后不会被淘汰
+        assertNotNull(cache.get(group, 0));
+        cache.put(group, 4, new byte[length]);
+        assertNotNull(cache.get(group, 0));
+        assertNull(cache.get(group, 1));
+        cache.remove(group, 0);
+        assertNull(cache.get(group, 0));
+        this.log("命中率：{}", cache.hitRate());
+        assertEquals(hitCount + 2, cache.hitCount());
+        assertEquals(missCount + 2, cache.missCount());
+        // 剩余缓存：2、3、4
+        final long size = cache.size();
+        cache.remove(group);
+        assertEquals(size - 3L * length, cache.size());
+    }
+    
+    @Test
+    void testAvailable() throws IOException, DownloadException {
+        final TorrentReadCache cache = TorrentReadCache.getInstance();
+        final TorrentStreamGroup group = this.buildGroup();
+        final long maxSize = SystemConfig.getReadCacheSizeByte();
+        assertTrue(cache.available((int) (maxSize / 8)));
+        // Piece太大直接读取文件流
+        assertFalse(cache.available((int) (maxSize / 8) + 1));
+        assertFalse(cache.available((int) (maxSize * 2)));
+        // 超过缓存大小的Piece不会缓存
+        final long size = cache.size();
+        cache.put(group, 0, new byte[(int) maxSize + 1]);
+        assertEquals(size, cache.size());
+        assertNull(cache.get(group, 0));
+        cache.remove(group);
+    }
+    
+    /**
+     * 新建测试文件流组
+     * 随机文件数据：每次新建不同任务
+     * 
+     * @return 文件流组
+     */
+    private TorrentStreamGroup buildGroup() throws IOException, DownloadException {
+        final byte[] file = new byte[1024];
+        new Random().nextBytes(file);
+        return TorrentStreamGroupTest.buildGroup(Files.createTempDirectory("snail"), TorrentPiece.SLICE_LENGTH, file);
+    }
+    
+}
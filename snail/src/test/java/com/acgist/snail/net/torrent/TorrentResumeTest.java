@@ -0,0 +1,38 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.utils.FileUtils;
+import com.acgist.snail.utils.Performance;
+
+class TorrentResumeTest extends Performance {
+    
+    @Test
+    void testSaveLoad() throws Exception {
+        // 临时目录：测试不在模块目录留下文件
+        final var folder = Files.createTempDirectory("snail");
+        final String path = folder.resolve("resume.torrent").toString();
+        final BitSet pieces = new BitSet();
+        pieces.set(0, 10);
+        pieces.set(100);
+        final TorrentResume resume = TorrentResume.newInstance(path);
+        resume.save(pieces, List.of());
+        final TorrentResume load = TorrentResume.newInstance(path);
+        assertTrue(load.load());
+        assertTrue(load.available());
+        assertEquals(pieces, load.pieces());
+        assertFalse(load.contain(folder.resolve("none").toString()));
+        assertFalse(load.unchanged(folder.resolve("none").toString()));
+        this.log("快速恢复信息：{}", load);
+        FileUtils.delete(folder.toFile());
+    }
+    
+}
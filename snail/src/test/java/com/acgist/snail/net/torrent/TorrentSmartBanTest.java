@@ -0,0 +1,57 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.PeerConfig;
+import com.acgist.snail.net.torrent.peer.PeerSession;
+import com.acgist.snail.utils.Performance;
+
+class TorrentSmartBanTest extends Performance {
+    
+    private static final int PIECE_LENGTH = 2 * TorrentPiece.SLICE_LENGTH;
+    
+    private TorrentPiece piece(byte[] data, PeerSession first, PeerSession second) {
+        final TorrentPiece piece = TorrentPiece.newInstance(PIECE_LENGTH, 0, 0, PIECE_LENGTH, null, false);
+        piece.writeSlice(0, Arrays.copyOfRange(data, 0, TorrentPiece.SLICE_LENGTH), first);
+        piece.writeSlice(TorrentPiece.SLICE_LENGTH, Arrays.copyOfRange(data, TorrentPiece.SLICE_LENGTH, PIECE_LENGTH), second);
+        return piece;
+    }
+    
+    @Test
+    void testSmartBan() {
+        final TorrentSmartBan smartBan = TorrentSmartBan.newInstance();
+        final PeerSession good = PeerSession.newInstance(null, "192.168.1.1", 18888);
+        final PeerSession bad = PeerSession.newInstance(null, "192.168.1.2", 18888);
+        final PeerSession other = PeerSession.newInstance(null, "192.168.1.3", 18888);
+        final byte[] data = new byte[PIECE_LENGTH];
+        Arrays.fill(data, (byte) 1);
+        final byte[] corrupt = data.clone();
+        corrupt[TorrentPiece.SLICE_LENGTH] = 0;
+        good.piece(0);
+        for (int index = 0; index < PeerConfig.MAX_CORRUPT_TIMES; index++) {
+            // 多个来源：记录等待对比
+            smartBan.fail(this.piece(corrupt, good, bad));
+            assertTrue(smartBan.suspect(0));
+            assertEquals(0, good.availablePieces().cardinality());
+            smartBan.success(this.piece(data, other, other));
+            assertFalse(smartBan.suspect(0));
+        }
+        assertFalse(good.banned());
+        assertTrue(bad.banned());
+        assertFalse(other.banned());
+        // 单个来源：直接记录错误
+        for (int index = 0; index < PeerConfig.MAX_CORRUPT_TIMES; index++) {
+            smartBan.fail(this.piece(corrupt, other, other));
+        }
+        assertFalse(smartBan.suspect(0));
+        assertTrue(other.banned());
+        assertEquals(0, smartBan.size());
+    }
+    
+}
@@ -1,27 +1,44 @@
 package com.acgist.snail.net.torrent;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.Test;
 
+import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.context.ITaskSessionStatus.Status;
 import com.acgist.snail.context.entity.TaskEntity;
 import com.acgist.snail.context.session.TaskSession;
 import com.acgist.snail.context.wrapper.DescriptionWrapper;
+import com.acgist.snail.format.BEncodeEncoder;
 import com.acgist.snail.logger.LoggerConfig;
 import com.acgist.snail.net.DownloadException;
 import com.acgist.snail.net.NetException;
 import com.acgist.snail.protocol.Protocol.Type;
+import com.acgist.snail.utils.DigestUtils;
 import com.acgist.snail.utils.Performance;
 import com.acgist.snail.utils.ThreadUtils;
 
@@ -131,5 +148,142 @@ class TorrentStreamGroupTest extends Performance {
         final TorrentStreamGroup group = session.torrentStreamGroup();
         assertTrue(group.verify());
     }
+    
+    @Test
+    void testRead() throws IOException, DownloadException, NetException {
+        LoggerConfig.off();
+        // 两个文件：Piece跨越文件边界
+        final int pieceLength = 16 * 1024;
+        final byte[] fileA = new byte[10000];
+        final byte[] fileB = new byte[30000];
+        final Random random = new Random();
+        random.nextBytes(fileA);
+        random.nextBytes(fileB);
+        final byte[] content = new byte[fileA.length + fileB.length];
+        System.arraycopy(fileA, 0, content, 0, fileA.length);
+        System.arraycopy(fileB, 0, content, fileA.length, fileB.length);
+        final Path folder = Files.createTempDirectory("snail");
+        final TorrentStreamGroup group = TorrentStreamGroupTest.buildGroup(folder, pieceLength, fileA, fileB);
+        // 跨越文件边界
+        this.assertRead(group, content, pieceLength, 0, 8000, 4000);
+        // 完整Piece
+        this.assertRead(group, content, pieceLength, 0, 0, pieceLength);
+        // 文件边界结束
+        this.assertRead(group, content, pieceLength, 0, 0, fileA.length);
+        // 文件边界开始
+        this.assertRead(group, content, pieceLength, 0, fileA.length, 2000);
+        // 最后一个Piece
+        this.assertRead(group, content, pieceLength, 2, 0, content.length - 2 * pieceLength);
+        // 文件数据不完整：不能返回错误数据
+        try(final FileChannel channel = FileChannel.open(folder.resolve("b.bin"), StandardOpenOption.WRITE)) {
+            channel.truncate(20000);
+        }
+        assertThrows(NetException.class, () -> group.read(1, 0, pieceLength));
+    }
+    
+    @Test
+    void testVerifyLargePiece() throws IOException, DownloadException {
+        LoggerConfig.off();
+        // Piece大小超过校验读取数据块大小：Piece跨越多个数据块
+        final int pieceLength = 6 * SystemConfig.ONE_MB;
+        final byte[] file = new byte[4 * pieceLength + 1000];
+        new Random().nextBytes(file);
+        final Path folder = Files.createTempDirectory("snail");
+        final TorrentStreamGroup group = TorrentStreamGroupTest.buildGroup(folder, pieceLength, file);
+        assertTrue(group.verify());
+        assertEquals(100, group.verifyProgress());
+        // 修改中间Piece数据
+        try(final FileChannel channel = FileChannel.open(folder.resolve("a.bin"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { (byte) ~file[pieceLength + 5 * SystemConfig.ONE_MB] }), pieceLength + 5 * SystemConfig.ONE_MB);
+        }
+        assertFalse(group.verify());
+        assertFalse(group.hasPiece(1));
+        assertTrue(group.hasPiece(2));
+    }
+    
+    @Test
+    void testAwait() throws IOException, DownloadException, InterruptedException {
+        final byte[] file = new byte[1024];
+        new Random().nextBytes(file);
+        final TorrentStreamGroup group = TorrentStreamGroupTest.buildGroup(Files.createTempDirectory("snail"), TorrentPiece.SLICE_LENGTH, file);
+        assertTrue(group.await(0, 1000));
+        // 没有下载：超时
+        assertFalse(group.await(1, 10));
+        // 下载完成唤醒等待
+        group.undone(0);
+        final Thread thread = new Thread(() -> {
+            ThreadUtils.sleep(100);
+            group.done(0);
+        });
+        thread.start();
+        assertTrue(group.await(0, 5000));
+        thread.join();
+        // 线程中断：不能当作超时
+        Thread.currentThread().interrupt();
+        assertThrows(InterruptedException.class, () -> group.await(1, 1000));
+    }
+    
+    /**
+     * 新建已经下载完成的任务文件流
+     * 
+     * @param folder      下载目录
+     * @param pieceLength Piece大小
+     * @param files       文件数据（文件名称：a.bin、b.bin...）
+     * 
+     * @return 文件流
+     */
+    static final TorrentStreamGroup buildGroup(Path folder, int pieceLength, byte[] ... files) throws IOException, DownloadException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final List<Map<String, Object>> fileList = new ArrayList<>();
+        for (int index = 0; index < files.length; index++) {
+            final String name = (char) ('a' + index) + ".bin";
+            Files.write(folder.resolve(name), files[index]);
+            output.write(files[index]);
+            fileList.add(Map.of(TorrentFile.ATTR_LENGTH, (long) files[index].length, TorrentFile.ATTR_PATH, List.of(name)));
+        }
+        final byte[] content = output.toByteArray();
+        final ByteBuffer pieces = ByteBuffer.allocate((content.length + pieceLength - 1) / pieceLength * 20);
+        for (int pos = 0; pos < content.length; pos += pieceLength) {
+            final MessageDigest digest = DigestUtils.sha1();
+            digest.update(content, pos, Math.min(pieceLength, content.length - pos));
+            pieces.put(digest.digest());
+        }
+        final Map<String, Object> info = new LinkedHashMap<>();
+        info.put(TorrentInfo.ATTR_FILES, fileList);
+        info.put(TorrentInfo.ATTR_NAME, "acgist");
+        info.put(TorrentInfo.ATTR_PIECE_LENGTH, (long) pieceLength);
+        info.put(TorrentInfo.ATTR_PIECES, pieces.array());
+        final Path torrentPath = folder.resolve("acgist.torrent");
+        Files.write(torrentPath, BEncodeEncoder.encodeMap(Map.of(Torrent.ATTR_INFO, info)));
+        final TorrentSession session = TorrentContext.getInstance().newTorrentSession(torrentPath.toString());
+        final TaskEntity entity = new TaskEntity();
+        entity.setFile(folder.toString());
+        entity.setType(Type.TORRENT);
+        entity.setName("acgist");
+        entity.setStatus(Status.COMPLETED);
+        final List<String> list = new ArrayList<>();
+        session.torrent().getInfo().files().forEach(file -> {
+            file.selected(true);
+            list.add(file.path());
+        });
+        entity.setDescription(DescriptionWrapper.newEncoder(list).serialize());
+        session.upload(TaskSession.newInstance(entity));
+        return session.torrentStreamGroup();
+    }
+    
+    private void assertRead(TorrentStreamGroup group, byte[] content, int pieceLength, int index, int begin, int length) throws NetException {
+        final int pos = index * pieceLength + begin;
+        final byte[] expected = Arrays.copyOfRange(content, pos, pos + length);
+        // 数组读取
+        assertArrayEquals(expected, group.read(index, begin, length));
+        // 直接缓冲读取：缓冲位置不在开始位置
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(length + 8);
+        buffer.position(8);
+        group.read(index, begin, buffer);
+        assertEquals(buffer.limit(), buffer.position());
+        final byte[] bytes = new byte[length];
+        buffer.get(8, bytes);
+        assertArrayEquals(expected, bytes);
+    }
 
 }
@@ -0,0 +1,81 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.utils.Performance;
+
+class TorrentStreamingTest extends Performance {
+    
+    @Test
+    void testWindow() {
+        final TorrentStreaming streaming = TorrentStreaming.newInstance(100);
+        assertFalse(streaming.streaming());
+        streaming.seek(10);
+        assertTrue(streaming.streaming());
+        assertEquals(10 + SystemConfig.getStreamingWindow() - 1, streaming.end());
+        // 结束位置不能超过Piece数量
+        streaming.seek(98);
+        assertEquals(99, streaming.end());
+        streaming.seek(-1);
+        assertFalse(streaming.streaming());
+    }
+    
+    @Test
+    void testCursors() {
+        final TorrentStreaming streaming = TorrentStreaming.newInstance(100);
+        // 主要读取和尾部探测同时读取
+        streaming.seek(-1, 10);
+        streaming.seek(-1, 90);
+        assertEquals(10, streaming.cursor());
+        streaming.seek(10, 11);
+        assertEquals(11, streaming.cursor());
+        // 读取位置低于主要读取
+        streaming.seek(90, 5);
+        assertEquals(5, streaming.cursor());
+        // 尾部探测结束不会关闭边下边播
+        streaming.seek(5, -1);
+        assertTrue(streaming.streaming());
+        assertEquals(11, streaming.cursor());
+        // 相同读取位置计数
+        streaming.seek(-1, 11);
+        streaming.seek(11, -1);
+        assertEquals(11, streaming.cursor());
+        streaming.seek(11, -1);
+        assertFalse(streaming.streaming());
+    }
+    
+    @Test
+    void testRequest() {
+        final TorrentStreaming streaming = TorrentStreaming.newInstance(100);
+        streaming.seek(0);
+        final long now = System.currentTimeMillis();
+        assertTrue(streaming.requestable(0, now));
+        streaming.request(0, now);
+        assertFalse(streaming.requestable(0, now));
+        // 超过截止时间可以重复请求
+        final long deadline = Math.max(streaming.deadline(0), now + 2 * SystemConfig.ONE_SECOND_MILLIS);
+        assertTrue(streaming.requestable(0, deadline + 1));
+        streaming.remove(0);
+        assertTrue(streaming.requestable(0, now));
+        // 跳转以后删除窗口以外的请求
+        streaming.request(1, now);
+        streaming.seek(50);
+        streaming.seek(0);
+        assertTrue(streaming.requestable(1, now));
+    }
+    
+    @Test
+    void testFast() {
+        final TorrentStreaming streaming = TorrentStreaming.newInstance(100);
+        assertTrue(streaming.fast(1024));
+        assertTrue(streaming.fast(1024));
+        assertFalse(streaming.fast(0));
+        this.log("快速Peer：{}", streaming.fast(2048));
+    }
+    
+}
@@ -1,8 +1,14 @@
 package com.acgist.snail.net.torrent.codec;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.ByteBuffer;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
 import org.junit.jupiter.api.Test;
 
 import com.acgist.snail.net.NetException;
@@ -43,6 +49,32 @@ class MSECipherTest extends Performance {
         assertArrayEquals(sender.encrypt(data), recver.decrypt(data));
     }
 
+    @Test
+    void testARC4() throws Exception {
+        final byte[] key = ArrayUtils.random(20);
+        final byte[] data = ArrayUtils.random(4096);
+        // 对比JDK实现
+        final Cipher cipher = Cipher.getInstance("ARCFOUR/ECB/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "ARCFOUR"));
+        cipher.update(new byte[1024]);
+        final byte[] expected = cipher.update(data);
+        final var arc4 = MSECipher.ARC4.newInstance(key, 1024);
+        // 堆内存：读模式
+        final ByteBuffer heap = ByteBuffer.wrap(data.clone(), 0, 1000);
+        arc4.update(heap);
+        assertEquals(0, heap.position());
+        assertEquals(1000, heap.limit());
+        // 直接内存：写模式
+        final ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data, 1000, data.length - 1000);
+        arc4.update(direct);
+        assertEquals(data.length - 1000, direct.position());
+        final byte[] actual = new byte[data.length];
+        System.arraycopy(heap.array(), 0, actual, 0, 1000);
+        direct.flip().get(actual, 1000, data.length - 1000);
+        assertArrayEquals(expected, actual);
+    }
+    
     @Test
     void testCosted() throws NetException {
         final byte[] secret = ArrayUtils.random(16);
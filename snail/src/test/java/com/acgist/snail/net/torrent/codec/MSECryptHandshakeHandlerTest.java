@@ -3,11 +3,22 @@ package com.acgist.snail.net.torrent.codec;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.Queue;
 
 import org.junit.jupiter.api.Test;
 
+import com.acgist.snail.net.NetException;
+import com.acgist.snail.net.torrent.IEncryptMessageSender;
+import com.acgist.snail.net.torrent.TorrentContext;
+import com.acgist.snail.net.torrent.TorrentSession;
+import com.acgist.snail.net.torrent.peer.PeerSession;
+import com.acgist.snail.net.torrent.peer.PeerSubMessageHandler;
+import com.acgist.snail.utils.ArrayUtils;
 import com.acgist.snail.utils.Performance;
+import com.acgist.snail.utils.StringUtils;
 
 class MSECryptHandshakeHandlerTest extends Performance {
 
@@ -48,6 +59,84 @@ class MSECryptHandshakeHandlerTest extends Performance {
         this.log(this.buffer);
     }
 
+    @Test
+    void testChunkedHandshake() throws Exception {
+        final String infoHashHex = StringUtils.hex(ArrayUtils.random(20));
+        final TorrentSession torrentSession = TorrentContext.getInstance().newTorrentSession(infoHashHex, null);
+        final QueueSender clientSender = new QueueSender();
+        final QueueSender serverSender = new QueueSender();
+        final PeerSubMessageHandler clientHandler = PeerSubMessageHandler.newInstance(PeerSession.newInstance(null, "192.168.1.1", 18888), torrentSession)
+            .messageEncryptSender(clientSender);
+        final PeerSubMessageHandler serverHandler = PeerSubMessageHandler.newInstance()
+            .messageEncryptSender(serverSender);
+        final MSECryptHandshakeHandler client = MSECryptHandshakeHandler.newInstance(new PeerUnpackMessageCodec(clientHandler), clientHandler);
+        final MSECryptHandshakeHandler server = MSECryptHandshakeHandler.newInstance(new PeerUnpackMessageCodec(serverHandler), serverHandler);
+        client.handshake();
+        // 每次只投递少量数据：PadB和VC分多次读取
+        while(!(client.completed() && server.completed())) {
+            if(clientSender.messages.isEmpty() && serverSender.messages.isEmpty()) {
+                break;
+            }
+            this.deliver(clientSender, server, 64);
+            this.deliver(serverSender, client, 7);
+        }
+        assertTrue(client.completed());
+        assertTrue(server.completed());
+    }
+    
+    private void deliver(QueueSender sender, MSECryptHandshakeHandler handler, int size) throws NetException {
+        ByteBuffer message;
+        while((message = sender.messages.poll()) != null) {
+            // 握手完成后剩余数据交给Peer消息处理器
+            while(message.hasRemaining() && !handler.completed()) {
+                final byte[] bytes = new byte[Math.min(size, message.remaining())];
+                message.get(bytes);
+                handler.handshake(ByteBuffer.wrap(bytes));
+            }
+        }
+    }
+    
+    /**
+     * 记录发送消息
+     */
+    private static final class QueueSender implements IEncryptMessageSender {
+        
+        private final Queue<ByteBuffer> messages = new LinkedList<>();
+        
+        @Override
+        public boolean available() {
+            return true;
+        }
+        
+        @Override
+        public void send(ByteBuffer buffer, int timeout) throws NetException {
+            if(buffer.position() != 0) {
+                buffer.flip();
+            }
+            this.messages.add(buffer);
+        }
+        
+        @Override
+        public void sendEncrypt(ByteBuffer buffer, int timeout) throws NetException {
+            this.send(buffer, timeout);
+        }
+        
+        @Override
+        public InetSocketAddress remoteSocketAddress() {
+            return null;
+        }
+        
+        @Override
+        public void close() {
+        }
+        
+        @Override
+        public ConnectType connectType() {
+            return ConnectType.TCP;
+        }
+        
+    }
+    
     // 完全复制方法
     boolean match(byte[] bytes) {
         final int length = bytes.length;
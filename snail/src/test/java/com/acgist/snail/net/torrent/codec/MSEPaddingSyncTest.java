@@ -40,6 +40,25 @@ class MSEPaddingSyncTest extends Performance {
 //      sync.allPadding().forEach(bytes -> this.log("内容：" + new String(bytes)));
     }
     
+    @Test
+    void testSplitLength() throws PacketSizeException {
+        final MSEPaddingSync sync = MSEPaddingSync.newInstance(1);
+        final ByteBuffer buffer = ByteBuffer.allocate(100);
+        // 数据长度分两次接收
+        buffer.put((byte) 0);
+        buffer.flip();
+        assertFalse(sync.sync(buffer));
+        buffer.compact();
+        buffer.put((byte) 4).put("12".getBytes());
+        buffer.flip();
+        assertFalse(sync.sync(buffer));
+        buffer.compact();
+        buffer.put("34".getBytes());
+        buffer.flip();
+        assertTrue(sync.sync(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+    
     @Test
     void testCosted() throws NetException {
         this.costed(100000, () -> {
@@ -0,0 +1,217 @@
+package com.acgist.snail.net.torrent.codec;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.PeerConfig;
+import com.acgist.snail.net.NetException;
+import com.acgist.snail.net.PacketSizeException;
+import com.acgist.snail.net.torrent.IPeerUnpackMessageDecoder;
+import com.acgist.snail.utils.Performance;
+
+class PeerUnpackMessageCodecTest extends Performance {
+
+    /**
+     * 直接写入的Piece索引
+     */
+    private static final int DIRECT_INDEX = 1;
+    
+    @Test
+    void testDecode() throws NetException {
+        final Random random = new Random();
+        final byte[] handshake = this.bytes(random, PeerConfig.HANDSHAKE_LENGTH);
+        final byte[] have = ByteBuffer.allocate(5).put(PeerConfig.Type.HAVE.getId()).putInt(10).array();
+        // 消息长度等于piece消息头部长度
+        final byte[] extension = ByteBuffer.allocate(9).put(PeerConfig.Type.EXTENSION.getId()).put(this.bytes(random, 8)).array();
+        // 消息长度大于piece消息头部长度：不是piece消息
+        final byte[] cancel = ByteBuffer.allocate(13).put(PeerConfig.Type.CANCEL.getId()).putInt(1).putInt(2).putInt(3).array();
+        // 直接写入
+        final byte[] directData = this.bytes(random, 1000);
+        final byte[] direct = this.piece(DIRECT_INDEX, 16384, directData);
+        // 不能直接写入：使用消息缓存
+        final byte[] buffered = this.piece(DIRECT_INDEX + 1, 0, this.bytes(random, 300));
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.writeBytes(handshake);
+        this.message(output, have);
+        this.message(output, new byte[0]);
+        this.message(output, extension);
+        this.message(output, direct);
+        this.message(output, cancel);
+        this.message(output, new byte[0]);
+        this.message(output, buffered);
+        final byte[] stream = output.toByteArray();
+        final List<byte[]> messages = List.of(handshake, have, extension, cancel, buffered);
+        // 一次读取
+        this.assertDecode(stream, new int[] { stream.length }, messages, directData);
+        // 每次读取一个字节
+        final int[] single = new int[stream.length];
+        for (int index = 0; index < single.length; index++) {
+            single[index] = 1;
+        }
+        this.assertDecode(stream, single, messages, directData);
+        // 随机拆分
+        for (int count = 0; count < 1000; count++) {
+            final List<Integer> list = new ArrayList<>();
+            int remaining = stream.length;
+            while(remaining > 0) {
+                final int length = Math.min(remaining, 1 + random.nextInt(32));
+                list.add(length);
+                remaining -= length;
+            }
+            this.assertDecode(stream, list.stream().mapToInt(Integer::intValue).toArray(), messages, directData);
+        }
+    }
+    
+    @Test
+    void testPacketSize() {
+        final PeerUnpackMessageCodec codec = new PeerUnpackMessageCodec(new Decoder(true));
+        final ByteBuffer buffer = ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE).flip();
+        assertThrows(PacketSizeException.class, () -> codec.decode(buffer));
+    }
+    
+    /**
+     * 按照拆分长度读取消息
+     * 
+     * @param stream     消息数据
+     * @param splits     拆分长度
+     * @param messages   处理消息
+     * @param directData 直接写入数据
+     */
+    private void assertDecode(byte[] stream, int[] splits, List<byte[]> messages, byte[] directData) throws NetException {
+        final Decoder decoder = new Decoder(false);
+        final PeerUnpackMessageCodec codec = new PeerUnpackMessageCodec(decoder);
+        int position = 0;
+        for (int split : splits) {
+            codec.decode(ByteBuffer.wrap(stream, position, split).slice());
+            position += split;
+        }
+        assertEquals(2, decoder.keepAlive);
+        assertEquals(messages.size(), decoder.messages.size());
+        for (int index = 0; index < messages.size(); index++) {
+            assertArrayEquals(messages.get(index), decoder.messages.get(index));
+        }
+        assertArrayEquals(directData, decoder.piece);
+        assertEquals(directData.length, decoder.pieceEnd);
+    }
+    
+    /**
+     * @param random 随机数
+     * @param length 长度
+     * 
+     * @return 随机数据
+     */
+    private byte[] bytes(Random random, int length) {
+        final byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+    
+    /**
+     * @param index Piece索引
+     * @param begin Piece内偏移
+     * @param data  Piece数据
+     * 
+     * @return piece消息
+     */
+    private byte[] piece(int index, int begin, byte[] data) {
+        return ByteBuffer.allocate(9 + data.length)
+            .put(PeerConfig.Type.PIECE.getId())
+            .putInt(index)
+            .putInt(begin)
+            .put(data)
+            .array();
+    }
+    
+    /**
+     * 写入消息：消息长度 + 消息
+     * 
+     * @param output  输出
+     * @param message 消息
+     */
+    private void message(ByteArrayOutputStream output, byte[] message) {
+        output.writeBytes(ByteBuffer.allocate(Integer.BYTES).putInt(message.length).array());
+        output.writeBytes(message);
+    }
+    
+    /**
+     * 记录拆包结果
+     */
+    private static final class Decoder implements IPeerUnpackMessageDecoder {
+
+        /**
+         * 是否处理握手消息
+         */
+        private boolean handshakeRecv;
+        /**
+         * 心跳消息数量
+         */
+        private int keepAlive;
+        /**
+         * 直接写入数据
+         */
+        private byte[] piece;
+        /**
+         * 完成直接写入数据长度
+         */
+        private int pieceEnd;
+        /**
+         * 处理消息
+         */
+        private final List<byte[]> messages = new ArrayList<>();
+        
+        /**
+         * @param handshakeRecv 是否处理握手消息
+         */
+        private Decoder(boolean handshakeRecv) {
+            this.handshakeRecv = handshakeRecv;
+        }
+        
+        @Override
+        public void onMessage(ByteBuffer message) {
+            final byte[] bytes = new byte[message.remaining()];
+            message.get(bytes);
+            this.messages.add(bytes);
+            this.handshakeRecv = true;
+        }
+        
+        @Override
+        public boolean handshakeRecv() {
+            return this.handshakeRecv;
+        }
+        
+        @Override
+        public void keepAlive() {
+            this.keepAlive++;
+        }
+        
+        @Override
+        public boolean pieceBegin(int index, int begin, int length) {
+            if(index != DIRECT_INDEX) {
+                return false;
+            }
+            this.piece = new byte[length];
+            return true;
+        }
+        
+        @Override
+        public void pieceReceive(int begin, int position, ByteBuffer buffer, int length) {
+            buffer.get(this.piece, position, length);
+        }
+        
+        @Override
+        public void pieceEnd(int index, int begin, int length) {
+            this.pieceEnd = length;
+        }
+        
+    }
+    
+}
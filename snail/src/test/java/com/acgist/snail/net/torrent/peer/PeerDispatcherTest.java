@@ -0,0 +1,42 @@
+package com.acgist.snail.net.torrent.peer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.utils.Performance;
+
+class PeerDispatcherTest extends Performance {
+    
+    @Test
+    void testDispatch() throws InterruptedException {
+        final int size = 10000;
+        final PeerDispatcher dispatcher = PeerDispatcher.getInstance();
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+        final CountDownLatch latch = new CountDownLatch(size);
+        for (int index = 0; index < size; index++) {
+            dispatcher.dispatch(() -> {
+                threads.add(Thread.currentThread().getName());
+                latch.countDown();
+            });
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        // 线程数量和任务数量无关
+        assertTrue(threads.size() <= SystemThreadContext.threadSize(2, 4));
+        this.log("调度线程：{}", threads);
+        final CountDownLatch timeout = new CountDownLatch(1);
+        final long begin = System.currentTimeMillis();
+        dispatcher.schedule(100, timeout::countDown);
+        assertTrue(timeout.await(2, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - begin >= 100);
+        assertEquals(0, timeout.getCount());
+    }
+    
+}
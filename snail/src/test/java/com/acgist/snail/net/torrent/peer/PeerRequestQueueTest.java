@@ -0,0 +1,76 @@
+package com.acgist.snail.net.torrent.peer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.net.torrent.TorrentPiece;
+import com.acgist.snail.utils.Performance;
+
+class PeerRequestQueueTest extends Performance {
+
+    @Test
+    void testRequest() {
+        final PeerRequestQueue queue = PeerRequestQueue.newInstance();
+        int begin = 0;
+        while(queue.available()) {
+            queue.request(1, begin, TorrentPiece.SLICE_LENGTH);
+            begin += TorrentPiece.SLICE_LENGTH;
+        }
+        assertEquals(queue.size(), queue.requestSize());
+        assertFalse(queue.response(2, 0, TorrentPiece.SLICE_LENGTH));
+        // 数据长度和请求不一致
+        assertFalse(queue.response(1, 0, TorrentPiece.SLICE_LENGTH + 1));
+        assertFalse(queue.response(1, 0, TorrentPiece.SLICE_LENGTH - 1));
+        assertTrue(queue.response(1, 0, TorrentPiece.SLICE_LENGTH));
+        assertFalse(queue.response(1, 0, TorrentPiece.SLICE_LENGTH));
+        assertTrue(queue.available());
+        final var requests = queue.clear();
+        assertEquals(0, queue.requestSize());
+        assertEquals(queue.size() - 1, requests.size());
+        requests.forEach(request -> {
+            assertEquals(1, request.index());
+            assertTrue(request.begin() > 0);
+            assertEquals(TorrentPiece.SLICE_LENGTH, request.length());
+        });
+    }
+    
+    @Test
+    void testCancelPiece() {
+        final PeerRequestQueue queue = PeerRequestQueue.newInstance();
+        queue.request(1, 0, TorrentPiece.SLICE_LENGTH);
+        queue.request(1, TorrentPiece.SLICE_LENGTH, TorrentPiece.SLICE_LENGTH);
+        queue.request(2, 0, TorrentPiece.SLICE_LENGTH);
+        assertTrue(queue.cancel(1, 0));
+        final var requests = queue.cancel(1);
+        assertEquals(1, requests.size());
+        assertEquals(TorrentPiece.SLICE_LENGTH, requests.get(0).begin());
+        assertEquals(1, queue.requestSize());
+        assertTrue(queue.response(2, 0, TorrentPiece.SLICE_LENGTH));
+    }
+    
+    @Test
+    void testResize() throws InterruptedException {
+        final PeerRequestQueue queue = PeerRequestQueue.newInstance();
+        queue.maxSize(16);
+        final int size = queue.size();
+        int begin = 0;
+        final long endTime = System.currentTimeMillis() + 1200;
+        while(System.currentTimeMillis() < endTime) {
+            while(queue.available()) {
+                queue.request(1, begin, TorrentPiece.SLICE_LENGTH);
+                begin += TorrentPiece.SLICE_LENGTH;
+            }
+            Thread.sleep(10);
+            for (int index = queue.requestSize(); index > 0; index--) {
+                queue.response(1, begin - index * TorrentPiece.SLICE_LENGTH, TorrentPiece.SLICE_LENGTH);
+            }
+        }
+        this.log("请求队列长度：{}-{}-{}", queue.size(), queue.rtt(), queue.rate());
+        assertTrue(queue.size() > size);
+        assertTrue(queue.size() <= 16);
+    }
+    
+}
@@ -1,18 +1,30 @@
 package com.acgist.snail.net.torrent.peer;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.jupiter.api.Test;
 
+import com.acgist.snail.config.PeerConfig;
 import com.acgist.snail.context.ITaskSessionStatus.Status;
 import com.acgist.snail.context.StatisticsContext;
 import com.acgist.snail.context.entity.TaskEntity;
 import com.acgist.snail.context.session.TaskSession;
 import com.acgist.snail.net.DownloadException;
+import com.acgist.snail.net.NetException;
+import com.acgist.snail.net.torrent.IEncryptMessageSender;
 import com.acgist.snail.net.torrent.TorrentContext;
+import com.acgist.snail.net.torrent.TorrentMerkle;
+import com.acgist.snail.net.torrent.TorrentPiece;
 import com.acgist.snail.net.torrent.TorrentSession;
 import com.acgist.snail.protocol.Protocol.Type;
+import com.acgist.snail.utils.ArrayUtils;
 import com.acgist.snail.utils.Performance;
+import com.acgist.snail.utils.StringUtils;
 
 class PeerSubMessageHandlerTest extends Performance {
 
@@ -36,4 +48,68 @@ class PeerSubMessageHandlerTest extends Performance {
         assertNotNull(handler);
     }
     
+    @Test
+    void testHashRequest() throws DownloadException {
+        final TorrentSession session = TorrentContext.getInstance().newTorrentSession(StringUtils.hex(ArrayUtils.random(20)), null);
+        final PeerSession peerSession = PeerSession.newInstance(null, "192.168.1.1", 18888);
+        final byte[] reserved = new byte[PeerConfig.RESERVED_LENGTH];
+        reserved[7] |= PeerConfig.RESERVED_V2_PROTOCOL;
+        peerSession.reserved(reserved);
+        final AtomicInteger count = new AtomicInteger(0);
+        final PeerSubMessageHandler handler = PeerSubMessageHandler.newInstance(peerSession, session)
+            .messageEncryptSender(new CountSender(count));
+        final byte[] piecesRoot = new byte[TorrentMerkle.HASH_LENGTH];
+        // 只有一个数据块：不用请求数据块Hash
+        final TorrentPiece single = TorrentPiece.newInstance(2 * TorrentMerkle.BLOCK_LENGTH, 0, 0, TorrentMerkle.BLOCK_LENGTH, null, false);
+        single.merkle(TorrentMerkle.newInstance(piecesRoot, null, 0, TorrentMerkle.BLOCK_LENGTH, 2 * TorrentMerkle.BLOCK_LENGTH), 0);
+        handler.hashRequest(single);
+        assertEquals(0, count.get());
+        final TorrentPiece multiple = TorrentPiece.newInstance(2 * TorrentMerkle.BLOCK_LENGTH, 0, 0, 2 * TorrentMerkle.BLOCK_LENGTH, null, false);
+        multiple.merkle(TorrentMerkle.newInstance(piecesRoot, null, 0, 2 * TorrentMerkle.BLOCK_LENGTH, 2 * TorrentMerkle.BLOCK_LENGTH), 0);
+        handler.hashRequest(multiple);
+        assertEquals(1, count.get());
+    }
+    
+    /**
+     * 记录发送消息数量
+     */
+    private static final class CountSender implements IEncryptMessageSender {
+        
+        private final AtomicInteger count;
+        
+        private CountSender(AtomicInteger count) {
+            this.count = count;
+        }
+        
+        @Override
+        public boolean available() {
+            return true;
+        }
+        
+        @Override
+        public void send(ByteBuffer buffer, int timeout) throws NetException {
+            this.count.incrementAndGet();
+        }
+        
+        @Override
+        public void sendEncrypt(ByteBuffer buffer, int timeout) throws NetException {
+            this.count.incrementAndGet();
+        }
+        
+        @Override
+        public InetSocketAddress remoteSocketAddress() {
+            return null;
+        }
+        
+        @Override
+        public void close() {
+        }
+        
+        @Override
+        public ConnectType connectType() {
+            return ConnectType.TCP;
+        }
+        
+    }
+    
 }
@@ -0,0 +1,84 @@
+package com.acgist.snail.net.torrent.peer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.net.torrent.TorrentPiece;
+import com.acgist.snail.net.torrent.TorrentReader;
+import com.acgist.snail.utils.Performance;
+
+class PeerUploadQueueTest extends Performance {
+    
+    @Test
+    void testCancel() {
+        final PeerUploadQueue queue = PeerUploadQueue.newInstance();
+        final int size = TorrentReader.getInstance().size();
+        assertTrue(queue.offer(1, 0, TorrentPiece.SLICE_LENGTH));
+        assertTrue(queue.offer(1, TorrentPiece.SLICE_LENGTH, TorrentPiece.SLICE_LENGTH));
+        assertEquals(size + 2, TorrentReader.getInstance().size());
+        assertFalse(queue.cancel(2, 0, TorrentPiece.SLICE_LENGTH));
+        assertTrue(queue.cancel(1, 0, TorrentPiece.SLICE_LENGTH));
+        assertFalse(queue.cancel(1, 0, TorrentPiece.SLICE_LENGTH));
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.clear().size());
+        assertEquals(0, queue.size());
+        // 取消和清空释放上传队列
+        assertEquals(size, TorrentReader.getInstance().size());
+    }
+    
+    @Test
+    void testSchedule() {
+        final PeerUploadQueue queue = PeerUploadQueue.newInstance();
+        final int size = TorrentReader.getInstance().size();
+        assertFalse(queue.schedule());
+        int begin = 0;
+        while(queue.offer(1, begin, TorrentPiece.SLICE_LENGTH)) {
+            begin += TorrentPiece.SLICE_LENGTH;
+        }
+        assertEquals(ExtensionMessageHandler.DEFAULT_REQQ, queue.size());
+        assertTrue(queue.schedule());
+        // 同时只有一个上传调度
+        assertFalse(queue.schedule());
+        while(queue.poll() != null) {
+        }
+        assertNull(queue.poll());
+        assertEquals(size, TorrentReader.getInstance().size());
+        assertTrue(queue.offer(1, 0, TorrentPiece.SLICE_LENGTH));
+        assertTrue(queue.schedule());
+        queue.clear();
+    }
+    
+    @Test
+    void testExecute() {
+        final PeerUploadQueue queue = PeerUploadQueue.newInstance();
+        final int size = TorrentReader.getInstance().size();
+        assertTrue(queue.offer(1, 0, TorrentPiece.SLICE_LENGTH));
+        assertTrue(queue.offer(1, TorrentPiece.SLICE_LENGTH, TorrentPiece.SLICE_LENGTH));
+        assertTrue(queue.schedule());
+        // 读取异常
+        assertTrue(queue.execute(Runnable::run, () -> {
+            queue.poll();
+            throw new IllegalStateException("读取失败");
+        }));
+        assertEquals(0, queue.size());
+        assertEquals(size, TorrentReader.getInstance().size());
+        assertTrue(queue.offer(1, 0, TorrentPiece.SLICE_LENGTH));
+        assertTrue(queue.schedule());
+        // 拒绝任务
+        assertFalse(queue.execute(runnable -> {
+            throw new RejectedExecutionException("拒绝任务");
+        }, () -> {}));
+        assertEquals(0, queue.size());
+        assertEquals(size, TorrentReader.getInstance().size());
+        assertTrue(queue.offer(1, 0, TorrentPiece.SLICE_LENGTH));
+        assertTrue(queue.schedule());
+        queue.clear();
+    }
+    
+}